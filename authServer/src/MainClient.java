@@ -1,12 +1,22 @@
 import bg.sofia.uni.fmi.mjt.authserver.client.Client;
+import bg.sofia.uni.fmi.mjt.authserver.server.TlsContexts;
 
+import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.nio.file.Path;
 
 // Press Shift twice to open the Search Everywhere dialog and type `show whitespaces`,
 // then press Enter. You can now see whitespace characters in your code.
 public class MainClient {
+    // connects over TLS when started with -Dauth.tls.truststore=<pkcs12 file> -Dauth.tls.password=<password>
     public static void main(String[] args) throws IOException {
-        Client client = new Client(7777, "data/clientLogs");
+        String trustStore = System.getProperty("auth.tls.truststore");
+        SSLContext tls = null;
+        if (trustStore != null) {
+            char[] password = System.getProperty("auth.tls.password", "").toCharArray();
+            tls = TlsContexts.forClient(Path.of(trustStore), password);
+        }
+        Client client = new Client(7777, "data/clientLogs", tls);
         client.start();
     }
 }
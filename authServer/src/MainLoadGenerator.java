@@ -0,0 +1,26 @@
+import bg.sofia.uni.fmi.mjt.authserver.client.LoadGenerator;
+import bg.sofia.uni.fmi.mjt.authserver.client.LoadSettings;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// usage: MainLoadGenerator [--port 7777] [--connections 1000] [--rate 2000] [--duration 30] [--warmup 5]
+//                          [--mix register=1,login=4,logout=2,update-user=2,delete-user=1]
+public class MainLoadGenerator {
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        LoadSettings settings = new LoadSettings("localhost",
+                Integer.parseInt(options.getOrDefault("--port", "7777")),
+                Integer.parseInt(options.getOrDefault("--connections", "1000")),
+                Integer.parseInt(options.getOrDefault("--rate", "2000")),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("--duration", "30"))),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("--warmup", "5"))),
+                LoadSettings.parseMix(options.getOrDefault("--mix",
+                        "register=1,login=4,logout=2,update-user=2,delete-user=1")));
+        new LoadGenerator(settings).run().print(System.out);
+    }
+}
@@ -1,16 +1,53 @@
 import bg.sofia.uni.fmi.mjt.authserver.server.Server;
+import bg.sofia.uni.fmi.mjt.authserver.server.TlsContexts;
+import bg.sofia.uni.fmi.mjt.authserver.session.SessionManager;
+import bg.sofia.uni.fmi.mjt.authserver.session.SessionManagerApi;
+import bg.sofia.uni.fmi.mjt.authserver.session.SharedSessionManager;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
 
 // Press Shift twice to open the Search Everywhere dialog and type `show whitespaces`,
 // then press Enter. You can now see whitespace characters in your code.
 public class MainServer {
+    private static final long MAX_REPLICA_STALENESS = TimeUnit.SECONDS.toMillis(1);
+    private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    // usage: MainServer [<port> <db path> <log dir> [leader <replication port> | follower <host> <replication port>]]
+    // clients use TLS when started with -Dauth.tls.keystore=<pkcs12 file> -Dauth.tls.password=<password>
+    // server processes on one host share sessions when started with the same -Dauth.sessions.file=<path>
     public static void main(String[] args) {
         Server server;
         try {
-            server = new Server(7777, "data/db.txt",
-                    "data/log", 5, TimeUnit.MINUTES.toMillis(1));
+            String sessionsFile = System.getProperty("auth.sessions.file");
+            SessionManagerApi sessions = (sessionsFile == null)
+                    ? new SessionManager() : new SharedSessionManager(Path.of(sessionsFile));
+            if (args.length < 3) {
+                server = new Server(7777, "data/db.txt",
+                        "data/log", 5, TimeUnit.MINUTES.toMillis(1), sessions);
+            } else {
+                server = new Server(Integer.parseInt(args[0]), args[1],
+                        args[2], 5, TimeUnit.MINUTES.toMillis(1), sessions);
+            }
+            if (args.length == 5 && args[3].equals("leader")) {
+                server.startReplicationLeader("localhost", Integer.parseInt(args[4]));
+            } else if (args.length == 6 && args[3].equals("follower")) {
+                server.followLeader(args[4], Integer.parseInt(args[5]), MAX_REPLICA_STALENESS);
+            }
+            String keyStore = System.getProperty("auth.tls.keystore");
+            if (keyStore != null) {
+                char[] password = System.getProperty("auth.tls.password", "").toCharArray();
+                server.enableTls(TlsContexts.forServer(Path.of(keyStore), password));
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                try {
+                    server.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
             server.start();
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -1,49 +1,245 @@
 package bg.sofia.uni.fmi.mjt.authserver.ban;
 
-import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Counts failed attempts per IP address in a sliding window and bans addresses that reach the limit.
+ * Addresses are spread over independently locked segments. The attempt counters of a segment are an LRU under a
+ * hard cap, so their number stays bounded no matter how many distinct addresses an attacker uses, and idle ones
+ * are dropped. Bans are kept apart from the counters under a cap of their own and are only dropped once they
+ * expire, so flooding the counters can't lift them. A segment whose bans are at the cap refuses new ones until
+ * some expire, the address keeps counting its failures and is banned on the first one after that. Memory stays
+ * bounded by both caps together.
+ */
 public class BanManager implements BanManagerApi {
-    private final HashMap<String, LocalDateTime> bannedIps;
-    private final HashMap<String, Integer> soonToBan;
+    private static final long DEFAULT_ATTEMPT_WINDOW = TimeUnit.MINUTES.toMillis(15);
+    private static final int DEFAULT_MAX_TRACKED_IPS = 1 << 20;
+    private static final int DEFAULT_MAX_BANNED_IPS = 1 << 20;
+    private static final int SEGMENTS = 16;
+    private static final int MAX_IDLE_EVICTIONS_PER_CALL = 2;
+
+    private final Segment[] segments;
     private final int maxAttempts;
-    private final long banDuration;
+    private final long banDurationNanos;
+    private final long attemptWindowNanos;
+    private final LongAdder banHits = new LongAdder();
 
     public BanManager(int maxAttempts, long banDuration) {
-        bannedIps = new HashMap<>();
-        soonToBan = new HashMap<>();
+        this(maxAttempts, banDuration, DEFAULT_ATTEMPT_WINDOW, DEFAULT_MAX_TRACKED_IPS, DEFAULT_MAX_BANNED_IPS);
+    }
+
+    /**
+     * Keeps as many bans as failed attempt counters.
+     */
+    public BanManager(int maxAttempts, long banDuration, long attemptWindow, int maxTrackedIps) {
+        this(maxAttempts, banDuration, attemptWindow, maxTrackedIps, maxTrackedIps);
+    }
+
+    /**
+     * @param maxAttempts   failed attempts within the window that lead to a ban.
+     * @param banDuration   ban duration in milliseconds.
+     * @param attemptWindow length of the sliding window for failed attempts in milliseconds.
+     * @param maxTrackedIps upper bound of addresses whose failed attempts are kept in memory, least recently seen
+     *                      ones are evicted first.
+     * @param maxBannedIps  upper bound of bans kept in memory, a ban is kept until it expires and new ones are
+     *                      refused while the bans are at the bound.
+     */
+    public BanManager(int maxAttempts, long banDuration, long attemptWindow, int maxTrackedIps, int maxBannedIps) {
+        if (maxTrackedIps < SEGMENTS || maxBannedIps < SEGMENTS) {
+            throw new IllegalArgumentException("at least " + SEGMENTS + " tracked and banned ips are required");
+        }
         this.maxAttempts = maxAttempts;
-        this.banDuration = banDuration;
+        this.banDurationNanos = TimeUnit.MILLISECONDS.toNanos(banDuration);
+        this.attemptWindowNanos = TimeUnit.MILLISECONDS.toNanos(attemptWindow);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxTrackedIps / SEGMENTS, maxBannedIps / SEGMENTS);
+        }
     }
 
     public void addFailedAttempt(String userIp) {
-        if (soonToBan.containsKey(userIp)) {
-            soonToBan.put(userIp, soonToBan.get(userIp) + 1);
-        } else {
-            soonToBan.put(userIp, 1);
-        }
-        if (soonToBan.get(userIp) >= maxAttempts) {
-            banUser(userIp);
+        IpAddressKey key = IpAddressKey.of(userIp);
+        Segment segment = segmentFor(key);
+        long now = System.nanoTime();
+        synchronized (segment) {
+            IpState state = segment.attempts.computeIfAbsent(key, k -> new IpState(now));
+            state.advanceWindow(now, attemptWindowNanos);
+            state.currentCount++;
+            evictIdle(segment, now);
+            if (state.estimateAttempts(now, attemptWindowNanos) >= maxAttempts) {
+                segment.ban(key, now + banDurationNanos);
+            }
+            segment.evictEldestAttempts();
         }
     }
 
     public void banUser(String userIp) {
-        bannedIps.put(userIp, LocalDateTime.now().plus(banDuration, TimeUnit.MILLISECONDS.toChronoUnit()));
+        IpAddressKey key = IpAddressKey.of(userIp);
+        Segment segment = segmentFor(key);
+        long now = System.nanoTime();
+        synchronized (segment) {
+            evictIdle(segment, now);
+            segment.ban(key, now + banDurationNanos);
+        }
     }
 
     public void clearUserAttempts(String userIp) {
-        soonToBan.remove(userIp);
+        IpAddressKey key = IpAddressKey.of(userIp);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.attempts.remove(key);
+        }
     }
 
     public boolean checkBanned(String userIp) {
-        if (bannedIps.containsKey(userIp)) {
-            if (bannedIps.get(userIp).isBefore(LocalDateTime.now())) {
-                bannedIps.remove(userIp);
-            } else {
-                return true;
+        IpAddressKey key = IpAddressKey.of(userIp);
+        Segment segment = segmentFor(key);
+        long now = System.nanoTime();
+        synchronized (segment) {
+            Long bannedUntil = segment.bans.get(key);
+            if (bannedUntil != null) {
+                if (now - bannedUntil < 0) {
+                    banHits.increment();
+                    return true;
+                }
+                segment.bans.remove(key);
+            }
+            IpState state = segment.attempts.get(key);
+            if (state != null && state.isIdle(now, attemptWindowNanos)) {
+                segment.attempts.remove(key);
+            }
+            return false;
+        }
+    }
+
+    public int getActiveBans() {
+        long now = System.nanoTime();
+        int activeBans = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (long bannedUntil : segment.bans.values()) {
+                    if (now - bannedUntil < 0) {
+                        activeBans++;
+                    }
+                }
+            }
+        }
+        return activeBans;
+    }
+
+    public int getTrackedIps() {
+        int trackedIps = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                trackedIps += segment.attempts.size();
+                for (IpAddressKey key : segment.bans.keySet()) {
+                    if (!segment.attempts.containsKey(key)) {
+                        trackedIps++;
+                    }
+                }
+            }
+        }
+        return trackedIps;
+    }
+
+    public long getBanHits() {
+        return banHits.sum();
+    }
+
+    private Segment segmentFor(IpAddressKey key) {
+        return segments[Math.floorMod(key.hashCode(), SEGMENTS)];
+    }
+
+    /**
+     * Drops a few of the least recently seen counters if nothing is left to remember about them and every expired
+     * ban, so memory shrinks back after an attack without a separate sweeper.
+     */
+    private void evictIdle(Segment segment, long now) {
+        Iterator<IpState> attempts = segment.attempts.values().iterator();
+        for (int i = 0; i < MAX_IDLE_EVICTIONS_PER_CALL && attempts.hasNext(); i++) {
+            if (!attempts.next().isIdle(now, attemptWindowNanos)) {
+                break;
+            }
+            attempts.remove();
+        }
+        Iterator<Long> bans = segment.bans.values().iterator();
+        while (bans.hasNext() && now - bans.next() >= 0) {
+            bans.remove();
+        }
+    }
+
+    /**
+     * Failed attempts use the sliding window counter approximation: the count of the previous fixed window
+     * is weighted by how much of it still overlaps the sliding window.
+     */
+    private static final class IpState {
+        private long windowStart;
+        private int currentCount;
+        private int previousCount;
+
+        private IpState(long now) {
+            this.windowStart = now;
+        }
+
+        private void advanceWindow(long now, long window) {
+            long elapsed = now - windowStart;
+            if (elapsed < window) {
+                return;
+            }
+            previousCount = (elapsed < 2 * window) ? currentCount : 0;
+            currentCount = 0;
+            windowStart = (elapsed < 2 * window) ? windowStart + window : now;
+        }
+
+        private double estimateAttempts(long now, long window) {
+            double previousWeight = 1.0 - (double) (now - windowStart) / window;
+            return previousCount * Math.max(previousWeight, 0) + currentCount;
+        }
+
+        private boolean isIdle(long now, long window) {
+            return now - windowStart >= 2 * window;
+        }
+    }
+
+    /**
+     * The attempt counters in access order and the ends of the bans in expiry order. Every ban lasts as long, so
+     * a ban that is renewed is moved to the end and the expired ones are always at the front. Expired bans are
+     * dropped before a new one is checked against the cap.
+     */
+    private static final class Segment {
+        private static final int INITIAL_CAPACITY = 16;
+        private static final float LOAD_FACTOR = 0.75f;
+        private final Map<IpAddressKey, IpState> attempts;
+        private final Map<IpAddressKey, Long> bans;
+        private final int maxCounters;
+        private final int maxBans;
+
+        private Segment(int maxCounters, int maxBans) {
+            this.attempts = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+            this.bans = new LinkedHashMap<>();
+            this.maxCounters = maxCounters;
+            this.maxBans = maxBans;
+        }
+
+        /**
+         * Renews the ban of a banned address, bans a new one only while the bans are under the cap.
+         */
+        private void ban(IpAddressKey key, long bannedUntil) {
+            if (bans.remove(key) != null || bans.size() < maxBans) {
+                bans.put(key, bannedUntil);
+            }
+        }
+
+        private void evictEldestAttempts() {
+            Iterator<IpState> eldest = attempts.values().iterator();
+            while (attempts.size() > maxCounters) {
+                eldest.next();
+                eldest.remove();
             }
         }
-        return false;
     }
 }
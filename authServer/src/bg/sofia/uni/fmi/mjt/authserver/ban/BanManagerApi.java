@@ -33,4 +33,25 @@ public interface BanManagerApi {
      * @return {@code true} if the IP address is banned, {@code false} otherwise.
      */
     boolean checkBanned(String userIp);
+
+    /**
+     * Returns the number of IP addresses that are currently banned.
+     *
+     * @return The number of active bans.
+     */
+    int getActiveBans();
+
+    /**
+     * Returns the number of IP addresses for which failed attempts or bans are kept in memory.
+     *
+     * @return The number of tracked IP addresses.
+     */
+    int getTrackedIps();
+
+    /**
+     * Returns how many times a banned IP address was turned away.
+     *
+     * @return The number of checks that found an active ban.
+     */
+    long getBanHits();
 }
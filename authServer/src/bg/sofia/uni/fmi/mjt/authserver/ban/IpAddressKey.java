@@ -0,0 +1,104 @@
+package bg.sofia.uni.fmi.mjt.authserver.ban;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * A 128-bit key for an IP address. IPv4 addresses are stored in their IPv4-mapped IPv6 form, the port of a
+ * socket address is dropped so every connection from one host counts against the same key. Text that isn't an
+ * address is kept whole in unparsed, so two such texts never share a key.
+ */
+record IpAddressKey(long high, long low, String unparsed) {
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFF_0000_0000L;
+    private static final int IPV4_OCTETS = 4;
+    private static final int OCTET_MAX = 255;
+    private static final int DECIMAL = 10;
+    private static final int HEX_RADIX = 16;
+    private static final int BITS_PER_BYTE = 8;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int IPV6_BYTES = 16;
+    private static final int HALF_IPV6_BYTES = 8;
+
+    /**
+     * Parses addresses like {@code 1.2.3.4}, {@code /1.2.3.4:5678} or {@code /[::1]:5678} without DNS lookups.
+     * Anything else is keyed on the text itself.
+     */
+    static IpAddressKey of(String ip) {
+        String host = stripPort(ip.startsWith("/") ? ip.substring(1) : ip);
+        long ipv4 = parseIpv4(host);
+        if (ipv4 >= 0) {
+            return new IpAddressKey(0, IPV4_MAPPED_PREFIX | ipv4, null);
+        }
+        if (host.indexOf(':') >= 0) {
+            IpAddressKey ipv6 = parseIpv6(host);
+            if (ipv6 != null) {
+                return ipv6;
+            }
+        }
+        return new IpAddressKey(0, 0, host);
+    }
+
+    private static String stripPort(String address) {
+        if (address.startsWith("[")) {
+            int end = address.indexOf(']');
+            return (end < 0) ? address : address.substring(1, end);
+        }
+        int colon = address.indexOf(':');
+        if (colon >= 0 && colon == address.lastIndexOf(':')) {
+            return address.substring(0, colon);
+        }
+        return address;
+    }
+
+    private static long parseIpv4(String host) {
+        long result = 0;
+        int octets = 0;
+        int value = -1;
+        for (int i = 0; i <= host.length(); i++) {
+            char c = (i < host.length()) ? host.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || ++octets > IPV4_OCTETS) {
+                    return -1;
+                }
+                result = (result << BITS_PER_BYTE) | value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0) ? c - '0' : value * DECIMAL + (c - '0');
+                if (value > OCTET_MAX) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return (octets == IPV4_OCTETS) ? result : -1;
+    }
+
+    private static IpAddressKey parseIpv6(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (Character.digit(c, HEX_RADIX) < 0 && c != ':' && c != '.' && c != '%') {
+                return null;
+            }
+        }
+        try {
+            // a literal containing ':' is parsed as an IPv6 address, it never reaches DNS
+            byte[] bytes = InetAddress.getByName(host).getAddress();
+            if (bytes.length == IPV4_OCTETS) {
+                return new IpAddressKey(0, IPV4_MAPPED_PREFIX | toLong(bytes, 0, IPV4_OCTETS), null);
+            }
+            return new IpAddressKey(toLong(bytes, 0, HALF_IPV6_BYTES),
+                    toLong(bytes, HALF_IPV6_BYTES, HALF_IPV6_BYTES), null);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static long toLong(byte[] bytes, int offset, int length) {
+        long result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            result = (result << BITS_PER_BYTE) | (bytes[i] & BYTE_MASK);
+        }
+        return result;
+    }
+}
@@ -1,9 +1,13 @@
 package bg.sofia.uni.fmi.mjt.authserver.client;
 
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
+import java.net.Socket;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -14,17 +18,28 @@ import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Scanner;
 
-// NIO, blocking
+// NIO, blocking, or TLS through an SSLSocket when the client has a context
 public class Client {
 
     private final int serverPort;
     private static final String SERVER_HOST = "localhost";
     private static final int BUFFER_SIZE = 1024;
-    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private static final char FRAME_DELIMITER = '\n';
+    private final byte[] buffer = new byte[BUFFER_SIZE];
     private final String logDir;
+    private final SSLContext tls;
 
     public Client(int port, String logDir) throws IOException {
+        this(port, logDir, null);
+    }
+
+    /**
+     * @param tls connects over TLS when not null. The context caches sessions per host and port,
+     *            so reconnecting with the same context resumes the previous session.
+     */
+    public Client(int port, String logDir, SSLContext tls) throws IOException {
         this.logDir = logDir;
+        this.tls = tls;
         serverPort = port;
         createLogDirIfNotExists();
     }
@@ -37,18 +52,20 @@ public class Client {
     }
 
     public void start() {
-        try (SocketChannel socketChannel = SocketChannel.open();
+        try (Socket socket = connectToServer();
              Scanner scanner = new Scanner(System.in)) {
-            if (!connectToServer(socketChannel)) {
+            if (socket == null) {
                 return;
             }
             System.out.println("Connected to the server.");
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
             while (true) {
                 String message = scanner.nextLine(); // read a line from the console
                 if ("quit".equals(message)) {
                     break;
                 }
-                if (!sendMessage(socketChannel, message) || !receiveAndPrintReply(socketChannel)) {
+                if (!sendMessage(out, message) || !receiveAndPrintReply(in)) {
                     break;
                 }
             }
@@ -58,10 +75,14 @@ public class Client {
         }
     }
 
-    private boolean connectToServer(SocketChannel socketChannel) {
+    private Socket connectToServer() {
         try {
-            socketChannel.connect(new InetSocketAddress(SERVER_HOST, serverPort));
-            return true;
+            if (tls != null) {
+                Socket socket = tls.getSocketFactory().createSocket(SERVER_HOST, serverPort);
+                socket.setTcpNoDelay(true); // the handshake's last flight and the first command go out back to back
+                return socket;
+            }
+            return SocketChannel.open(new InetSocketAddress(SERVER_HOST, serverPort)).socket();
         } catch (IOException e) {
             System.out.println("Unable to connect to the server. " +
                     "Try again later or contact administrator by providing the logs in " + logDir);
@@ -70,16 +91,14 @@ public class Client {
             } catch (IOException ex) {
                 System.out.println("can't write logs." + ex.getMessage());
             }
-            return false;
+            return null;
         }
     }
 
-    private boolean sendMessage(SocketChannel socketChannel, String message) {
-        buffer.clear(); // switch to writing mode
-        buffer.put(message.getBytes()); // buffer fill
-        buffer.flip(); // switch to reading mode
+    private boolean sendMessage(OutputStream out, String message) {
         try {
-            socketChannel.write(buffer); // buffer drain
+            out.write((message + FRAME_DELIMITER).getBytes(StandardCharsets.UTF_8));
+            out.flush();
             return true;
         } catch (IOException e) {
             System.out.println("Unable to send message to the server. " +
@@ -94,14 +113,13 @@ public class Client {
 
     }
 
-    private boolean receiveAndPrintReply(SocketChannel socketChannel) {
-        buffer.clear(); // switch to writing mode
+    private boolean receiveAndPrintReply(InputStream in) {
         try {
-            socketChannel.read(buffer); // buffer fill
-            buffer.flip(); // switch to reading mode
-            byte[] byteArray = new byte[buffer.remaining()];
-            buffer.get(byteArray);
-            String reply = new String(byteArray, StandardCharsets.UTF_8); // buffer drain
+            String reply = readReply(in);
+            if (reply == null) {
+                System.out.println("The server closed the connection.");
+                return false;
+            }
             System.out.println("The server replied <" + reply + ">");
             return true;
         } catch (IOException e) {
@@ -116,6 +134,25 @@ public class Client {
         }
     }
 
+    /**
+     * Reads until a whole newline-terminated reply has arrived, the server may split it over several packets.
+     */
+    private String readReply(InputStream in) throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        while (true) {
+            int read = in.read(buffer);
+            if (read < 0) {
+                return null;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == FRAME_DELIMITER) {
+                    return reply.toString(StandardCharsets.UTF_8);
+                }
+                reply.write(buffer[i]);
+            }
+        }
+    }
+
     private void logClientError(Exception e) throws IOException {
         try (FileWriter fileWriter = new FileWriter(Paths.get(logDir + "/" + getDateHour()) + ".txt")) {
             fileWriter.write(e.getMessage() + System.lineSeparator() + Arrays.toString(e.getStackTrace()));
@@ -0,0 +1,219 @@
+package bg.sofia.uni.fmi.mjt.authserver.client;
+
+import bg.sofia.uni.fmi.mjt.authserver.metrics.LatencyHistogram;
+import bg.sofia.uni.fmi.mjt.authserver.server.Command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator. Every connection is a simulated user on its own virtual thread that sends one request
+ * at a time on a fixed schedule, so the total request rate stays at the target no matter how the server behaves.
+ * Latency is measured from the moment a request was scheduled, not from when it was actually sent, so a stalled
+ * server shows up in the percentiles instead of silently lowering the rate (coordinated omission).
+ */
+public class LoadGenerator {
+    private static final int BUFFER_SIZE = 1024;
+    private static final char FRAME_DELIMITER = '\n';
+    private static final String SUCCESS_PREFIX = "Success";
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final LoadSettings settings;
+    private final String runId;
+    private final Map<Command, LatencyHistogram> latencies;
+    private final Map<Command, LongAdder> failures;
+    private final LongAdder connectionErrors;
+    private final int[] cumulativeWeights;
+    private final Command[] weightedCommands;
+
+    public LoadGenerator(LoadSettings settings) {
+        this.settings = settings;
+        this.runId = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+        this.latencies = new EnumMap<>(Command.class);
+        this.failures = new EnumMap<>(Command.class);
+        for (Command command : LoadSettings.SUPPORTED_COMMANDS) {
+            latencies.put(command, new LatencyHistogram());
+            failures.put(command, new LongAdder());
+        }
+        this.connectionErrors = new LongAdder();
+        this.weightedCommands = settings.mix().keySet().toArray(new Command[0]);
+        this.cumulativeWeights = new int[weightedCommands.length];
+        int total = 0;
+        for (int i = 0; i < weightedCommands.length; i++) {
+            total += settings.mix().get(weightedCommands[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    /**
+     * Runs the warmup and the measured period and blocks until every connection is closed.
+     */
+    public LoadReport run() {
+        long nanosPerRequest = TimeUnit.SECONDS.toNanos(settings.connections()) / settings.ratePerSecond();
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(settings.warmupMillis());
+        long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(settings.durationMillis());
+        ExecutorService users = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < settings.connections(); i++) {
+            // spread the first requests over one interval instead of sending them all at once
+            long firstRequest = start + nanosPerRequest * i / settings.connections();
+            SimulatedUser user = new SimulatedUser(i);
+            users.submit(() -> user.run(firstRequest, nanosPerRequest, measureFrom, end));
+        }
+        users.shutdown();
+        try {
+            long drainDeadline = end + DRAIN_TIMEOUT_NANOS;
+            if (!users.awaitTermination(drainDeadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                // an overloaded server may never answer, interrupting closes the stuck connections
+                users.shutdownNow();
+                users.awaitTermination(DRAIN_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            users.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        long measuredNanos = System.nanoTime() - measureFrom;
+        Map<Command, Long> failureCounts = new EnumMap<>(Command.class);
+        failures.forEach((command, count) -> failureCounts.put(command, count.sum()));
+        return new LoadReport(latencies, failureCounts, connectionErrors.sum(), measuredNanos);
+    }
+
+    private Command randomCommand() {
+        int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return weightedCommands[i];
+            }
+        }
+        return weightedCommands[weightedCommands.length - 1];
+    }
+
+    /**
+     * A user that registers once, then picks commands from the mix. Commands that need a session log in first.
+     * delete-user only succeeds for admins, for everyone else it measures the rejected path.
+     */
+    private final class SimulatedUser {
+        private final String baseUsername;
+        private final String password;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        private String username;
+        private String sessionId;
+        private int registrations;
+        private int updates;
+
+        private SimulatedUser(int id) {
+            this.baseUsername = "load-" + runId + "-" + id;
+            this.password = "pass" + id;
+        }
+
+        private void run(long firstRequest, long nanosPerRequest, long measureFrom, long end) {
+            try (SocketChannel channel = SocketChannel.open(
+                    new InetSocketAddress(settings.host(), settings.port()))) {
+                for (long scheduled = firstRequest; scheduled < end; scheduled += nanosPerRequest) {
+                    waitUntil(scheduled);
+                    Command command = nextCommand();
+                    String response = send(channel, request(command));
+                    long latency = System.nanoTime() - scheduled;
+                    boolean success = response.startsWith(SUCCESS_PREFIX);
+                    update(command, response, success);
+                    if (scheduled >= measureFrom) {
+                        latencies.get(command).record(latency);
+                        if (!success) {
+                            failures.get(command).increment();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // also reached when the run is over and a request never got an answer
+                connectionErrors.increment();
+            }
+        }
+
+        private void waitUntil(long deadline) {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+
+        private Command nextCommand() {
+            if (username == null) {
+                return Command.REGISTER;
+            }
+            Command command = randomCommand();
+            if (sessionId == null && command != Command.REGISTER) {
+                return Command.LOGIN;
+            }
+            return command;
+        }
+
+        private String request(Command command) {
+            return switch (command) {
+                case REGISTER -> {
+                    username = baseUsername + "-" + registrations++;
+                    yield "register --username " + username + " --password " + password
+                            + " --first-name Load --last-name Test --email " + username + "@example.com";
+                }
+                case LOGIN -> "login --username " + username + " --password " + password;
+                case LOGOUT -> "logout --session-id " + sessionId;
+                case UPDATE_USER -> "update-user --session-id " + sessionId + " --new-first-name Load" + updates++;
+                case DELETE_USER -> "delete-user --session-id " + sessionId + " --username " + username;
+                default -> throw new IllegalStateException("unsupported command " + command);
+            };
+        }
+
+        private void update(Command command, String response, boolean success) {
+            switch (command) {
+                case REGISTER, LOGIN -> sessionId = success ? response.substring(response.lastIndexOf(' ') + 1) : null;
+                case LOGOUT -> sessionId = null;
+                case DELETE_USER -> {
+                    if (success) {
+                        username = null;
+                        sessionId = null;
+                    }
+                }
+                default -> {
+                    if (!success) {
+                        // most likely the session expired, log in again next time
+                        sessionId = null;
+                    }
+                }
+            }
+        }
+
+        private String send(SocketChannel channel, String message) throws IOException {
+            ByteBuffer request = ByteBuffer.wrap((message + FRAME_DELIMITER).getBytes(StandardCharsets.UTF_8));
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+            reply.reset();
+            while (true) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("the server closed the connection");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte current = buffer.get();
+                    if (current == FRAME_DELIMITER) {
+                        return reply.toString(StandardCharsets.UTF_8);
+                    }
+                    reply.write(current);
+                }
+            }
+        }
+    }
+}
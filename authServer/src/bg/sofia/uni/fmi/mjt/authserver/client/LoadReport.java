@@ -0,0 +1,51 @@
+package bg.sofia.uni.fmi.mjt.authserver.client;
+
+import bg.sofia.uni.fmi.mjt.authserver.metrics.LatencyHistogram;
+import bg.sofia.uni.fmi.mjt.authserver.server.Command;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a {@link LoadGenerator} run. Latencies are in nanoseconds.
+ */
+public record LoadReport(Map<Command, LatencyHistogram> latencies, Map<Command, Long> failures,
+                         long connectionErrors, long measuredNanos) {
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double P50 = 50;
+    private static final double P99 = 99;
+    private static final double P999 = 99.9;
+
+    public LatencyHistogram total() {
+        LatencyHistogram total = new LatencyHistogram();
+        latencies.values().forEach(total::add);
+        return total;
+    }
+
+    public double throughput() {
+        return total().getCount() / (measuredNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%-18s %10s %10s %10s %10s %10s %10s%n", "command", "count", "failures",
+                "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        latencies.forEach((command, histogram) -> {
+            if (histogram.getCount() > 0) {
+                printLine(out, command.name().toLowerCase().replace('_', '-'), histogram, failures.get(command));
+            }
+        });
+        LatencyHistogram total = total();
+        printLine(out, "total", total, failures.values().stream().mapToLong(Long::longValue).sum());
+        out.printf("%nthroughput: %.1f requests/s, connection errors: %d%n%n", throughput(), connectionErrors);
+        total.printPercentiles(out, NANOS_PER_MILLI);
+    }
+
+    private static void printLine(PrintStream out, String name, LatencyHistogram histogram, long failures) {
+        out.printf("%-18s %10d %10d %10.3f %10.3f %10.3f %10.3f%n", name, histogram.getCount(), failures,
+                histogram.getValueAtPercentile(P50) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(P99) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(P999) / NANOS_PER_MILLI,
+                histogram.getMax() / NANOS_PER_MILLI);
+    }
+}
@@ -0,0 +1,54 @@
+package bg.sofia.uni.fmi.mjt.authserver.client;
+
+import bg.sofia.uni.fmi.mjt.authserver.server.Command;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the {@link LoadGenerator} replays against a server.
+ *
+ * @param host           server host.
+ * @param port           server port.
+ * @param connections    number of concurrent connections, one simulated user each.
+ * @param ratePerSecond  target number of requests per second over all connections.
+ * @param durationMillis how long requests are measured.
+ * @param warmupMillis   how long requests are sent before measuring starts.
+ * @param mix            relative weight of every command.
+ */
+public record LoadSettings(String host, int port, int connections, int ratePerSecond, long durationMillis,
+                           long warmupMillis, Map<Command, Integer> mix) {
+    public static final Set<Command> SUPPORTED_COMMANDS = Set.of(Command.REGISTER, Command.LOGIN,
+            Command.LOGOUT, Command.UPDATE_USER, Command.DELETE_USER);
+
+    public LoadSettings {
+        if (connections < 1 || ratePerSecond < 1 || durationMillis < 1 || warmupMillis < 0) {
+            throw new IllegalArgumentException("connections, rate and duration must be positive");
+        }
+        if (!SUPPORTED_COMMANDS.containsAll(mix.keySet()) || mix.values().stream().anyMatch(w -> w < 0)
+                || mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("mix must give non-negative weights to " + SUPPORTED_COMMANDS);
+        }
+        mix = new EnumMap<>(mix);
+    }
+
+    /**
+     * Parses a mix like {@code login=5,logout=2,update-user=1}.
+     */
+    public static Map<Command, Integer> parseMix(String mix) {
+        Map<Command, Integer> weights = new EnumMap<>(Command.class);
+        for (String entry : mix.split(",")) {
+            String[] nameAndWeight = entry.trim().split("=");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("invalid mix entry: " + entry);
+            }
+            Command command = Command.lookup(nameAndWeight[0], 0, nameAndWeight[0].length());
+            if (command == null) {
+                throw new IllegalArgumentException("unknown command: " + nameAndWeight[0]);
+            }
+            weights.put(command, Integer.parseInt(nameAndWeight[1]));
+        }
+        return weights;
+    }
+}
@@ -2,104 +2,477 @@ package bg.sofia.uni.fmi.mjt.authserver.database;
 
 import bg.sofia.uni.fmi.mjt.authserver.exception.DatabaseException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidCommandException;
+import bg.sofia.uni.fmi.mjt.authserver.exception.UserExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.UserNotFoundException;
+import bg.sofia.uni.fmi.mjt.authserver.metrics.LatencyHistogram;
+import bg.sofia.uni.fmi.mjt.authserver.metrics.MetricsRegistry;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.user.UserRecord;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the users in memory. The file at dbPath is a binary snapshot of {@link UserRecord}s that is memory-mapped
+ * on startup, every mutation after it is appended to a write-ahead log next to it. A background task folds the log
+ * into a new snapshot once it grows large. A csv snapshot of an older version is migrated to the binary format.
+ * Usernames are indexed and admins are counted, so logins and admin checks don't scan all users.
+ * A leader also hands every mutation to its {@link ReplicationLog}; a follower's replica is read-only and only
+ * changes through the records its {@link ReplicationFollower} applies.
+ */
+public final class DatabaseManager implements DatabaseManagerApi, Closeable {
+    private static final String WAL_SUFFIX = ".wal";
+    private static final String SNAPSHOT_TMP_SUFFIX = ".tmp";
+    private static final long COMPACTION_THRESHOLD_BYTES = 8 * 1024 * 1024;
+    private static final long COMPACTION_PERIOD_SECONDS = 30;
+    private static final int USER_FIELDS = 8;
+    private static final int SNAPSHOT_MAGIC = 0x89414442;
+    private static final byte SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_BYTES = Integer.BYTES + Byte.BYTES + Integer.BYTES;
+    private static final long MAP_WINDOW_BYTES = 1L << 30;
+    private static final int ESTIMATED_RECORD_BYTES = 160;
 
-public class DatabaseManager implements DatabaseManagerApi {
     private final String dbPath;
     private final Map<String, User> users;
+    private final Map<String, String> userIdsByUsername;
+    private int adminCount;
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService compactor;
+    private final Object compactionLock = new Object();
+    private final LatencyHistogram writeLatency;
+    private ReplicationLog replicationLog;
+    private volatile boolean readOnly;
 
     public DatabaseManager(String dbPath) throws IOException {
+        this(dbPath, new MetricsRegistry());
+    }
+
+    /**
+     * @param metrics receives the latency of every write, from taking the lock until the write is durable.
+     */
+    public DatabaseManager(String dbPath, MetricsRegistry metrics) throws IOException {
+        this.writeLatency = metrics.histogram("db.write");
         createDbFileIfNotExists(dbPath);
-        try (FileReader fileReader = new FileReader(dbPath)) {
-            users = loadFromDb(fileReader);
-        }
         this.dbPath = dbPath;
+        boolean binary;
+        try (FileChannel channel = FileChannel.open(Path.of(dbPath), StandardOpenOption.READ)) {
+            int userCount = readSnapshotHeader(channel);
+            binary = userCount >= 0;
+            this.users = LinkedHashMap.newLinkedHashMap(Math.max(userCount, 0));
+            this.userIdsByUsername = HashMap.newHashMap(Math.max(userCount, 0));
+            if (binary) {
+                loadSnapshot(channel);
+            }
+        }
+        if (!binary) {
+            try (FileReader fileReader = new FileReader(dbPath)) {
+                loadFromDb(fileReader);
+            }
+        }
+        this.wal = new WriteAheadLog(Path.of(dbPath + WAL_SUFFIX));
+        wal.replay(this::applyRecord);
+        if (!binary && !users.isEmpty()) {
+            compact();
+        }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                COMPACTION_PERIOD_SECONDS, COMPACTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the number of users in the binary snapshot, or -1 if the file is not one, so it has to be read as csv.
+     */
+    private static int readSnapshotHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // read the whole header
+        }
+        header.flip();
+        if (header.remaining() < SNAPSHOT_HEADER_BYTES || header.getInt() != SNAPSHOT_MAGIC) {
+            return -1;
+        }
+        if (header.get() != SNAPSHOT_VERSION) {
+            throw new DatabaseException("Unsupported database version");
+        }
+        return header.getInt();
     }
 
-    private Map<String, User> loadFromDb(Reader reader) {
-        Map<String, User> newUsers = new LinkedHashMap<>();
+    /**
+     * Maps the snapshot after its header a window at a time and decodes its records in place.
+     */
+    private void loadSnapshot(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = SNAPSHOT_HEADER_BYTES;
+        byte[] scratch = new byte[ESTIMATED_RECORD_BYTES];
+        while (position < size) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAP_WINDOW_BYTES, size - position));
+            int consumed = loadRecords(window, scratch);
+            if (consumed == 0) {
+                throw new DatabaseException("Corrupted database snapshot at byte " + position);
+            }
+            position += consumed;
+        }
+    }
+
+    /**
+     * @return the bytes of the records that lie completely inside the window.
+     */
+    private int loadRecords(ByteBuffer window, byte[] scratch) {
+        try {
+            while (window.hasRemaining()) {
+                int recordStart = window.position();
+                int length = UserRecord.readVarint(window);
+                if (length < 0 || length > window.remaining()) {
+                    return recordStart;
+                }
+                if (length > scratch.length) {
+                    scratch = new byte[2 * length];
+                }
+                int recordEnd = window.position() + length;
+                putUser(UserRecord.read(window, scratch));
+                if (window.position() != recordEnd) {
+                    throw new DatabaseException("Corrupted database record at byte " + recordStart);
+                }
+            }
+            return window.position();
+        } catch (RuntimeException e) {
+            if (e instanceof DatabaseException databaseException) {
+                throw databaseException;
+            }
+            throw new DatabaseException("Corrupted database snapshot", e);
+        }
+    }
+
+    private void loadFromDb(Reader reader) {
         try (BufferedReader bufferedReader = new BufferedReader(reader)) {
             String currentLine;
             while ((currentLine = bufferedReader.readLine()) != null) {
-                String[] values = currentLine.split(",");
-                User user = new User(values[User.USERNAME_POS], values[User.SALT_POS], values[User.PASS_POS],
-                        values[User.ID_POS], values[User.FNAME_POS], values[User.LNAME_POS], values[User.EMAIL_POS],
-                        Boolean.parseBoolean(values[User.ADMIN_POS]));
-                newUsers.put(values[User.ID_POS], user);
+                putUser(parseUser(currentLine.split(","), 0));
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return newUsers;
+    }
+
+    private static User parseUser(String[] values, int offset) {
+        return new User(values[offset + User.USERNAME_POS], values[offset + User.SALT_POS],
+                values[offset + User.PASS_POS], values[offset + User.ID_POS], values[offset + User.FNAME_POS],
+                values[offset + User.LNAME_POS], values[offset + User.EMAIL_POS],
+                Boolean.parseBoolean(values[offset + User.ADMIN_POS]));
+    }
+
+    private void applyRecord(String record) {
+        String[] values = record.split(WriteAheadLog.SEPARATOR);
+        if (values[0].equals(WriteAheadLog.PUT) && values.length == USER_FIELDS + 1) {
+            putUser(parseUser(values, 1));
+        } else if (values[0].equals(WriteAheadLog.DELETE) && values.length == 2) {
+            removeUser(values[1]);
+        }
+        // anything else is a malformed record and is skipped
     }
 
     public void editPassword(String userId, String oldPassword, String newPassword) {
-        User userToEdit = users.get(userId);
-        if (userToEdit.getPasswordHash().equals(User.getHashedPassword(oldPassword, userToEdit.getSalt()))) {
-            userToEdit.setPasswordHash(User.getHashedPassword(newPassword, userToEdit.getSalt()));
+        checkWritable();
+        User userToEdit;
+        String oldHash;
+        synchronized (this) {
+            userToEdit = users.get(userId);
+            oldHash = userToEdit.getPasswordHash();
+        }
+        // hashing is slow on purpose, so it happens outside the lock
+        if (userToEdit.checkPassword(oldPassword)) {
+            updatePasswordHash(userId, oldHash, User.getHashedPassword(newPassword, userToEdit.getSalt()));
+        }
+    }
+
+    @Override
+    public boolean updatePasswordHash(String userId, String expectedHash, String newHash) {
+        long start = System.nanoTime();
+        long sequence;
+        synchronized (this) {
+            User user = users.get(userId);
+            if (readOnly || user == null || !user.getPasswordHash().equals(expectedHash)) {
+                return false;
+            }
+            user.setPasswordHash(newHash);
+            sequence = logPut(user);
         }
-        writeToDb();
+        awaitDurable(sequence, start);
+        return true;
     }
 
     @Override
     public void editUser(String userId, String username,
                          String firstName, String lastName, String email, Boolean admin) {
-        User user = users.get(userId);
-        if (username != null) {
-            if (users.values().stream().anyMatch(x -> x.getUsername().equals(username))) {
-                throw new InvalidCommandException("Username taken");
+        checkWritable();
+        long start = System.nanoTime();
+        long sequence;
+        synchronized (this) {
+            User user = users.get(userId);
+            if (username != null) {
+                if (userIdsByUsername.containsKey(username)) {
+                    throw new InvalidCommandException("Username taken");
+                }
+                userIdsByUsername.remove(user.getUsername());
+                userIdsByUsername.put(username, userId);
+                user.setUsername(username);
+            }
+            if (email != null) {
+                user.setEmail(email);
+            }
+            if (firstName != null) {
+                user.setFirstName(firstName);
+            }
+            if (lastName != null) {
+                user.setLastName(lastName);
+            }
+            if (admin != null) {
+                adminCount += Boolean.compare(admin, user.isAdmin());
+                user.setAdmin(admin);
+            }
+            sequence = logPut(user);
+        }
+        awaitDurable(sequence, start);
+    }
+
+    public void addUser(User user) {
+        checkWritable();
+        long start = System.nanoTime();
+        long sequence;
+        synchronized (this) {
+            if (userIdsByUsername.containsKey(user.getUsername())) {
+                throw new UserExistsException("Username taken");
             }
-            user.setUsername(username);
+            putUser(user);
+            sequence = logPut(user);
         }
-        if (email != null) {
-            user.setEmail(email);
+        awaitDurable(sequence, start);
+    }
+
+    public void deleteUser(String userId) {
+        checkWritable();
+        long start = System.nanoTime();
+        long sequence;
+        synchronized (this) {
+            if (!users.containsKey(userId)) {
+                throw new DatabaseException("no user with this userId");
+            }
+            removeUser(userId);
+            sequence = logRecord(WriteAheadLog.DELETE + WriteAheadLog.SEPARATOR + userId + System.lineSeparator());
         }
-        if (firstName != null) {
-            user.setFirstName(firstName);
+        awaitDurable(sequence, start);
+    }
+
+    private void putUser(User user) {
+        removeUser(user.getUserId());
+        users.put(user.getUserId(), user);
+        userIdsByUsername.put(user.getUsername(), user.getUserId());
+        if (user.isAdmin()) {
+            adminCount++;
         }
-        if (lastName != null) {
-            user.setLastName(lastName);
+    }
+
+    private void removeUser(String userId) {
+        User user = users.remove(userId);
+        if (user == null) {
+            return;
         }
-        if (admin != null) {
-            user.setAdmin(admin);
+        userIdsByUsername.remove(user.getUsername());
+        if (user.isAdmin()) {
+            adminCount--;
         }
-        writeToDb();
     }
 
-    public void addUser(User user) {
-        users.put(user.getUserId(), user);
-        writeToDb();
+    private long logPut(User user) {
+        return logRecord(WriteAheadLog.PUT + WriteAheadLog.SEPARATOR + user.toString());
     }
 
-    public void deleteUser(String userId) {
-        if (!users.containsKey(userId)) {
-            throw new DatabaseException("no user with this userId");
+    private long logRecord(String record) {
+        long sequence;
+        try {
+            sequence = wal.append(record);
+        } catch (IOException e) {
+            throw new DatabaseException("Problem with writing to database", e);
+        }
+        if (replicationLog != null) {
+            replicationLog.append(record);
+        }
+        return sequence;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new DatabaseException("read-only replica, send writes to the leader");
+        }
+    }
+
+    synchronized void attachReplicationLog(ReplicationLog log) {
+        this.replicationLog = log;
+    }
+
+    /**
+     * Fills records with a put of every user, as of the returned offset of the attached replication log.
+     * Both are taken under the database lock, so no mutation falls between the snapshot and the offset.
+     */
+    synchronized long snapshotForReplication(List<String> records) {
+        for (User user : users.values()) {
+            records.add(stripLineSeparator(WriteAheadLog.PUT + WriteAheadLog.SEPARATOR + user.toString()));
+        }
+        return replicationLog.getLastOffset();
+    }
+
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Replaces every user of a replica with the snapshot a leader sent and persists it as the local snapshot.
+     */
+    void loadReplicatedSnapshot(List<String> records) {
+        synchronized (this) {
+            users.clear();
+            userIdsByUsername.clear();
+            adminCount = 0;
+            records.forEach(this::applyRecord);
+        }
+        compact();
+    }
+
+    /**
+     * Applies one record a leader streamed. It is only appended to the local log, a replica that loses it in a
+     * crash gets it again from the leader.
+     */
+    synchronized void applyReplicated(String record) {
+        applyRecord(record);
+        logRecord(record + System.lineSeparator());
+    }
+
+    static String stripLineSeparator(String record) {
+        return record.endsWith(System.lineSeparator())
+                ? record.substring(0, record.length() - System.lineSeparator().length())
+                : record;
+    }
+
+    /**
+     * Waits outside the database lock, so concurrent writers share a single fsync.
+     */
+    private void awaitDurable(long sequence, long start) {
+        try {
+            wal.awaitDurable(sequence);
+        } catch (IOException e) {
+            throw new DatabaseException("Problem with writing to database", e);
+        }
+        writeLatency.record(System.nanoTime() - start);
+    }
+
+    private void compactIfNeeded() {
+        try {
+            if (wal.size() >= COMPACTION_THRESHOLD_BYTES || wal.hasRotatedLog()) {
+                compact();
+            }
+        } catch (IOException | DatabaseException e) {
+            System.out.println("can't compact database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the current state as a new snapshot and drops the log records it covers.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            compactLocked();
+        }
+    }
+
+    private void compactLocked() {
+        byte[] snapshot;
+        boolean rotated = false;
+        synchronized (this) {
+            snapshot = encodeSnapshot();
+            try {
+                if (!wal.hasRotatedLog()) {
+                    wal.rotate();
+                    rotated = true;
+                }
+            } catch (IOException e) {
+                throw new DatabaseException("Problem with rotating the write-ahead log", e);
+            }
+        }
+        writeSnapshot(snapshot);
+        try {
+            // a log rotated by an earlier failed compaction is covered by this snapshot as well
+            wal.deleteRotatedLog();
+        } catch (IOException e) {
+            throw new DatabaseException("Problem with deleting the compacted write-ahead log", e);
+        }
+        if (!rotated) {
+            compactLocked();
         }
-        users.remove(userId);
-        writeToDb();
     }
 
-    private void writeToDb() {
-        try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(dbPath))) {
-            String db = users.values().stream().collect(StringBuilder::new,
-                    (x, y) -> x.append(y.toString()), (y, x) -> x.append(y.toString())).toString();
-            if (!db.isEmpty()) {
-                bufferedWriter.write(db);
+    private byte[] encodeSnapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(SNAPSHOT_HEADER_BYTES
+                + users.size() * ESTIMATED_RECORD_BYTES);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(ESTIMATED_RECORD_BYTES);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            DataOutputStream recordOut = new DataOutputStream(record);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeByte(SNAPSHOT_VERSION);
+            out.writeInt(users.size());
+            for (User user : users.values()) {
+                record.reset();
+                UserRecord.write(user, recordOut);
+                UserRecord.writeVarint(record.size(), out);
+                record.writeTo(out);
             }
+        } catch (IOException e) {
+            throw new DatabaseException("Problem with encoding the database", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void writeToDb(byte[] db) throws IOException {
+        Path tmpPath = Path.of(dbPath + SNAPSHOT_TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(db);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmpPath, Path.of(dbPath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeSnapshot(byte[] snapshot) {
+        try {
+            writeToDb(snapshot);
         } catch (IOException e) {
             throw new DatabaseException("Problem with writing to database", e);
         }
@@ -112,17 +485,21 @@ public class DatabaseManager implements DatabaseManagerApi {
         }
     }
 
-    public User findUserInDatabase(String username) {
-        Optional<User> user = users.values().stream().filter(x -> x.getUsername().equals(username)).findAny();
-        if (user.isEmpty()) {
+    public synchronized User findUserInDatabase(String username) {
+        String userId = userIdsByUsername.get(username);
+        if (userId == null) {
             throw new UserNotFoundException("User does not exist");
         }
-        return user.get();
+        return users.get(userId);
     }
 
-    public boolean isLastAdmin() {
-        return users.values().stream().filter(User::isAdmin)
-                .limit(2)
-                .count() < 2;
+    public synchronized boolean isLastAdmin() {
+        return adminCount < 2;
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        wal.close();
     }
 }
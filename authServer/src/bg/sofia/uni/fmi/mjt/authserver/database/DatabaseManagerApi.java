@@ -1,5 +1,6 @@
 package bg.sofia.uni.fmi.mjt.authserver.database;
 
+import bg.sofia.uni.fmi.mjt.authserver.exception.UserExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.UserNotFoundException;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 
@@ -29,10 +30,21 @@ public interface DatabaseManagerApi {
      */
     void editPassword(String userId, String oldPassword, String newPassword);
 
+    /**
+     * Replaces the password hash of a user, e.g. to upgrade it to a stronger scheme after a login.
+     *
+     * @param userId       The ID of the user whose hash is to be replaced.
+     * @param expectedHash The hash the caller verified the password against.
+     * @param newHash      The new hash of the same password.
+     * @return True if the hash was replaced, false if the password changed in the meantime.
+     */
+    boolean updatePasswordHash(String userId, String expectedHash, String newHash);
+
     /**
      * Adds a new user to the database.
      *
      * @param user The user to be added.
+     * @throws UserExistsException If the username of the user is already taken.
      */
     void addUser(User user);
 
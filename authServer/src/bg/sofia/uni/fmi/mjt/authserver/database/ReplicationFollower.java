@@ -0,0 +1,183 @@
+package bg.sofia.uni.fmi.mjt.authserver.database;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.DatabaseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a read-only replica in sync with a {@link ReplicationLeader}. The first connection loads a snapshot of
+ * the leader, a reconnect resumes from the last applied offset if the leader still holds it.
+ * <p>
+ * The replica counts as fresh while the last message from the leader is at most maxStalenessMillis old.
+ * The leader sends a heartbeat when it has nothing to stream, so a fresh replica is missing at most the
+ * mutations of that window.
+ */
+public class ReplicationFollower implements Closeable {
+    private static final String NO_REPLICATION_ID = "-";
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 3000;
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 200;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 5000;
+
+    private final DatabaseManager replica;
+    private final InetSocketAddress leaderAddress;
+    private final long maxStalenessNanos;
+    private final Thread thread;
+    private volatile String replicationId;
+    private volatile long appliedOffset;
+    private volatile long lastContactNanos;
+    private volatile boolean isSynced;
+    private volatile Socket socket;
+    private volatile boolean isWorking;
+
+    public ReplicationFollower(DatabaseManager replica, String leaderHost, int leaderPort, long maxStalenessMillis) {
+        this.replica = replica;
+        this.leaderAddress = new InetSocketAddress(leaderHost, leaderPort);
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+        this.replicationId = NO_REPLICATION_ID;
+        replica.setReadOnly(true);
+        isWorking = true;
+        thread = Thread.ofPlatform().name("replication-follower").daemon().start(this::run);
+    }
+
+    /**
+     * @return whether the replica heard from the leader within the allowed staleness.
+     */
+    public boolean isFresh() {
+        return isSynced && System.nanoTime() - lastContactNanos <= maxStalenessNanos;
+    }
+
+    public long getAppliedOffset() {
+        return appliedOffset;
+    }
+
+    /**
+     * @return milliseconds since the last message from the leader, or -1 before the first sync.
+     */
+    public long getStalenessMillis() {
+        return isSynced ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastContactNanos) : -1;
+    }
+
+    private void run() {
+        long reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+        while (isWorking) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(leaderAddress, CONNECT_TIMEOUT_MILLIS);
+                connection.setSoTimeout(READ_TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                sync(connection, reader);
+                reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+                follow(reader);
+            } catch (IOException | DatabaseException | IllegalArgumentException e) {
+                if (isWorking) {
+                    System.out.println("replication from leader stopped: " + e.getMessage());
+                }
+            }
+            sleep(reconnectDelay);
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Applies the streamed records until the connection breaks. A malformed message is a protocol error that
+     * ends the connection, so the follower reconnects and syncs again.
+     */
+    private void follow(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split(String.valueOf(ReplicationLeader.SEPARATOR), 3);
+            if (parts[0].equals(ReplicationLeader.RECORD) && parts.length == 3) {
+                long offset = parseOffset(parts[1], line);
+                if (offset != appliedOffset + 1) {
+                    throw new IOException("expected offset " + (appliedOffset + 1) + " but got " + offset);
+                }
+                replica.applyReplicated(parts[2]);
+                appliedOffset = offset;
+            } else if (!parts[0].equals(ReplicationLeader.HEARTBEAT) || parts.length != 2) {
+                throw new IOException("unexpected message: " + line);
+            } else {
+                parseOffset(parts[1], line);
+            }
+            lastContactNanos = System.nanoTime();
+        }
+    }
+
+    private static long parseOffset(String offset, String line) throws IOException {
+        try {
+            return Long.parseLong(offset);
+        } catch (NumberFormatException e) {
+            throw new IOException("unexpected message: " + line, e);
+        }
+    }
+
+    private void sync(Socket connection, BufferedReader reader) throws IOException {
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+        writer.write(ReplicationLeader.SYNC + ReplicationLeader.SEPARATOR + replicationId
+                + ReplicationLeader.SEPARATOR + appliedOffset + '\n');
+        writer.flush();
+        String[] header = readLine(reader).split(String.valueOf(ReplicationLeader.SEPARATOR));
+        if (header[0].equals(ReplicationLeader.FULL) && header.length == 4) {
+            isSynced = false;
+            int count = Integer.parseInt(header[3]);
+            List<String> snapshot = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                snapshot.add(readLine(reader));
+            }
+            replica.loadReplicatedSnapshot(snapshot);
+        } else if (!header[0].equals(ReplicationLeader.CONTINUE) || header.length != 3
+                || !header[1].equals(replicationId) || Long.parseLong(header[2]) != appliedOffset) {
+            throw new IOException("unexpected sync response: " + String.join(" ", header));
+        }
+        replicationId = header[1];
+        appliedOffset = Long.parseLong(header[2]);
+        lastContactNanos = System.nanoTime();
+        isSynced = true;
+    }
+
+    private static String readLine(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("leader closed the connection");
+        }
+        return line;
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            isWorking = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        isWorking = false;
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package bg.sofia.uni.fmi.mjt.authserver.database;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams the mutations of a database to {@link ReplicationFollower}s over TCP, one line per message.
+ * <p>
+ * A follower opens with {@code SYNC <replication id> <offset>}. If it applied everything up to an offset this
+ * leader still holds, it gets {@code CONTINUE <replication id> <offset>}, otherwise
+ * {@code FULL <replication id> <offset> <count>} followed by a put of every user. After that the leader sends
+ * {@code RECORD <offset> <record>} for every mutation and {@code HEARTBEAT <offset>} while there are none,
+ * so followers can tell how fresh their replica is.
+ */
+public class ReplicationLeader implements Closeable {
+    static final String SYNC = "SYNC";
+    static final String CONTINUE = "CONTINUE";
+    static final String FULL = "FULL";
+    static final String RECORD = "RECORD";
+    static final String HEARTBEAT = "HEARTBEAT";
+    static final char SEPARATOR = ' ';
+    static final long HEARTBEAT_MILLIS = 100;
+    private static final int DEFAULT_BACKLOG = 1 << 16;
+    private static final int MAX_BATCH = 256;
+
+    private final DatabaseManager database;
+    private final ReplicationLog log;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> followers;
+    private volatile boolean isWorking;
+
+    public ReplicationLeader(DatabaseManager database, String host, int port) throws IOException {
+        this(database, host, port, DEFAULT_BACKLOG);
+    }
+
+    /**
+     * @param backlog how many of the latest mutations are kept for followers that reconnect.
+     */
+    public ReplicationLeader(DatabaseManager database, String host, int port, int backlog) throws IOException {
+        this.database = database;
+        this.log = new ReplicationLog(backlog);
+        this.followers = ConcurrentHashMap.newKeySet();
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(host, port));
+        database.attachReplicationLog(log);
+        isWorking = true;
+        Thread.ofPlatform().name("replication-leader").daemon().start(this::acceptFollowers);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getLastOffset() {
+        return log.getLastOffset();
+    }
+
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    private void acceptFollowers() {
+        while (isWorking) {
+            try {
+                Socket socket = serverSocket.accept();
+                followers.add(socket);
+                Thread.ofVirtual().name("replication-follower").start(() -> serve(socket));
+            } catch (IOException e) {
+                if (isWorking) {
+                    System.out.println("can't accept follower: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            long offset = handshake(reader.readLine(), writer);
+            stream(offset, writer);
+        } catch (IOException | IllegalArgumentException e) {
+            if (isWorking) {
+                System.out.println("replication to follower stopped: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    private long handshake(String request, Writer writer) throws IOException {
+        String[] parts = (request == null) ? new String[0] : request.split(String.valueOf(SEPARATOR));
+        if (parts.length != 3 || !parts[0].equals(SYNC)) {
+            throw new IOException("invalid sync request: " + request);
+        }
+        long offset = Long.parseLong(parts[2]);
+        if (parts[1].equals(log.getReplicationId()) && log.canResumeFrom(offset)) {
+            writeLine(writer, CONTINUE + SEPARATOR + log.getReplicationId() + SEPARATOR + offset);
+        } else {
+            List<String> snapshot = new ArrayList<>();
+            offset = database.snapshotForReplication(snapshot);
+            writeLine(writer, FULL + SEPARATOR + log.getReplicationId() + SEPARATOR + offset
+                    + SEPARATOR + snapshot.size());
+            for (String record : snapshot) {
+                writeLine(writer, record);
+            }
+        }
+        writer.flush();
+        return offset;
+    }
+
+    private void stream(long offset, Writer writer) throws IOException, InterruptedException {
+        while (isWorking) {
+            List<String> records = log.readAfter(offset, MAX_BATCH, HEARTBEAT_MILLIS);
+            if (records == null) {
+                // the follower fell behind the backlog, it reconnects and starts over from a snapshot
+                return;
+            }
+            if (records.isEmpty()) {
+                writeLine(writer, HEARTBEAT + SEPARATOR + offset);
+            }
+            for (String record : records) {
+                offset++;
+                writeLine(writer, RECORD + SEPARATOR + offset + SEPARATOR + record);
+            }
+            writer.flush();
+        }
+    }
+
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        isWorking = false;
+        database.attachReplicationLog(null);
+        serverSocket.close();
+        for (Socket follower : followers) {
+            follower.close();
+        }
+    }
+}
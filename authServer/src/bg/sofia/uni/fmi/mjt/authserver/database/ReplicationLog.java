@@ -0,0 +1,69 @@
+package bg.sofia.uni.fmi.mjt.authserver.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The most recent mutations of a leader, numbered from 1 in the order the database applied them.
+ * Offsets only make sense together with the replication id, which changes every time a leader starts,
+ * so a follower can tell whether it may resume or has to start over from a snapshot.
+ */
+class ReplicationLog {
+    private final String replicationId;
+    private final String[] records;
+    private long lastOffset;
+
+    ReplicationLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.replicationId = UUID.randomUUID().toString();
+        this.records = new String[capacity];
+    }
+
+    String getReplicationId() {
+        return replicationId;
+    }
+
+    synchronized long getLastOffset() {
+        return lastOffset;
+    }
+
+    /**
+     * Called under the database lock, so offsets follow the order in which mutations were applied.
+     */
+    synchronized void append(String record) {
+        records[(int) (lastOffset % records.length)] = DatabaseManager.stripLineSeparator(record);
+        lastOffset++;
+        notifyAll();
+    }
+
+    /**
+     * @return whether a follower that applied everything up to offset can resume from here.
+     */
+    synchronized boolean canResumeFrom(long offset) {
+        return offset <= lastOffset && offset >= lastOffset - records.length;
+    }
+
+    /**
+     * Waits up to timeoutMillis for records after offset.
+     *
+     * @return up to max records following offset, an empty list if none arrived in time,
+     *         or null if the backlog no longer holds the record right after offset.
+     */
+    synchronized List<String> readAfter(long offset, int max, long timeoutMillis) throws InterruptedException {
+        if (offset == lastOffset && timeoutMillis > 0) {
+            wait(timeoutMillis);
+        }
+        if (!canResumeFrom(offset)) {
+            return null;
+        }
+        int count = (int) Math.min(max, lastOffset - offset);
+        List<String> result = new ArrayList<>(count);
+        for (long next = offset; next < offset + count; next++) {
+            result.add(records[(int) (next % records.length)]);
+        }
+        return result;
+    }
+}
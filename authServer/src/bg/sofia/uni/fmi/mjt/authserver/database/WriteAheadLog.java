@@ -0,0 +1,193 @@
+package bg.sofia.uni.fmi.mjt.authserver.database;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of user mutations, one record per line.
+ * Only records ending with a line break are replayed, and a record torn by a crash is cut off when the log is
+ * opened, so the next record isn't appended to it.
+ * Records are appended without an fsync and made durable in groups: the first writer that waits for
+ * durability forces the channel once for every record appended before it.
+ */
+class WriteAheadLog implements Closeable {
+    static final String PUT = "PUT";
+    static final String DELETE = "DELETE";
+    static final String SEPARATOR = ",";
+    private static final String ROTATED_SUFFIX = ".old";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Path path;
+    private final Path rotatedPath;
+    private final Object syncLock;
+    private FileChannel channel;
+    private long appendedRecords;
+    private volatile long durableRecords;
+
+    WriteAheadLog(Path path) throws IOException {
+        this.path = path;
+        this.rotatedPath = Path.of(path + ROTATED_SUFFIX);
+        this.syncLock = new Object();
+        truncateTornRecord(path);
+        this.channel = open(path);
+    }
+
+    /**
+     * Cuts the file after its last line break.
+     */
+    private static void truncateTornRecord(Path file) throws IOException {
+        if (Files.notExists(file)) {
+            return;
+        }
+        try (FileChannel log = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long end = log.size();
+            while (end > 0) {
+                long start = Math.max(0, end - BUFFER_SIZE);
+                buffer.clear().limit((int) (end - start));
+                while (buffer.hasRemaining() && log.read(buffer, start + buffer.position()) >= 0) {
+                    // read the whole chunk
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        log.truncate(start + i + 1);
+                        return;
+                    }
+                }
+                end = start;
+            }
+            log.truncate(0);
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Feeds every record of the rotated and the current log to the consumer, oldest first.
+     */
+    void replay(Consumer<String> consumer) throws IOException {
+        replay(rotatedPath, consumer);
+        replay(path, consumer);
+    }
+
+    private void replay(Path file, Consumer<String> consumer) throws IOException {
+        if (Files.notExists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            replayCompleteLines(reader, consumer);
+        }
+    }
+
+    /**
+     * Feeds every line ending with a line break to the consumer, without the line break. The rest is a torn
+     * record and is skipped.
+     */
+    private static void replayCompleteLines(Reader reader, Consumer<String> consumer) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        StringBuilder record = new StringBuilder();
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            int lineStart = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    record.append(buffer, lineStart, i - lineStart);
+                    int length = record.length();
+                    if (length > 0 && record.charAt(length - 1) == '\r') {
+                        record.setLength(length - 1);
+                    }
+                    consumer.accept(record.toString());
+                    record.setLength(0);
+                    lineStart = i + 1;
+                }
+            }
+            record.append(buffer, lineStart, read - lineStart);
+        }
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @return the sequence number to pass to {@link #awaitDurable(long)}.
+     */
+    synchronized long append(String record) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(record);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        return ++appendedRecords;
+    }
+
+    /**
+     * Blocks until the record with the given sequence number is on disk.
+     */
+    void awaitDurable(long sequence) throws IOException {
+        if (durableRecords >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableRecords >= sequence) {
+                return;
+            }
+            long target;
+            FileChannel current;
+            synchronized (this) {
+                target = appendedRecords;
+                current = channel;
+            }
+            current.force(false);
+            durableRecords = target;
+        }
+    }
+
+    synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    boolean hasRotatedLog() {
+        return Files.exists(rotatedPath);
+    }
+
+    /**
+     * Moves the current log aside and starts an empty one. Everything in the rotated log has to be covered
+     * by the next snapshot before {@link #deleteRotatedLog()} is called.
+     */
+    void rotate() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                channel.force(false);
+                channel.close();
+                Files.move(path, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+                channel = open(path);
+                durableRecords = appendedRecords;
+            }
+        }
+    }
+
+    void deleteRotatedLog() throws IOException {
+        Files.deleteIfExists(rotatedPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                channel.force(false);
+                channel.close();
+            }
+        }
+    }
+}
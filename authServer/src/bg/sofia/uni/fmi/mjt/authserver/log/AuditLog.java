@@ -2,25 +2,34 @@ package bg.sofia.uni.fmi.mjt.authserver.log;
 
 import bg.sofia.uni.fmi.mjt.authserver.server.Command;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 
+/**
+ * Audit events are formatted on the calling thread and handed to a background {@link AuditLogWriter},
+ * so logging never waits for the disk unless the queue is full and the overflow policy is to block.
+ */
 public class AuditLog implements AuditLogApi {
     private final String logDir;
     private final String logPath;
     private static final String LOG_NAME = "/log.txt";
+    private final AuditLogWriter writer;
 
     public AuditLog(String logDir) throws IOException {
+        this(logDir, AuditLogSettings.defaults());
+    }
+
+    public AuditLog(String logDir, AuditLogSettings settings) throws IOException {
         this.logDir = logDir;
         this.logPath = logDir + LOG_NAME;
         createLogDirIfNotExists();
         createLogFileIfNotExists();
+        writer = new AuditLogWriter(Paths.get(logDir), Paths.get(logPath), settings);
+        writer.start();
     }
 
     private void createLogDirIfNotExists() throws IOException {
@@ -38,53 +47,51 @@ public class AuditLog implements AuditLogApi {
     }
 
     public void logLogin(LocalDateTime timestamp, String user, String userIp) throws IOException {
-        try (FileWriter fileWriter = new FileWriter(Paths.get(logPath).toFile(), true)) {
-            fileWriter.write(timestamp +
-                    ": successful login to " + user + " from " + userIp + System.lineSeparator());
-        }
+        writer.enqueue(timestamp +
+                ": successful login to " + user + " from " + userIp + System.lineSeparator());
     }
 
     public void logLogout(LocalDateTime timestamp, String user, String userIp) throws IOException {
-        try (FileWriter fileWriter = new FileWriter(Paths.get(logPath).toFile(), true)) {
-            fileWriter.write(timestamp +
-                    ": logout of " + user + " from " + userIp + System.lineSeparator());
-        }
+        writer.enqueue(timestamp +
+                ": logout of " + user + " from " + userIp + System.lineSeparator());
     }
 
     public void logUnsuccessfulLogin(LocalDateTime timestamp, String user, String userIp) throws IOException {
-        try (FileWriter fileWriter = new FileWriter(Paths.get(logPath).toFile(), true)) {
-            fileWriter.write(timestamp + ": unsuccessful login to "
-                    + user + " from " + userIp + System.lineSeparator());
-        }
+        writer.enqueue(timestamp + ": unsuccessful login to "
+                + user + " from " + userIp + System.lineSeparator());
     }
 
     public void logCommandStart(LocalDateTime timestamp, Command command, String type,
                          String user, String userIp, String changes) throws IOException {
-        try (FileWriter fileWriter = new FileWriter(Paths.get(logPath).toFile(), true)) {
-            fileWriter.write(timestamp + ": " + user + " executed " + command.name() + " (" + type + ") by "
-                    + userIp + " - changes were " + changes + System.lineSeparator());
-        }
+        writer.enqueue(timestamp + ": " + user + " executed " + command.name() + " (" + type + ") by "
+                + userIp + " - changes were " + changes + System.lineSeparator());
     }
 
     public void logCommandEnd(LocalDateTime timestamp, Command command, String type,
                        String user, String userIp, String result) throws IOException {
-        try (FileWriter fileWriter = new FileWriter(Paths.get(logPath).toFile(), true)) {
-            fileWriter.write(timestamp + ": " + user + " executed " + command.name() + " (" + type + ") by "
-                    + userIp + " - result: " + result + System.lineSeparator());
-        }
+        writer.enqueue(timestamp + ": " + user + " executed " + command.name() + " (" + type + ") by "
+                + userIp + " - result: " + result + System.lineSeparator());
     }
 
     public void logError(String text, Exception e) throws IOException {
-        try (FileWriter fileWriter =
-                     new FileWriter(Paths.get(logDir + "/" + getDateHour() + ".txt").toFile())) {
-            fileWriter.write(text + System.lineSeparator()
-                    + e.getMessage() + System.lineSeparator()
-                    + Arrays.toString(e.getStackTrace()));
-        }
+        writer.enqueue(LocalDateTime.now() + ": error: " + text + System.lineSeparator()
+                + e.getMessage() + System.lineSeparator()
+                + Arrays.toString(e.getStackTrace()) + System.lineSeparator());
+    }
+
+    public void flush() {
+        writer.flush();
+    }
+
+    /**
+     * Returns how many events were dropped because the queue was full, always 0 with the blocking policy.
+     */
+    public long getDroppedEvents() {
+        return writer.getDroppedEvents();
     }
 
-    private String getDateHour() {
-        return DateTimeFormatter.ofPattern("yyyy-MM-dd+HH-mm-ss")
-                .format(LocalDateTime.now());
+    @Override
+    public void close() {
+        writer.stop();
     }
 }
@@ -2,13 +2,14 @@ package bg.sofia.uni.fmi.mjt.authserver.log;
 
 import bg.sofia.uni.fmi.mjt.authserver.server.Command;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.time.LocalDateTime;
 
 /**
  * An interface for logging audit-related events.
  */
-public interface AuditLogApi {
+public interface AuditLogApi extends Closeable {
 
     /**
      * Logs a successful login event.
@@ -76,4 +77,15 @@ public interface AuditLogApi {
      * @throws IOException If an I/O error occurs while writing to the log.
      */
     void logError(String text, Exception e) throws IOException;
+
+    /**
+     * Blocks until every event logged before the call has been written to the log file.
+     */
+    void flush();
+
+    /**
+     * Writes the remaining events and releases the log file.
+     */
+    @Override
+    void close();
 }
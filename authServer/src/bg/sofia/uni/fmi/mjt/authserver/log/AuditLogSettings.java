@@ -0,0 +1,52 @@
+package bg.sofia.uni.fmi.mjt.authserver.log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning of the asynchronous {@link AuditLog} writer.
+ *
+ * @param durability          when written events reach the file and the disk.
+ * @param flushIntervalMillis how long buffered events may wait before they are written.
+ * @param maxFileBytes        size after which the log file is rotated.
+ * @param rotationMillis      age after which the log file is rotated.
+ * @param queueCapacity       number of events that may wait for the writer, a power of two.
+ * @param overflowPolicy      what a request thread does when the queue is full.
+ */
+public record AuditLogSettings(Durability durability, long flushIntervalMillis, long maxFileBytes,
+                               long rotationMillis, int queueCapacity, OverflowPolicy overflowPolicy) {
+    private static final long DEFAULT_FLUSH_INTERVAL = 200;
+    private static final long DEFAULT_MAX_FILE_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_ROTATION = TimeUnit.DAYS.toMillis(1);
+    private static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+
+    public static AuditLogSettings defaults() {
+        return new AuditLogSettings(Durability.WRITE, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_FILE_BYTES,
+                DEFAULT_ROTATION, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    public enum Durability {
+        /**
+         * Events are written once the write buffer fills up or the flush interval passes.
+         */
+        BUFFERED,
+        /**
+         * Every batch the writer takes from the queue is written to the file.
+         */
+        WRITE,
+        /**
+         * Every batch is written and forced to disk.
+         */
+        FSYNC
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * The request thread waits for the writer to catch up, no event is lost.
+         */
+        BLOCK,
+        /**
+         * The event is dropped and counted.
+         */
+        DROP
+    }
+}
@@ -0,0 +1,230 @@
+package bg.sofia.uni.fmi.mjt.authserver.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The single thread that owns the log file. Request threads only put formatted lines into the ring buffer,
+ * the writer drains it in batches into one long-lived {@link FileChannel} and rotates the file when needed.
+ */
+class AuditLogWriter implements Runnable {
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BATCH = 1024;
+    private static final long FULL_QUEUE_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final DateTimeFormatter ROTATED_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd+HH-mm-ss");
+
+    private final Path logDir;
+    private final Path logPath;
+    private final AuditLogSettings settings;
+    private final RingBuffer<Object> queue;
+    private final ByteBuffer buffer;
+    private final AtomicLong droppedEvents;
+    private final long flushIntervalNanos;
+    private FileChannel channel;
+    private long fileOpenedAt;
+    private long lastWriteAt;
+    private Thread thread;
+    private volatile boolean isWorking;
+    private volatile boolean isParked;
+
+    AuditLogWriter(Path logDir, Path logPath, AuditLogSettings settings) throws IOException {
+        this.logDir = logDir;
+        this.logPath = logPath;
+        this.settings = settings;
+        this.queue = new RingBuffer<>(settings.queueCapacity());
+        this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        this.droppedEvents = new AtomicLong();
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(settings.flushIntervalMillis());
+        openLogFile();
+    }
+
+    void start() {
+        isWorking = true;
+        thread = new Thread(this, "audit-log-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Called by request threads, never touches the file.
+     */
+    void enqueue(String line) {
+        if (!offer(line, settings.overflowPolicy())) {
+            droppedEvents.incrementAndGet();
+        }
+    }
+
+    /**
+     * Blocks until every line enqueued before the call has been written to the file.
+     */
+    void flush() {
+        if (!isWorking) {
+            return;
+        }
+        CountDownLatch written = new CountDownLatch(1);
+        offer(written, AuditLogSettings.OverflowPolicy.BLOCK);
+        try {
+            while (!written.await(settings.flushIntervalMillis(), TimeUnit.MILLISECONDS)) {
+                if (!thread.isAlive()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    void stop() {
+        isWorking = false;
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean offer(Object event, AuditLogSettings.OverflowPolicy policy) {
+        while (!queue.offer(event)) {
+            if (policy == AuditLogSettings.OverflowPolicy.DROP || !isWorking) {
+                return false;
+            }
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(FULL_QUEUE_BACKOFF_NANOS);
+        }
+        if (isParked) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (isWorking || !queue.isEmpty()) {
+            try {
+                if (drainBatch() == 0) {
+                    writeIfDue();
+                    park();
+                }
+            } catch (IOException e) {
+                System.out.println("can't write log: " + e.getMessage());
+            }
+        }
+        try {
+            writeBuffer();
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("can't close log: " + e.getMessage());
+        }
+    }
+
+    private int drainBatch() throws IOException {
+        int drained = 0;
+        Object event;
+        while (drained < MAX_BATCH && (event = queue.poll()) != null) {
+            drained++;
+            if (event instanceof String line) {
+                append(line.getBytes(StandardCharsets.UTF_8));
+            } else {
+                writeBuffer();
+                ((CountDownLatch) event).countDown();
+            }
+        }
+        if (drained == 0) {
+            return 0;
+        }
+        switch (settings.durability()) {
+            case BUFFERED -> writeIfDue();
+            case WRITE -> writeBuffer();
+            case FSYNC -> {
+                writeBuffer();
+                channel.force(false);
+            }
+        }
+        rotateIfNeeded();
+        return drained;
+    }
+
+    private void park() {
+        isParked = true;
+        if (isWorking && queue.isEmpty()) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+        isParked = false;
+    }
+
+    private void append(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void writeIfDue() throws IOException {
+        if (buffer.position() > 0 && System.nanoTime() - lastWriteAt >= flushIntervalNanos) {
+            writeBuffer();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        lastWriteAt = System.nanoTime();
+    }
+
+    private void rotateIfNeeded() throws IOException {
+        long size = channel.size() + buffer.position();
+        boolean tooBig = size >= settings.maxFileBytes();
+        boolean tooOld = System.currentTimeMillis() - fileOpenedAt >= settings.rotationMillis();
+        if (size == 0 || !(tooBig || tooOld)) {
+            return;
+        }
+        writeBuffer();
+        channel.force(false);
+        channel.close();
+        Files.move(logPath, rotatedPath());
+        openLogFile();
+    }
+
+    private Path rotatedPath() {
+        String name = "log-" + ROTATED_NAME_FORMAT.format(LocalDateTime.now());
+        Path rotated = logDir.resolve(name + ".txt");
+        for (int i = 1; Files.exists(rotated); i++) {
+            rotated = logDir.resolve(name + "-" + i + ".txt");
+        }
+        return rotated;
+    }
+
+    private void openLogFile() throws IOException {
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileOpenedAt = System.currentTimeMillis();
+    }
+}
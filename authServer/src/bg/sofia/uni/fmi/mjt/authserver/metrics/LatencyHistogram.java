@@ -0,0 +1,164 @@
+package bg.sofia.uni.fmi.mjt.authserver.metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free log-linear histogram in the spirit of HdrHistogram. Every power of two is split into
+ * {@value #HALF_SUB_BUCKETS} linear sub-buckets, so any recorded value is reported within 1/64 of itself
+ * while the whole range of positive longs fits in a few thousand counters.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int HIGHEST_SHIFT = Long.SIZE - SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (HIGHEST_SHIFT + 1) * HALF_SUB_BUCKETS;
+    private static final double HUNDRED = 100.0;
+    private static final int TICKS_PER_HALF_DISTANCE = 5;
+    private static final int MAX_HALF_DISTANCES = 30;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Safe to call from any thread. Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(value, 0)));
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getMax() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    public double getMean() {
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            total += count;
+            sum += (double) count * ((lowestValueOf(i) + highestValueOf(i)) / 2.0);
+        }
+        return (total == 0) ? 0 : sum / total;
+    }
+
+    /**
+     * @param percentile a value between 0 and 100.
+     * @return the highest value that is equivalent to the value at the percentile, 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, HUNDRED) / HUNDRED * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Prints the percentile distribution in the layout HdrHistogram uses, so existing plotting tools can read it.
+     *
+     * @param out   where to print.
+     * @param scale recorded values are divided by it, e.g. 1e6 to print nanoseconds as milliseconds.
+     */
+    public void printPercentiles(PrintStream out, double scale) {
+        long total = getCount();
+        out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        if (total == 0) {
+            return;
+        }
+        for (int half = 0; half < MAX_HALF_DISTANCES; half++) {
+            double low = HUNDRED - HUNDRED / Math.pow(2, half);
+            double high = HUNDRED - HUNDRED / Math.pow(2, half + 1);
+            for (int tick = 0; tick < TICKS_PER_HALF_DISTANCE; tick++) {
+                double percentile = low + (high - low) * tick / TICKS_PER_HALF_DISTANCE;
+                printRow(out, percentile, scale, total);
+            }
+            if (Math.ceil(high / HUNDRED * total) >= total) {
+                break;
+            }
+        }
+        printRow(out, HUNDRED, scale, total);
+        out.printf("#[Mean    = %12.3f, Max            = %12.3f]%n", getMean() / scale, getMax() / scale);
+        out.printf("#[Total count    = %12d]%n", total);
+    }
+
+    private void printRow(PrintStream out, double percentile, double scale, long total) {
+        long value = getValueAtPercentile(percentile);
+        long countAtValue = countUpTo(value);
+        double fraction = percentile / HUNDRED;
+        if (fraction < 1) {
+            out.printf("%12.3f %2.12f %10d %14.2f%n", value / scale, fraction, countAtValue, 1 / (1 - fraction));
+        } else {
+            out.printf("%12.3f %2.12f %10d%n", value / scale, fraction, total);
+        }
+    }
+
+    private long countUpTo(long value) {
+        long seen = 0;
+        int last = indexOf(value);
+        for (int i = 0; i <= last; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (Long.SIZE - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long lowestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        return (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        return lowestValueOf(index) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,87 @@
+package bg.sofia.uni.fmi.mjt.authserver.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and latency histograms of the running server. Counters are striped {@link LongAdder}s
+ * and histograms are lock-free, so hot paths only pay for an uncontended increment. Callers look a metric up once
+ * and keep the reference, the maps are only touched again when a snapshot is taken.
+ */
+public class MetricsRegistry {
+    private static final double NANOS_PER_MICRO = 1000.0;
+    private static final double P50 = 50;
+    private static final double P99 = 99;
+    private static final double P999 = 99.9;
+
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Registers a value that is read only when a snapshot is taken.
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * @return the histogram with this name, values are expected in nanoseconds.
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * @return all metrics on one line as space separated {@code name=value} pairs. Histograms are reported as
+     * count, p50, p99, p99.9 and max, latencies in microseconds.
+     */
+    public String snapshot() {
+        StringBuilder snapshot = new StringBuilder();
+        counters.forEach((name, counter) -> append(snapshot, name, Long.toString(counter.sum())));
+        gauges.forEach((name, gauge) -> append(snapshot, name, Long.toString(gauge.getAsLong())));
+        histograms.forEach((name, histogram) -> {
+            long count = histogram.getCount();
+            if (count == 0) {
+                return;
+            }
+            append(snapshot, name + ".count", Long.toString(count));
+            append(snapshot, name + ".p50_us", micros(histogram.getValueAtPercentile(P50)));
+            append(snapshot, name + ".p99_us", micros(histogram.getValueAtPercentile(P99)));
+            append(snapshot, name + ".p999_us", micros(histogram.getValueAtPercentile(P999)));
+            append(snapshot, name + ".max_us", micros(histogram.getMax()));
+        });
+        return snapshot.toString();
+    }
+
+    /**
+     * Appends a timestamped snapshot as one line to the file.
+     */
+    public void appendSnapshot(Path file) throws IOException {
+        Files.writeString(file, LocalDateTime.now() + " " + snapshot() + System.lineSeparator(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static void append(StringBuilder snapshot, String name, String value) {
+        if (!snapshot.isEmpty()) {
+            snapshot.append(' ');
+        }
+        snapshot.append(name).append('=').append(value);
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / NANOS_PER_MICRO);
+    }
+}
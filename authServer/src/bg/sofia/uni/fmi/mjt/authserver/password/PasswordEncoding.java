@@ -0,0 +1,114 @@
+package bg.sofia.uni.fmi.mjt.authserver.password;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+/**
+ * Converts salts and stored hashes between their text form, which the hashers and the csv records use,
+ * and a compact binary form for memory and the binary snapshot.
+ * <p>
+ * Hex salts from {@link PasswordHashing#newSalt()} become their 16 raw bytes. A hash starts with a kind byte:
+ * PBKDF2 hashes continue with the iteration count as a big-endian int and the 64-byte key, legacy SHA-512
+ * hashes with the 64-byte digest, anything else with its UTF-8 text. Every conversion is lossless.
+ */
+public final class PasswordEncoding {
+    public static final int HEX_SALT_BYTES = 16;
+    private static final int DIGEST_BYTES = 64;
+    private static final byte TEXT = 0;
+    private static final byte SHA512 = 1;
+    private static final byte PBKDF2 = 2;
+    private static final String PBKDF2_PREFIX = "pbkdf2-sha512$";
+    private static final char PBKDF2_SEPARATOR = '$';
+    private static final HexFormat HEX = HexFormat.of();
+
+    private PasswordEncoding() {
+    }
+
+    /**
+     * @return whether the salt is lowercase hex of {@link #HEX_SALT_BYTES} bytes and can be stored raw.
+     */
+    public static boolean isHexSalt(String salt) {
+        return salt.length() == 2 * HEX_SALT_BYTES && isLowercaseHex(salt, 0, salt.length());
+    }
+
+    public static byte[] encodeSalt(String salt) {
+        return isHexSalt(salt) ? HEX.parseHex(salt) : salt.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String decodeSalt(byte[] salt, boolean hex) {
+        return hex ? HEX.formatHex(salt) : new String(salt, StandardCharsets.UTF_8);
+    }
+
+    public static byte[] encodeHash(String storedHash) {
+        if (storedHash.length() == 2 * DIGEST_BYTES && isLowercaseHex(storedHash, 0, storedHash.length())) {
+            byte[] encoded = new byte[1 + DIGEST_BYTES];
+            encoded[0] = SHA512;
+            parseHex(storedHash, 0, encoded, 1);
+            return encoded;
+        }
+        int separator = storedHash.indexOf(PBKDF2_SEPARATOR, PBKDF2_PREFIX.length());
+        if (storedHash.startsWith(PBKDF2_PREFIX) && separator > 0
+                && storedHash.length() - separator - 1 == 2 * DIGEST_BYTES
+                && isLowercaseHex(storedHash, separator + 1, storedHash.length())) {
+            String iterations = storedHash.substring(PBKDF2_PREFIX.length(), separator);
+            int count = parseCanonicalInt(iterations);
+            if (count > 0) {
+                byte[] encoded = new byte[1 + Integer.BYTES + DIGEST_BYTES];
+                encoded[0] = PBKDF2;
+                for (int i = 0; i < Integer.BYTES; i++) {
+                    encoded[1 + i] = (byte) (count >>> (Integer.SIZE - Byte.SIZE * (i + 1)));
+                }
+                parseHex(storedHash, separator + 1, encoded, 1 + Integer.BYTES);
+                return encoded;
+            }
+        }
+        byte[] text = storedHash.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = new byte[1 + text.length];
+        encoded[0] = TEXT;
+        System.arraycopy(text, 0, encoded, 1, text.length);
+        return encoded;
+    }
+
+    public static String decodeHash(byte[] encoded) {
+        return switch (encoded[0]) {
+            case SHA512 -> HEX.formatHex(encoded, 1, encoded.length);
+            case PBKDF2 -> {
+                int iterations = 0;
+                for (int i = 0; i < Integer.BYTES; i++) {
+                    iterations = (iterations << Byte.SIZE) | (encoded[1 + i] & 0xFF);
+                }
+                yield PBKDF2_PREFIX + iterations + PBKDF2_SEPARATOR
+                        + HEX.formatHex(encoded, 1 + Integer.BYTES, encoded.length);
+            }
+            default -> new String(encoded, 1, encoded.length - 1, StandardCharsets.UTF_8);
+        };
+    }
+
+    private static void parseHex(String hex, int from, byte[] target, int offset) {
+        for (int i = offset; i < target.length; i++, from += 2) {
+            target[i] = (byte) HexFormat.fromHexDigits(hex, from, from + 2);
+        }
+    }
+
+    private static boolean isLowercaseHex(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the value, or -1 unless the text is exactly how {@link Integer#toString(int)} prints it.
+     */
+    private static int parseCanonicalInt(String text) {
+        try {
+            int value = Integer.parseInt(text);
+            return Integer.toString(value).equals(text) ? value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
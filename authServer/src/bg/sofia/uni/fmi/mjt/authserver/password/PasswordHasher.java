@@ -0,0 +1,42 @@
+package bg.sofia.uni.fmi.mjt.authserver.password;
+
+/**
+ * A password hashing scheme. Hashes are stored in the csv database, so they never contain commas or newlines.
+ */
+public interface PasswordHasher {
+
+    /**
+     * Hashes a password with the current settings of the scheme.
+     *
+     * @param password The password in plain text.
+     * @param salt     The salt of the user.
+     * @return The encoded hash.
+     */
+    String hash(String password, String salt);
+
+    /**
+     * Checks if a stored hash was produced by this scheme.
+     *
+     * @param storedHash The hash from the database.
+     * @return True if this hasher can verify the hash, false otherwise.
+     */
+    boolean supports(String storedHash);
+
+    /**
+     * Verifies a password against a hash produced by this scheme.
+     *
+     * @param password   The password in plain text.
+     * @param salt       The salt of the user.
+     * @param storedHash The hash from the database.
+     * @return True if the password matches, false otherwise.
+     */
+    boolean matches(String password, String salt, String storedHash);
+
+    /**
+     * Checks if a hash produced by this scheme is weaker than what the scheme produces now.
+     *
+     * @param storedHash The hash from the database.
+     * @return True if the hash should be replaced on the next successful login, false otherwise.
+     */
+    boolean needsRehash(String storedHash);
+}
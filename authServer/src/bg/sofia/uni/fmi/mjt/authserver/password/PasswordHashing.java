@@ -0,0 +1,132 @@
+package bg.sofia.uni.fmi.mjt.authserver.password;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.HashException;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes new passwords with the current scheme and verifies stored hashes with whichever scheme produced them.
+ * Every hash runs on a small bounded pool, so a burst of logins can use at most that many cores for hashing
+ * and the rest stay free for the selector threads. When the pool's queue is full the request fails fast.
+ */
+public final class PasswordHashing {
+    private static final int AVAILABLE_CORES = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_THREADS = Math.max(1, AVAILABLE_CORES / 2);
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+    private static final int SALT_SIZE = 16;
+    private static final HexFormat HEX = HexFormat.of();
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private static volatile PasswordHashing defaultHashing;
+
+    private final PasswordHasher current;
+    private final List<PasswordHasher> legacy;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param current       The scheme used for new hashes.
+     * @param legacy        Older schemes that may still be found in the database.
+     * @param threads       Number of threads that hash in parallel.
+     * @param queueCapacity Number of hashes that may wait for a free thread.
+     */
+    public PasswordHashing(PasswordHasher current, List<PasswordHasher> legacy, int threads, int queueCapacity) {
+        this.current = current;
+        this.legacy = List.copyOf(legacy);
+        String prefix = "password-hasher-" + POOL_COUNT.incrementAndGet() + "-";
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * @return The hashing used by {@link bg.sofia.uni.fmi.mjt.authserver.user.User}, PBKDF2 unless replaced.
+     */
+    public static PasswordHashing getDefault() {
+        PasswordHashing hashing = defaultHashing;
+        if (hashing == null) {
+            synchronized (PasswordHashing.class) {
+                if (defaultHashing == null) {
+                    defaultHashing = new PasswordHashing(new Pbkdf2PasswordHasher(),
+                            List.of(new Sha512PasswordHasher()), DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+                }
+                hashing = defaultHashing;
+            }
+        }
+        return hashing;
+    }
+
+    public static void setDefault(PasswordHashing hashing) {
+        defaultHashing = hashing;
+    }
+
+    /**
+     * @return 16 random bytes as hex, safe to store in the csv database.
+     */
+    public String newSalt() {
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.get().nextBytes(salt);
+        return HEX.formatHex(salt);
+    }
+
+    public String hash(String password, String salt) {
+        return run(() -> current.hash(password, salt));
+    }
+
+    public boolean matches(String password, String salt, String storedHash) {
+        PasswordHasher hasher = hasherFor(storedHash);
+        if (hasher == null) {
+            return false;
+        }
+        return run(() -> hasher.matches(password, salt, storedHash));
+    }
+
+    public boolean needsRehash(String storedHash) {
+        return !current.supports(storedHash) || current.needsRehash(storedHash);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private PasswordHasher hasherFor(String storedHash) {
+        if (current.supports(storedHash)) {
+            return current;
+        }
+        for (PasswordHasher hasher : legacy) {
+            if (hasher.supports(storedHash)) {
+                return hasher;
+            }
+        }
+        return null;
+    }
+
+    private <T> T run(Callable<T> task) {
+        try {
+            return executor.submit(task).get();
+        } catch (RejectedExecutionException e) {
+            throw new HashException("too many passwords are being hashed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HashException("interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof HashException hashException) {
+                throw hashException;
+            }
+            throw new HashException("problem with hashing password", e.getCause());
+        }
+    }
+}
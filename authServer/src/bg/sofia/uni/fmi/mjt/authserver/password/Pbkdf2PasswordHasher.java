@@ -0,0 +1,92 @@
+package bg.sofia.uni.fmi.mjt.authserver.password;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.HashException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.HexFormat;
+
+/**
+ * PBKDF2 with HMAC-SHA512 from the JDK. The iteration count is stored next to the hash as
+ * {@code pbkdf2-sha512$<iterations>$<hex>}, so raising the cost doesn't break existing hashes.
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+    public static final int DEFAULT_ITERATIONS = 210_000;
+    private static final String PREFIX = "pbkdf2-sha512$";
+    private static final char SEPARATOR = '$';
+    private static final int KEY_LENGTH_BITS = 512;
+    private static final HexFormat HEX = HexFormat.of();
+    private static final ThreadLocal<SecretKeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new HashException("problem with hashing password", e);
+        }
+    });
+
+    private final int iterations;
+
+    public Pbkdf2PasswordHasher() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param iterations The work factor of new hashes.
+     */
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String hash(String password, String salt) {
+        return PREFIX + iterations + SEPARATOR + HEX.formatHex(derive(password, salt, iterations));
+    }
+
+    @Override
+    public boolean supports(String storedHash) {
+        return storedHash.startsWith(PREFIX) && storedHash.indexOf(SEPARATOR, PREFIX.length()) > 0;
+    }
+
+    @Override
+    public boolean matches(String password, String salt, String storedHash) {
+        int separator = storedHash.indexOf(SEPARATOR, PREFIX.length());
+        byte[] expected;
+        int storedIterations;
+        try {
+            storedIterations = Integer.parseInt(storedHash, PREFIX.length(), separator, 10);
+            expected = HEX.parseHex(storedHash, separator + 1, storedHash.length());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return storedIterations > 0 && MessageDigest.isEqual(derive(password, salt, storedIterations), expected);
+    }
+
+    @Override
+    public boolean needsRehash(String storedHash) {
+        int separator = storedHash.indexOf(SEPARATOR, PREFIX.length());
+        try {
+            return Integer.parseInt(storedHash, PREFIX.length(), separator, 10) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] derive(String password, String salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt.getBytes(StandardCharsets.UTF_8),
+                iterations, KEY_LENGTH_BITS);
+        try {
+            return KEY_FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException e) {
+            throw new HashException("problem with hashing password", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
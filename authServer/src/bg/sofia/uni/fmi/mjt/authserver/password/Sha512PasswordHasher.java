@@ -0,0 +1,55 @@
+package bg.sofia.uni.fmi.mjt.authserver.password;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.HashException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * The original scheme: a single salted SHA-512 round, stored as 128 lowercase hex digits.
+ * Kept so existing users can still log in and get upgraded to a stronger scheme.
+ */
+public class Sha512PasswordHasher implements PasswordHasher {
+    private static final int HASH_HEX_LENGTH = 128;
+    private static final HexFormat HEX = HexFormat.of();
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new HashException("problem with hashing password", e);
+        }
+    });
+
+    @Override
+    public String hash(String password, String salt) {
+        MessageDigest md = DIGEST.get();
+        md.update(salt.getBytes(StandardCharsets.UTF_8));
+        return HEX.formatHex(md.digest(password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public boolean supports(String storedHash) {
+        if (storedHash.length() != HASH_HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < storedHash.length(); i++) {
+            if (!HexFormat.isHexDigit(storedHash.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean matches(String password, String salt, String storedHash) {
+        return MessageDigest.isEqual(hash(password, salt).getBytes(StandardCharsets.US_ASCII),
+                storedHash.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public boolean needsRehash(String storedHash) {
+        return false;
+    }
+}
@@ -0,0 +1,34 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Direct buffers of one size, reused across the connections of a single {@link Reactor}, so it isn't thread-safe.
+ * At most maxPooled free buffers are kept, the rest are left to the garbage collector.
+ */
+class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free;
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.free = new ArrayDeque<>();
+    }
+
+    /**
+     * @return a cleared buffer.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        return (buffer == null) ? ByteBuffer.allocateDirect(bufferSize) : buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (free.size() < maxPooled) {
+            free.push(buffer.clear());
+        }
+    }
+}
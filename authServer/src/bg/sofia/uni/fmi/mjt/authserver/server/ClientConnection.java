@@ -0,0 +1,235 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-connection state owned by a single {@link Reactor}.
+ * Requests and responses are newline-delimited frames. The read and write buffers and the {@link Transport} are only
+ * touched by the reactor thread, commands and responses are handed between the reactor and the workers through queues.
+ * The reactor also keeps the time of the last read or write here, its idle timer checks it lazily when it fires.
+ */
+class ClientConnection {
+    private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+    private static final int MAX_PIPELINED_COMMANDS = 256;
+    private static final byte FRAME_DELIMITER = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final SocketChannel channel;
+    private final Transport transport;
+    private final String ip;
+    private ByteBuffer readBuffer;
+    private final ByteBuffer writeBuffer;
+    private ByteBuffer currentResponse;
+    private boolean inputClosed;
+    private boolean receivedCommand;
+    private long lastActivityNanos;
+    private final TimerWheel.Timer<ClientConnection> idleTimer;
+
+    private final Queue<String> commands;
+    private final Queue<ByteBuffer> responses;
+    private final AtomicInteger outstandingCommands;
+    private final AtomicBoolean processingScheduled;
+    private final AtomicBoolean writeRequested;
+
+    ClientConnection(SocketChannel channel, String ip) {
+        this(channel, new PlainTransport(channel), ip);
+    }
+
+    ClientConnection(SocketChannel channel, Transport transport, String ip) {
+        this.channel = channel;
+        this.transport = transport;
+        this.ip = ip;
+        this.readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.commands = new ConcurrentLinkedQueue<>();
+        this.responses = new ConcurrentLinkedQueue<>();
+        this.outstandingCommands = new AtomicInteger();
+        this.processingScheduled = new AtomicBoolean();
+        this.writeRequested = new AtomicBoolean();
+        this.idleTimer = new TimerWheel.Timer<>(this);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    String getIp() {
+        return ip;
+    }
+
+    TimerWheel.Timer<ClientConnection> getIdleTimer() {
+        return idleTimer;
+    }
+
+    void touch(long nowNanos) {
+        lastActivityNanos = nowNanos;
+    }
+
+    long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    /**
+     * @return whether the client has sent at least one complete command.
+     */
+    boolean hasReceivedCommand() {
+        return receivedCommand;
+    }
+
+    /**
+     * @return the number of bytes read from the network, or -1 once the client closed its side.
+     */
+    int read() throws IOException {
+        return transport.read(readBuffer);
+    }
+
+    /**
+     * @return whether input that the transport had buffered was moved into the read buffer.
+     */
+    boolean readBuffered() throws IOException {
+        return transport.readBuffered(readBuffer) > 0;
+    }
+
+    /**
+     * Fills the write buffer with queued responses and writes as much as the channel takes.
+     *
+     * @return the number of bytes written to the network.
+     */
+    int write() throws IOException {
+        int written = transport.write(fillWriteBuffer());
+        compactWriteBuffer();
+        return written;
+    }
+
+    void release() {
+        transport.release();
+    }
+
+    /**
+     * Splits the accumulated input into complete frames and queues them as commands.
+     * A trailing partial frame stays in the read buffer until the rest of it arrives.
+     *
+     * @return false if a single frame grew past the maximum frame size.
+     */
+    boolean decodeFrames() {
+        readBuffer.flip();
+        byte[] bytes = readBuffer.array();
+        int frameStart = readBuffer.position();
+        for (int i = frameStart; i < readBuffer.limit(); i++) {
+            if (bytes[i] == FRAME_DELIMITER) {
+                int frameEnd = (i > frameStart && bytes[i - 1] == CARRIAGE_RETURN) ? i - 1 : i;
+                if (frameEnd > frameStart) {
+                    commands.add(new String(bytes, frameStart, frameEnd - frameStart, StandardCharsets.UTF_8));
+                    outstandingCommands.incrementAndGet();
+                    receivedCommand = true;
+                }
+                frameStart = i + 1;
+            }
+        }
+        readBuffer.position(frameStart);
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_FRAME_SIZE) {
+                return false;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_FRAME_SIZE));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+        return true;
+    }
+
+    String pollCommand() {
+        return commands.poll();
+    }
+
+    boolean hasCommands() {
+        return !commands.isEmpty();
+    }
+
+    /**
+     * Marks the connection as taken by a worker, so its commands are never executed concurrently.
+     *
+     * @return true if the caller should schedule processing.
+     */
+    boolean tryScheduleProcessing() {
+        return processingScheduled.compareAndSet(false, true);
+    }
+
+    void finishProcessing() {
+        processingScheduled.set(false);
+    }
+
+    /**
+     * Queues a response produced by a worker.
+     *
+     * @return true if the reactor has to be notified about pending output.
+     */
+    boolean addResponse(String response) {
+        responses.add(ByteBuffer.wrap((response + (char) FRAME_DELIMITER).getBytes(StandardCharsets.UTF_8)));
+        return writeRequested.compareAndSet(false, true);
+    }
+
+    void clearWriteRequest() {
+        writeRequested.set(false);
+    }
+
+    /**
+     * Copies as many queued responses as fit into the write buffer and flips it for draining.
+     */
+    private ByteBuffer fillWriteBuffer() {
+        while (writeBuffer.hasRemaining()) {
+            if (currentResponse == null) {
+                currentResponse = responses.poll();
+                if (currentResponse == null) {
+                    break;
+                }
+            }
+            int length = Math.min(writeBuffer.remaining(), currentResponse.remaining());
+            writeBuffer.put(writeBuffer.position(), currentResponse, currentResponse.position(), length);
+            writeBuffer.position(writeBuffer.position() + length);
+            currentResponse.position(currentResponse.position() + length);
+            if (!currentResponse.hasRemaining()) {
+                currentResponse = null;
+                outstandingCommands.decrementAndGet();
+            }
+        }
+        return writeBuffer.flip();
+    }
+
+    private void compactWriteBuffer() {
+        writeBuffer.compact();
+    }
+
+    boolean hasPendingOutput() {
+        return writeBuffer.position() > 0 || currentResponse != null || !responses.isEmpty()
+                || transport.hasPendingOutput();
+    }
+
+    /**
+     * Reads are paused while too many commands are waiting for their responses to be written.
+     */
+    boolean canAcceptInput() {
+        return !inputClosed && outstandingCommands.get() < MAX_PIPELINED_COMMANDS;
+    }
+
+    void closeInput() {
+        inputClosed = true;
+    }
+
+    /**
+     * A connection whose client half-closed is done once every command it sent has been answered.
+     */
+    boolean isFinished() {
+        return inputClosed && outstandingCommands.get() == 0 && !hasPendingOutput();
+    }
+}
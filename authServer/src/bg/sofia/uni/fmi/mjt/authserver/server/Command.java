@@ -8,6 +8,17 @@ public enum Command {
     LOGOUT,
     ADD_ADMIN_USER,
     REMOVE_ADMIN_USER,
-    DELETE_USER
+    DELETE_USER,
+    STATS;
 
+    private static final NameTable<Command> BY_NAME = new NameTable<>(values(), Command::name, true);
+
+    /**
+     * Resolves a command name like {@code reset-password} without allocating.
+     *
+     * @return the command named by text[start, end), or null if there is none.
+     */
+    public static Command lookup(CharSequence text, int start, int end) {
+        return BY_NAME.lookup(text, start, end);
+    }
 }
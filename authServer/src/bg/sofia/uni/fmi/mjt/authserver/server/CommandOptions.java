@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.util.Map;
+
+/**
+ * The option values of one command, indexed by {@link Option}. Each worker thread keeps one instance and
+ * {@link CommandParser} refills it for every command instead of building a new map.
+ */
+public final class CommandOptions {
+    private static final Option[] OPTIONS = Option.values();
+    private final String[] values = new String[OPTIONS.length];
+
+    public static CommandOptions of(Map<String, String> optionsAndArgs) {
+        CommandOptions options = new CommandOptions();
+        for (Map.Entry<String, String> entry : optionsAndArgs.entrySet()) {
+            Option option = Option.lookup(entry.getKey(), 0, entry.getKey().length());
+            if (option != null) {
+                options.set(option, entry.getValue());
+            }
+        }
+        return options;
+    }
+
+    /**
+     * @return the value of the option, or null if the command didn't have it.
+     */
+    public String get(Option option) {
+        return values[option.ordinal()];
+    }
+
+    public boolean has(Option option) {
+        return values[option.ordinal()] != null;
+    }
+
+    void set(Option option, String value) {
+        values[option.ordinal()] = value;
+    }
+
+    void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+    }
+}
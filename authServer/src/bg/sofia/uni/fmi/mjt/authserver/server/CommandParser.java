@@ -0,0 +1,67 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidCommandException;
+
+/**
+ * Splits a command line on runs of spaces by hand. The command name and the option names are resolved straight
+ * from the input, so the only objects created for a valid command are the option values themselves.
+ */
+public final class CommandParser {
+    private static final char SEPARATOR = ' ';
+
+    private CommandParser() {
+    }
+
+    /**
+     * Parses {@code <command> [<option> <value>]...}. Unknown options are skipped together with their value.
+     *
+     * @param input   the command line.
+     * @param options cleared and filled with the option values.
+     * @return the command, or null if the first word isn't one.
+     * @throws InvalidCommandException if an option has no value or its value is an option name.
+     */
+    public static Command parse(CharSequence input, CommandOptions options) {
+        options.clear();
+        int length = input.length();
+        int commandEnd = tokenEnd(input, 0);
+        Command command = Command.lookup(input, 0, commandEnd);
+        if (command == null) {
+            return null;
+        }
+        int position = skipSeparators(input, commandEnd);
+        while (position < length) {
+            int optionEnd = tokenEnd(input, position);
+            int valueStart = skipSeparators(input, optionEnd);
+            if (valueStart == length) {
+                throw new InvalidCommandException("Missing value for option or no such option: "
+                        + input.subSequence(position, optionEnd));
+            }
+            int valueEnd = tokenEnd(input, valueStart);
+            if (Option.lookup(input, valueStart, valueEnd) != null) {
+                throw new InvalidCommandException("Invalid "
+                        + input.subSequence(Math.min(position + 2, optionEnd), optionEnd)
+                        + ": " + input.subSequence(valueStart, valueEnd));
+            }
+            Option option = Option.lookup(input, position, optionEnd);
+            if (option != null) {
+                options.set(option, input.subSequence(valueStart, valueEnd).toString());
+            }
+            position = skipSeparators(input, valueEnd);
+        }
+        return command;
+    }
+
+    private static int tokenEnd(CharSequence input, int position) {
+        while (position < input.length() && input.charAt(position) != SEPARATOR) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipSeparators(CharSequence input, int position) {
+        while (position < input.length() && input.charAt(position) == SEPARATOR) {
+            position++;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the open connections of a server. The acceptor takes a permit before accepting a channel and the
+ * reactor that closes it gives the permit back, the acceptor is woken up when a full server gets room again.
+ */
+class ConnectionLimit {
+    private final int maxConnections;
+    private final AtomicInteger open;
+    private final Runnable onRoom;
+
+    ConnectionLimit(int maxConnections, Runnable onRoom) {
+        this.maxConnections = maxConnections;
+        this.open = new AtomicInteger();
+        this.onRoom = onRoom;
+    }
+
+    boolean tryAcquire() {
+        int current;
+        do {
+            current = open.get();
+            if (current >= maxConnections) {
+                return false;
+            }
+        } while (!open.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    void release() {
+        if (open.getAndDecrement() == maxConnections) {
+            onRoom.run();
+        }
+    }
+
+    boolean hasRoom() {
+        return open.get() < maxConnections;
+    }
+
+    int getOpen() {
+        return open.get();
+    }
+}
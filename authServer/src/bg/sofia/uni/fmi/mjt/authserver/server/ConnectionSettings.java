@@ -0,0 +1,31 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the client connections of a {@link Server}.
+ *
+ * @param maxConnections            connections open at once, the server stops accepting while at the limit.
+ * @param idleTimeoutMillis         how long a connection may stay silent before it is closed.
+ * @param firstCommandTimeoutMillis how long a new connection may take to send its first command, including
+ *                                  the TLS handshake, so connections that never speak don't hold a slot for long.
+ * @param drainTimeoutMillis        how long a stopping server waits for in-flight commands to be answered.
+ */
+public record ConnectionSettings(int maxConnections, long idleTimeoutMillis, long firstCommandTimeoutMillis,
+                                 long drainTimeoutMillis) {
+    private static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEFAULT_FIRST_COMMAND_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final long DEFAULT_DRAIN_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    public ConnectionSettings {
+        if (maxConnections < 1 || idleTimeoutMillis < 1 || firstCommandTimeoutMillis < 1 || drainTimeoutMillis < 0) {
+            throw new IllegalArgumentException("connection limits must be positive");
+        }
+    }
+
+    public static ConnectionSettings defaults() {
+        return new ConnectionSettings(DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT, DEFAULT_FIRST_COMMAND_TIMEOUT,
+                DEFAULT_DRAIN_TIMEOUT);
+    }
+}
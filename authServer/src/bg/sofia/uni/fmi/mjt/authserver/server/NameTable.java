@@ -0,0 +1,72 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.util.function.Function;
+
+/**
+ * Resolves a region of the input to an enum constant without creating a substring. Names are bucketed by length,
+ * so a lookup compares against at most a couple of candidates of exactly the right length.
+ */
+final class NameTable<E> {
+    private final Object[][] constantsByLength;
+    private final String[][] namesByLength;
+    private final boolean lenient;
+
+    /**
+     * @param lenient if true, letters are compared ignoring case and '-' matches '_', like command names.
+     */
+    NameTable(E[] constants, Function<E, String> nameOf, boolean lenient) {
+        int maxLength = 0;
+        for (E constant : constants) {
+            maxLength = Math.max(maxLength, nameOf.apply(constant).length());
+        }
+        int[] counts = new int[maxLength + 1];
+        for (E constant : constants) {
+            counts[nameOf.apply(constant).length()]++;
+        }
+        constantsByLength = new Object[maxLength + 1][];
+        namesByLength = new String[maxLength + 1][];
+        for (int length = 0; length <= maxLength; length++) {
+            constantsByLength[length] = new Object[counts[length]];
+            namesByLength[length] = new String[counts[length]];
+            counts[length] = 0;
+        }
+        for (E constant : constants) {
+            String name = nameOf.apply(constant);
+            int length = name.length();
+            constantsByLength[length][counts[length]] = constant;
+            namesByLength[length][counts[length]++] = name;
+        }
+        this.lenient = lenient;
+    }
+
+    /**
+     * @return the constant named by text[start, end), or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    E lookup(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length >= namesByLength.length) {
+            return null;
+        }
+        String[] names = namesByLength[length];
+        for (int i = 0; i < names.length; i++) {
+            if (matches(names[i], text, start)) {
+                return (E) constantsByLength[length][i];
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(String name, CharSequence text, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = text.charAt(start + i);
+            if (lenient) {
+                c = (c == '-') ? '_' : Character.toUpperCase(c);
+            }
+            if (c != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+public enum Option {
+    USERNAME("--username"),
+    PASSWORD("--password"),
+    FIRST_NAME("--first-name"),
+    LAST_NAME("--last-name"),
+    EMAIL("--email"),
+    SESSION_ID("--session-id"),
+    NEW_USERNAME("--new-username"),
+    NEW_FIRST_NAME("--new-first-name"),
+    NEW_LAST_NAME("--new-last-name"),
+    NEW_EMAIL("--new-email"),
+    NEW_PASSWORD("--new-password"),
+    OLD_PASSWORD("--old-password");
+
+    private static final NameTable<Option> BY_NAME = new NameTable<>(values(), Option::getName, false);
+
+    private final String name;
+
+    Option(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the option named by text[start, end), or null if there is none.
+     */
+    public static Option lookup(CharSequence text, int start, int end) {
+        return BY_NAME.lookup(text, start, end);
+    }
+}
@@ -0,0 +1,37 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+class PlainTransport implements Transport {
+    private final SocketChannel channel;
+
+    PlainTransport(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    @Override
+    public int readBuffered(ByteBuffer dst) {
+        return 0;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return channel.write(src);
+    }
+
+    @Override
+    public boolean hasPendingOutput() {
+        return false;
+    }
+
+    @Override
+    public void release() {
+    }
+}
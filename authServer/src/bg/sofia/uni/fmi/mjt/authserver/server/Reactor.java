@@ -0,0 +1,510 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.log.AuditLogApi;
+import bg.sofia.uni.fmi.mjt.authserver.metrics.LatencyHistogram;
+import bg.sofia.uni.fmi.mjt.authserver.metrics.MetricsRegistry;
+import bg.sofia.uni.fmi.mjt.authserver.response.Response;
+import bg.sofia.uni.fmi.mjt.authserver.user.UserManagerApi;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A selector loop serving a subset of the client connections.
+ * Reads and writes happen on the reactor thread, commands are executed on the shared worker pool. When the pool
+ * rejects a batch, see {@link #rejectBatch}, its commands are answered with a busy reply instead of running on the
+ * reactor thread.
+ * With a TLS context every connection gets its own {@link SSLEngine}, the network buffers are pooled per reactor.
+ * <p>
+ * Idle connections are closed by a {@link TimerWheel} that the loop advances after every select. A read or a write
+ * only updates the connection's timestamp, the timer compares it when it fires and moves itself if the connection
+ * was active in the meantime. A new connection has to send its first command within a shorter timeout.
+ */
+class Reactor implements Runnable {
+    private static final String SERVER_ERROR = "There was a problem with the server, try again later";
+    private static final String SERVER_BUSY = "The server is busy, try again later";
+    private static final int MAX_COMMANDS_PER_BATCH = 64;
+    private static final int MAX_POOLED_TLS_BUFFERS = 256;
+    private static final int TIMER_SLOTS = 512;
+    private static final int TICKS_PER_TIMEOUT = 10;
+    private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int END_OF_INPUT = -1;
+    private static final int CLOSED = -2;
+
+    private final Selector selector;
+    private final Executor workers;
+    private final UserManagerApi userManager;
+    private final AuditLogApi auditLog;
+    private final SSLContext tls;
+    private final BufferPool packetBuffers;
+    private final BufferPool applicationBuffers;
+    private final ConnectionLimit connectionLimit;
+    private final long idleTimeoutNanos;
+    private final long firstCommandTimeoutNanos;
+    private final TimerWheel<ClientConnection> idleTimers;
+    private final Queue<ClientConnection> newConnections;
+    private final Queue<SelectionKey> pendingWrites;
+    private final LongAdder activeConnections;
+    private final LongAdder idleClosed;
+    private final LongAdder bytesIn;
+    private final LongAdder bytesOut;
+    private final LongAdder rejectedCommands;
+    private final LatencyHistogram loopTime;
+    private final LatencyHistogram[] commandLatency;
+    private final LatencyHistogram unknownCommandLatency;
+    private volatile int connectionCount;
+    private long loopStartNanos;
+    private boolean isDrainStarted;
+    private volatile boolean isDraining;
+    private volatile boolean isWorking;
+
+    /**
+     * @param tls             encrypts every connection when not null.
+     * @param connectionLimit gets a permit back for every connection this reactor closes.
+     */
+    Reactor(Executor workers, UserManagerApi userManager, AuditLogApi auditLog, MetricsRegistry metrics,
+            SSLContext tls, ConnectionSettings settings, ConnectionLimit connectionLimit) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+        this.userManager = userManager;
+        this.auditLog = auditLog;
+        this.tls = tls;
+        if (tls != null) {
+            SSLEngine engine = tls.createSSLEngine();
+            this.packetBuffers = new BufferPool(engine.getSession().getPacketBufferSize(), MAX_POOLED_TLS_BUFFERS);
+            this.applicationBuffers = new BufferPool(engine.getSession().getApplicationBufferSize(),
+                    MAX_POOLED_TLS_BUFFERS);
+        } else {
+            this.packetBuffers = null;
+            this.applicationBuffers = null;
+        }
+        this.connectionLimit = connectionLimit;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.idleTimeoutMillis());
+        this.firstCommandTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.firstCommandTimeoutMillis());
+        long tickNanos = Math.max(MIN_TICK_NANOS,
+                Math.min(idleTimeoutNanos, firstCommandTimeoutNanos) / TICKS_PER_TIMEOUT);
+        this.idleTimers = new TimerWheel<>(tickNanos, TIMER_SLOTS, System.nanoTime());
+        this.newConnections = new ConcurrentLinkedQueue<>();
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.activeConnections = metrics.counter("connections.active");
+        this.idleClosed = metrics.counter("connections.idle_closed");
+        this.bytesIn = metrics.counter("bytes.in");
+        this.bytesOut = metrics.counter("bytes.out");
+        this.rejectedCommands = metrics.counter("commands.rejected");
+        this.loopTime = metrics.histogram("reactor.loop");
+        Command[] commands = Command.values();
+        this.commandLatency = new LatencyHistogram[commands.length];
+        for (Command command : commands) {
+            commandLatency[command.ordinal()] = metrics.histogram("command." + command.name().toLowerCase());
+        }
+        this.unknownCommandLatency = metrics.histogram("command.unknown");
+        this.isWorking = true;
+    }
+
+    /**
+     * Hands a freshly accepted channel over to this reactor, the caller has taken a permit of the connection limit
+     * for it. Safe to call from any thread.
+     */
+    void register(SocketChannel channel, String ip) {
+        newConnections.add(new ClientConnection(channel, ip));
+        selector.wakeup();
+    }
+
+    /**
+     * Stops reading new commands. Connections are closed once their in-flight commands are answered and the
+     * reactor stops by itself when none are left.
+     */
+    void drain() {
+        isDraining = true;
+        selector.wakeup();
+    }
+
+    /**
+     * @return the number of connections this reactor serves, only written by the reactor thread.
+     */
+    int connectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * Closes every connection right away.
+     */
+    void stop() {
+        isWorking = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try (selector) {
+            while (isWorking) {
+                selector.select(idleTimers.millisUntilNextTick(System.nanoTime()));
+                loopStartNanos = System.nanoTime();
+                registerNewConnections();
+                flushPendingWrites();
+                processSelectedKeys();
+                idleTimers.expire(loopStartNanos, this::closeIfIdle);
+                if (isDraining) {
+                    drainConnections();
+                }
+                loopTime.record(System.nanoTime() - loopStartNanos);
+            }
+            selector.keys().forEach(this::closeKey);
+        } catch (IOException | ClosedSelectorException e) {
+            logError("reactor stopped", e);
+        } finally {
+            rejectNewConnections();
+        }
+    }
+
+    private void registerNewConnections() {
+        if (isDraining) {
+            rejectNewConnections();
+            return;
+        }
+        ClientConnection connection;
+        while ((connection = newConnections.poll()) != null) {
+            try {
+                if (tls != null) {
+                    connection = secure(connection);
+                }
+                connection.getChannel().configureBlocking(false);
+                // replies are already coalesced per write, Nagle would only hold them back for a delayed ACK
+                connection.getChannel().setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                activeConnections.increment();
+                connectionCount++;
+                connection.touch(loopStartNanos);
+                idleTimers.schedule(connection.getIdleTimer(), loopStartNanos + firstCommandTimeoutNanos);
+            } catch (IOException e) {
+                close(connection.getChannel());
+                connectionLimit.release();
+            }
+        }
+    }
+
+    private void rejectNewConnections() {
+        ClientConnection connection;
+        while ((connection = newConnections.poll()) != null) {
+            close(connection.getChannel());
+            connectionLimit.release();
+        }
+    }
+
+    /**
+     * Runs when the idle timer of a connection fires. A connection that has sent a command gets until its last
+     * activity plus the idle timeout, one that hasn't is closed right away.
+     */
+    private void closeIfIdle(ClientConnection connection) {
+        if (connection.hasReceivedCommand()) {
+            long deadline = connection.getLastActivityNanos() + idleTimeoutNanos;
+            if (deadline > loopStartNanos) {
+                idleTimers.schedule(connection.getIdleTimer(), deadline);
+                return;
+            }
+        }
+        SelectionKey key = connection.getChannel().keyFor(selector);
+        if (key != null) {
+            idleClosed.increment();
+            closeKey(key);
+        }
+    }
+
+    /**
+     * Stops reading on every connection once the commands the client already sent are read, so they are answered
+     * as well. The socket isn't read again after that.
+     */
+    private void drainConnections() {
+        if (!isDrainStarted) {
+            isDrainStarted = true;
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    drain(key, (ClientConnection) key.attachment());
+                }
+            }
+        }
+        if (connectionCount == 0) {
+            isWorking = false;
+        }
+    }
+
+    private void drain(SelectionKey key, ClientConnection connection) {
+        int readBytes;
+        do {
+            readBytes = readInput(key, connection);
+        } while (readBytes > 0 && connection.canAcceptInput());
+        if (readBytes == CLOSED) {
+            return;
+        }
+        connection.closeInput();
+        if (connection.isFinished()) {
+            closeFinished(key);
+        } else {
+            updateInterestOps(key, connection);
+        }
+    }
+
+    private ClientConnection secure(ClientConnection connection) throws IOException {
+        SSLEngine engine = tls.createSSLEngine();
+        engine.setUseClientMode(false);
+        return new ClientConnection(connection.getChannel(),
+                new TlsTransport(connection.getChannel(), engine, packetBuffers, applicationBuffers),
+                connection.getIp());
+    }
+
+    private void flushPendingWrites() {
+        SelectionKey key;
+        while ((key = pendingWrites.poll()) != null) {
+            if (key.isValid()) {
+                processWritableKey(key);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            keyIterator.remove();
+            if (key.isValid() && key.isReadable()) {
+                processReadableKey(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                processWritableKey(key);
+            }
+        }
+    }
+
+    private void processReadableKey(SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        if (readInput(key, connection) == CLOSED) {
+            return;
+        }
+        if (connection.isFinished()) {
+            closeFinished(key);
+            return;
+        }
+        updateInterestOps(key, connection);
+    }
+
+    /**
+     * Reads once from the channel, queues the complete commands and schedules them on a worker.
+     *
+     * @return the number of bytes read, {@link #END_OF_INPUT} once the client closed its side, or {@link #CLOSED}
+     * if the connection failed and was closed.
+     */
+    private int readInput(SelectionKey key, ClientConnection connection) {
+        int readBytes;
+        try {
+            readBytes = connection.read();
+            if (readBytes < 0) {
+                connection.closeInput();
+            } else if (readBytes > 0) {
+                bytesIn.add(readBytes);
+                connection.touch(loopStartNanos);
+            }
+            boolean decoded;
+            do {
+                decoded = connection.decodeFrames();
+            } while (decoded && connection.readBuffered());
+            if (!decoded) {
+                logError(connection.getIp(), new IOException("frame exceeds the maximum size"));
+                closeKey(key);
+                return CLOSED;
+            }
+        } catch (IOException e) {
+            closeKey(key);
+            return CLOSED;
+        }
+        if (connection.hasCommands() && connection.tryScheduleProcessing()) {
+            workers.execute(new CommandBatch(key, connection));
+        }
+        return (readBytes < 0) ? END_OF_INPUT : readBytes;
+    }
+
+    /**
+     * The rejection handler of the worker pool. A rejected batch answers its commands with a busy reply, any other
+     * task is rejected with an exception.
+     */
+    static void rejectBatch(Runnable task, ThreadPoolExecutor executor) {
+        if (!(task instanceof CommandBatch batch)) {
+            throw new RejectedExecutionException("the worker pool is full");
+        }
+        batch.reject();
+    }
+
+    /**
+     * Runs on whichever thread the pool rejected the batch on.
+     */
+    private void rejectCommands(SelectionKey key, ClientConnection connection) {
+        do {
+            while (connection.pollCommand() != null) {
+                rejectedCommands.increment();
+                respond(key, connection, SERVER_BUSY);
+            }
+            connection.finishProcessing();
+        } while (connection.hasCommands() && connection.tryScheduleProcessing());
+    }
+
+    private void respond(SelectionKey key, ClientConnection connection, String response) {
+        if (connection.addResponse(response)) {
+            pendingWrites.add(key);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs on a worker. Executes the queued commands of one connection in order, a bounded batch at a time
+     * so a single pipelining client can't hold on to a worker forever.
+     */
+    private void processCommands(SelectionKey key, ClientConnection connection) {
+        String command;
+        int processed = 0;
+        while (processed < MAX_COMMANDS_PER_BATCH && (command = connection.pollCommand()) != null) {
+            respond(key, connection, handleClientInput(connection, command));
+            processed++;
+        }
+        if (connection.hasCommands()) {
+            workers.execute(new CommandBatch(key, connection));
+            return;
+        }
+        connection.finishProcessing();
+        if (connection.hasCommands() && connection.tryScheduleProcessing()) {
+            workers.execute(new CommandBatch(key, connection));
+        }
+    }
+
+    /**
+     * A task executing the queued commands of one connection, see {@link #processCommands}.
+     */
+    private final class CommandBatch implements Runnable {
+        private final SelectionKey key;
+        private final ClientConnection connection;
+
+        CommandBatch(SelectionKey key, ClientConnection connection) {
+            this.key = key;
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            processCommands(key, connection);
+        }
+
+        void reject() {
+            rejectCommands(key, connection);
+        }
+    }
+
+    private String handleClientInput(ClientConnection connection, String clientInput) {
+        long start = System.nanoTime();
+        try {
+            Response response = userManager.parseCommand(clientInput, connection.getIp());
+            return response.toString();
+        } catch (Exception e) {
+            logError(connection.getIp(), e);
+            return SERVER_ERROR;
+        } finally {
+            latencyOf(clientInput).record(System.nanoTime() - start);
+        }
+    }
+
+    private LatencyHistogram latencyOf(String clientInput) {
+        int nameEnd = clientInput.indexOf(' ');
+        Command command = Command.lookup(clientInput, 0, (nameEnd < 0) ? clientInput.length() : nameEnd);
+        return (command == null) ? unknownCommandLatency : commandLatency[command.ordinal()];
+    }
+
+    private void processWritableKey(SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        connection.clearWriteRequest();
+        try {
+            int written;
+            do {
+                written = connection.write();
+                bytesOut.add(written);
+                if (written > 0) {
+                    connection.touch(loopStartNanos);
+                }
+            } while (written > 0 && connection.hasPendingOutput());
+        } catch (IOException e) {
+            closeKey(key);
+            return;
+        }
+        if (connection.isFinished()) {
+            closeFinished(key);
+            return;
+        }
+        updateInterestOps(key, connection);
+    }
+
+    private void updateInterestOps(SelectionKey key, ClientConnection connection) {
+        if (!key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (connection.canAcceptInput()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (connection.hasPendingOutput()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Closes a connection whose replies are all written. Its output is shut down first, so the client reads them
+     * up to a clean end of the stream.
+     */
+    private void closeFinished(SelectionKey key) {
+        try {
+            ((SocketChannel) key.channel()).shutdownOutput();
+        } catch (IOException e) {
+            // the client is gone already, closing is all that's left
+        }
+        closeKey(key);
+    }
+
+    private void closeKey(SelectionKey key) {
+        key.cancel();
+        ClientConnection connection = (ClientConnection) key.attachment();
+        connection.release();
+        idleTimers.cancel(connection.getIdleTimer());
+        if (key.channel().isOpen()) {
+            activeConnections.decrement();
+            connectionCount--;
+            connectionLimit.release();
+        }
+        close((SocketChannel) key.channel());
+    }
+
+    private void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logError("can't close client channel", e);
+        }
+    }
+
+    private void logError(String text, Exception e) {
+        try {
+            auditLog.logError(text, e);
+        } catch (IOException ex) {
+            System.out.println("can't write log: " + ex.getMessage());
+        }
+    }
+}
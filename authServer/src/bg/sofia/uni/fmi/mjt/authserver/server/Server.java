@@ -2,167 +2,384 @@ package bg.sofia.uni.fmi.mjt.authserver.server;
 
 import bg.sofia.uni.fmi.mjt.authserver.ban.BanManager;
 import bg.sofia.uni.fmi.mjt.authserver.database.DatabaseManager;
+import bg.sofia.uni.fmi.mjt.authserver.database.ReplicationFollower;
+import bg.sofia.uni.fmi.mjt.authserver.database.ReplicationLeader;
 import bg.sofia.uni.fmi.mjt.authserver.log.AuditLog;
 import bg.sofia.uni.fmi.mjt.authserver.log.AuditLogApi;
-import bg.sofia.uni.fmi.mjt.authserver.response.Response;
+import bg.sofia.uni.fmi.mjt.authserver.metrics.MetricsRegistry;
 import bg.sofia.uni.fmi.mjt.authserver.session.SessionManager;
 import bg.sofia.uni.fmi.mjt.authserver.session.SessionManagerApi;
+import bg.sofia.uni.fmi.mjt.authserver.session.SharedSessionManager;
+import bg.sofia.uni.fmi.mjt.authserver.user.ReplicaUserManager;
 import bg.sofia.uni.fmi.mjt.authserver.user.UserManager;
 import bg.sofia.uni.fmi.mjt.authserver.user.UserManagerApi;
 
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Accepts clients on one thread and spreads them round-robin over several {@link Reactor} selector loops.
+ * Commands are executed on a bounded worker pool so slow hashing or database writes don't stall the I/O threads.
+ * While the pool's queue is full new commands are answered with a busy reply.
+ * A server can stream its database to followers, or follow a leader and serve logins from its replica.
+ * Clients can be required to speak TLS, see {@link TlsContexts}.
+ * <p>
+ * The number of open connections is capped, see {@link ConnectionSettings}. While the cap is reached the acceptor
+ * stops selecting for new clients and they wait in the listen backlog. Stopping drains the reactors: no new
+ * commands are read, but the ones already received are executed and answered before the connections close.
+ */
 public class Server {
     public final int serverPort;
     private static final String SERVER_HOST = "localhost";
-    private static final int BUFFER_SIZE = 1024;
-    private boolean isServerWorking;
+    private static final int AVAILABLE_CORES = Runtime.getRuntime().availableProcessors();
+    private static final int WORKER_QUEUE_CAPACITY = 1024;
+    private static final long SESSION_SWEEP_PERIOD_MILLIS = 1000;
+    private static final long WORKER_SHUTDOWN_TIMEOUT_SECONDS = 5;
+    private static final long METRICS_DUMP_PERIOD_SECONDS = 60;
+    private static final String METRICS_FILE = "metrics.log";
+    private volatile boolean isServerWorking;
     private Selector selector;
+    private SelectionKey acceptKey;
+    private final int reactorCount;
+    private final int workerCount;
+    private Reactor[] reactors;
+    private Thread[] reactorThreads;
+    private int nextReactor;
+    private ThreadPoolExecutor workers;
+    private ScheduledExecutorService scheduler;
     private final AuditLogApi auditLog;
     private final SessionManagerApi sessionManager;
-    private final UserManagerApi userManager;
+    private final DatabaseManager databaseManager;
+    private UserManagerApi userManager;
+    private Closeable replication;
+    private SSLContext tls;
+    private ConnectionSettings connectionSettings;
+    private ConnectionLimit connectionLimit;
+    private final LongAdder acceptPauses;
+    private final CountDownLatch terminated;
+    private final MetricsRegistry metrics;
+    private final Path metricsPath;
 
     public Server(int port, String dbPath, String logPath, int maxAttempts, long banDuration) throws IOException {
+        this(port, dbPath, logPath, maxAttempts, banDuration, new SessionManager());
+    }
+
+    /**
+     * @param sessionManager for example a {@link SharedSessionManager}, so a session created by one server
+     *                       process on the host is valid in the others.
+     */
+    public Server(int port, String dbPath, String logPath, int maxAttempts, long banDuration,
+                  SessionManagerApi sessionManager) throws IOException {
+        this(port, dbPath, logPath, maxAttempts, banDuration, AVAILABLE_CORES, AVAILABLE_CORES, sessionManager);
+    }
+
+    public Server(int port, String dbPath, String logPath, int maxAttempts, long banDuration,
+                  int reactorCount, int workerCount) throws IOException {
+        this(port, dbPath, logPath, maxAttempts, banDuration, reactorCount, workerCount, new SessionManager());
+    }
+
+    public Server(int port, String dbPath, String logPath, int maxAttempts, long banDuration,
+                  int reactorCount, int workerCount, SessionManagerApi sessionManager) throws IOException {
+        if (reactorCount < 1 || workerCount < 1) {
+            throw new IllegalArgumentException("reactor and worker count must be positive");
+        }
         isServerWorking = true;
         serverPort = port;
-        auditLog = new AuditLog(logPath);
-        sessionManager = new SessionManager();
-        DatabaseManager databaseManager = new DatabaseManager(dbPath);
-        userManager = new UserManager(auditLog, databaseManager, sessionManager,
-                new BanManager(maxAttempts, banDuration));
+        this.reactorCount = reactorCount;
+        this.workerCount = workerCount;
+        metrics = new MetricsRegistry();
+        metricsPath = Path.of(logPath, METRICS_FILE);
+        connectionSettings = ConnectionSettings.defaults();
+        acceptPauses = metrics.counter("accept.paused");
+        terminated = new CountDownLatch(1);
+        AuditLog log = new AuditLog(logPath);
+        auditLog = log;
+        this.sessionManager = sessionManager;
+        databaseManager = new DatabaseManager(dbPath, metrics);
+        BanManager banManager = new BanManager(maxAttempts, banDuration);
+        userManager = new UserManager(auditLog, databaseManager, sessionManager, banManager, metrics);
+        metrics.gauge("sessions.active", sessionManager::getSessionCount);
+        metrics.gauge("ban.hits", banManager::getBanHits);
+        metrics.gauge("ban.tracked_ips", banManager::getTrackedIps);
+        metrics.gauge("audit.dropped", log::getDroppedEvents);
+    }
+
+    /**
+     * Streams every mutation of this server's database to followers connecting on the given address.
+     * Has to be called before {@link #start()}.
+     */
+    public void startReplicationLeader(String host, int port) throws IOException {
+        ReplicationLeader leader = new ReplicationLeader(databaseManager, host, port);
+        replication = leader;
+        metrics.gauge("replication.offset", leader::getLastOffset);
+        metrics.gauge("replication.followers", leader::getFollowerCount);
+    }
+
+    /**
+     * Makes this server a read-only follower of the leader at the given address. Logins are served from the
+     * replica while it is at most maxStalenessMillis behind, commands that write are refused.
+     * Has to be called before {@link #start()}.
+     */
+    public void followLeader(String host, int port, long maxStalenessMillis) {
+        ReplicationFollower follower = new ReplicationFollower(databaseManager, host, port, maxStalenessMillis);
+        replication = follower;
+        userManager = new ReplicaUserManager(userManager, follower::isFresh);
+        metrics.gauge("replication.offset", follower::getAppliedOffset);
+        metrics.gauge("replication.staleness_ms", follower::getStalenessMillis);
+    }
+
+    /**
+     * Makes every client connection use TLS with the given context. Has to be called before {@link #start()}.
+     * Sessions are cached by the context, so returning clients resume them instead of a full handshake.
+     */
+    public void enableTls(SSLContext context) {
+        tls = context;
+    }
+
+    /**
+     * Has to be called before {@link #start()}.
+     */
+    public void setConnectionSettings(ConnectionSettings settings) {
+        connectionSettings = settings;
     }
 
     public void start() {
         try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
             selector = Selector.open();
+            connectionLimit = new ConnectionLimit(connectionSettings.maxConnections(), selector::wakeup);
+            metrics.gauge("connections.open", connectionLimit::getOpen);
             configureServerSocketChannel(serverSocketChannel, selector);
-            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            startWorkers();
+            startScheduledTasks();
+            startReactors();
             while (isServerWorking) {
-                handleClientRequests(buffer);
+                acceptClients();
             }
         } catch (IOException e) {
             isServerWorking = false;
             throw new RuntimeException("Failed to start server", e);
+        } finally {
+            stopReactors();
+            closeSelector();
+            closeReplication();
+            auditLog.close();
+            terminated.countDown();
         }
     }
 
-    private void handleClientRequests(ByteBuffer buffer) throws IOException {
-        int readyChannels = selector.select();
-        if (readyChannels == 0) {
-            return;
-        }
-        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
-        while (keyIterator.hasNext()) {
-            SelectionKey key = keyIterator.next();
-            processKey(buffer, key);
-            keyIterator.remove();
+    /**
+     * Makes {@link #start()} stop accepting clients, drain the connections and return. Safe to call from any thread.
+     */
+    public void stop() {
+        isServerWorking = false;
+        if (selector != null) {
+            selector.wakeup();
         }
     }
 
-    private void processKey(ByteBuffer buffer, SelectionKey key) throws IOException {
-        if (key.isReadable()) {
-            processReadableKey(buffer, key);
-        } else if (key.isAcceptable()) {
-            accept(selector, key);
+    /**
+     * Waits for a stopped server to finish draining.
+     *
+     * @return false if the timeout passed first.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * @return the number of connections each reactor serves, empty before the server has started.
+     */
+    int[] connectionsPerReactor() {
+        Reactor[] started = reactors;
+        if (started == null) {
+            return new int[0];
         }
+        int[] counts = new int[started.length];
+        for (int i = 0; i < started.length; i++) {
+            counts[i] = (started[i] == null) ? 0 : started[i].connectionCount();
+        }
+        return counts;
+    }
+
+    private void startWorkers() {
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(WORKER_QUEUE_CAPACITY), namedThreads("auth-worker-"),
+                Reactor::rejectBatch);
     }
 
-    private void processReadableKey(ByteBuffer buffer, SelectionKey key) {
-        SocketChannel clientChannel = (SocketChannel) key.channel();
-        sessionManager.cleanSessions();
+    private void startScheduledTasks() {
+        metrics.gauge("workers.queued", () -> workers.getQueue().size());
+        scheduler = Executors.newSingleThreadScheduledExecutor(namedThreads("auth-scheduler-"));
+        scheduler.scheduleWithFixedDelay(sessionManager::cleanSessions,
+                SESSION_SWEEP_PERIOD_MILLIS, SESSION_SWEEP_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::dumpMetrics,
+                METRICS_DUMP_PERIOD_SECONDS, METRICS_DUMP_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void dumpMetrics() {
         try {
-            String ip = getClientIp(clientChannel);
-            String clientInput = getClientInput(clientChannel, buffer);
-            handleClientInput(clientChannel, clientInput, ip, buffer);
+            metrics.appendSnapshot(metricsPath);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            logError("can't write metrics", e);
         }
     }
 
-    private String getClientIp(SocketChannel clientChannel) throws IOException {
-        try {
-            return clientChannel.getRemoteAddress().toString();
-        } catch (IOException e) {
-            auditLog.logError("can't get client ip", e);
-            return "";
+    private void startReactors() throws IOException {
+        reactors = new Reactor[reactorCount];
+        reactorThreads = new Thread[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor(workers, userManager, auditLog, metrics, tls, connectionSettings,
+                    connectionLimit);
+            reactorThreads[i] = new Thread(reactors[i], "auth-reactor-" + i);
+            reactorThreads[i].start();
         }
     }
 
-    private void handleClientInput(SocketChannel clientChannel, String clientInput, String ip, ByteBuffer buffer) {
-        try {
-            Response response = userManager.parseCommand(clientInput, ip);
-            writeClientOutput(clientChannel, response.toString(), buffer);
-        } catch (Exception e) {
-            writeClientOutput(clientChannel, "There was a problem with the server, try again later", buffer);
+    /**
+     * Lets the reactors answer the commands they already received, then closes whatever is left after the
+     * drain timeout. The workers are shut down last since draining needs them.
+     */
+    private void stopReactors() {
+        if (reactors != null) {
+            for (Reactor reactor : reactors) {
+                if (reactor != null) {
+                    reactor.drain();
+                }
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectionSettings.drainTimeoutMillis());
+            for (int i = 0; i < reactors.length; i++) {
+                if (reactors[i] != null) {
+                    awaitReactor(reactorThreads[i], deadline - System.nanoTime());
+                    reactors[i].stop();
+                }
+            }
+        }
+        if (workers != null) {
+            workers.shutdown();
             try {
-                auditLog.logError(ip, e);
-            } catch (IOException ex) {
-                System.out.println("can't write log: " + ex.getMessage());
+                workers.awaitTermination(WORKER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
     }
 
-    private void configureServerSocketChannel(ServerSocketChannel channel, Selector selector) throws IOException {
-        channel.bind(new InetSocketAddress(SERVER_HOST, serverPort));
-        channel.configureBlocking(false);
-        channel.register(selector, SelectionKey.OP_ACCEPT);
+    private void awaitReactor(Thread thread, long timeoutNanos) {
+        if (thread == null || timeoutNanos <= 0) {
+            return;
+        }
+        try {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private String getClientInput(SocketChannel clientChannel, ByteBuffer buffer) {
-        buffer.clear();
+    private void closeReplication() {
+        if (replication == null) {
+            return;
+        }
         try {
-            int readBytes = clientChannel.read(buffer);
-            if (readBytes < 0) {
-                clientChannel.close();
-                return null;
-            }
-            buffer.flip();
-
-            byte[] clientInputBytes = new byte[buffer.remaining()];
-            buffer.get(clientInputBytes);
+            replication.close();
+        } catch (IOException e) {
+            logError("can't stop replication", e);
+        }
+    }
 
-            return new String(clientInputBytes, StandardCharsets.UTF_8);
+    private void closeSelector() {
+        if (selector == null) {
+            return;
+        }
+        try {
+            selector.close();
         } catch (IOException e) {
-            try {
-                clientChannel.close();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-            //add log
+            logError("can't close selector", e);
         }
-        return null;
     }
 
-    private void writeClientOutput(SocketChannel clientChannel, String output, ByteBuffer buffer) {
-        buffer.clear();
-        buffer.put(output.getBytes());
-        buffer.flip();
+    private void acceptClients() throws IOException {
+        if (acceptKey.interestOps() == 0 && connectionLimit.hasRoom()) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+        int readyChannels = selector.select();
+        if (readyChannels == 0) {
+            return;
+        }
+        Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            if (key.isAcceptable()) {
+                accept(key);
+            }
+            keyIterator.remove();
+        }
+    }
 
+    private String getClientIp(SocketChannel clientChannel) {
         try {
-            clientChannel.write(buffer);
+            return clientChannel.getRemoteAddress().toString();
         } catch (IOException e) {
-            //add log
-            try {
-                clientChannel.close();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
+            logError("can't get client ip", e);
+            return "";
         }
     }
 
-    private void accept(Selector selector, SelectionKey key) throws IOException {
+    private void configureServerSocketChannel(ServerSocketChannel channel, Selector selector) throws IOException {
+        channel.bind(new InetSocketAddress(SERVER_HOST, serverPort));
+        channel.configureBlocking(false);
+        acceptKey = channel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    private void accept(SelectionKey key) throws IOException {
         ServerSocketChannel sockChannel = (ServerSocketChannel) key.channel();
-        SocketChannel accept = sockChannel.accept();
+        while (connectionLimit.tryAcquire()) {
+            SocketChannel accept = sockChannel.accept();
+            if (accept == null) {
+                connectionLimit.release();
+                return;
+            }
+            reactors[nextReactor].register(accept, getClientIp(accept));
+            nextReactor = (nextReactor + 1) % reactors.length;
+        }
+        // full, new clients wait in the listen backlog until a reactor closes a connection
+        key.interestOps(0);
+        acceptPauses.increment();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
-        accept.configureBlocking(false);
-        accept.register(selector, SelectionKey.OP_READ);
+    private void logError(String text, Exception e) {
+        try {
+            auditLog.logError(text, e);
+        } catch (IOException ex) {
+            System.out.println("can't write log: " + ex.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
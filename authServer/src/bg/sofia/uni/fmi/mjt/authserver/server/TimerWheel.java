@@ -0,0 +1,133 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel for the timeouts of a single {@link Reactor}, so it isn't thread-safe.
+ * <p>
+ * Time is cut into ticks and every slot holds a linked list of the timers whose deadline falls into its tick,
+ * scheduling and cancelling are O(1). A timer fires within one tick after its deadline. Deadlines further away
+ * than the wheel reaches go around it, they are put back every time their slot comes up until they are due.
+ */
+class TimerWheel<T> {
+    private final long tickNanos;
+    private final Timer<T>[] slots;
+    private final int mask;
+    private long nextTick;
+    private int size;
+
+    /**
+     * @param slotCount a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickNanos, int slotCount, long nowNanos) {
+        if (tickNanos < 1 || slotCount < 1 || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("tick must be positive and slot count a power of two");
+        }
+        this.tickNanos = tickNanos;
+        this.slots = (Timer<T>[]) new Timer<?>[slotCount];
+        this.mask = slotCount - 1;
+        this.nextTick = Math.floorDiv(nowNanos, tickNanos);
+    }
+
+    /**
+     * Moves the timer to the given deadline, whether it was scheduled before or not.
+     */
+    void schedule(Timer<T> timer, long deadlineNanos) {
+        cancel(timer);
+        timer.deadlineNanos = deadlineNanos;
+        long tick = Math.max(Math.floorDiv(deadlineNanos, tickNanos), nextTick);
+        int slot = (int) (tick & mask);
+        timer.next = slots[slot];
+        if (timer.next != null) {
+            timer.next.previous = timer;
+        }
+        slots[slot] = timer;
+        timer.slot = slot;
+        size++;
+    }
+
+    void cancel(Timer<T> timer) {
+        if (timer.slot < 0) {
+            return;
+        }
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.slot = -1;
+        size--;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Fires every timer whose deadline has passed. The callback may schedule or cancel any timer.
+     */
+    void expire(long nowNanos, Consumer<T> onExpired) {
+        long nowTick = Math.floorDiv(nowNanos, tickNanos);
+        long firstTick = nextTick;
+        long passedTicks = Math.min(nowTick - firstTick, slots.length);
+        nextTick = Math.max(nextTick, nowTick);
+        for (long tick = firstTick; tick < firstTick + passedTicks; tick++) {
+            int slot = (int) (tick & mask);
+            Timer<T> timer = slots[slot];
+            slots[slot] = null;
+            while (timer != null) {
+                Timer<T> following = timer.next;
+                timer.previous = null;
+                timer.next = null;
+                timer.slot = -1;
+                size--;
+                if (timer.deadlineNanos <= nowNanos) {
+                    onExpired.accept(timer.target);
+                } else {
+                    schedule(timer, timer.deadlineNanos);
+                }
+                timer = following;
+            }
+        }
+    }
+
+    /**
+     * @return how long the reactor may block before the next tick is due, 0 if no timer is scheduled.
+     */
+    long millisUntilNextTick(long nowNanos) {
+        if (size == 0) {
+            return 0;
+        }
+        long untilTick = (Math.floorDiv(nowNanos, tickNanos) + 1) * tickNanos - nowNanos;
+        return Math.max(1, Math.ceilDiv(untilTick, 1_000_000L));
+    }
+
+    /**
+     * A timeout of one target, it is scheduled at most once at a time.
+     */
+    static final class Timer<T> {
+        private final T target;
+        private long deadlineNanos;
+        private Timer<T> previous;
+        private Timer<T> next;
+        private int slot = -1;
+
+        Timer(T target) {
+            this.target = target;
+        }
+
+        long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Builds TLS contexts from PKCS12 key stores.
+ * <p>
+ * A context keeps its own session cache, so a server should use one context for its whole life and a client
+ * one context per server. TLS 1.3 resumes sessions through tickets, a resumed handshake skips the certificate
+ * and its signature and costs one round trip.
+ */
+public final class TlsContexts {
+    private static final String PROTOCOL = "TLSv1.3";
+    private static final String KEY_STORE_TYPE = "PKCS12";
+
+    private TlsContexts() {
+    }
+
+    /**
+     * @param keyStore holds the server's private key and certificate chain, protected by password.
+     */
+    public static SSLContext forServer(Path keyStore, char[] password) throws IOException {
+        try {
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(load(keyStore, password), password);
+            SSLContext context = SSLContext.getInstance(PROTOCOL);
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("can't load the server key from " + keyStore, e);
+        }
+    }
+
+    /**
+     * @param trustStore holds the certificates the client accepts from the server.
+     */
+    public static SSLContext forClient(Path trustStore, char[] password) throws IOException {
+        try {
+            TrustManagerFactory trustManagers =
+                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(load(trustStore, password));
+            SSLContext context = SSLContext.getInstance(PROTOCOL);
+            context.init(null, trustManagers.getTrustManagers(), null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("can't load the trusted certificates from " + trustStore, e);
+        }
+    }
+
+    private static KeyStore load(Path path, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(KEY_STORE_TYPE);
+        try (InputStream in = Files.newInputStream(path)) {
+            store.load(in, password);
+        }
+        return store;
+    }
+}
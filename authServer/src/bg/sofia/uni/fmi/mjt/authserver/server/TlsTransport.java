@@ -0,0 +1,214 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TLS on a non-blocking channel through an {@link SSLEngine}.
+ * <p>
+ * The network and plaintext buffers come from the reactor's pools and are only held while they contain bytes,
+ * so an idle connection holds no direct memory. Handshake messages are wrapped as soon as the engine asks for
+ * them, on a read as well as on a write, and the delegated handshake tasks run on the reactor thread.
+ * Records are collected in the network buffer and written together, a flight of handshake messages sent as
+ * separate small writes would be held back by Nagle's algorithm until the peer's delayed ACK.
+ */
+class TlsTransport implements Transport {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final BufferPool packetBuffers;
+    private final BufferPool applicationBuffers;
+    private ByteBuffer networkIn;
+    private ByteBuffer networkOut;
+    private ByteBuffer plaintextIn;
+    private boolean inboundClosed;
+
+    TlsTransport(SocketChannel channel, SSLEngine engine, BufferPool packetBuffers, BufferPool applicationBuffers)
+            throws SSLException {
+        this.channel = channel;
+        this.engine = engine;
+        this.packetBuffers = packetBuffers;
+        this.applicationBuffers = applicationBuffers;
+        engine.beginHandshake();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (networkIn == null) {
+            networkIn = packetBuffers.acquire();
+        }
+        int read = channel.read(networkIn);
+        unwrap(dst);
+        if (read < 0 || inboundClosed) {
+            return (plaintextIn == null) ? -1 : 0;
+        }
+        return read;
+    }
+
+    @Override
+    public int readBuffered(ByteBuffer dst) throws IOException {
+        return unwrap(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = 0;
+        while (true) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            ByteBuffer next = src;
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+                continue;
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                next = EMPTY;
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP || !src.hasRemaining()) {
+                return written + flush();
+            }
+            if (!wrap(next)) {
+                written += flush();
+                if (networkOut != null) {
+                    return written;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean hasPendingOutput() {
+        return networkOut != null || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+    }
+
+    @Override
+    public void release() {
+        networkIn = release(packetBuffers, networkIn);
+        networkOut = release(packetBuffers, networkOut);
+        plaintextIn = release(applicationBuffers, plaintextIn);
+    }
+
+    /**
+     * Decrypts the complete records in the network buffer, answering handshake messages on the way.
+     * Stops early when dst is full, the rest of the plaintext stays buffered for {@link #readBuffered}.
+     *
+     * @return the number of plaintext bytes put into dst.
+     */
+    private int unwrap(ByteBuffer dst) throws IOException {
+        int delivered = drainPlaintext(dst);
+        if (networkIn == null || plaintextIn != null) {
+            return delivered;
+        }
+        networkIn.flip();
+        try {
+            while (networkIn.hasRemaining() && !inboundClosed) {
+                plaintextIn = applicationBuffers.acquire();
+                SSLEngineResult result = engine.unwrap(networkIn, plaintextIn);
+                delivered += drainPlaintext(dst);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    inboundClosed = true;
+                } else if (result.getStatus() != SSLEngineResult.Status.OK || plaintextIn != null) {
+                    // a record is incomplete, or dst is full
+                    break;
+                }
+                advanceHandshake();
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0
+                        && engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                    break;
+                }
+            }
+        } finally {
+            networkIn.compact();
+            if (networkIn.position() == 0) {
+                networkIn = release(packetBuffers, networkIn);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Runs delegated tasks and queues handshake messages until the engine waits for the peer or the channel.
+     */
+    private void advanceHandshake() throws IOException {
+        while (true) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                if (!wrap(EMPTY)) {
+                    flush();
+                    if (networkOut != null) {
+                        return;
+                    }
+                }
+            } else {
+                flush();
+                return;
+            }
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Appends one record to the network buffer.
+     *
+     * @return false if the buffer has no room for another record and has to be flushed first.
+     */
+    private boolean wrap(ByteBuffer src) throws IOException {
+        if (networkOut == null) {
+            networkOut = packetBuffers.acquire();
+        }
+        SSLEngineResult result = engine.wrap(src, networkOut);
+        if (networkOut.position() == 0) {
+            networkOut = release(packetBuffers, networkOut);
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLException("TLS session is closed");
+        }
+        return result.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW;
+    }
+
+    private int flush() throws IOException {
+        if (networkOut == null) {
+            return 0;
+        }
+        networkOut.flip();
+        int written = channel.write(networkOut);
+        networkOut.compact();
+        if (networkOut.position() == 0) {
+            networkOut = release(packetBuffers, networkOut);
+        }
+        return written;
+    }
+
+    private int drainPlaintext(ByteBuffer dst) {
+        if (plaintextIn == null) {
+            return 0;
+        }
+        plaintextIn.flip();
+        int length = Math.min(dst.remaining(), plaintextIn.remaining());
+        dst.put(dst.position(), plaintextIn, plaintextIn.position(), length);
+        dst.position(dst.position() + length);
+        plaintextIn.position(plaintextIn.position() + length);
+        plaintextIn.compact();
+        if (plaintextIn.position() == 0) {
+            plaintextIn = release(applicationBuffers, plaintextIn);
+        }
+        return length;
+    }
+
+    private static ByteBuffer release(BufferPool pool, ByteBuffer buffer) {
+        if (buffer != null) {
+            pool.release(buffer);
+        }
+        return null;
+    }
+}
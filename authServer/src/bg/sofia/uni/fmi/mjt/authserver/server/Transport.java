@@ -0,0 +1,41 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Moves the plaintext of one connection to and from its channel. Only the owning {@link Reactor} calls it.
+ */
+interface Transport {
+
+    /**
+     * Reads from the channel and puts the plaintext that arrived into dst.
+     *
+     * @return the number of bytes read from the network, or -1 once the peer closed its side.
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * Puts plaintext that was already read from the network but didn't fit into dst on the last read.
+     *
+     * @return the number of bytes put into dst.
+     */
+    int readBuffered(ByteBuffer dst) throws IOException;
+
+    /**
+     * Writes as much of src as the channel takes without blocking.
+     *
+     * @return the number of bytes written to the network.
+     */
+    int write(ByteBuffer src) throws IOException;
+
+    /**
+     * @return whether the transport itself still has bytes for the network, like a pending handshake message.
+     */
+    boolean hasPendingOutput();
+
+    /**
+     * Gives back any resources held by the transport, the channel itself is closed by the reactor.
+     */
+    void release();
+}
@@ -20,6 +20,14 @@ public class Session {
         this.admin = admin;
     }
 
+    Session(String sessionId, String userId, String username, LocalDateTime ttl, Boolean admin) {
+        this.sessionId = sessionId;
+        this.userId = userId;
+        this.username = username;
+        this.ttl = ttl;
+        this.admin = admin;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -2,63 +2,147 @@ package bg.sofia.uni.fmi.mjt.authserver.session;
 
 import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidSessionException;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sessions are indexed by session ID, user ID and username. Lookups by session ID don't lock,
+ * mutations are serialized. Expiry deadlines are kept in a queue ordered by deadline, so
+ * {@link #cleanSessions()} only touches sessions that are due instead of scanning all of them.
+ */
 public class SessionManager implements SessionManagerApi {
-    private final Collection<Session> sessions;
+    private final Map<String, Session> sessions;
+    private final Map<String, Set<String>> sessionIdsByUserId;
+    private final Map<String, Set<String>> sessionIdsByUsername;
+    private final DelayQueue<Expiry> expiries;
 
     public SessionManager() {
-        sessions = new ArrayList<>();
+        sessions = new ConcurrentHashMap<>();
+        sessionIdsByUserId = new HashMap<>();
+        sessionIdsByUsername = new HashMap<>();
+        expiries = new DelayQueue<>();
     }
 
-    public void add(Session session) {
-        sessions.add(session);
+    public synchronized void add(Session session) {
+        sessions.put(session.getSessionId(), session);
+        sessionIdsByUserId.computeIfAbsent(session.getUserId(), k -> new HashSet<>()).add(session.getSessionId());
+        sessionIdsByUsername.computeIfAbsent(session.getUsername(), k -> new HashSet<>()).add(session.getSessionId());
+        expiries.add(new Expiry(session.getSessionId(), session.getTtl()));
     }
 
     public Session getSessionBySessionId(String sessionId) {
-        Session session = sessions.stream().filter(x -> x.getSessionId().equals(sessionId)).findFirst().orElse(null);
-        if (sessionId == null || session == null) {
+        Session session = (sessionId == null) ? null : sessions.get(sessionId);
+        if (session != null && isExpired(session, LocalDateTime.now())) {
+            removeBySessionId(sessionId);
+            session = null;
+        }
+        if (session == null) {
             throw new InvalidSessionException("Session is not valid");
         }
         return session;
     }
 
-    public void removeByUserId(String userId) {
-        sessions.removeIf(x -> x.getUserId().equals(userId));
+    public synchronized void removeByUserId(String userId) {
+        Set<String> sessionIds = sessionIdsByUserId.get(userId);
+        if (sessionIds != null) {
+            List.copyOf(sessionIds).forEach(this::removeBySessionId);
+        }
     }
 
-    public void removeBySessionId(String sessionId) {
-        sessions.removeIf(x -> x.getSessionId().equals(sessionId));
+    public synchronized void removeBySessionId(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        removeFromIndex(sessionIdsByUserId, session.getUserId(), sessionId);
+        removeFromIndex(sessionIdsByUsername, session.getUsername(), sessionId);
     }
 
-    public void removeByUsername(String username) {
-        sessions.removeIf(x -> x.getUsername().equals(username));
+    public synchronized void removeByUsername(String username) {
+        Set<String> sessionIds = sessionIdsByUsername.get(username);
+        if (sessionIds != null) {
+            List.copyOf(sessionIds).forEach(this::removeBySessionId);
+        }
     }
 
-    public void updateSessionAdmin(String username, Boolean admin) {
-        sessions.forEach(x -> {
-            if (x.getUsername().equals(username)) {
-                x.setAdmin(admin);
-            }
-        });
+    public synchronized void updateSessionAdmin(String username, Boolean admin) {
+        Set<String> sessionIds = sessionIdsByUsername.get(username);
+        if (sessionIds != null) {
+            sessionIds.forEach(sessionId -> sessions.get(sessionId).setAdmin(admin));
+        }
     }
 
-    public void updateSessionUsername(String oldUsername, String newUsername) {
-        sessions.forEach(x -> {
-            if (x.getUsername().equals(oldUsername)) {
-                x.setUsername(newUsername);
-            }
-        });
+    public synchronized void updateSessionUsername(String oldUsername, String newUsername) {
+        Set<String> sessionIds = sessionIdsByUsername.remove(oldUsername);
+        if (sessionIds == null) {
+            return;
+        }
+        sessionIds.forEach(sessionId -> sessions.get(sessionId).setUsername(newUsername));
+        sessionIdsByUsername.computeIfAbsent(newUsername, k -> new HashSet<>()).addAll(sessionIds);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
     }
 
     public Collection<Session> getSessions() {
-        return List.copyOf(sessions);
+        return List.copyOf(sessions.values());
+    }
+
+    /**
+     * Removes the sessions whose deadline has passed. Sessions whose TTL was extended since they were
+     * queued are queued again with their new deadline, a shortened TTL is caught lazily on lookup.
+     */
+    public synchronized void cleanSessions() {
+        LocalDateTime now = LocalDateTime.now();
+        Expiry expiry;
+        while ((expiry = expiries.poll()) != null) {
+            Session session = sessions.get(expiry.sessionId());
+            if (session == null) {
+                continue;
+            }
+            if (isExpired(session, now)) {
+                removeBySessionId(expiry.sessionId());
+            } else {
+                expiries.add(new Expiry(expiry.sessionId(), session.getTtl()));
+            }
+        }
+    }
+
+    private static boolean isExpired(Session session, LocalDateTime now) {
+        return !session.getTtl().isAfter(now);
+    }
+
+    private static void removeFromIndex(Map<String, Set<String>> index, String key, String sessionId) {
+        Set<String> sessionIds = index.get(key);
+        if (sessionIds == null) {
+            return;
+        }
+        sessionIds.remove(sessionId);
+        if (sessionIds.isEmpty()) {
+            index.remove(key);
+        }
     }
 
-    public void cleanSessions() {
-        sessions.removeIf(session -> session.getTtl().isBefore(LocalDateTime.now()));
+    private record Expiry(String sessionId, LocalDateTime deadline) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Duration.between(LocalDateTime.now(), deadline));
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return deadline.compareTo(((Expiry) other).deadline);
+        }
     }
 }
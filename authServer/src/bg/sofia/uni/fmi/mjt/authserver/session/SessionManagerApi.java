@@ -61,4 +61,11 @@ public interface SessionManagerApi {
      * @param newUsername The new username to be associated with the user's session.
      */
     void updateSessionUsername(String username, String newUsername);
+
+    /**
+     * Returns the number of sessions currently kept, including expired ones that were not cleaned yet.
+     *
+     * @return The number of sessions.
+     */
+    int getSessionCount();
 }
@@ -0,0 +1,547 @@
+package bg.sofia.uni.fmi.mjt.authserver.session;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidCommandException;
+import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidSessionException;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Sessions in a memory-mapped file, so every server process on the host that maps the same file sees the same
+ * sessions without an external service.
+ * <p>
+ * The file is an open-addressing hash table of fixed-size slots keyed by the session ID, probed linearly.
+ * Every slot starts with a stamp word: the slot's state in the low two bits, a version above them and, while the
+ * slot is LOCKED, the ID of the process holding it in the high 32 bits.
+ * A writer takes a slot by a compare-and-set of the stamp to LOCKED, writes the fields and publishes them
+ * with a compare-and-set from its locked stamp to the next version. Readers don't lock, they read the fields
+ * between two reads of the stamp and retry if it changed. The stamps are updated with atomic instructions on the
+ * shared pages, so this works across processes the same way it works across threads.
+ * <p>
+ * Removed sessions leave a tombstone so probing continues past them. New sessions reuse the first tombstone
+ * or expired slot on their probe path, so slots are recycled by TTL without a separate compaction. Tombstones
+ * never turn back into empty slots, so a lookup doesn't stop at the first empty one but after the longest probe
+ * any session has needed, kept in the header. A miss, such as a forged session ID, costs as much as the most
+ * crowded stretch of the table and not a scan of all of it.
+ * Lookups by user ID and username scan two compact columns of 64-bit hashes instead of the slots, and check
+ * the slot only on a hash match.
+ * <p>
+ * A process that dies while holding a slot leaves it LOCKED. {@link #cleanSessions()} frees a locked slot only
+ * once the process in its stamp is no longer alive, so a writer stalled by a GC pause or the scheduler keeps its
+ * slot however long it takes. Should a slot be freed under a writer anyway, its publishing compare-and-set fails
+ * and the write is done again. Every process sharing a table has to see the others' IDs, so they have to run in
+ * the same PID namespace. Readers and writers wait for a locked slot however long it takes, spinning first and
+ * then parking, so a removal is never skipped and a live session is never missed.
+ */
+public class SharedSessionManager implements SessionManagerApi {
+    public static final int DEFAULT_SLOT_COUNT = 1 << 16;
+    private static final int MAX_SLOT_COUNT = 1 << 22;
+    private static final int MAGIC = 0x41535353;
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOT_COUNT_OFFSET = 8;
+    private static final int SLOT_SIZE_OFFSET = 12;
+    private static final int PROBE_LIMIT_OFFSET = 16;
+
+    private static final int SLOT_SIZE = 256;
+    private static final int STAMP = 0;
+    private static final int EXPIRES_AT = 8;
+    private static final int ID_HIGH = 16;
+    private static final int ID_LOW = 24;
+    private static final int ADMIN = 32;
+    private static final int USER_ID_LENGTH = 33;
+    private static final int USERNAME_LENGTH = 34;
+    private static final int USER_ID = 40;
+    private static final int USERNAME = 104;
+    private static final int MAX_USER_ID_BYTES = USERNAME - USER_ID;
+    private static final int MAX_USERNAME_BYTES = SLOT_SIZE - USERNAME;
+
+    private static final long EMPTY = 0;
+    private static final long LOCKED = 1;
+    private static final long LIVE = 2;
+    private static final long DELETED = 3;
+    private static final long STATE_MASK = 3;
+    private static final long VERSION_ONE = 4;
+    private static final long VERSION_MASK = 0xFFFF_FFFCL;
+    private static final int OWNER_SHIFT = Integer.SIZE;
+    private static final int SPINS_BEFORE_PARKING = 1000;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final int HINT_CHUNK = 1024;
+
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final MappedByteBuffer table;
+    private final int slotCount;
+    private final int mask;
+    private final LongBuffer userHints;
+    private final LongBuffer nameHints;
+    private final int slots;
+    private final long owner;
+
+    public SharedSessionManager(Path file) throws IOException {
+        this(file, DEFAULT_SLOT_COUNT);
+    }
+
+    /**
+     * Maps the table in file, creating it with slotCount slots if it doesn't exist yet. A table that another
+     * process created keeps its own slot count.
+     *
+     * @param slotCount a power of two.
+     */
+    public SharedSessionManager(Path file, int slotCount) throws IOException {
+        this(file, slotCount, ProcessHandle.current().pid());
+    }
+
+    /**
+     * @param ownerPid the process ID written into the slots this instance locks.
+     */
+    SharedSessionManager(Path file, int slotCount, long ownerPid) throws IOException {
+        if (slotCount < 1 || slotCount > MAX_SLOT_COUNT || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("slot count must be a power of two up to " + MAX_SLOT_COUNT);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            FileLock creationLock = channel.lock();
+            try {
+                this.table = mapTable(file, channel, slotCount);
+            } finally {
+                creationLock.release();
+            }
+        }
+        this.slotCount = table.getInt(SLOT_COUNT_OFFSET);
+        this.mask = this.slotCount - 1;
+        int hintsSize = this.slotCount * Long.BYTES;
+        this.userHints = table.slice(HEADER_SIZE, hintsSize).order(ByteOrder.nativeOrder()).asLongBuffer();
+        this.nameHints = table.slice(HEADER_SIZE + hintsSize, hintsSize).order(ByteOrder.nativeOrder()).asLongBuffer();
+        this.slots = HEADER_SIZE + 2 * hintsSize;
+        this.owner = ownerPid & 0xFFFF_FFFFL;
+    }
+
+    /**
+     * Creates the table unless another process already has, the caller holds the file lock.
+     */
+    private static MappedByteBuffer mapTable(Path file, FileChannel channel, int slotCount) throws IOException {
+        if (channel.size() == 0) {
+            channel.write(ByteBuffer.allocate(1), fileSize(slotCount) - 1);
+        } else if (channel.size() < HEADER_SIZE) {
+            throw new IOException(file + " is not a session table");
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        header.order(ByteOrder.nativeOrder());
+        if (header.getInt(MAGIC_OFFSET) == MAGIC) {
+            slotCount = header.getInt(SLOT_COUNT_OFFSET);
+            if (header.getInt(VERSION_OFFSET) != FORMAT_VERSION || header.getInt(SLOT_SIZE_OFFSET) != SLOT_SIZE
+                    || channel.size() != fileSize(slotCount)) {
+                throw new IOException(file + " has an unsupported session table layout");
+            }
+        } else if (header.getInt(MAGIC_OFFSET) != 0 || channel.size() != fileSize(slotCount)) {
+            throw new IOException(file + " is not a session table");
+        }
+        MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(slotCount));
+        table.order(ByteOrder.nativeOrder());
+        if (table.getInt(MAGIC_OFFSET) != MAGIC) {
+            table.putInt(VERSION_OFFSET, FORMAT_VERSION);
+            table.putInt(SLOT_COUNT_OFFSET, slotCount);
+            table.putInt(SLOT_SIZE_OFFSET, SLOT_SIZE);
+            table.putInt(MAGIC_OFFSET, MAGIC);
+        }
+        return table;
+    }
+
+    private static long fileSize(int slotCount) {
+        return HEADER_SIZE + (long) slotCount * (2 * Long.BYTES + SLOT_SIZE);
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * @return how many slots from its home a lookup probes at most.
+     */
+    int probeLimit() {
+        return (int) INTS.getAcquire(table, PROBE_LIMIT_OFFSET);
+    }
+
+    /**
+     * Raised before the session is published, so no lookup stops short of it.
+     */
+    private void raiseProbeLimit(int probeLength) {
+        int limit;
+        while ((limit = probeLimit()) < probeLength) {
+            if (INTS.compareAndSet(table, PROBE_LIMIT_OFFSET, limit, probeLength)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @throws InvalidCommandException if the user ID or username is too long for a slot.
+     * @throws IllegalStateException   if every slot holds a live session.
+     */
+    @Override
+    public void add(Session session) {
+        UUID id = parseSessionId(session.getSessionId());
+        if (id == null) {
+            throw new IllegalArgumentException("session id must be a UUID");
+        }
+        byte[] userId = encode(session.getUserId(), MAX_USER_ID_BYTES);
+        byte[] username = encode(session.getUsername(), MAX_USERNAME_BYTES);
+        long expiresAt = toEpochMillis(session.getTtl());
+        while (!tryAdd(session, id, userId, username, expiresAt)) {
+            // the slot was freed under this writer, so the session goes into a slot again
+        }
+    }
+
+    /**
+     * @return whether the session was published, false if its slot was taken away before that.
+     */
+    private boolean tryAdd(Session session, UUID id, byte[] userId, byte[] username, long expiresAt) {
+        long now = System.currentTimeMillis();
+        int home = homeSlot(id);
+        for (int i = 0; i < slotCount; i++) {
+            int slot = (home + i) & mask;
+            long stamp = stamp(slot);
+            long state = stamp & STATE_MASK;
+            boolean isFree = state == EMPTY || state == DELETED
+                    || state == LIVE && table.getLong(base(slot) + EXPIRES_AT) <= now;
+            long locked = isFree ? lock(slot, stamp) : 0;
+            if (locked != 0) {
+                int base = base(slot);
+                table.putLong(base + EXPIRES_AT, expiresAt);
+                table.putLong(base + ID_HIGH, id.getMostSignificantBits());
+                table.putLong(base + ID_LOW, id.getLeastSignificantBits());
+                table.put(base + ADMIN, (byte) (Boolean.TRUE.equals(session.getAdmin()) ? 1 : 0));
+                writeField(slot, USER_ID, USER_ID_LENGTH, userId);
+                writeField(slot, USERNAME, USERNAME_LENGTH, username);
+                userHints.put(slot, hash(userId));
+                nameHints.put(slot, hash(username));
+                raiseProbeLimit(i + 1);
+                return unlock(slot, locked, LIVE);
+            }
+        }
+        throw new IllegalStateException("the shared session table is full");
+    }
+
+    @Override
+    public Session getSessionBySessionId(String sessionId) {
+        UUID id = parseSessionId(sessionId);
+        Found found = (id == null) ? null : find(id);
+        if (found != null && found.expiresAt() <= System.currentTimeMillis()) {
+            casStamp(found.slot(), found.stamp(), next(found.stamp(), DELETED));
+            found = null;
+        }
+        if (found == null) {
+            throw new InvalidSessionException("Session is not valid");
+        }
+        return found.session();
+    }
+
+    @Override
+    public void removeBySessionId(String sessionId) {
+        UUID id = parseSessionId(sessionId);
+        if (id == null) {
+            return;
+        }
+        Found found;
+        while ((found = find(id)) != null) {
+            if (casStamp(found.slot(), found.stamp(), next(found.stamp(), DELETED))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void removeByUserId(String userId) {
+        updateWhere(userHints, USER_ID, USER_ID_LENGTH, userId.getBytes(StandardCharsets.UTF_8), slot -> DELETED);
+    }
+
+    @Override
+    public void removeByUsername(String username) {
+        updateWhere(nameHints, USERNAME, USERNAME_LENGTH, username.getBytes(StandardCharsets.UTF_8),
+                slot -> DELETED);
+    }
+
+    @Override
+    public void updateSessionAdmin(String username, Boolean admin) {
+        byte flag = (byte) (Boolean.TRUE.equals(admin) ? 1 : 0);
+        updateWhere(nameHints, USERNAME, USERNAME_LENGTH, username.getBytes(StandardCharsets.UTF_8), slot -> {
+            table.put(base(slot) + ADMIN, flag);
+            return LIVE;
+        });
+    }
+
+    /**
+     * @throws InvalidCommandException if the new username is too long for a slot.
+     */
+    @Override
+    public void updateSessionUsername(String username, String newUsername) {
+        byte[] encoded = encode(newUsername, MAX_USERNAME_BYTES);
+        long newHash = hash(encoded);
+        updateWhere(nameHints, USERNAME, USERNAME_LENGTH, username.getBytes(StandardCharsets.UTF_8), slot -> {
+            writeField(slot, USERNAME, USERNAME_LENGTH, encoded);
+            nameHints.put(slot, newHash);
+            return LIVE;
+        });
+    }
+
+    /**
+     * Turns expired sessions into tombstones, and frees slots left locked by a process that died.
+     */
+    @Override
+    public void cleanSessions() {
+        long now = System.currentTimeMillis();
+        for (int slot = 0; slot < slotCount; slot++) {
+            long stamp = stamp(slot);
+            long state = stamp & STATE_MASK;
+            if (state == LIVE && table.getLong(base(slot) + EXPIRES_AT) <= now
+                    || state == LOCKED && !isAlive(stamp >>> OWNER_SHIFT)) {
+                casStamp(slot, stamp, next(stamp, DELETED));
+            }
+        }
+    }
+
+    private static boolean isAlive(long pid) {
+        return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    /**
+     * Scans the whole table.
+     */
+    @Override
+    public int getSessionCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if ((stamp(slot) & STATE_MASK) == LIVE && table.getLong(base(slot) + EXPIRES_AT) > now) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the live session with the given ID, or null if there is none.
+     */
+    private Found find(UUID id) {
+        int home = homeSlot(id);
+        int limit = probeLimit();
+        for (int i = 0; i < limit; i++) {
+            int slot = (home + i) & mask;
+            int base = base(slot);
+            for (int attempt = 0; ; attempt++) {
+                long stamp = stamp(slot);
+                long state = stamp & STATE_MASK;
+                if (state == EMPTY) {
+                    return null;
+                } else if (state == LOCKED) {
+                    backOff(attempt);
+                    continue;
+                } else if (state == DELETED) {
+                    break;
+                }
+                boolean matches = table.getLong(base + ID_HIGH) == id.getMostSignificantBits()
+                        && table.getLong(base + ID_LOW) == id.getLeastSignificantBits();
+                long expiresAt = table.getLong(base + EXPIRES_AT);
+                Session session = matches ? readSession(slot, id, expiresAt) : null;
+                VarHandle.acquireFence();
+                if (stamp(slot) != stamp) {
+                    continue;
+                }
+                if (matches) {
+                    return new Found(slot, stamp, expiresAt, session);
+                }
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Locks every live slot whose field equals value, applies change and releases the slot to the state the
+     * change returns.
+     */
+    private void updateWhere(LongBuffer hintColumn, int field, int lengthField, byte[] value,
+                             IntToLongFunction change) {
+        long hint = hash(value);
+        long[] hints = new long[Math.min(HINT_CHUNK, slotCount)];
+        for (int from = 0; from < slotCount; from += hints.length) {
+            hintColumn.get(from, hints);
+            for (int i = 0; i < hints.length; i++) {
+                if (hints[i] == hint) {
+                    updateSlot(from + i, field, lengthField, value, change);
+                }
+            }
+        }
+    }
+
+    private void updateSlot(int slot, int field, int lengthField, byte[] value, IntToLongFunction change) {
+        for (int attempt = 0; ; attempt++) {
+            long stamp = stamp(slot);
+            if ((stamp & STATE_MASK) == LOCKED) {
+                backOff(attempt);
+                continue;
+            }
+            boolean matches = (stamp & STATE_MASK) == LIVE && fieldEquals(slot, field, lengthField, value);
+            VarHandle.acquireFence();
+            if (stamp(slot) != stamp) {
+                continue;
+            }
+            if (!matches) {
+                return;
+            }
+            long locked = lock(slot, stamp);
+            if (locked != 0 && unlock(slot, locked, change.applyAsLong(slot))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for a locked slot, a writer holds it for a few stores, but one that is descheduled or died may hold
+     * it until the next {@link #cleanSessions()} sweeps, so a long wait parks instead of burning the core.
+     */
+    private static void backOff(int attempt) {
+        if (attempt < SPINS_BEFORE_PARKING) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    private Session readSession(int slot, UUID id, long expiresAt) {
+        LocalDateTime ttl = LocalDateTime.ofInstant(Instant.ofEpochMilli(expiresAt), ZONE);
+        return new Session(id.toString(), readField(slot, USER_ID, USER_ID_LENGTH),
+                readField(slot, USERNAME, USERNAME_LENGTH), ttl, table.get(base(slot) + ADMIN) != 0);
+    }
+
+    private String readField(int slot, int field, int lengthField) {
+        int length = Math.min(Byte.toUnsignedInt(table.get(base(slot) + lengthField)), SLOT_SIZE - field);
+        byte[] bytes = new byte[length];
+        table.get(base(slot) + field, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean fieldEquals(int slot, int field, int lengthField, byte[] value) {
+        if (Byte.toUnsignedInt(table.get(base(slot) + lengthField)) != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (table.get(base(slot) + field + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeField(int slot, int field, int lengthField, byte[] value) {
+        table.put(base(slot) + lengthField, (byte) value.length);
+        table.put(base(slot) + field, value);
+    }
+
+    /**
+     * @return the locked stamp of the slot, or 0 if another writer changed it first.
+     */
+    private long lock(int slot, long stamp) {
+        long locked = next(stamp, LOCKED) | owner << OWNER_SHIFT;
+        return casStamp(slot, stamp, locked) ? locked : 0;
+    }
+
+    /**
+     * @param locked the stamp {@link #lock(int, long)} returned.
+     * @return whether the slot was released, false if it was freed as abandoned and the write is lost.
+     */
+    private boolean unlock(int slot, long locked, long state) {
+        return casStamp(slot, locked, next(locked, state));
+    }
+
+    private boolean casStamp(int slot, long expected, long stamp) {
+        return LONGS.compareAndSet(table, base(slot) + STAMP, expected, stamp);
+    }
+
+    private long stamp(int slot) {
+        return (long) LONGS.getAcquire(table, base(slot) + STAMP);
+    }
+
+    private int base(int slot) {
+        return slots + slot * SLOT_SIZE;
+    }
+
+    private int homeSlot(UUID id) {
+        long h = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    /**
+     * @return the stamp with the next version and the state, and without an owner.
+     */
+    private static long next(long stamp, long state) {
+        return ((stamp & VERSION_MASK) + VERSION_ONE) & VERSION_MASK | state;
+    }
+
+    /**
+     * FNV-1a, every process has to agree on the hash, so {@link String#hashCode()} of a JVM isn't enough
+     * for 64 bits. Zero is left for unused slots.
+     */
+    private static long hash(byte[] value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return (h == 0) ? 1 : h;
+    }
+
+    /**
+     * @return the ID, or null unless the text is a UUID in the form {@link UUID#toString()} prints.
+     */
+    private static UUID parseSessionId(String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        try {
+            UUID id = UUID.fromString(sessionId);
+            return id.toString().equals(sessionId) ? id : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(String text, int maxBytes) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            throw new InvalidCommandException("a shared session field is limited to " + maxBytes + " bytes");
+        }
+        return bytes;
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    private record Found(int slot, long stamp, long expiresAt, Session session) {
+    }
+}
@@ -0,0 +1,106 @@
+package bg.sofia.uni.fmi.mjt.authserver.user;
+
+import bg.sofia.uni.fmi.mjt.authserver.response.Response;
+import bg.sofia.uni.fmi.mjt.authserver.server.Command;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Serves the commands a follower can answer from its replica and turns away the ones that write to the database,
+ * so clients send those to the leader. Logins are only served while the replica is fresh; sessions, bans and
+ * metrics are local to the follower.
+ */
+public class ReplicaUserManager implements UserManagerApi {
+    private static final String READ_ONLY = "read-only replica, send this command to the leader";
+    private static final String STALE = "replica is out of date, log in on the leader";
+
+    private final UserManagerApi userManager;
+    private final BooleanSupplier isFresh;
+
+    /**
+     * @param userManager serves the commands over the replica.
+     * @param isFresh     whether the replica is recent enough to check passwords against.
+     */
+    public ReplicaUserManager(UserManagerApi userManager, BooleanSupplier isFresh) {
+        this.userManager = userManager;
+        this.isFresh = isFresh;
+    }
+
+    @Override
+    public Response parseCommand(String command, String userIp) throws IOException {
+        if (command == null) {
+            return userManager.parseCommand(null, userIp);
+        }
+        int nameEnd = command.indexOf(' ');
+        Command parsed = Command.lookup(command, 0, (nameEnd < 0) ? command.length() : nameEnd);
+        if (parsed == null) {
+            return userManager.parseCommand(command, userIp);
+        }
+        return switch (parsed) {
+            case Command.LOGIN -> isFresh.getAsBoolean()
+                    ? userManager.parseCommand(command, userIp)
+                    : new Response(false, STALE);
+            case Command.LOGOUT, Command.STATS -> userManager.parseCommand(command, userIp);
+            default -> new Response(false, READ_ONLY);
+        };
+    }
+
+    @Override
+    public Response register(Map<String, String> optionsAndArgs, String userIp) {
+        return new Response(false, READ_ONLY);
+    }
+
+    @Override
+    public Response login(Map<String, String> optionsAndArgs, String userIp) throws IOException {
+        return isFresh.getAsBoolean() ? userManager.login(optionsAndArgs, userIp) : new Response(false, STALE);
+    }
+
+    @Override
+    public Response logout(Map<String, String> optionsAndArgs, String userIp) throws IOException {
+        return userManager.logout(optionsAndArgs, userIp);
+    }
+
+    @Override
+    public Response updateUser(Map<String, String> optionsAndArgs, String userIp) {
+        return new Response(false, READ_ONLY);
+    }
+
+    @Override
+    public Response deleteUser(Map<String, String> optionsAndArgs, String userIp) {
+        return new Response(false, READ_ONLY);
+    }
+
+    @Override
+    public Response resetPassword(Map<String, String> optionsAndArgs, String userIp) {
+        return new Response(false, READ_ONLY);
+    }
+
+    @Override
+    public Response addAdminUser(Map<String, String> optionsAndArgs, String userIp) {
+        return new Response(false, READ_ONLY);
+    }
+
+    @Override
+    public Response removeAdminUser(Map<String, String> optionsAndArgs, String userIp) {
+        return new Response(false, READ_ONLY);
+    }
+
+    @Override
+    public Response stats(Map<String, String> optionsAndArgs, String userIp) throws IOException {
+        return userManager.stats(optionsAndArgs, userIp);
+    }
+
+    @Override
+    public Response loginWithSession(String sessionId, String userIp) throws IOException {
+        return userManager.loginWithSession(sessionId, userIp);
+    }
+
+    @Override
+    public Response loginWithUsernamePassword(String username, String password, String userIp) throws IOException {
+        return isFresh.getAsBoolean()
+                ? userManager.loginWithUsernamePassword(username, password, userIp)
+                : new Response(false, STALE);
+    }
+}
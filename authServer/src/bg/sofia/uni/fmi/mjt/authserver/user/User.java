@@ -1,14 +1,16 @@
 package bg.sofia.uni.fmi.mjt.authserver.user;
 
-import bg.sofia.uni.fmi.mjt.authserver.exception.HashException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidCommandException;
+import bg.sofia.uni.fmi.mjt.authserver.password.PasswordEncoding;
+import bg.sofia.uni.fmi.mjt.authserver.password.PasswordHashing;
 
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.UUID;
 
+/**
+ * A user account. The salt and the password hash are kept in the binary form of {@link PasswordEncoding}
+ * and only turned into text when a password is checked or the user is written as a csv record.
+ */
 public class User {
     public static final int USERNAME_POS = 0;
     public static final int SALT_POS = 1;
@@ -18,19 +20,20 @@ public class User {
     public static final int LNAME_POS = 5;
     public static final int EMAIL_POS = 6;
     public static final int ADMIN_POS = 7;
+    /**
+     * The longest username in UTF-8 bytes, a session of the user has to fit into a slot of a shared session table.
+     */
+    public static final int MAX_USERNAME_BYTES = 152;
 
     private final String userId;
     private String username;
-    private final String salt;
-    private String passwordHash;
+    private final byte[] salt;
+    private final boolean hexSalt;
+    private byte[] passwordHash;
     private String firstName;
     private String lastName;
     private String email;
-    private Boolean admin;
-
-    private static final int SALT_SIZE = 16;
-    private static final int SALT_HEX1 = 0xff;
-    private static final int SALT_HEX2 = 0x100;
+    private boolean admin;
 
     public String getUsername() {
         return username;
@@ -41,15 +44,27 @@ public class User {
     }
 
     public String getSalt() {
-        return salt;
+        return PasswordEncoding.decodeSalt(salt, hexSalt);
     }
 
     public String getPasswordHash() {
-        return passwordHash;
+        return PasswordEncoding.decodeHash(passwordHash);
     }
 
     public void setPasswordHash(String passwordHash) {
-        this.passwordHash = passwordHash;
+        this.passwordHash = PasswordEncoding.encodeHash(passwordHash);
+    }
+
+    byte[] getSaltBytes() {
+        return salt;
+    }
+
+    boolean isHexSalt() {
+        return hexSalt;
+    }
+
+    byte[] getPasswordHashBytes() {
+        return passwordHash;
     }
 
     public String getFirstName() {
@@ -90,8 +105,15 @@ public class User {
 
     public User(String username, String salt, String passwordHash, String userId,
                 String firstName, String lastName, String email, boolean admin) {
+        this(username, PasswordEncoding.encodeSalt(salt), PasswordEncoding.isHexSalt(salt),
+                PasswordEncoding.encodeHash(passwordHash), userId, firstName, lastName, email, admin);
+    }
+
+    User(String username, byte[] salt, boolean hexSalt, byte[] passwordHash, String userId,
+         String firstName, String lastName, String email, boolean admin) {
         this.username = username;
         this.salt = salt;
+        this.hexSalt = hexSalt;
         this.passwordHash = passwordHash;
         this.userId = userId;
         this.firstName = firstName;
@@ -113,13 +135,12 @@ public class User {
                 || lastName.contains("\n") || email.contains("\n")) {
             throw new InvalidCommandException("newLine is forbidden");
         }
+        checkUsernameLength(username);
         this.username = username;
-        try {
-            this.salt = getNewSalt();
-        } catch (NoSuchAlgorithmException e) {
-            throw new HashException("There was a problem with the hash algorithm, ", e);
-        }
-        this.passwordHash = getHashedPassword(password, salt);
+        String textSalt = PasswordHashing.getDefault().newSalt();
+        this.salt = PasswordEncoding.encodeSalt(textSalt);
+        this.hexSalt = PasswordEncoding.isHexSalt(textSalt);
+        this.passwordHash = PasswordEncoding.encodeHash(getHashedPassword(password, textSalt));
         this.userId = UUID.randomUUID().toString();
         this.firstName = firstName;
         this.lastName = lastName;
@@ -127,35 +148,34 @@ public class User {
         this.admin = admin;
     }
 
+    /**
+     * @throws InvalidCommandException if the username is longer than {@link #MAX_USERNAME_BYTES}.
+     */
+    public static void checkUsernameLength(String username) {
+        if (username.getBytes(StandardCharsets.UTF_8).length > MAX_USERNAME_BYTES) {
+            throw new InvalidCommandException("username is longer than " + MAX_USERNAME_BYTES + " bytes");
+        }
+    }
+
     public static String getHashedPassword(String passwordToHash,
                                            String salt) {
-        String generatedPassword;
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-512");
-            md.update(salt.getBytes());
-            byte[] bytes = md.digest(passwordToHash.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte aByte : bytes) {
-                sb.append(Integer.toString((aByte & SALT_HEX1) + SALT_HEX2, SALT_SIZE)
-                        .substring(1));
-            }
-            generatedPassword = sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new HashException("problem with hashing password", e);
-        }
-        return generatedPassword;
+        return PasswordHashing.getDefault().hash(passwordToHash, salt);
+    }
+
+    public boolean checkPassword(String password) {
+        return PasswordHashing.getDefault().matches(password, getSalt(), getPasswordHash());
     }
 
-    private static String getNewSalt() throws NoSuchAlgorithmException {
-        SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
-        byte[] salt = new byte[SALT_SIZE];
-        sr.nextBytes(salt);
-        return new String(salt, StandardCharsets.UTF_8).replaceAll("[" + System.lineSeparator() + ",]", "");
+    /**
+     * @return true if the password hash was made with an older scheme or a lower cost than the current one.
+     */
+    public boolean passwordNeedsRehash() {
+        return PasswordHashing.getDefault().needsRehash(getPasswordHash());
     }
 
     @Override
     public String toString() {
-        return username + "," + salt + "," + passwordHash
+        return username + "," + getSalt() + "," + getPasswordHash()
                 + "," + userId + "," + firstName + ","
                 + lastName + "," + email + "," + admin
                 + System.lineSeparator();
@@ -4,23 +4,24 @@ import bg.sofia.uni.fmi.mjt.authserver.ban.BanManager;
 import bg.sofia.uni.fmi.mjt.authserver.ban.BanManagerApi;
 import bg.sofia.uni.fmi.mjt.authserver.database.DatabaseManagerApi;
 import bg.sofia.uni.fmi.mjt.authserver.exception.DatabaseException;
+import bg.sofia.uni.fmi.mjt.authserver.exception.HashException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidCommandException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidSessionException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.PermissionException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.UserExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.UserNotFoundException;
 import bg.sofia.uni.fmi.mjt.authserver.log.AuditLogApi;
+import bg.sofia.uni.fmi.mjt.authserver.metrics.MetricsRegistry;
 import bg.sofia.uni.fmi.mjt.authserver.response.Response;
 import bg.sofia.uni.fmi.mjt.authserver.server.Command;
+import bg.sofia.uni.fmi.mjt.authserver.server.CommandOptions;
+import bg.sofia.uni.fmi.mjt.authserver.server.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.server.Option;
 import bg.sofia.uni.fmi.mjt.authserver.session.Session;
 import bg.sofia.uni.fmi.mjt.authserver.session.SessionManagerApi;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
 public class UserManager implements UserManagerApi {
@@ -28,32 +29,24 @@ public class UserManager implements UserManagerApi {
     private final DatabaseManagerApi databaseManager;
     private final SessionManagerApi sessionManager;
     private final BanManagerApi banManager;
-    public static final List<String> FIELDS = List.of("--username", "--password", "--first-name",
-            "--last-name", "--email", "--session-id", "--new-username", "--new-first-name", "--new-last-name",
-            "--new-email", "--new-password", "--old-password");
+    private final MetricsRegistry metrics;
+    private static final ThreadLocal<CommandOptions> OPTIONS = ThreadLocal.withInitial(CommandOptions::new);
 
     public UserManager(AuditLogApi auditLog, DatabaseManagerApi databaseManager, SessionManagerApi sessionManager,
                        BanManagerApi banManager) {
+        this(auditLog, databaseManager, sessionManager, banManager, new MetricsRegistry());
+    }
+
+    /**
+     * @param metrics reported to admins by the stats command.
+     */
+    public UserManager(AuditLogApi auditLog, DatabaseManagerApi databaseManager, SessionManagerApi sessionManager,
+                       BanManagerApi banManager, MetricsRegistry metrics) {
         this.auditLog = auditLog;
         this.databaseManager = databaseManager;
         this.sessionManager = sessionManager;
         this.banManager = banManager;
-    }
-
-    private Map<String, String> getOptionsAndArgs(Iterator<String> it) {
-        Map<String, String> optionsAndArgs = new HashMap<>();
-        while (it.hasNext()) {
-            String option = it.next();
-            if (!it.hasNext()) {
-                throw new InvalidCommandException("Missing value for option or no such option: " + option);
-            }
-            String arg = it.next();
-            if (FIELDS.contains(arg)) {
-                throw new InvalidCommandException("Invalid " + option.substring(2) + ": " + arg);
-            }
-            optionsAndArgs.put(option, arg);
-        }
-        return optionsAndArgs;
+        this.metrics = metrics;
     }
 
     public Response parseCommand(String command, String userIp) throws IOException {
@@ -63,12 +56,9 @@ public class UserManager implements UserManagerApi {
         if (command == null) {
             return new Response(false, "command is null");
         }
-        Iterator<String> it = Arrays.stream(command.split(" +")).iterator();
         Response result;
         try {
-            result = getResponse(it, userIp);
-        } catch (IllegalArgumentException e) {
-            return new Response(false, "invalid input");
+            result = getResponse(command, userIp);
         } catch (InvalidCommandException e) {
             return new Response(false, e.getMessage());
         } catch (Exception e) {
@@ -78,36 +68,33 @@ public class UserManager implements UserManagerApi {
         return result;
     }
 
-    private Response getResponse(Iterator<String> it, String userIp) throws IOException {
-        return switch (Command.valueOf(it.next().replaceAll("-", "_").toUpperCase())) {
-            case Command.REGISTER -> register(getOptionsAndArgs(it), userIp);
-            case Command.LOGIN -> login(getOptionsAndArgs(it), userIp);
-            case Command.LOGOUT -> logout(getOptionsAndArgs(it), userIp);
-            case Command.UPDATE_USER -> updateUser(getOptionsAndArgs(it), userIp);
-            case Command.RESET_PASSWORD -> resetPassword(getOptionsAndArgs(it), userIp);
-            case Command.ADD_ADMIN_USER -> addAdminUser(getOptionsAndArgs(it), userIp);
-            case Command.REMOVE_ADMIN_USER -> removeAdminUser(getOptionsAndArgs(it), userIp);
-            case Command.DELETE_USER -> deleteUser(getOptionsAndArgs(it), userIp);
+    private Response getResponse(String command, String userIp) throws IOException {
+        CommandOptions options = OPTIONS.get();
+        Command parsed = CommandParser.parse(command, options);
+        if (parsed == null) {
+            return new Response(false, "invalid input");
+        }
+        return switch (parsed) {
+            case Command.REGISTER -> register(options, userIp);
+            case Command.LOGIN -> login(options, userIp);
+            case Command.LOGOUT -> logout(options, userIp);
+            case Command.UPDATE_USER -> updateUser(options, userIp);
+            case Command.RESET_PASSWORD -> resetPassword(options, userIp);
+            case Command.ADD_ADMIN_USER -> addAdminUser(options, userIp);
+            case Command.REMOVE_ADMIN_USER -> removeAdminUser(options, userIp);
+            case Command.DELETE_USER -> deleteUser(options, userIp);
+            case Command.STATS -> stats(options);
         };
     }
 
     public Response register(Map<String, String> optionsAndArgs, String userIp) throws IOException {
-        String username = null;
-        String password = null;
-        String firstName = null;
-        String lastName = null;
-        String email = null;
+        return register(CommandOptions.of(optionsAndArgs), userIp);
+    }
+
+    private Response register(CommandOptions options, String userIp) throws IOException {
         try {
-            for (Map.Entry<String, String> entry : optionsAndArgs.entrySet()) {
-                switch (entry.getKey()) {
-                    case "--username" -> username = entry.getValue();
-                    case "--password" -> password = entry.getValue();
-                    case "--first-name" -> firstName = entry.getValue();
-                    case "--last-name" -> lastName = entry.getValue();
-                    case "--email" -> email = entry.getValue();
-                }
-            }
-            User user = new User(username, password, firstName, lastName, email, false);
+            User user = new User(options.get(Option.USERNAME), options.get(Option.PASSWORD),
+                    options.get(Option.FIRST_NAME), options.get(Option.LAST_NAME), options.get(Option.EMAIL), false);
             return addUserToDb(user, userIp);
         } catch (InvalidCommandException | UserExistsException e) {
             return new Response(false, e.getMessage());
@@ -130,18 +117,14 @@ public class UserManager implements UserManagerApi {
     }
 
     public Response login(Map<String, String> optionsAndArgs, String userIp) throws IOException {
-        String sessionId = null;
-        String username = null;
-        String password = null;
+        return login(CommandOptions.of(optionsAndArgs), userIp);
+    }
 
+    private Response login(CommandOptions options, String userIp) throws IOException {
+        String sessionId = options.get(Option.SESSION_ID);
+        String username = options.get(Option.USERNAME);
+        String password = options.get(Option.PASSWORD);
         try {
-            for (Map.Entry<String, String> entry : optionsAndArgs.entrySet()) {
-                switch (entry.getKey()) {
-                    case "--session-id" -> sessionId = entry.getValue();
-                    case "--username" -> username = entry.getValue();
-                    case "--password" -> password = entry.getValue();
-                }
-            }
             if (sessionId != null) {
                 return loginWithSession(sessionId, userIp);
             } else if (username != null && password != null) {
@@ -177,7 +160,10 @@ public class UserManager implements UserManagerApi {
             auditLog.logUnsuccessfulLogin(LocalDateTime.now(), "", userIp);
             return new Response(false, "User does not exist");
         }
-        if (user.getPasswordHash().equals(User.getHashedPassword(password, user.getSalt()))) {
+        if (user.checkPassword(password)) {
+            if (user.passwordNeedsRehash()) {
+                upgradePasswordHash(user, password, userIp);
+            }
             Session session = new Session(user.getUserId(),
                     user.getUsername(), user.isAdmin());
             sessionManager.removeByUserId(user.getUserId());
@@ -191,9 +177,23 @@ public class UserManager implements UserManagerApi {
         return new Response(false, "wrong password");
     }
 
+    private void upgradePasswordHash(User user, String password, String userIp) throws IOException {
+        try {
+            databaseManager.updatePasswordHash(user.getUserId(), user.getPasswordHash(),
+                    User.getHashedPassword(password, user.getSalt()));
+        } catch (DatabaseException | HashException e) {
+            // the old hash still works, the upgrade is retried on the next login
+            auditLog.logError(userIp, e);
+        }
+    }
+
     public Response logout(Map<String, String> optionsAndArgs, String userIp) throws IOException {
-        if (optionsAndArgs.containsKey("--session-id")) {
-            String sessionId = optionsAndArgs.get("--session-id");
+        return logout(CommandOptions.of(optionsAndArgs), userIp);
+    }
+
+    private Response logout(CommandOptions options, String userIp) throws IOException {
+        if (options.has(Option.SESSION_ID)) {
+            String sessionId = options.get(Option.SESSION_ID);
             Session session;
             try {
                 session = sessionManager.getSessionBySessionId(sessionId);
@@ -209,8 +209,12 @@ public class UserManager implements UserManagerApi {
     }
 
     public Response deleteUser(Map<String, String> optionsAndArgs, String userIp) throws IOException {
-        String sessionId = optionsAndArgs.get("--session-id");
-        String username = optionsAndArgs.get("--username");
+        return deleteUser(CommandOptions.of(optionsAndArgs), userIp);
+    }
+
+    private Response deleteUser(CommandOptions options, String userIp) throws IOException {
+        String sessionId = options.get(Option.SESSION_ID);
+        String username = options.get(Option.USERNAME);
         if (sessionId == null || username == null) {
             return new Response(false, "All arguments are required");
         }
@@ -252,18 +256,14 @@ public class UserManager implements UserManagerApi {
     }
 
     public Response resetPassword(Map<String, String> optionsAndArgs, String userIp) throws IOException {
-        String sessionId = null;
-        String username = null;
-        String oldPassword = null;
-        String newPassword = null;
-        for (Map.Entry<String, String> entry : optionsAndArgs.entrySet()) {
-            switch (entry.getKey()) {
-                case "--username" -> username = entry.getValue();
-                case "--old-password" -> oldPassword = entry.getValue();
-                case "--new-password" -> newPassword = entry.getValue();
-                case "--session-id" -> sessionId = entry.getValue();
-            }
-        }
+        return resetPassword(CommandOptions.of(optionsAndArgs), userIp);
+    }
+
+    private Response resetPassword(CommandOptions options, String userIp) throws IOException {
+        String sessionId = options.get(Option.SESSION_ID);
+        String username = options.get(Option.USERNAME);
+        String oldPassword = options.get(Option.OLD_PASSWORD);
+        String newPassword = options.get(Option.NEW_PASSWORD);
         if (sessionId == null || username == null || oldPassword == null || newPassword == null) {
             return new Response(false, "All arguments are required");
         }
@@ -321,20 +321,15 @@ public class UserManager implements UserManagerApi {
     }
 
     public Response updateUser(Map<String, String> optionsAndArgs, String userIp) throws IOException {
-        String sessionId = null;
-        String username = null;
-        String email = null;
-        String firstName = null;
-        String lastName = null;
-        for (Map.Entry<String, String> entry : optionsAndArgs.entrySet()) {
-            switch (entry.getKey()) {
-                case "--new-username" -> username = entry.getValue();
-                case "--new-email" -> email = entry.getValue();
-                case "--new-first-name" -> firstName = entry.getValue();
-                case "--new-last-name" -> lastName = entry.getValue();
-                case "--session-id" -> sessionId = entry.getValue();
-            }
-        }
+        return updateUser(CommandOptions.of(optionsAndArgs), userIp);
+    }
+
+    private Response updateUser(CommandOptions options, String userIp) throws IOException {
+        String sessionId = options.get(Option.SESSION_ID);
+        String username = options.get(Option.NEW_USERNAME);
+        String email = options.get(Option.NEW_EMAIL);
+        String firstName = options.get(Option.NEW_FIRST_NAME);
+        String lastName = options.get(Option.NEW_LAST_NAME);
         if (username == null && email == null && firstName == null && lastName == null) {
             return new Response(false, "nothing to update");
         }
@@ -346,13 +341,20 @@ public class UserManager implements UserManagerApi {
                 || (lastName != null && lastName.contains("\n")) || (email != null && email.contains("\n"))) {
             throw new InvalidCommandException("newLine is forbidden");
         }
+        if (username != null) {
+            User.checkUsernameLength(username);
+        }
         return updateUserInDb(sessionId, username, email, firstName, lastName, userIp);
     }
 
     public Response removeAdminUser(Map<String, String> optionsAndArgs, String userIp) throws IOException {
+        return removeAdminUser(CommandOptions.of(optionsAndArgs), userIp);
+    }
+
+    private Response removeAdminUser(CommandOptions options, String userIp) throws IOException {
         try {
-            String sessionId = optionsAndArgs.get("--session-id");
-            String username = optionsAndArgs.get("--username");
+            String sessionId = options.get(Option.SESSION_ID);
+            String username = options.get(Option.USERNAME);
             if (sessionId == null || username == null) {
                 return new Response(false, "All arguments are required");
             }
@@ -364,9 +366,13 @@ public class UserManager implements UserManagerApi {
     }
 
     public Response addAdminUser(Map<String, String> optionsAndArgs, String userIp) throws IOException {
+        return addAdminUser(CommandOptions.of(optionsAndArgs), userIp);
+    }
+
+    private Response addAdminUser(CommandOptions options, String userIp) throws IOException {
         try {
-            String sessionId = optionsAndArgs.get("--session-id");
-            String username = optionsAndArgs.get("--username");
+            String sessionId = options.get(Option.SESSION_ID);
+            String username = options.get(Option.USERNAME);
             if (sessionId == null || username == null) {
                 return new Response(false, "All arguments are required");
             }
@@ -377,6 +383,25 @@ public class UserManager implements UserManagerApi {
         }
     }
 
+    public Response stats(Map<String, String> optionsAndArgs, String userIp) {
+        return stats(CommandOptions.of(optionsAndArgs));
+    }
+
+    private Response stats(CommandOptions options) {
+        String sessionId = options.get(Option.SESSION_ID);
+        if (sessionId == null) {
+            return new Response(false, "All arguments are required");
+        }
+        try {
+            if (!sessionManager.getSessionBySessionId(sessionId).getAdmin()) {
+                return new Response(false, "No admin permissions");
+            }
+        } catch (InvalidSessionException e) {
+            return new Response(false, e.getMessage());
+        }
+        return new Response(true, metrics.snapshot());
+    }
+
     private void editAdminUser(String sessionId, String username, Boolean admin, String userIp) throws IOException {
         Session session = sessionManager.getSessionBySessionId(sessionId);
         if (!admin && databaseManager.isLastAdmin()) {
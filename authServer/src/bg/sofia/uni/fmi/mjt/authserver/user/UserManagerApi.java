@@ -106,6 +106,16 @@ public interface UserManagerApi {
      */
     Response removeAdminUser(Map<String, String> optionsAndArgs, String userIp) throws IOException;
 
+    /**
+     * Reports the server metrics to an admin.
+     *
+     * @param optionsAndArgs The options and arguments, the session ID of an admin is required.
+     * @param userIp         The IP address of the user.
+     * @return A {@link Response} object with the metrics as space separated name=value pairs.
+     * @throws IOException            If an I/O error occurs.
+     */
+    Response stats(Map<String, String> optionsAndArgs, String userIp) throws IOException;
+
     /**
      * Logs in a user with a session ID.
      *
@@ -0,0 +1,106 @@
+package bg.sofia.uni.fmi.mjt.authserver.user;
+
+import bg.sofia.uni.fmi.mjt.authserver.password.PasswordEncoding;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary record of a {@link User}: a flags byte, the salt, the encoded password hash, then the username,
+ * user ID, first name, last name and email. Hex salts take a fixed 16 bytes, everything else is prefixed
+ * with its length as an unsigned LEB128 varint. Text fields are UTF-8.
+ */
+public final class UserRecord {
+    private static final int ADMIN = 1;
+    private static final int HEX_SALT = 1 << 1;
+    private static final int VARINT_PAYLOAD = 0x7F;
+    private static final int VARINT_CONTINUE = 0x80;
+    private static final int VARINT_SHIFT = 7;
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private UserRecord() {
+    }
+
+    public static void write(User user, DataOutput out) throws IOException {
+        out.writeByte((user.isAdmin() ? ADMIN : 0) | (user.isHexSalt() ? HEX_SALT : 0));
+        if (user.isHexSalt()) {
+            out.write(user.getSaltBytes());
+        } else {
+            writeBytes(user.getSaltBytes(), out);
+        }
+        writeBytes(user.getPasswordHashBytes(), out);
+        writeString(user.getUsername(), out);
+        writeString(user.getUserId(), out);
+        writeString(user.getFirstName(), out);
+        writeString(user.getLastName(), out);
+        writeString(user.getEmail(), out);
+    }
+
+    /**
+     * Reads one record and moves the buffer past it.
+     *
+     * @param scratch at least as long as the record, reused for decoding the text fields.
+     */
+    public static User read(ByteBuffer buffer, byte[] scratch) {
+        int flags = buffer.get();
+        boolean hexSalt = (flags & HEX_SALT) != 0;
+        byte[] salt = new byte[hexSalt ? PasswordEncoding.HEX_SALT_BYTES : readVarint(buffer)];
+        buffer.get(salt);
+        byte[] passwordHash = new byte[readVarint(buffer)];
+        buffer.get(passwordHash);
+        String username = readString(buffer, scratch);
+        String userId = readString(buffer, scratch);
+        String firstName = readString(buffer, scratch);
+        String lastName = readString(buffer, scratch);
+        String email = readString(buffer, scratch);
+        return new User(username, salt, hexSalt, passwordHash, userId, firstName, lastName, email,
+                (flags & ADMIN) != 0);
+    }
+
+    public static void writeVarint(int value, DataOutput out) throws IOException {
+        while ((value & ~VARINT_PAYLOAD) != 0) {
+            out.writeByte((value & VARINT_PAYLOAD) | VARINT_CONTINUE);
+            value >>>= VARINT_SHIFT;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * @return the varint at the buffer's position, or -1 with the position unchanged if it is cut off
+     *         by the buffer's limit.
+     * @throws IllegalArgumentException if the varint is longer than an int can be.
+     */
+    public static int readVarint(ByteBuffer buffer) {
+        int start = buffer.position();
+        int value = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(start);
+                return -1;
+            }
+            int next = buffer.get();
+            value |= (next & VARINT_PAYLOAD) << (VARINT_SHIFT * i);
+            if ((next & VARINT_CONTINUE) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint is too long");
+    }
+
+    private static void writeBytes(byte[] bytes, DataOutput out) throws IOException {
+        writeVarint(bytes.length, out);
+        out.write(bytes);
+    }
+
+    private static void writeString(String text, DataOutput out) throws IOException {
+        writeBytes(text.getBytes(StandardCharsets.UTF_8), out);
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = readVarint(buffer);
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -4,8 +4,12 @@ import bg.sofia.uni.fmi.mjt.authserver.exception.DatabaseException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidCommandException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.UserExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.UserNotFoundException;
+import bg.sofia.uni.fmi.mjt.authserver.password.PasswordHashing;
+import bg.sofia.uni.fmi.mjt.authserver.password.Pbkdf2PasswordHasher;
+import bg.sofia.uni.fmi.mjt.authserver.password.Sha512PasswordHasher;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -13,12 +17,15 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
@@ -32,6 +39,12 @@ class DatabaseManagerTest {
 
     private File tempFile;
 
+    @BeforeAll
+    static void useCheapPasswordHashing() {
+        PasswordHashing.setDefault(new PasswordHashing(new Pbkdf2PasswordHasher(1000),
+                List.of(new Sha512PasswordHasher()), 1, 64));
+    }
+
     @BeforeEach
     void setUp() throws IOException {
         tempFile = new File(tempDir.toFile(), "tempDb.csv");
@@ -43,6 +56,12 @@ class DatabaseManagerTest {
         tempFile.delete();
     }
 
+    private User reloadUser(String username) throws IOException {
+        try (DatabaseManager reloaded = new DatabaseManager(tempFile.getAbsolutePath())) {
+            return reloaded.findUserInDatabase(username);
+        }
+    }
+
     @Test
     void testEditPassword() throws IOException {
 
@@ -57,18 +76,17 @@ class DatabaseManagerTest {
         databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
         databaseManager.addUser(newUser);
         databaseManager.editPassword(userId, oldPassword, newPassword);
+        databaseManager.compact();
 
 
-        try (Scanner scanner = new Scanner(tempFile)) {
-            String[] values = scanner.nextLine().split(",");
-            assertEquals(values[User.USERNAME_POS], newUser.getUsername());
-            assertEquals(values[User.FNAME_POS], newUser.getFirstName());
-            assertEquals(values[User.LNAME_POS], newUser.getLastName());
-            assertEquals(values[User.EMAIL_POS], newUser.getEmail());
-            assertEquals(Boolean.parseBoolean(values[User.ADMIN_POS]), newUser.isAdmin());
-            assertEquals(User.getHashedPassword(newPassword, values[User.SALT_POS]), values[User.PASS_POS]);
-            assertEquals(values[User.ID_POS], newUser.getUserId());
-        }
+        User stored = reloadUser(newUser.getUsername());
+        assertEquals(stored.getUsername(), newUser.getUsername());
+        assertEquals(stored.getFirstName(), newUser.getFirstName());
+        assertEquals(stored.getLastName(), newUser.getLastName());
+        assertEquals(stored.getEmail(), newUser.getEmail());
+        assertEquals(stored.isAdmin(), newUser.isAdmin());
+        assertTrue(stored.checkPassword(newPassword));
+        assertEquals(stored.getUserId(), newUser.getUserId());
     }
 
     @Test
@@ -87,18 +105,17 @@ class DatabaseManagerTest {
         databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
         databaseManager.addUser(newUser);
         databaseManager.editUser(userId, username, firstName, lastName, email, admin);
+        databaseManager.compact();
 
 
-        try (Scanner scanner = new Scanner(tempFile)) {
-            String[] values = scanner.nextLine().split(",");
-            assertEquals(values[User.USERNAME_POS], username);
-            assertEquals(values[User.FNAME_POS], firstName);
-            assertEquals(values[User.LNAME_POS], lastName);
-            assertEquals(values[User.EMAIL_POS], email);
-            assertEquals(Boolean.parseBoolean(values[User.ADMIN_POS]), newUser.isAdmin());
-            assertEquals(User.getHashedPassword("pass123", values[User.SALT_POS]), values[User.PASS_POS]);
-            assertEquals(values[User.ID_POS], userId);
-        }
+        User stored = reloadUser(username);
+        assertEquals(stored.getUsername(), username);
+        assertEquals(stored.getFirstName(), firstName);
+        assertEquals(stored.getLastName(), lastName);
+        assertEquals(stored.getEmail(), email);
+        assertEquals(stored.isAdmin(), newUser.isAdmin());
+        assertEquals(User.getHashedPassword("pass123", stored.getSalt()), stored.getPasswordHash());
+        assertEquals(stored.getUserId(), userId);
     }
 
     @Test
@@ -109,18 +126,17 @@ class DatabaseManagerTest {
 
         databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
         databaseManager.addUser(newUser);
+        databaseManager.compact();
 
 
-        try (Scanner scanner = new Scanner(tempFile)) {
-            String[] values = scanner.nextLine().split(",");
-            assertEquals(values[User.USERNAME_POS], newUser.getUsername());
-            assertEquals(values[User.FNAME_POS], newUser.getFirstName());
-            assertEquals(values[User.LNAME_POS], newUser.getLastName());
-            assertEquals(values[User.EMAIL_POS], newUser.getEmail());
-            assertEquals(Boolean.parseBoolean(values[User.ADMIN_POS]), newUser.isAdmin());
-            assertEquals(User.getHashedPassword("pass123", values[User.SALT_POS]), values[User.PASS_POS]);
-            assertEquals(values[User.ID_POS], newUser.getUserId());
-        }
+        User stored = reloadUser(newUser.getUsername());
+        assertEquals(stored.getUsername(), newUser.getUsername());
+        assertEquals(stored.getFirstName(), newUser.getFirstName());
+        assertEquals(stored.getLastName(), newUser.getLastName());
+        assertEquals(stored.getEmail(), newUser.getEmail());
+        assertEquals(stored.isAdmin(), newUser.isAdmin());
+        assertEquals(User.getHashedPassword("pass123", stored.getSalt()), stored.getPasswordHash());
+        assertEquals(stored.getUserId(), newUser.getUserId());
     }
 
     @Test
@@ -134,11 +150,10 @@ class DatabaseManagerTest {
         databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
         databaseManager.addUser(newUser);
         databaseManager.deleteUser(userIdToDelete);
+        databaseManager.compact();
 
 
-        try (Scanner scanner = new Scanner(tempFile)) {
-            assertThrows(NoSuchElementException.class, scanner::nextLine);
-        }
+        assertThrows(UserNotFoundException.class, () -> reloadUser(newUser.getUsername()));
     }
 
     @Test
@@ -152,33 +167,31 @@ class DatabaseManagerTest {
         databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
         databaseManager.addUser(existingUser1);
         databaseManager.addUser(existingUser2);
-
-
-        try (Scanner scanner = new Scanner(tempFile)) {
-
-            String[] values = scanner.nextLine().split(",");
-            assertEquals(values[User.USERNAME_POS], existingUser1.getUsername());
-            assertEquals(values[User.FNAME_POS], existingUser1.getFirstName());
-            assertEquals(values[User.LNAME_POS], existingUser1.getLastName());
-            assertEquals(values[User.EMAIL_POS], existingUser1.getEmail());
-            assertEquals(Boolean.parseBoolean(values[User.ADMIN_POS]), existingUser1.isAdmin());
-            assertEquals(User.getHashedPassword("pass123", values[User.SALT_POS]), values[User.PASS_POS]);
-            assertEquals(values[User.ID_POS], existingUser1.getUserId());
-
-            values = scanner.nextLine().split(",");
-            assertEquals(values[User.USERNAME_POS], existingUser2.getUsername());
-            assertEquals(values[User.FNAME_POS], existingUser2.getFirstName());
-            assertEquals(values[User.LNAME_POS], existingUser2.getLastName());
-            assertEquals(values[User.EMAIL_POS], existingUser2.getEmail());
-            assertEquals(Boolean.parseBoolean(values[User.ADMIN_POS]), existingUser2.isAdmin());
-            assertEquals(User.getHashedPassword("pass123", values[User.SALT_POS]), values[User.PASS_POS]);
-            assertEquals(values[User.ID_POS], existingUser2.getUserId());
-
-
-            assertThrows(InvalidCommandException.class, () ->
-                    databaseManager.editUser(userIdToEdit, existingUser2.getUsername(),
-                            "NewJohn", "NewDoe", "newjohn@example.com", true));
-        }
+        databaseManager.compact();
+
+
+        User stored = reloadUser(existingUser1.getUsername());
+        assertEquals(stored.getUsername(), existingUser1.getUsername());
+        assertEquals(stored.getFirstName(), existingUser1.getFirstName());
+        assertEquals(stored.getLastName(), existingUser1.getLastName());
+        assertEquals(stored.getEmail(), existingUser1.getEmail());
+        assertEquals(stored.isAdmin(), existingUser1.isAdmin());
+        assertEquals(User.getHashedPassword("pass123", stored.getSalt()), stored.getPasswordHash());
+        assertEquals(stored.getUserId(), existingUser1.getUserId());
+
+        stored = reloadUser(existingUser2.getUsername());
+        assertEquals(stored.getUsername(), existingUser2.getUsername());
+        assertEquals(stored.getFirstName(), existingUser2.getFirstName());
+        assertEquals(stored.getLastName(), existingUser2.getLastName());
+        assertEquals(stored.getEmail(), existingUser2.getEmail());
+        assertEquals(stored.isAdmin(), existingUser2.isAdmin());
+        assertEquals(User.getHashedPassword("pass123", stored.getSalt()), stored.getPasswordHash());
+        assertEquals(stored.getUserId(), existingUser2.getUserId());
+
+
+        assertThrows(InvalidCommandException.class, () ->
+                databaseManager.editUser(userIdToEdit, existingUser2.getUsername(),
+                        "NewJohn", "NewDoe", "newjohn@example.com", true));
     }
 
     @Test
@@ -218,21 +231,152 @@ class DatabaseManagerTest {
 
 
         DatabaseManager tempDbManager = new DatabaseManager(tempFile.getAbsolutePath());
+        tempDbManager.close();
 
 
         databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
 
 
-        try (Scanner scanner = new Scanner(tempFile)) {
-            String[] values = scanner.nextLine().split(",");
-            assertEquals(values[User.USERNAME_POS], "tf");
-            assertEquals(values[User.FNAME_POS], "tf");
-            assertEquals(values[User.LNAME_POS], "tf");
-            assertEquals(values[User.EMAIL_POS], "tf");
-            assertEquals(Boolean.parseBoolean(values[User.ADMIN_POS]), false);
-            assertEquals(User.getHashedPassword("tf2", values[User.SALT_POS]), values[User.PASS_POS]);
-            assertEquals(values[User.ID_POS], "f1a270e6-5276-499b-89d6-adef2d5bc08d");
+        User stored = databaseManager.findUserInDatabase("tf");
+        assertEquals(stored.getUsername(), "tf");
+        assertEquals(stored.getFirstName(), "tf");
+        assertEquals(stored.getLastName(), "tf");
+        assertEquals(stored.getEmail(), "tf");
+        assertEquals(stored.isAdmin(), false);
+        assertEquals(stored.getUserId(), "f1a270e6-5276-499b-89d6-adef2d5bc08d");
+        assertTrue(stored.checkPassword("tf2"));
+        assertFalse(Files.readString(tempFile.toPath(), StandardCharsets.ISO_8859_1).startsWith("tf,"),
+                "the csv snapshot is migrated to the binary format");
+    }
+
+    @Test
+    void testMutationsAreReplayedFromWriteAheadLog() throws IOException {
+
+        User keptUser = new User("keptUser", "pass123", "John", "Doe", "john@example.com", false);
+        User deletedUser = new User("deletedUser", "pass123", "Jane", "Doe", "jane@example.com", false);
+
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(keptUser);
+        databaseManager.addUser(deletedUser);
+        databaseManager.editUser(keptUser.getUserId(), "renamedUser", null, null, null, true);
+        databaseManager.deleteUser(deletedUser.getUserId());
+        databaseManager.close();
+
+
+        DatabaseManager reloaded = new DatabaseManager(tempFile.getAbsolutePath());
+        assertEquals(keptUser.getUserId(), reloaded.findUserInDatabase("renamedUser").getUserId());
+        assertTrue(reloaded.findUserInDatabase("renamedUser").isAdmin());
+        assertThrows(UserNotFoundException.class, () -> reloaded.findUserInDatabase("deletedUser"));
+    }
+
+    @Test
+    void testTornWriteAheadLogRecordIsIgnored() throws IOException {
+
+        User newUser = new User("newUser", "pass123", "John", "Doe", "john@example.com", false);
+
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(newUser);
+        databaseManager.close();
+        try (FileWriter fileWriter = new FileWriter(tempFile.getAbsolutePath() + ".wal", true)) {
+            fileWriter.write("PUT,half");
+        }
+
+
+        DatabaseManager reloaded = new DatabaseManager(tempFile.getAbsolutePath());
+        assertEquals(newUser.getUserId(), reloaded.findUserInDatabase("newUser").getUserId());
+    }
+
+    @Test
+    void testTornWriteAheadLogRecordIsCutOffBeforeAppending() throws IOException {
+
+        User oldUser = new User("oldUser", "pass123", "John", "Doe", "john@example.com", false);
+        User tornUser = new User("tornUser", "pass123", "Jane", "Doe", "jane@example.com", true);
+        User newUser = new User("newUser", "pass123", "Jack", "Doe", "jack@example.com", false);
+        String tornRecord = "PUT," + tornUser.toString().strip();
+
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(oldUser);
+        databaseManager.close();
+        try (FileWriter fileWriter = new FileWriter(tempFile.getAbsolutePath() + ".wal", true)) {
+            fileWriter.write(tornRecord.substring(0, tornRecord.length() - 2));
         }
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(newUser);
+        databaseManager.close();
+
+
+        DatabaseManager reloaded = new DatabaseManager(tempFile.getAbsolutePath());
+        assertEquals(oldUser.getUserId(), reloaded.findUserInDatabase("oldUser").getUserId());
+        assertEquals(newUser.getUserId(), reloaded.findUserInDatabase("newUser").getUserId());
+        assertThrows(UserNotFoundException.class, () -> reloaded.findUserInDatabase("tornUser"));
+    }
+
+    @Test
+    void testCompactTruncatesWriteAheadLog() throws IOException {
+
+        User newUser = new User("newUser", "pass123", "John", "Doe", "john@example.com", false);
+
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(newUser);
+        databaseManager.compact();
+
+
+        assertEquals(0, new File(tempFile.getAbsolutePath() + ".wal").length());
+        assertFalse(new File(tempFile.getAbsolutePath() + ".wal.old").exists());
+    }
+
+    @Test
+    void testAddUserUsernameTaken() throws IOException {
+
+        User existingUser = new User("sameName", "pass123", "John", "Doe", "john@example.com", false);
+        User newUser = new User("sameName", "pass456", "Jane", "Doe", "jane@example.com", false);
+
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(existingUser);
+
+
+        assertThrows(UserExistsException.class, () -> databaseManager.addUser(newUser));
+        assertEquals(existingUser.getUserId(), databaseManager.findUserInDatabase("sameName").getUserId());
+    }
+
+    @Test
+    void testEditUserRenameUpdatesUsernameIndex() throws IOException {
+
+        User newUser = new User("oldName", "pass123", "John", "Doe", "john@example.com", false);
+
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(newUser);
+        databaseManager.editUser(newUser.getUserId(), "newName", null, null, null, null);
+
+
+        assertThrows(UserNotFoundException.class, () -> databaseManager.findUserInDatabase("oldName"));
+        assertEquals(newUser.getUserId(), databaseManager.findUserInDatabase("newName").getUserId());
+    }
+
+    @Test
+    void testIsLastAdminTracksAdminChangesAndDeletes() throws IOException {
+
+        User adminUser1 = new User("admin1", "pass123", "Admin1", "User", "admin1@example.com", true);
+        User adminUser2 = new User("admin2", "pass123", "Admin2", "User", "admin2@example.com", false);
+
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(adminUser1);
+        databaseManager.addUser(adminUser2);
+        assertTrue(databaseManager.isLastAdmin());
+
+        databaseManager.editUser(adminUser2.getUserId(), null, null, null, null, true);
+        databaseManager.editUser(adminUser2.getUserId(), null, null, null, null, true);
+        assertFalse(databaseManager.isLastAdmin());
+
+        databaseManager.deleteUser(adminUser1.getUserId());
+        assertTrue(databaseManager.isLastAdmin());
     }
 
     @Test
@@ -297,5 +441,42 @@ class DatabaseManagerTest {
         assertThrows(UserNotFoundException.class, ()->databaseManager.findUserInDatabase("admin1"));
     }
 
+    @Test
+    void testBinarySnapshotKeepsEveryField() throws IOException {
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        for (int i = 0; i < 1000; i++) {
+            databaseManager.addUser(new User("user" + i, "salt ñ" + i, "hash" + i, "id" + i,
+                    "first" + i, "ünicode" + i, "mail" + i, i % 7 == 0));
+        }
+        databaseManager.compact();
+        databaseManager.close();
+
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        for (int i = 0; i < 1000; i++) {
+            User stored = databaseManager.findUserInDatabase("user" + i);
+            assertEquals("salt ñ" + i, stored.getSalt());
+            assertEquals("hash" + i, stored.getPasswordHash());
+            assertEquals("id" + i, stored.getUserId());
+            assertEquals("first" + i, stored.getFirstName());
+            assertEquals("ünicode" + i, stored.getLastName());
+            assertEquals("mail" + i, stored.getEmail());
+            assertEquals(i % 7 == 0, stored.isAdmin());
+        }
+    }
+
+    @Test
+    void testTruncatedSnapshotIsRejected() throws IOException {
+
+        databaseManager = new DatabaseManager(tempFile.getAbsolutePath());
+        databaseManager.addUser(new User("newUser", "pass123", "John", "Doe", "john@example.com", false));
+        databaseManager.compact();
+        databaseManager.close();
+        byte[] snapshot = Files.readAllBytes(tempFile.toPath());
+        Files.write(tempFile.toPath(), Arrays.copyOf(snapshot, snapshot.length - 3));
+
 
+        assertThrows(DatabaseException.class, () -> new DatabaseManager(tempFile.getAbsolutePath()));
+    }
 }
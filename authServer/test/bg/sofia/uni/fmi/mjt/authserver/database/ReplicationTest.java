@@ -0,0 +1,241 @@
+package bg.sofia.uni.fmi.mjt.authserver.database;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.DatabaseException;
+import bg.sofia.uni.fmi.mjt.authserver.exception.UserNotFoundException;
+import bg.sofia.uni.fmi.mjt.authserver.password.PasswordHashing;
+import bg.sofia.uni.fmi.mjt.authserver.password.Pbkdf2PasswordHasher;
+import bg.sofia.uni.fmi.mjt.authserver.password.Sha512PasswordHasher;
+import bg.sofia.uni.fmi.mjt.authserver.response.Response;
+import bg.sofia.uni.fmi.mjt.authserver.user.ReplicaUserManager;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.user.UserManagerApi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ReplicationTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @TempDir
+    Path tempDir;
+
+    private DatabaseManager leaderDb;
+    private DatabaseManager replicaDb;
+    private ReplicationLeader leader;
+    private ReplicationFollower follower;
+
+    @BeforeAll
+    static void useCheapPasswordHashing() {
+        PasswordHashing.setDefault(new PasswordHashing(new Pbkdf2PasswordHasher(1000),
+                List.of(new Sha512PasswordHasher()), 1, 64));
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        leaderDb = new DatabaseManager(tempDir.resolve("leader.txt").toString());
+        replicaDb = new DatabaseManager(tempDir.resolve("replica.txt").toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (follower != null) {
+            follower.close();
+        }
+        if (leader != null) {
+            leader.close();
+        }
+        leaderDb.close();
+        replicaDb.close();
+    }
+
+    private void startReplication(int backlog, long maxStalenessMillis) throws IOException {
+        leader = new ReplicationLeader(leaderDb, "localhost", 0, backlog);
+        follower = new ReplicationFollower(replicaDb, "localhost", leader.getPort(), maxStalenessMillis);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private boolean replicaHas(String username) {
+        try {
+            replicaDb.findUserInDatabase(username);
+            return true;
+        } catch (UserNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Test
+    void testFollowerLoadsSnapshotOfExistingUsers() throws Exception {
+        leaderDb.addUser(new User("a", "pa", "fa", "la", "ea", true));
+        leaderDb.addUser(new User("b", "pb", "fb", "lb", "eb", false));
+
+        startReplication(16, 1000);
+        await(follower::isFresh);
+
+        assertTrue(replicaDb.findUserInDatabase("a").checkPassword("pa"));
+        assertTrue(replicaDb.findUserInDatabase("b").checkPassword("pb"));
+        assertTrue(replicaDb.findUserInDatabase("a").isAdmin());
+    }
+
+    @Test
+    void testFollowerAppliesStreamedMutationsInOrder() throws Exception {
+        startReplication(1024, 1000);
+        await(follower::isFresh);
+
+        User user = new User("a", "pa", "fa", "la", "ea", false);
+        leaderDb.addUser(user);
+        leaderDb.editUser(user.getUserId(), "renamed", null, null, null, null);
+        leaderDb.addUser(new User("b", "pb", "fb", "lb", "eb", false));
+        leaderDb.deleteUser(leaderDb.findUserInDatabase("b").getUserId());
+
+        await(() -> follower.getAppliedOffset() == leader.getLastOffset());
+        assertEquals(4, follower.getAppliedOffset());
+        assertTrue(replicaHas("renamed"));
+        assertFalse(replicaHas("a"));
+        assertFalse(replicaHas("b"));
+    }
+
+    @Test
+    void testReplicaIsReadOnly() throws Exception {
+        leaderDb.addUser(new User("a", "pa", "fa", "la", "ea", false));
+        startReplication(16, 1000);
+        await(() -> replicaHas("a"));
+        User replicated = replicaDb.findUserInDatabase("a");
+
+        assertThrows(DatabaseException.class, () -> replicaDb.addUser(new User("b", "pb", "fb", "lb", "eb", false)),
+                "a replica must not take writes");
+        assertThrows(DatabaseException.class, () -> replicaDb.deleteUser(replicated.getUserId()),
+                "a replica must not take writes");
+        assertFalse(replicaDb.updatePasswordHash(replicated.getUserId(), replicated.getPasswordHash(), "x"),
+                "a replica must not upgrade password hashes");
+    }
+
+    @Test
+    void testReplicaPersistsWhatItReplicated() throws Exception {
+        startReplication(16, 1000);
+        await(follower::isFresh);
+        leaderDb.addUser(new User("a", "pa", "fa", "la", "ea", false));
+        await(() -> replicaHas("a"));
+
+        follower.close();
+        follower = null;
+        replicaDb.close();
+        replicaDb = new DatabaseManager(tempDir.resolve("replica.txt").toString());
+
+        assertTrue(replicaDb.findUserInDatabase("a").checkPassword("pa"));
+    }
+
+    @Test
+    void testFollowerBecomesStaleWhenLeaderStops() throws Exception {
+        startReplication(16, 200);
+        await(follower::isFresh);
+
+        leader.close();
+        leader = null;
+
+        await(() -> !follower.isFresh());
+    }
+
+    @Test
+    void testRestartedFollowerCatchesUpFromSnapshot() throws Exception {
+        startReplication(2, 1000);
+        await(follower::isFresh);
+        follower.close();
+        follower = null;
+
+        for (int i = 0; i < 10; i++) {
+            leaderDb.addUser(new User("u" + i, "p", "f", "l", "e", false));
+        }
+        follower = new ReplicationFollower(replicaDb, "localhost", leader.getPort(), 1000);
+
+        await(() -> replicaHas("u9"));
+        assertTrue(replicaHas("u0"));
+    }
+
+    @Test
+    void testReplicationLogResumesOnlyWithinBacklog() throws InterruptedException {
+        ReplicationLog log = new ReplicationLog(2);
+        log.append("PUT,1" + System.lineSeparator());
+        log.append("PUT,2" + System.lineSeparator());
+        log.append("PUT,3" + System.lineSeparator());
+
+        assertEquals(List.of("PUT,2", "PUT,3"), log.readAfter(1, 10, 0));
+        assertEquals(List.of("PUT,3"), log.readAfter(2, 10, 0));
+        assertEquals(List.of(), log.readAfter(3, 10, 1));
+        assertNull(log.readAfter(0, 10, 0), "record 1 is no longer in the backlog");
+        assertFalse(log.canResumeFrom(4), "an offset the log never reached can't be resumed");
+    }
+
+    @Test
+    void testReplicaUserManagerRefusesWritesAndStaleLogins() throws IOException {
+        UserManagerApi userManager = mock();
+        Response loggedIn = new Response(true, "id");
+        when(userManager.parseCommand("login --username a --password b", "ip")).thenReturn(loggedIn);
+        boolean[] fresh = {true};
+        ReplicaUserManager replica = new ReplicaUserManager(userManager, () -> fresh[0]);
+
+        assertEquals(loggedIn, replica.parseCommand("login --username a --password b", "ip"));
+        verify(userManager).parseCommand("login --username a --password b", "ip");
+
+        fresh[0] = false;
+        UserManagerApi untouched = mock();
+        ReplicaUserManager staleReplica = new ReplicaUserManager(untouched, () -> fresh[0]);
+        assertFalse(staleReplica.parseCommand("login --username a --password b", "ip").success());
+        assertFalse(staleReplica.parseCommand("register --username a --password b", "ip").success());
+        assertFalse(staleReplica.parseCommand("delete-user --session-id s --username a", "ip").success());
+        verifyNoInteractions(untouched);
+    }
+
+    @Test
+    void testFollowerReconnectsAfterAMalformedMessage() throws Exception {
+        try (ServerSocket fakeLeader = new ServerSocket(0)) {
+            fakeLeader.setSoTimeout((int) TIMEOUT_MILLIS);
+            follower = new ReplicationFollower(replicaDb, "localhost", fakeLeader.getLocalPort(), TIMEOUT_MILLIS);
+            for (String malformed : List.of("RECORD", "HEARTBEAT", "HEARTBEAT x", "RECORD x PUT")) {
+                try (Socket connection = fakeLeader.accept()) {
+                    connection.setSoTimeout((int) TIMEOUT_MILLIS);
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                    assertTrue(in.readLine().startsWith("SYNC"));
+                    connection.getOutputStream().write(("FULL id 0 0\n" + malformed + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    assertNull(in.readLine(), "the follower should drop the connection after: " + malformed);
+                }
+            }
+            try (Socket connection = fakeLeader.accept()) {
+                connection.setSoTimeout((int) TIMEOUT_MILLIS);
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals("SYNC id 0", in.readLine(), "the follower should keep reconnecting");
+            }
+        }
+    }
+}
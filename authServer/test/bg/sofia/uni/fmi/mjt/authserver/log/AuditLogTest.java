@@ -10,8 +10,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -37,6 +38,7 @@ class AuditLogTest {
 
 
         auditLog.logLogin(timestamp, user, userIp);
+        auditLog.flush();
 
 
         List<String> lines = Files.readAllLines(tempDir.resolve("log.txt"));
@@ -55,6 +57,7 @@ class AuditLogTest {
 
 
         auditLog.logLogout(timestamp, user, userIp);
+        auditLog.flush();
 
 
         List<String> lines = Files.readAllLines(tempDir.resolve("log.txt"));
@@ -74,9 +77,10 @@ class AuditLogTest {
 
 
         auditLog.logError(text, exception);
+        auditLog.flush();
 
 
-        List<String> lines = Files.readAllLines(tempDir.resolve(getDateHour() + ".txt"));
+        List<String> lines = Files.readAllLines(tempDir.resolve("log.txt"));
         assertEquals(3, lines.size());
         assertTrue(lines.get(0).contains(text));
         assertTrue(lines.get(1).contains(exception.getMessage()));
@@ -92,6 +96,7 @@ class AuditLogTest {
 
 
         auditLog.logUnsuccessfulLogin(timestamp, user, userIp);
+        auditLog.flush();
 
 
         List<String> lines = Files.readAllLines(tempDir.resolve("log.txt"));
@@ -111,6 +116,7 @@ class AuditLogTest {
 
 
         auditLog.logCommandStart(timestamp, Command.REGISTER, "type", user, userIp, changes);
+        auditLog.flush();
 
 
         List<String> lines = Files.readAllLines(tempDir.resolve("log.txt"));
@@ -131,6 +137,7 @@ class AuditLogTest {
 
 
         auditLog.logCommandEnd(timestamp, Command.REGISTER, "type", user, userIp, result);
+        auditLog.flush();
 
 
         List<String> lines = Files.readAllLines(tempDir.resolve("log.txt"));
@@ -142,7 +149,86 @@ class AuditLogTest {
     }
 
 
-    private String getDateHour() {
-        return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd+HH-mm-ss"));
+    @Test
+    void testEventsAreWrittenInOrderFromManyThreads() throws IOException, InterruptedException {
+
+        int threads = 4;
+        int eventsPerThread = 1000;
+
+
+        Thread[] loggers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            String user = "user" + t;
+            loggers[t] = new Thread(() -> {
+                for (int i = 0; i < eventsPerThread; i++) {
+                    try {
+                        auditLog.logLogin(LocalDateTime.now(), user, String.valueOf(i));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            loggers[t].start();
+        }
+        for (Thread logger : loggers) {
+            logger.join();
+        }
+        auditLog.flush();
+
+
+        List<String> lines = Files.readAllLines(tempDir.resolve("log.txt"));
+        assertEquals(threads * eventsPerThread, lines.size());
+        int expectedNext = 0;
+        for (String line : lines) {
+            if (line.contains(" user0 ")) {
+                assertTrue(line.endsWith(" from " + expectedNext));
+                expectedNext++;
+            }
+        }
+        assertEquals(eventsPerThread, expectedNext);
+    }
+
+    @Test
+    void testLogFileIsRotatedWhenItGrowsTooBig() throws IOException {
+
+        AuditLog rotating = new AuditLog(tempDir.resolve("rotating").toString(),
+                new AuditLogSettings(AuditLogSettings.Durability.WRITE, 10, 100, TimeUnit.DAYS.toMillis(1),
+                        16, AuditLogSettings.OverflowPolicy.BLOCK));
+
+
+        for (int i = 0; i < 10; i++) {
+            rotating.logLogin(LocalDateTime.now(), "testUser", "127.0.0.1");
+            rotating.flush();
+        }
+        rotating.close();
+
+
+        try (Stream<Path> files = Files.list(tempDir.resolve("rotating"))) {
+            List<Path> logs = files.toList();
+            assertTrue(logs.size() > 1);
+            long lines = 0;
+            for (Path log : logs) {
+                lines += Files.readAllLines(log).size();
+            }
+            assertEquals(10, lines);
+        }
+    }
+
+    @Test
+    void testDropPolicyNeverBlocks() throws IOException {
+
+        AuditLog dropping = new AuditLog(tempDir.resolve("dropping").toString(),
+                new AuditLogSettings(AuditLogSettings.Durability.BUFFERED, 1000, Long.MAX_VALUE,
+                        TimeUnit.DAYS.toMillis(1), 2, AuditLogSettings.OverflowPolicy.DROP));
+
+
+        for (int i = 0; i < 10_000; i++) {
+            dropping.logLogin(LocalDateTime.now(), "testUser", "127.0.0.1");
+        }
+        dropping.close();
+
+
+        long written = Files.readAllLines(tempDir.resolve("dropping").resolve("log.txt")).size();
+        assertEquals(10_000, written + dropping.getDroppedEvents());
     }
 }
@@ -0,0 +1,86 @@
+package bg.sofia.uni.fmi.mjt.authserver.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    private LatencyHistogram histogram;
+
+    @BeforeEach
+    void setUp() {
+        histogram = new LatencyHistogram();
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+    }
+
+    @Test
+    void testLargeValuesStayWithinRelativeError() {
+
+        for (long value = 1; value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            histogram.record(value);
+
+
+            long reported = histogram.getMax();
+            assertTrue(reported >= value && reported - value <= value / 64,
+                    "value " + value + " reported as " + reported);
+            histogram.reset();
+        }
+    }
+
+    @Test
+    void testPercentilesOfMillisecondLatencies() {
+
+        for (int i = 0; i < 990; i++) {
+            histogram.record(1_000_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100_000_000);
+        }
+
+
+        assertEquals(1_000_000, histogram.getValueAtPercentile(50), 1_000_000 / 64);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(99), 1_000_000 / 64);
+        assertEquals(100_000_000, histogram.getValueAtPercentile(99.9), 100_000_000 / 64);
+    }
+
+    @Test
+    void testAddAndPrint() {
+
+        LatencyHistogram other = new LatencyHistogram();
+        histogram.record(10);
+        other.record(20);
+        other.record(30);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+
+        histogram.add(other);
+        histogram.printPercentiles(new PrintStream(out, true, StandardCharsets.UTF_8), 1);
+
+
+        assertEquals(3, histogram.getCount());
+        String printed = out.toString(StandardCharsets.UTF_8);
+        assertTrue(printed.contains("Percentile"));
+        assertTrue(printed.contains("#[Total count    =            3]"));
+    }
+}
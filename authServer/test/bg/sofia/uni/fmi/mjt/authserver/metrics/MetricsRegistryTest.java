@@ -0,0 +1,69 @@
+package bg.sofia.uni.fmi.mjt.authserver.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MetricsRegistry metrics;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new MetricsRegistry();
+    }
+
+    @Test
+    void testSnapshotIsSortedAndOnOneLine() {
+
+        metrics.counter("b.counter").add(2);
+        metrics.counter("a.counter").increment();
+        metrics.gauge("c.gauge", () -> 7);
+        metrics.histogram("d.latency").record(1500);
+        metrics.histogram("e.unused");
+
+
+        String snapshot = metrics.snapshot();
+
+
+        assertEquals("a.counter=1 b.counter=2 c.gauge=7 d.latency.count=1 d.latency.p50_us=1.5 "
+                + "d.latency.p99_us=1.5 d.latency.p999_us=1.5 d.latency.max_us=1.5", snapshot);
+    }
+
+    @Test
+    void testSameNameReturnsSameMetric() {
+
+        assertSame(metrics.counter("x"), metrics.counter("x"));
+        assertSame(metrics.histogram("y"), metrics.histogram("y"));
+    }
+
+    @Test
+    void testAppendSnapshot() throws IOException {
+
+        Path file = tempDir.resolve("metrics.log");
+        metrics.counter("requests").increment();
+
+
+        metrics.appendSnapshot(file);
+        metrics.counter("requests").increment();
+        metrics.appendSnapshot(file);
+
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith(" requests=1"));
+        assertTrue(lines.get(1).endsWith(" requests=2"));
+    }
+}
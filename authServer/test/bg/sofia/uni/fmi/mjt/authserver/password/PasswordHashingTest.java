@@ -0,0 +1,111 @@
+package bg.sofia.uni.fmi.mjt.authserver.password;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasswordHashingTest {
+
+    private PasswordHashing hashing;
+
+    @BeforeEach
+    void setUp() {
+        hashing = new PasswordHashing(new Pbkdf2PasswordHasher(1000), List.of(new Sha512PasswordHasher()), 2, 16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        hashing.shutdown();
+    }
+
+    @Test
+    void testHashMatchesOnlyTheSamePassword() {
+        // Arrange
+        String salt = hashing.newSalt();
+
+        // Act
+        String hash = hashing.hash("pass123", salt);
+
+        // Assert
+        assertTrue(hash.startsWith("pbkdf2-sha512$1000$"));
+        assertTrue(hashing.matches("pass123", salt, hash));
+        assertFalse(hashing.matches("pass124", salt, hash));
+        assertFalse(hashing.matches("pass123", hashing.newSalt(), hash));
+        assertFalse(hashing.needsRehash(hash));
+    }
+
+    @Test
+    void testNewSaltIsCsvSafeHex() {
+        // Act
+        String salt = hashing.newSalt();
+
+        // Assert
+        assertEquals(32, salt.length());
+        assertTrue(salt.chars().allMatch(HexFormat::isHexDigit));
+        assertNotEquals(salt, hashing.newSalt());
+    }
+
+    @Test
+    void testLegacySha512HashStillMatchesAndNeedsRehash() throws NoSuchAlgorithmException {
+        // Arrange
+        MessageDigest md = MessageDigest.getInstance("SHA-512");
+        md.update("salt".getBytes(StandardCharsets.UTF_8));
+        String legacyHash = HexFormat.of().formatHex(md.digest("pass123".getBytes(StandardCharsets.UTF_8)));
+
+        // Act & Assert
+        assertTrue(hashing.matches("pass123", "salt", legacyHash));
+        assertFalse(hashing.matches("pass124", "salt", legacyHash));
+        assertTrue(hashing.needsRehash(legacyHash));
+    }
+
+    @Test
+    void testRaisingTheCostKeepsOldHashesValid() {
+        // Arrange
+        String salt = hashing.newSalt();
+        String cheapHash = hashing.hash("pass123", salt);
+        PasswordHashing stronger = new PasswordHashing(new Pbkdf2PasswordHasher(2000), List.of(), 1, 1);
+
+        // Act & Assert
+        assertTrue(stronger.matches("pass123", salt, cheapHash));
+        assertTrue(stronger.needsRehash(cheapHash));
+        assertFalse(stronger.needsRehash(stronger.hash("pass123", salt)));
+        stronger.shutdown();
+    }
+
+    @Test
+    void testUnknownHashNeverMatches() {
+        // Act & Assert
+        assertFalse(hashing.matches("pass123", "salt", "not a hash"));
+        assertFalse(hashing.matches("pass123", "salt", "pbkdf2-sha512$x$00"));
+        assertTrue(hashing.needsRehash("not a hash"));
+    }
+
+    @Test
+    void testEncodingRoundTripsEveryFormat() {
+        // Arrange
+        String salt = hashing.newSalt();
+        List<String> hashes = List.of(hashing.hash("pass123", salt), "ab".repeat(64), "AB".repeat(64),
+                "pbkdf2-sha512$0100$" + "ab".repeat(64), "unknown$scheme", "");
+
+        // Act & Assert
+        assertEquals(PasswordEncoding.HEX_SALT_BYTES, PasswordEncoding.encodeSalt(salt).length);
+        assertEquals(salt, PasswordEncoding.decodeSalt(PasswordEncoding.encodeSalt(salt), true));
+        assertEquals("legacy salt", PasswordEncoding.decodeSalt(PasswordEncoding.encodeSalt("legacy salt"), false));
+        for (String hash : hashes) {
+            assertEquals(hash, PasswordEncoding.decodeHash(PasswordEncoding.encodeHash(hash)));
+        }
+        assertEquals(1 + Integer.BYTES + 64, PasswordEncoding.encodeHash(hashes.get(0)).length);
+        assertEquals(1 + 64, PasswordEncoding.encodeHash(hashes.get(1)).length);
+    }
+}
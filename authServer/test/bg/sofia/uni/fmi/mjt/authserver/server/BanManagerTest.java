@@ -82,4 +82,133 @@ class BanManagerTest {
 
         assertFalse(banManager.checkBanned(userIp));
     }
+
+    @Test
+    void testPortsOfTheSameHostShareAttempts() {
+        for (int port = 50000; port < 50005; port++) {
+            banManager.addFailedAttempt("/7.7.7.7:" + port);
+        }
+
+        assertTrue(banManager.checkBanned("/7.7.7.7:60000"));
+        assertTrue(banManager.checkBanned("7.7.7.7"));
+        assertFalse(banManager.checkBanned("/7.7.7.8:50000"));
+    }
+
+    @Test
+    void testIpv6AddressesAreTracked() {
+        banManager.banUser("/[0:0:0:0:0:0:0:1]:50000");
+
+        assertTrue(banManager.checkBanned("::1"));
+        assertFalse(banManager.checkBanned("::2"));
+    }
+
+    @Test
+    void testUnparsableAddressesWithTheSameHashAreKeptApart() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        banManager.banUser("Aa");
+
+        assertTrue(banManager.checkBanned("Aa"));
+        assertFalse(banManager.checkBanned("BB"), "a ban must not spread to a colliding text");
+    }
+
+    @Test
+    void testAttemptsOutsideTheWindowAreForgotten() throws InterruptedException {
+        BanManager windowed = new BanManager(3, TimeUnit.MINUTES.toMillis(1), 20, 1024);
+        String userIp = "8.8.8.8";
+
+        windowed.addFailedAttempt(userIp);
+        windowed.addFailedAttempt(userIp);
+        Thread.sleep(50);
+        windowed.addFailedAttempt(userIp);
+
+        assertFalse(windowed.checkBanned(userIp));
+    }
+
+    @Test
+    void testMetrics() {
+        banManager.banUser("9.9.9.9");
+        banManager.addFailedAttempt("10.10.10.10");
+
+        assertEquals(1, banManager.getActiveBans());
+        assertEquals(2, banManager.getTrackedIps());
+    }
+
+    @Test
+    void testMillionDistinctAttackerIpsStayUnderTheCap() throws InterruptedException {
+        int maxTrackedIps = 16 * 1024;
+        int threads = 4;
+        int ipsPerThread = 250_000;
+        BanManager bounded = new BanManager(3, TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1),
+                maxTrackedIps);
+        bounded.banUser("9.9.9.9");
+
+        Thread[] attackers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int firstOctet = t + 1;
+            attackers[t] = new Thread(() -> {
+                for (int i = 0; i < ipsPerThread; i++) {
+                    String ip = firstOctet + "." + ((i >> 16) & 0xFF) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF);
+                    bounded.addFailedAttempt(ip);
+                    bounded.addFailedAttempt(ip);
+                }
+            });
+            attackers[t].start();
+        }
+        for (Thread attacker : attackers) {
+            attacker.join();
+        }
+
+        assertTrue(bounded.getTrackedIps() <= maxTrackedIps + 1);
+        assertEquals(1, bounded.getActiveBans());
+        assertTrue(bounded.checkBanned("9.9.9.9"), "flooding the attempt counters must not lift a ban");
+    }
+
+    @Test
+    void testEveryBannedAttackerStaysBannedPastTheCap() {
+        int maxTrackedIps = 1024;
+        int attackers = 16 * maxTrackedIps;
+        BanManager bounded = new BanManager(2, TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1),
+                maxTrackedIps, 2 * attackers);
+
+        for (int i = 0; i < attackers; i++) {
+            String ip = "4." + ((i >> 16) & 0xFF) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF);
+            bounded.addFailedAttempt(ip);
+            bounded.addFailedAttempt(ip);
+        }
+
+        assertEquals(attackers, bounded.getActiveBans());
+        assertTrue(bounded.checkBanned("4.0.0.0"));
+        assertTrue(bounded.checkBanned("4.0.63.255"));
+    }
+
+    @Test
+    void testBansPastTheirCapAreRefusedAndEarlierOnesKept() {
+        int maxBannedIps = 1024;
+        int attackers = 16 * maxBannedIps;
+        BanManager bounded = new BanManager(2, TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1),
+                1024, maxBannedIps);
+        bounded.banUser("9.9.9.9");
+
+        for (int i = 0; i < attackers; i++) {
+            String ip = "4." + ((i >> 16) & 0xFF) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF);
+            bounded.addFailedAttempt(ip);
+            bounded.addFailedAttempt(ip);
+        }
+
+        assertEquals(maxBannedIps, bounded.getActiveBans());
+        assertTrue(bounded.getTrackedIps() <= 1024 + maxBannedIps);
+        assertTrue(bounded.checkBanned("9.9.9.9"), "new bans must not push out earlier ones");
+        assertTrue(bounded.checkBanned("4.0.0.0"));
+    }
+
+    @Test
+    void testExpiredBansAreDropped() throws InterruptedException {
+        banManager.banUser("11.11.11.11");
+        Thread.sleep(20);
+
+        assertEquals(0, banManager.getActiveBans());
+        assertFalse(banManager.checkBanned("11.11.11.11"));
+        assertEquals(0, banManager.getTrackedIps());
+    }
 }
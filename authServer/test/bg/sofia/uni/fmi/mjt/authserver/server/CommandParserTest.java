@@ -0,0 +1,79 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidCommandException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CommandParserTest {
+
+    private CommandOptions options;
+
+    @BeforeEach
+    void setUp() {
+        options = new CommandOptions();
+    }
+
+    @Test
+    void testParseCommandWithOptions() {
+
+        Command command = CommandParser.parse("reset-password  --session-id ses --username testUser "
+                + "--old-password old   --new-password new ", options);
+
+
+        assertEquals(Command.RESET_PASSWORD, command);
+        assertEquals("ses", options.get(Option.SESSION_ID));
+        assertEquals("testUser", options.get(Option.USERNAME));
+        assertEquals("old", options.get(Option.OLD_PASSWORD));
+        assertEquals("new", options.get(Option.NEW_PASSWORD));
+        assertFalse(options.has(Option.EMAIL));
+    }
+
+    @Test
+    void testCommandNamesIgnoreCaseAndSeparator() {
+
+        assertEquals(Command.ADD_ADMIN_USER, CommandParser.parse("ADD_admin-USER", options));
+        assertEquals(Command.LOGIN, CommandParser.parse("login", options));
+        assertNull(CommandParser.parse("login2", options));
+        assertNull(CommandParser.parse(" login", options));
+        assertNull(CommandParser.parse("", options));
+    }
+
+    @Test
+    void testOptionsAreClearedBetweenCommands() {
+
+        CommandParser.parse("login --username testUser --password testPass", options);
+        CommandParser.parse("login --session-id ses", options);
+
+
+        assertEquals("ses", options.get(Option.SESSION_ID));
+        assertNull(options.get(Option.USERNAME));
+        assertNull(options.get(Option.PASSWORD));
+    }
+
+    @Test
+    void testUnknownOptionsAreSkipped() {
+
+        CommandParser.parse("logout --unknown value --session-id ses", options);
+
+
+        assertEquals("ses", options.get(Option.SESSION_ID));
+    }
+
+    @Test
+    void testMissingOrInvalidValue() {
+
+        InvalidCommandException missing = assertThrows(InvalidCommandException.class,
+                () -> CommandParser.parse("login --username", options));
+        InvalidCommandException invalid = assertThrows(InvalidCommandException.class,
+                () -> CommandParser.parse("login --username --password", options));
+
+
+        assertEquals("Missing value for option or no such option: --username", missing.getMessage());
+        assertEquals("Invalid username: --password", invalid.getMessage());
+    }
+}
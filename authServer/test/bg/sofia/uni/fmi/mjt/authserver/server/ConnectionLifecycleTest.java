@@ -0,0 +1,188 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.password.PasswordHashing;
+import bg.sofia.uni.fmi.mjt.authserver.password.Pbkdf2PasswordHasher;
+import bg.sofia.uni.fmi.mjt.authserver.password.Sha512PasswordHasher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionLifecycleTest {
+    private static final String HOST = "localhost";
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final String COMMAND = "login --username nobody --password wrong\n";
+
+    @TempDir
+    Path tempDir;
+
+    private Server server;
+    private Thread serverThread;
+    private int port;
+
+    @BeforeAll
+    static void useCheapPasswordHashing() {
+        PasswordHashing.setDefault(new PasswordHashing(new Pbkdf2PasswordHasher(1000),
+                List.of(new Sha512PasswordHasher()), 1, 64));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (server != null) {
+            server.stop();
+            serverThread.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    private void startServer(ConnectionSettings settings) throws IOException, InterruptedException {
+        startServer(settings, 1);
+    }
+
+    private void startServer(ConnectionSettings settings, int reactorCount) throws IOException, InterruptedException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = new Server(port, tempDir.resolve("db.txt").toString(), tempDir.resolve("log").toString(),
+                100, TimeUnit.MINUTES.toMillis(1), reactorCount, 1);
+        server.setConnectionSettings(settings);
+        serverThread = new Thread(server::start);
+        serverThread.start();
+        connectWithRetry().close();
+    }
+
+    private Socket connectWithRetry() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return new Socket(HOST, port);
+            } catch (IOException e) {
+                assertTrue(System.currentTimeMillis() < deadline, "server did not start in time");
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(HOST, port);
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        socket.getOutputStream().write(text.getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+    }
+
+    @Test
+    void testSilentConnectionIsClosedAfterFirstCommandTimeout() throws Exception {
+        startServer(new ConnectionSettings(10, 60_000, 200, 1000));
+        try (Socket socket = connect()) {
+            long start = System.nanoTime();
+            assertEquals(-1, socket.getInputStream().read(), "the server should close a silent connection");
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150,
+                    "the connection was closed before its timeout");
+        }
+    }
+
+    @Test
+    void testIdleConnectionIsClosedAndActiveOneIsKept() throws Exception {
+        startServer(new ConnectionSettings(10, 400, 400, 1000));
+        try (Socket active = connect(); Socket idle = connect()) {
+            BufferedReader activeIn = reader(active);
+            send(idle, COMMAND);
+            assertTrue(reader(idle).readLine().startsWith("Failure"));
+            for (int i = 0; i < 8; i++) {
+                send(active, COMMAND);
+                assertTrue(activeIn.readLine().startsWith("Failure"));
+                Thread.sleep(100);
+            }
+            assertEquals(-1, idle.getInputStream().read(), "the idle connection should be closed");
+            send(active, COMMAND);
+            assertTrue(activeIn.readLine().startsWith("Failure"), "the active connection should be kept");
+        }
+    }
+
+    @Test
+    void testAcceptPausesAtTheConnectionLimit() throws Exception {
+        startServer(new ConnectionSettings(2, 60_000, 60_000, 1000));
+        Socket first = connect();
+        try (Socket second = connect(); Socket third = connect()) {
+            send(first, COMMAND);
+            send(second, COMMAND);
+            assertTrue(reader(first).readLine().startsWith("Failure"));
+            assertTrue(reader(second).readLine().startsWith("Failure"));
+
+            third.setSoTimeout(300);
+            send(third, COMMAND);
+            BufferedReader thirdIn = reader(third);
+            assertThrows(SocketTimeoutException.class, thirdIn::readLine,
+                    "a client over the limit must wait in the backlog");
+
+            first.close();
+            third.setSoTimeout(TIMEOUT_MILLIS);
+            assertTrue(thirdIn.readLine().startsWith("Failure"),
+                    "the waiting client should be served once a slot frees");
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test
+    void testAcceptSpreadsConnectionsOverTheReactors() throws Exception {
+        startServer(ConnectionSettings.defaults(), 2);
+        try (Socket first = connect(); Socket second = connect(); Socket third = connect(); Socket fourth = connect()) {
+            for (Socket socket : List.of(first, second, third, fourth)) {
+                send(socket, COMMAND);
+                assertTrue(reader(socket).readLine().startsWith("Failure"));
+            }
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (!Arrays.equals(new int[] {2, 2}, server.connectionsPerReactor())
+                    && System.currentTimeMillis() < deadline) {
+                // the probe connection of startServer may not be closed yet
+                Thread.sleep(10);
+            }
+            assertArrayEquals(new int[] {2, 2}, server.connectionsPerReactor(),
+                    "every reactor should get every other connection");
+        }
+    }
+
+    @Test
+    void testStopAnswersInFlightCommandsBeforeClosing() throws Exception {
+        startServer(ConnectionSettings.defaults());
+        int count = 100;
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            send(socket, COMMAND.repeat(count));
+            assertTrue(in.readLine().startsWith("Failure"));
+            server.stop();
+            for (int i = 1; i < count; i++) {
+                String reply = in.readLine();
+                assertTrue(reply != null && reply.startsWith("Failure"), "reply " + i + " was lost on shutdown");
+            }
+            assertNull(in.readLine(), "the connection should be closed once drained");
+        }
+        assertTrue(server.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,172 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.log.AuditLogApi;
+import bg.sofia.uni.fmi.mjt.authserver.metrics.MetricsRegistry;
+import bg.sofia.uni.fmi.mjt.authserver.response.Response;
+import bg.sofia.uni.fmi.mjt.authserver.user.UserManagerApi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ReactorTest {
+    private static final String HOST = "localhost";
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final String BUSY = "The server is busy, try again later";
+    private static final int LARGE_REPLY_SIZE = 16 * 1024;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int SMALL_BUFFER_SIZE = 4 * 1024;
+
+    private final UserManagerApi userManager = mock();
+    private ThreadPoolExecutor workers;
+    private Reactor reactor;
+    private Thread reactorThread;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (reactor != null) {
+            reactor.stop();
+            reactorThread.join(TIMEOUT_MILLIS);
+        }
+        workers.shutdownNow();
+    }
+
+    private void startReactor(ThreadPoolExecutor pool) throws IOException {
+        workers = pool;
+        reactor = new Reactor(workers, userManager, mock(AuditLogApi.class), new MetricsRegistry(), null,
+                ConnectionSettings.defaults(), new ConnectionLimit(1, () -> { }));
+        reactorThread = new Thread(reactor);
+        reactorThread.start();
+    }
+
+    /**
+     * Connects a client and hands the accepted channel over to the reactor.
+     */
+    private Socket connect() throws IOException {
+        return connect(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize the receive buffer of the client and the send buffer of the accepted channel.
+     */
+    private Socket connect(int bufferSize) throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(HOST, 0));
+            Socket client = new Socket();
+            client.setReceiveBufferSize(bufferSize);
+            client.connect(listener.getLocalAddress());
+            client.setSoTimeout(TIMEOUT_MILLIS);
+            SocketChannel accepted = listener.accept();
+            accepted.setOption(StandardSocketOptions.SO_SNDBUF, bufferSize);
+            reactor.register(accepted, HOST);
+            return client;
+        }
+    }
+
+    private ThreadPoolExecutor workerPool() {
+        return new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64),
+                Reactor::rejectBatch);
+    }
+
+    private void echoCommands(int padding) throws IOException {
+        when(userManager.parseCommand(anyString(), anyString()))
+                .thenAnswer(invocation -> new Response(true, invocation.getArgument(0) + "x".repeat(padding)));
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        socket.getOutputStream().write(text.getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+    }
+
+    @Test
+    void testCommandsRejectedByTheWorkerPoolAreAnsweredBusy() throws Exception {
+        ThreadPoolExecutor rejecting = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), Reactor::rejectBatch);
+        rejecting.shutdown();
+        startReactor(rejecting);
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            send(socket, "logout --session-id 1\nlogout --session-id 2\n");
+            assertEquals(BUSY, in.readLine());
+            assertEquals(BUSY, in.readLine());
+            send(socket, "logout --session-id 3\n");
+            assertEquals(BUSY, in.readLine(), "a connection whose batch was rejected must get the next one");
+        }
+        verifyNoInteractions(userManager);
+    }
+
+    @Test
+    void testCommandSplitAcrossWritesIsFramedOnce() throws Exception {
+        echoCommands(0);
+        startReactor(workerPool());
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            send(socket, "logout --sess");
+            Thread.sleep(100);
+            send(socket, "ion-id 1\r\n");
+            assertEquals("Success: logout --session-id 1", in.readLine());
+            assertFalse(in.ready(), "a split command must be answered once");
+        }
+        verify(userManager).parseCommand("logout --session-id 1", HOST);
+    }
+
+    @Test
+    void testPipelinedCommandsAreAnsweredInOrder() throws Exception {
+        echoCommands(0);
+        startReactor(workerPool());
+        int count = 200;
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            commands.append("logout --session-id ").append(i).append('\n');
+        }
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            send(socket, commands.toString());
+            for (int i = 0; i < count; i++) {
+                assertEquals("Success: logout --session-id " + i, in.readLine());
+            }
+        }
+    }
+
+    @Test
+    void testRepliesLargerThanTheReceiveWindowAreWrittenInFull() throws Exception {
+        echoCommands(LARGE_REPLY_SIZE);
+        startReactor(workerPool());
+        int count = 100;
+        try (Socket socket = connect(SMALL_BUFFER_SIZE)) {
+            for (int i = 0; i < count; i++) {
+                send(socket, "logout --session-id " + i + "\n");
+            }
+            // the replies fill the socket buffers, so the reactor has to wait for the socket to become writable
+            Thread.sleep(200);
+            BufferedReader in = reader(socket);
+            for (int i = 0; i < count; i++) {
+                assertEquals("Success: logout --session-id " + i + "x".repeat(LARGE_REPLY_SIZE), in.readLine(),
+                        "reply " + i + " was cut or reordered");
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+    private static final long TICK = 10;
+    private static final int SLOTS = 8;
+
+    private TimerWheel<String> wheel;
+    private List<String> fired;
+
+    @BeforeEach
+    void setUp() {
+        wheel = new TimerWheel<>(TICK, SLOTS, 0);
+        fired = new ArrayList<>();
+    }
+
+    private TimerWheel.Timer<String> schedule(String name, long deadline) {
+        TimerWheel.Timer<String> timer = new TimerWheel.Timer<>(name);
+        wheel.schedule(timer, deadline);
+        return timer;
+    }
+
+    @Test
+    void testTimerFiresWithinOneTickAfterItsDeadline() {
+        schedule("a", 25);
+
+        wheel.expire(29, fired::add);
+        assertTrue(fired.isEmpty(), "a timer must not fire before its tick has passed");
+
+        wheel.expire(30, fired::add);
+        assertEquals(List.of("a"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testTimersFireOnlyOnce() {
+        schedule("a", 5);
+        wheel.expire(20, fired::add);
+        wheel.expire(40, fired::add);
+
+        assertEquals(List.of("a"), fired);
+    }
+
+    @Test
+    void testCancelledTimerDoesNotFire() {
+        TimerWheel.Timer<String> a = schedule("a", 15);
+        schedule("b", 15);
+        TimerWheel.Timer<String> c = schedule("c", 15);
+        wheel.cancel(a);
+        wheel.cancel(c);
+        wheel.cancel(c);
+
+        wheel.expire(20, fired::add);
+
+        assertEquals(List.of("b"), fired);
+        assertFalse(a.isScheduled());
+    }
+
+    @Test
+    void testRescheduleMovesTheTimer() {
+        TimerWheel.Timer<String> a = schedule("a", 15);
+        wheel.schedule(a, 45);
+        assertEquals(1, wheel.size());
+
+        wheel.expire(20, fired::add);
+        assertTrue(fired.isEmpty());
+
+        wheel.expire(50, fired::add);
+        assertEquals(List.of("a"), fired);
+    }
+
+    @Test
+    void testDeadlinesBeyondOneRotationWaitForTheirRound() {
+        schedule("far", TICK * SLOTS * 3 + 5);
+
+        for (long now = TICK; now <= TICK * SLOTS * 3; now += TICK) {
+            wheel.expire(now, fired::add);
+        }
+        assertTrue(fired.isEmpty(), "a timer must not fire on an earlier rotation");
+
+        wheel.expire(TICK * SLOTS * 3 + TICK, fired::add);
+        assertEquals(List.of("far"), fired);
+    }
+
+    @Test
+    void testLongPauseFiresEveryDueTimer() {
+        for (int i = 0; i < 20; i++) {
+            schedule("t" + i, i * 7L);
+        }
+        TimerWheel.Timer<String> late = schedule("late", 10_000);
+
+        wheel.expire(1000, fired::add);
+
+        assertEquals(20, fired.size());
+        assertTrue(late.isScheduled());
+        assertEquals(10_000, late.getDeadlineNanos());
+    }
+
+    @Test
+    void testCallbackCanRescheduleTheFiredTimer() {
+        List<TimerWheel.Timer<String>> timers = new ArrayList<>();
+        timers.add(schedule("a", 5));
+
+        wheel.expire(10, target -> {
+            fired.add(target);
+            wheel.schedule(timers.get(0), 35);
+        });
+        assertEquals(1, wheel.size());
+
+        wheel.expire(40, fired::add);
+        assertEquals(List.of("a", "a"), fired);
+    }
+
+    @Test
+    void testMillisUntilNextTick() {
+        TimerWheel<String> millis = new TimerWheel<>(1_000_000_000L, SLOTS, 0);
+        assertEquals(0, millis.millisUntilNextTick(0), "an empty wheel lets the reactor block");
+
+        millis.schedule(new TimerWheel.Timer<>("a"), 5_000_000_000L);
+        assertEquals(750, millis.millisUntilNextTick(250_000_000L));
+    }
+
+    @Test
+    void testSlotCountMustBeAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new TimerWheel<String>(TICK, 6, 0));
+    }
+}
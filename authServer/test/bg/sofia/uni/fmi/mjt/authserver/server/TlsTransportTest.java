@@ -0,0 +1,162 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.password.PasswordHashing;
+import bg.sofia.uni.fmi.mjt.authserver.password.Pbkdf2PasswordHasher;
+import bg.sofia.uni.fmi.mjt.authserver.password.Sha512PasswordHasher;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TlsTransportTest {
+    private static final String HOST = "localhost";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    @TempDir
+    static Path tempDir;
+
+    private static Server server;
+    private static Thread serverThread;
+    private static SSLContext clientContext;
+    private static int port;
+
+    @BeforeAll
+    static void startServer() throws IOException, InterruptedException {
+        PasswordHashing.setDefault(new PasswordHashing(new Pbkdf2PasswordHasher(1000),
+                List.of(new Sha512PasswordHasher()), 1, 64));
+        Path keyStore = tempDir.resolve("server.p12");
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "server", "-keyalg", "EC", "-dname", "CN=" + HOST,
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", new String(PASSWORD), "-validity", "1")
+                .redirectErrorStream(true)
+                .start();
+        keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+        assertTrue(keytool.waitFor(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) && keytool.exitValue() == 0,
+                "keytool failed to create the key store");
+        clientContext = TlsContexts.forClient(keyStore, PASSWORD);
+
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = new Server(port, tempDir.resolve("db.txt").toString(), tempDir.resolve("log").toString(),
+                5, TimeUnit.MINUTES.toMillis(1), 2, 2);
+        server.enableTls(TlsContexts.forServer(keyStore, PASSWORD));
+        serverThread = new Thread(server::start);
+        serverThread.start();
+        awaitServer();
+    }
+
+    @AfterAll
+    static void stopServer() throws InterruptedException {
+        server.stop();
+        serverThread.join(TIMEOUT_MILLIS);
+    }
+
+    private static void awaitServer() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                new Socket(HOST, port).close();
+                return;
+            } catch (IOException e) {
+                assertTrue(System.currentTimeMillis() < deadline, "server did not start in time");
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static SSLSocket connect() throws IOException {
+        SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket(HOST, port);
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void send(Socket socket, String commands) throws IOException {
+        socket.getOutputStream().write(commands.getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+    }
+
+    @Test
+    void testRegisterAndLoginOverTls() throws IOException {
+        try (SSLSocket socket = connect()) {
+            BufferedReader in = reader(socket);
+            send(socket, "register --username alice --password secret1 --first-name A --last-name B "
+                    + "--email a@b.c\n");
+            assertTrue(in.readLine().startsWith("Success"), "register should succeed over TLS");
+            send(socket, "login --username alice --password secret1\n");
+            assertTrue(in.readLine().startsWith("Success"), "login should succeed over TLS");
+            assertEquals("TLSv1.3", socket.getSession().getProtocol());
+        }
+    }
+
+    @Test
+    void testPipelinedCommandsAreAnsweredInOrder() throws IOException {
+        int count = 50;
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            commands.append("login --username nobody").append(i).append(" --password wrong\n");
+        }
+        try (SSLSocket socket = connect()) {
+            BufferedReader in = reader(socket);
+            send(socket, commands.toString());
+            for (int i = 0; i < count; i++) {
+                assertTrue(in.readLine().startsWith("Failure"), "every unknown login should fail");
+            }
+        }
+    }
+
+    @Test
+    void testReconnectWithTheSameContextResumesTheSession() throws IOException, InterruptedException {
+        long firstCreationTime = -1;
+        for (int i = 0; i < 3; i++) {
+            try (SSLSocket socket = connect()) {
+                send(socket, "login --username nobody --password wrong\n");
+                assertTrue(reader(socket).readLine().startsWith("Failure"),
+                        "a reconnecting client should be served");
+                // TLS 1.3 gives a resumed session a new id but keeps the creation time of the full handshake
+                long creationTime = socket.getSession().getCreationTime();
+                if (i == 0) {
+                    firstCreationTime = creationTime;
+                } else {
+                    assertEquals(firstCreationTime, creationTime, "connection " + i + " should resume the session");
+                }
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void testPlaintextClientIsDisconnected() throws IOException {
+        try (Socket socket = new Socket(HOST, port)) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            send(socket, "login --username nobody --password wrong\n");
+            int read;
+            do {
+                read = socket.getInputStream().read();
+            } while (read >= 0 && read != '\n');
+            assertEquals(-1, read, "a client that skips the handshake must not get a reply");
+        }
+    }
+}
@@ -6,11 +6,16 @@ import bg.sofia.uni.fmi.mjt.authserver.exception.DatabaseException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidSessionException;
 import bg.sofia.uni.fmi.mjt.authserver.exception.UserNotFoundException;
 import bg.sofia.uni.fmi.mjt.authserver.log.AuditLog;
+import bg.sofia.uni.fmi.mjt.authserver.metrics.MetricsRegistry;
+import bg.sofia.uni.fmi.mjt.authserver.password.PasswordHashing;
+import bg.sofia.uni.fmi.mjt.authserver.password.Pbkdf2PasswordHasher;
+import bg.sofia.uni.fmi.mjt.authserver.password.Sha512PasswordHasher;
 import bg.sofia.uni.fmi.mjt.authserver.response.Response;
 import bg.sofia.uni.fmi.mjt.authserver.session.Session;
 import bg.sofia.uni.fmi.mjt.authserver.session.SessionManager;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 import bg.sofia.uni.fmi.mjt.authserver.user.UserManager;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -18,12 +23,20 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.startsWith;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -46,6 +59,12 @@ class UserManagerTest {
     @InjectMocks
     private UserManager userManager;
 
+    @BeforeAll
+    static void useCheapPasswordHashing() {
+        PasswordHashing.setDefault(new PasswordHashing(new Pbkdf2PasswordHasher(1000),
+                List.of(new Sha512PasswordHasher()), 1, 64));
+    }
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -154,6 +173,21 @@ class UserManagerTest {
 
     }
 
+    @Test
+    void testRegisterTooLongUsername() throws IOException {
+
+        String registerCommand = "register --username " + "u".repeat(User.MAX_USERNAME_BYTES + 1)
+                + " --password testPass --first-name John --last-name Doe --email john@example.com";
+
+        Response response = userManager.parseCommand(registerCommand, "1.1.1.1");
+
+
+        assertFalse(response.success());
+        assertTrue(response.message().contains("username is longer than"));
+        verifyNoInteractions(databaseManager);
+        verifyNoInteractions(sessionManager);
+    }
+
     @Test
     void testLoginSuccess() throws IOException {
 
@@ -196,6 +230,28 @@ class UserManagerTest {
         verifyNoMoreInteractions(sessionManager);
     }
 
+    @Test
+    void testLoginUpgradesLegacyPasswordHash() throws IOException, NoSuchAlgorithmException {
+
+        String validLoginCommand = "login --username testUser --password testPass";
+        String userIp = "1.1.1.1";
+        MessageDigest md = MessageDigest.getInstance("SHA-512");
+        md.update("salt".getBytes(StandardCharsets.UTF_8));
+        String legacyHash = HexFormat.of().formatHex(md.digest("testPass".getBytes(StandardCharsets.UTF_8)));
+        User user = new User("testUser", "salt", legacyHash, "userId", "John", "Doe", "asd", false);
+
+        when(databaseManager.findUserInDatabase("testUser")).thenReturn(user);
+
+
+        Response response = userManager.parseCommand(validLoginCommand, userIp);
+
+
+        assertTrue(response.success());
+        verify(databaseManager).findUserInDatabase("testUser");
+        verify(databaseManager).updatePasswordHash(eq("userId"), eq(legacyHash), startsWith("pbkdf2-sha512$"));
+        verifyNoMoreInteractions(databaseManager);
+    }
+
     @Test
     void testLoginIncorrectPassword() throws IOException {
 
@@ -710,5 +766,33 @@ class UserManagerTest {
         verify(databaseManager).isLastAdmin();
         verifyNoMoreInteractions(sessionManager, databaseManager, auditLog);    }
 
+    @Test
+    void testStatsAsAdmin() throws IOException {
 
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("bytes.in").add(42);
+        UserManager withMetrics = new UserManager(auditLog, databaseManager, sessionManager, banManager, metrics);
+        when(sessionManager.getSessionBySessionId("ses")).thenReturn(new Session("testUserId", "adminUser", true));
+
+
+        Response response = withMetrics.parseCommand("stats --session-id ses", "1.1.1.1");
+
+
+        assertTrue(response.success());
+        assertEquals("bytes.in=42", response.message());
+        verifyNoInteractions(databaseManager, auditLog);
+    }
+
+    @Test
+    void testStatsWithoutAdmin() throws IOException {
+
+        when(sessionManager.getSessionBySessionId("ses")).thenReturn(new Session("testUserId", "testUser", false));
+
+
+        Response response = userManager.parseCommand("stats --session-id ses", "1.1.1.1");
+
+
+        assertFalse(response.success());
+        assertEquals("No admin permissions", response.message());
+    }
 }
@@ -126,5 +126,51 @@ class SessionManagerTest {
         assertEquals("newUsername", sessionManager.getSessions().iterator().next().getUsername());
     }
 
-    // Add more test cases for other methods
+    @Test
+    void testCleanSessionsRemovesDueSessions() {
+        // Arrange
+        Session expiredSession = new Session("expiredUserId", "expiredUser", false);
+        expiredSession.setTtl(LocalDateTime.now().minusMinutes(1));
+        sessionManager.add(expiredSession);
+
+        // Act
+        sessionManager.cleanSessions();
+
+        // Assert
+        assertTrue(sessionManager.getSessions().isEmpty());
+    }
+
+    @Test
+    void testRemoveByUserIdRemovesAllSessionsOfUser() {
+        // Arrange
+        Session first = new Session("userId", "testUser", false);
+        Session second = new Session("userId", "testUser", false);
+        Session other = new Session("otherUserId", "otherUser", false);
+        sessionManager.add(first);
+        sessionManager.add(second);
+        sessionManager.add(other);
+
+        // Act
+        sessionManager.removeByUserId("userId");
+
+        // Assert
+        assertEquals(1, sessionManager.getSessions().size());
+        assertSame(other, sessionManager.getSessionBySessionId(other.getSessionId()));
+    }
+
+    @Test
+    void testRemoveByUsernameAfterUsernameUpdate() {
+        // Arrange
+        Session session = new Session("userId", "oldUsername", false);
+        sessionManager.add(session);
+        sessionManager.updateSessionUsername("oldUsername", "newUsername");
+
+        // Act
+        sessionManager.removeByUsername("oldUsername");
+        assertEquals(1, sessionManager.getSessions().size());
+        sessionManager.removeByUsername("newUsername");
+
+        // Assert
+        assertTrue(sessionManager.getSessions().isEmpty());
+    }
 }
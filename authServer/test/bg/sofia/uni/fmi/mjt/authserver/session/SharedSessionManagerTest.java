@@ -0,0 +1,316 @@
+package bg.sofia.uni.fmi.mjt.authserver.session;
+
+import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidCommandException;
+import bg.sofia.uni.fmi.mjt.authserver.exception.InvalidSessionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedSessionManagerTest {
+    private static final int SLOTS = 64;
+
+    @TempDir
+    Path tempDir;
+
+    private Path file;
+    private SharedSessionManager first;
+    private SharedSessionManager second;
+
+    /**
+     * Stalls the writer that adds it while it holds the slot, the admin flag is read with the slot locked.
+     */
+    private static final class StalledSession extends Session {
+        private final CountDownLatch held = new CountDownLatch(1);
+        private final CountDownLatch resume = new CountDownLatch(1);
+        private final AtomicInteger writes = new AtomicInteger();
+
+        StalledSession() {
+            super("user-stalled", "stalled", false);
+        }
+
+        @Override
+        public Boolean getAdmin() {
+            if (writes.incrementAndGet() == 1) {
+                held.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return false;
+        }
+    }
+
+    private static Thread addInBackground(SharedSessionManager manager, StalledSession session)
+            throws InterruptedException {
+        Thread writer = new Thread(() -> manager.add(session));
+        writer.start();
+        assertTrue(session.held.await(5, TimeUnit.SECONDS));
+        return writer;
+    }
+
+    private static long deadPid() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-version").redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        process.waitFor();
+        return process.pid();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = tempDir.resolve("sessions.bin");
+        first = new SharedSessionManager(file, SLOTS);
+        second = new SharedSessionManager(file, SLOTS);
+    }
+
+    @Test
+    void testSessionAddedByOneInstanceIsSeenByAnother() {
+        Session session = new Session("user-1", "alice", true);
+        first.add(session);
+
+        Session shared = second.getSessionBySessionId(session.getSessionId());
+
+        assertEquals(session.getSessionId(), shared.getSessionId());
+        assertEquals("user-1", shared.getUserId());
+        assertEquals("alice", shared.getUsername());
+        assertTrue(shared.getAdmin());
+        assertEquals(session.getTtl().withNano(session.getTtl().getNano() / 1_000_000 * 1_000_000),
+                shared.getTtl());
+    }
+
+    @Test
+    void testRemovalIsSeenByAnotherInstance() {
+        Session session = new Session("user-1", "alice", false);
+        first.add(session);
+
+        second.removeBySessionId(session.getSessionId());
+
+        assertThrows(InvalidSessionException.class, () -> first.getSessionBySessionId(session.getSessionId()));
+    }
+
+    @Test
+    void testRemoveByUserIdAndUsername() {
+        Session a = new Session("user-1", "alice", false);
+        Session b = new Session("user-1", "alice", false);
+        Session c = new Session("user-2", "bob", false);
+        first.add(a);
+        first.add(b);
+        first.add(c);
+
+        second.removeByUserId("user-1");
+        assertThrows(InvalidSessionException.class, () -> first.getSessionBySessionId(a.getSessionId()));
+        assertThrows(InvalidSessionException.class, () -> first.getSessionBySessionId(b.getSessionId()));
+        assertEquals("bob", first.getSessionBySessionId(c.getSessionId()).getUsername());
+
+        second.removeByUsername("bob");
+        assertEquals(0, first.getSessionCount());
+    }
+
+    @Test
+    void testUpdatesAreSeenByAnotherInstance() {
+        Session session = new Session("user-1", "alice", false);
+        first.add(session);
+
+        second.updateSessionAdmin("alice", true);
+        second.updateSessionUsername("alice", "alicia");
+
+        Session updated = first.getSessionBySessionId(session.getSessionId());
+        assertTrue(updated.getAdmin());
+        assertEquals("alicia", updated.getUsername());
+        first.removeByUsername("alicia");
+        assertThrows(InvalidSessionException.class, () -> second.getSessionBySessionId(session.getSessionId()));
+    }
+
+    @Test
+    void testExpiredSessionIsInvalidAndCleaned() {
+        Session expired = new Session("user-1", "alice", false);
+        expired.setTtl(LocalDateTime.now().minusMinutes(1));
+        Session valid = new Session("user-2", "bob", false);
+        first.add(expired);
+        first.add(valid);
+
+        second.cleanSessions();
+
+        assertThrows(InvalidSessionException.class, () -> first.getSessionBySessionId(expired.getSessionId()));
+        assertEquals(1, first.getSessionCount());
+    }
+
+    @Test
+    void testExpiredAndRemovedSlotsAreReused() {
+        for (int round = 0; round < 10; round++) {
+            List<Session> sessions = new ArrayList<>();
+            for (int i = 0; i < SLOTS; i++) {
+                Session session = new Session("user-" + i, "name-" + i, false);
+                if (i % 2 == 0) {
+                    session.setTtl(LocalDateTime.now().minusSeconds(1));
+                }
+                first.add(session);
+                sessions.add(session);
+            }
+            for (int i = 1; i < SLOTS; i += 2) {
+                assertEquals("name-" + i, second.getSessionBySessionId(sessions.get(i).getSessionId()).getUsername());
+                second.removeBySessionId(sessions.get(i).getSessionId());
+            }
+        }
+        assertEquals(0, first.getSessionCount());
+    }
+
+    @Test
+    void testFullTableIsReported() {
+        for (int i = 0; i < SLOTS; i++) {
+            first.add(new Session("user-" + i, "name-" + i, false));
+        }
+        assertThrows(IllegalStateException.class, () -> second.add(new Session("user", "name", false)));
+    }
+
+    @Test
+    void testMalformedSessionIdIsInvalid() {
+        assertThrows(InvalidSessionException.class, () -> first.getSessionBySessionId("not-a-session"));
+        assertThrows(InvalidSessionException.class, () -> first.getSessionBySessionId(null));
+        assertThrows(InvalidSessionException.class, () -> first.getSessionBySessionId("1-1-1-1-1"));
+    }
+
+    @Test
+    void testTooLongUsernameIsRejected() {
+        assertThrows(InvalidCommandException.class, () -> first.add(new Session("user", "x".repeat(200), false)));
+    }
+
+    @Test
+    void testTableSurvivesReopeningAndKeepsItsSlotCount() throws IOException {
+        Session session = new Session("user-1", "alice", false);
+        first.add(session);
+
+        SharedSessionManager reopened = new SharedSessionManager(file, SLOTS * 4);
+
+        assertEquals(SLOTS, reopened.getSlotCount());
+        assertEquals("alice", reopened.getSessionBySessionId(session.getSessionId()).getUsername());
+    }
+
+    @Test
+    void testOtherFilesAreRefused() throws IOException {
+        Path other = tempDir.resolve("other.bin");
+        Files.writeString(other, "x".repeat(1000));
+
+        assertThrows(IOException.class, () -> new SharedSessionManager(other, SLOTS));
+    }
+
+    @Test
+    void testConcurrentWritersOnTwoMappings() throws Exception {
+        SharedSessionManager large = new SharedSessionManager(tempDir.resolve("large.bin"), 1 << 12);
+        SharedSessionManager other = new SharedSessionManager(tempDir.resolve("large.bin"), 1 << 12);
+        int threads = 4;
+        int perThread = 500;
+        ConcurrentLinkedQueue<Session> added = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            SharedSessionManager writer = (t % 2 == 0) ? large : other;
+            SharedSessionManager reader = (t % 2 == 0) ? other : large;
+            int thread = t;
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        Session session = new Session("user-" + thread + "-" + i, "name-" + thread, false);
+                        writer.add(session);
+                        reader.getSessionBySessionId(session.getSessionId());
+                        reader.updateSessionAdmin("name-" + thread, i % 2 == 0);
+                        if (i % 2 == 0) {
+                            reader.removeBySessionId(session.getSessionId());
+                        } else {
+                            added.add(session);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(failures.isEmpty(), () -> "writers failed: " + failures);
+        assertEquals(threads * perThread / 2, large.getSessionCount());
+        for (Session session : added) {
+            assertEquals(session.getUserId(), other.getSessionBySessionId(session.getSessionId()).getUserId());
+            assertFalse(large.getSessionBySessionId(session.getSessionId()).getAdmin(),
+                    "the last admin update of every writer was false");
+        }
+    }
+
+    @Test
+    void testSweepKeepsTheSlotOfAStalledWriter() throws Exception {
+        StalledSession stalled = new StalledSession();
+        Thread writer = addInBackground(first, stalled);
+
+        second.cleanSessions();
+        second.cleanSessions();
+        List<Session> others = new ArrayList<>();
+        for (int i = 1; i < SLOTS; i++) {
+            Session session = new Session("user-" + i, "name-" + i, false);
+            second.add(session);
+            others.add(session);
+        }
+        stalled.resume.countDown();
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertEquals(1, stalled.writes.get(), "the slot of a live writer must not be freed");
+        assertEquals("stalled", second.getSessionBySessionId(stalled.getSessionId()).getUsername());
+        for (Session session : others) {
+            assertEquals(session.getUsername(), first.getSessionBySessionId(session.getSessionId()).getUsername());
+        }
+        assertEquals(SLOTS, first.getSessionCount());
+    }
+
+    @Test
+    void testSweepFreesTheSlotOfADeadWriterAndALostWriteIsRetried() throws Exception {
+        SharedSessionManager dead = new SharedSessionManager(file, SLOTS, deadPid());
+        StalledSession stalled = new StalledSession();
+        Thread writer = addInBackground(dead, stalled);
+
+        second.cleanSessions();
+        assertThrows(InvalidSessionException.class, () -> second.getSessionBySessionId(stalled.getSessionId()));
+        stalled.resume.countDown();
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+
+        assertEquals(2, stalled.writes.get(), "a write into a freed slot must be done again");
+        assertEquals("stalled", second.getSessionBySessionId(stalled.getSessionId()).getUsername());
+        assertEquals(1, first.getSessionCount());
+    }
+
+    @Test
+    void testMissesStayBoundedAfterEverySlotWasUsed() {
+        List<Session> live = new ArrayList<>();
+        for (int i = 0; i < 20 * SLOTS; i++) {
+            Session session = new Session("user-" + i, "name-" + i, false);
+            first.add(session);
+            live.add(session);
+            if (live.size() > 4) {
+                second.removeBySessionId(live.removeFirst().getSessionId());
+            }
+        }
+
+        assertTrue(second.probeLimit() <= 5, "a probe is never longer than the live sessions need");
+        assertThrows(InvalidSessionException.class,
+                () -> second.getSessionBySessionId(new Session("user", "name", false).getSessionId()));
+        for (Session session : live) {
+            assertEquals(session.getUsername(), second.getSessionBySessionId(session.getSessionId()).getUsername());
+        }
+    }
+}
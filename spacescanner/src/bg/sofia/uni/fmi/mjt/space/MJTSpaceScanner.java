@@ -1,10 +1,16 @@
 package bg.sofia.uni.fmi.mjt.space;
 
 import bg.sofia.uni.fmi.mjt.space.algorithm.Rijndael;
+import bg.sofia.uni.fmi.mjt.space.collector.TopKCollector;
+import bg.sofia.uni.fmi.mjt.space.csv.CsvTokenizer;
+import bg.sofia.uni.fmi.mjt.space.csv.ParallelCsvLoader;
 import bg.sofia.uni.fmi.mjt.space.mission.MaxCostComparator;
 import bg.sofia.uni.fmi.mjt.space.mission.MinCostComparator;
 import bg.sofia.uni.fmi.mjt.space.mission.Mission;
+import bg.sofia.uni.fmi.mjt.space.mission.MissionColumns;
+import bg.sofia.uni.fmi.mjt.space.mission.MissionGroups;
 import bg.sofia.uni.fmi.mjt.space.mission.MissionStatus;
+import bg.sofia.uni.fmi.mjt.space.mission.SuccessfulMissionIndex;
 import bg.sofia.uni.fmi.mjt.space.rocket.MaxHeightComparator;
 import bg.sofia.uni.fmi.mjt.space.rocket.Rocket;
 import bg.sofia.uni.fmi.mjt.space.rocket.RocketStatus;
@@ -12,56 +18,208 @@ import bg.sofia.uni.fmi.mjt.space.exception.TimeFrameMismatchException;
 import bg.sofia.uni.fmi.mjt.space.exception.CipherException;
 
 import javax.crypto.SecretKey;
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.function.BinaryOperator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Queries run on an immutable {@link Snapshot} of the missions, so they can run concurrently with appending new
+ * ones. Appending updates the store, the groups and the date index with the new rows only and publishes a new
+ * snapshot, which shares their arrays instead of copying them.
+ */
 public class MJTSpaceScanner implements SpaceScannerAPI {
-    Collection<Mission> missions;
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    MissionColumns missions;
+    MissionGroups groups;
+    SuccessfulMissionIndex successes;
+    volatile Snapshot snapshot;
     Collection<Rocket> rockets;
+    Map<String, Rocket> rocketsByName;
     SecretKey secretKey;
 
+    /**
+     * The missions as they were after an append, read without locking.
+     *
+     * @param version the number of appends before it
+     */
+    record Snapshot(long version, MissionColumns missions, MissionGroups groups, SuccessfulMissionIndex successes) {
+    }
+
     public MJTSpaceScanner(Reader missionsReader, Reader rocketsReader, SecretKey secretKey) {
-        try (BufferedReader mReader = new BufferedReader(missionsReader);
-             BufferedReader rReader = new BufferedReader(rocketsReader)) {
-            missions = mReader
-                    .lines()
-                    .skip(1)
-                    .map(x -> Mission.of(x.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)"))).toList();
-            rockets = rReader
-                    .lines()
-                    .skip(1)
-                    .map(x -> Rocket.of(x.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)"))).toList();
+        try (CsvTokenizer missionRecords = new CsvTokenizer(missionsReader);
+             CsvTokenizer rocketRecords = new CsvTokenizer(rocketsReader)) {
+            missionRecords.next();
+            missions = loadMissions(missionRecords);
+            missions.trim();
+            index();
+            rocketRecords.next();
+            rockets = List.copyOf(loadRockets(rocketRecords));
+            rocketsByName = indexByName(rockets);
         } catch (IOException e) {
             throw new RuntimeException("invalid data");
         }
         this.secretKey = secretKey;
     }
 
+    /**
+     * Loads the files by parsing chunks of them in parallel on the common fork-join pool.
+     */
+    public MJTSpaceScanner(Path missionsFile, Path rocketsFile, SecretKey secretKey) {
+        this(missionsFile, rocketsFile, secretKey, ForkJoinPool.commonPool());
+    }
+
+    public MJTSpaceScanner(Path missionsFile, Path rocketsFile, SecretKey secretKey, ForkJoinPool pool) {
+        ParallelCsvLoader loader = new ParallelCsvLoader(pool);
+        try {
+            List<MissionColumns> chunks = loader.load(missionsFile, MJTSpaceScanner::loadMissions);
+            missions = chunks.get(0);
+            for (MissionColumns chunk : chunks.subList(1, chunks.size())) {
+                missions.addAll(chunk);
+            }
+            missions.trim();
+            index();
+            rockets = loader.load(rocketsFile, MJTSpaceScanner::loadRockets)
+                    .stream()
+                    .flatMap(List::stream)
+                    .toList();
+            rocketsByName = indexByName(rockets);
+        } catch (IOException e) {
+            throw new RuntimeException("invalid data", e);
+        }
+        this.secretKey = secretKey;
+    }
+
+    private void index() {
+        groups = new MissionGroups(missions);
+        successes = new SuccessfulMissionIndex(missions);
+        publish();
+    }
+
+    private void publish() {
+        MissionColumns published = missions.snapshot();
+        long version = snapshot == null ? 0 : snapshot.version() + 1;
+        snapshot = new Snapshot(version, published, groups.snapshot(published), successes.snapshot());
+    }
+
+    /**
+     * @return the version of the dataset, it grows with every append, so results of queries can be cached until
+     * it changes.
+     */
+    public long version() {
+        return snapshot.version();
+    }
+
+    /**
+     * Adds a mission, queries running meanwhile don't see it, the ones started after this returns do.
+     *
+     * @throws IllegalArgumentException if the mission or any of its fields but the statuses is null
+     */
+    public synchronized void append(Mission mission) {
+        missions.add(mission);
+        update();
+    }
+
+    /**
+     * Adds the missions of a CSV in the format of the missions file, header included. Either all of them are
+     * added at once or none is if one is invalid.
+     *
+     * @throws IllegalArgumentException if reader is null or a record doesn't hold a mission
+     */
+    public synchronized void appendCsv(Reader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("reader is null");
+        }
+        try (CsvTokenizer records = new CsvTokenizer(reader)) {
+            records.next();
+            missions.addAll(loadMissions(records));
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("invalid data", e);
+        }
+        update();
+    }
+
+    private void update() {
+        groups.update();
+        successes.update();
+        publish();
+    }
+
+    /**
+     * @return the rockets by name, the first one wins if a name repeats.
+     */
+    private static Map<String, Rocket> indexByName(Collection<Rocket> rockets) {
+        Map<String, Rocket> byName = new HashMap<>();
+        for (Rocket rocket : rockets) {
+            byName.putIfAbsent(rocket.name(), rocket);
+        }
+        return byName;
+    }
+
+    private static MissionColumns loadMissions(CsvTokenizer records) {
+        MissionColumns chunk = new MissionColumns();
+        try {
+            while (records.next()) {
+                chunk.add(records);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return chunk;
+    }
+
+    private static List<Rocket> loadRockets(CsvTokenizer records) {
+        List<Rocket> chunk = new ArrayList<>();
+        try {
+            while (records.next()) {
+                if (records.fieldCount() != Rocket.NUM_OF_ATTRIBUTES) {
+                    throw new IllegalArgumentException("a rocket has " + Rocket.NUM_OF_ATTRIBUTES + " fields");
+                }
+                chunk.add(Rocket.of(records.fields()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return chunk;
+    }
+
     /**
      * Returns all missions in the dataset.
      * If there are no missions, return an empty collection.
      */
     @Override
     public Collection<Mission> getAllMissions() {
-        return List.copyOf(missions);
+        return snapshot.missions().asList();
+    }
+
+    private static IntPredicate isBetween(MissionColumns missions, LocalDate from, LocalDate to) {
+        int fromDay = toDay(from);
+        int toDay = toDay(to);
+        return row -> missions.epochDay(row) >= fromDay && missions.epochDay(row) <= toDay;
+    }
+
+    /**
+     * @return the epoch day of the date, dates out of the int range are clamped, no mission is that far away.
+     */
+    private static int toDay(LocalDate date) {
+        return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE, date.toEpochDay()));
     }
 
     /**
@@ -77,7 +235,7 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
         if (missionStatus == null) {
             throw new IllegalArgumentException("missionStatus is null");
         }
-        return missions.stream().filter(x -> x.missionStatus() == missionStatus).toList();
+        return snapshot.groups().withStatus(missionStatus);
     }
 
     /**
@@ -97,15 +255,15 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
         if (to.isBefore(from)) {
             throw new TimeFrameMismatchException("to is before from");
         }
-        return missions
-                .stream()
-                .filter(x -> x.date().isAfter(from) && x.date().isBefore(to))
-                .collect(Collectors.toMap(Mission::company, x -> 1, (x, y) -> x + 1))
-                .entrySet()
-                .stream()
-                .max(Map.Entry.comparingByValue())
-                .orElse(new AbstractMap.SimpleEntry<>("", 0))
-                .getKey();
+        Snapshot current = snapshot;
+        int[] counts = current.successes().countPerCompany(toDay(from), toDay(to));
+        int best = -1;
+        for (int company = 0; company < counts.length; company++) {
+            if (counts[company] > 0 && (best < 0 || counts[company] > counts[best])) {
+                best = company;
+            }
+        }
+        return best < 0 ? "" : current.missions().company(best);
     }
 
     /**
@@ -114,18 +272,12 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
      */
     @Override
     public Map<String, Collection<Mission>> getMissionsPerCountry() {
-        return missions
-                .stream()
-                .collect(Collectors.toMap(Mission::country,
-                        x -> {
-                            ArrayList<Mission> arr = new ArrayList<>();
-                            arr.add(x);
-                            return arr;
-                        },
-                        (x, y) -> {
-                            x.addAll(y);
-                            return x;
-                        }));
+        Snapshot current = snapshot;
+        Map<String, Collection<Mission>> result = new HashMap<>();
+        for (int country = 0; country < current.missions().countryCount(); country++) {
+            result.put(current.missions().country(country), current.groups().inCountry(country));
+        }
+        return result;
     }
 
     /**
@@ -142,12 +294,10 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
         if (n <= 0 || missionStatus == null || rocketStatus == null) {
             throw new IllegalArgumentException("n is less than ot equal to 0, missionStatus or rocketStatus is null");
         }
-        return missions
-                .stream()
-                .filter(x -> x.missionStatus() == missionStatus && x.rocketStatus() == rocketStatus)
-                .sorted(new MinCostComparator())
-                .limit(n)
-                .toList();
+        Snapshot current = snapshot;
+        List<Mission> candidates =
+                current.groups().withStatus(missionStatus, row -> current.missions().hasStatus(row, rocketStatus));
+        return topN(candidates, n, new MinCostComparator());
     }
 
     /**
@@ -156,27 +306,13 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
      */
     @Override
     public Map<String, String> getMostDesiredLocationForMissionsPerCompany() {
-        return missions
-                .stream()
-                .collect(Collectors.toMap(Mission::company,
-                        x -> {
-                            ArrayList<String> arr = new ArrayList<>();
-                            arr.add(x.location());
-                            return arr;
-                        },
-                        (x, y) -> {
-                            x.addAll(y);
-                            return x;
-                        }))
-                .entrySet()
-                .stream()
-                .collect(Collectors.toMap(Map.Entry::getKey,
-                        x -> x.getValue()
-                                .stream()
-                                .reduce(BinaryOperator.maxBy(Comparator
-                                        .comparingInt(o -> Collections.frequency(x.getValue(), o))))
-                                .orElse("")
-                        ));
+        Snapshot current = snapshot;
+        MissionColumns missions = current.missions();
+        Map<String, String> result = new HashMap<>();
+        for (int company = 0; company < missions.companyCount(); company++) {
+            result.put(missions.company(company), missions.location(current.groups().mostFrequentLocation(company)));
+        }
+        return result;
     }
 
     /**
@@ -196,28 +332,14 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
         if (to.isBefore(from)) {
             throw new TimeFrameMismatchException("to is before from");
         }
-        Collection<Mission> filteredMissions = missions
-                .stream()
-                .filter(x -> x.date().isAfter(from)
-                        && x.date().isBefore(to)
-                        && x.missionStatus() == MissionStatus.SUCCESS)
-                        .toList();
-        Collection<String> companies = missions
-                .stream()
-                .collect(HashSet::new, (x, y) -> x.add(y.company()), HashSet::addAll);
-        return companies
-                .stream()
-                .collect(Collectors.toMap(x -> x, x -> {
-                    Collection<String> locations = filteredMissions
-                                    .stream()
-                                    .filter(y -> y.company().equals(x))
-                                    .collect(ArrayList::new, (a, b) -> a.add(b.location()), ArrayList::addAll);
-                    return locations
-                                    .stream()
-                                    .reduce(BinaryOperator.maxBy(Comparator
-                                            .comparingInt(o -> Collections.frequency(locations, o))))
-                                    .orElse("");
-                }));
+        Snapshot current = snapshot;
+        MissionColumns missions = current.missions();
+        int[] locations = current.successes().mostSuccessfulLocationPerCompany(toDay(from), toDay(to));
+        Map<String, String> result = new HashMap<>();
+        for (int company = 0; company < locations.length; company++) {
+            result.put(missions.company(company), locations[company] < 0 ? "" : missions.location(locations[company]));
+        }
+        return result;
     }
 
     /**
@@ -241,11 +363,7 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
         if (n <= 0) {
             throw new IllegalArgumentException("n is less than ot equal to 0");
         }
-        return rockets
-                .stream()
-                .sorted(new MaxHeightComparator())
-                .limit(n)
-                .toList();
+        return topN(rockets, n, new MaxHeightComparator());
     }
 
     /**
@@ -272,33 +390,37 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
         if (n <= 0 || missionStatus == null || rocketStatus == null) {
             throw new IllegalArgumentException("n is less than ot equal to 0, missionStatus or rocketStatus is null");
         }
-        return missions
+        Snapshot current = snapshot;
+        List<Mission> candidates =
+                current.groups().withStatus(missionStatus, row -> current.missions().hasStatus(row, rocketStatus));
+        return topN(candidates, n, new MaxCostComparator())
                 .stream()
-                .filter(x -> x.missionStatus() == missionStatus && x.rocketStatus() == rocketStatus)
-                .sorted(new MaxCostComparator())
-                .limit(n)
-                .collect(ArrayList::new,
-                        (x, y) -> x.add(rockets
-                                .stream()
-                                .filter(r -> r.name().equals(y.detail().rocketName()))
-                                .findFirst()
-                                .orElse(new Rocket("", "", Optional.of(""), Optional.of(0.0)))
-                                .wiki()
-                                .orElse("")),
-                        ArrayList::addAll);
+                .map(x -> {
+                    Rocket rocket = rocketsByName.get(x.detail().rocketName());
+                    return rocket == null ? "" : rocket.wiki().orElse("");
+                })
+                .toList();
     }
 
-    private double getReliability(Rocket rocket, Stream<Mission> missionStream) {
-        Collection<Mission> rocketMissions = missionStream
-                .filter(x -> x.detail().rocketName().equals(rocket.name()))
-                .toList();
-        if (rocketMissions.isEmpty()) {
+    /**
+     * @return the first n items by the comparator, collected in parallel when there are enough of them.
+     */
+    private static <T> List<T> topN(Collection<T> items, int n, Comparator<? super T> comparator) {
+        Stream<T> stream = items.size() < PARALLEL_THRESHOLD ? items.stream() : items.parallelStream();
+        return stream.collect(TopKCollector.of(n, comparator));
+    }
+
+    private static double getReliability(MissionColumns missions, Rocket rocket, int[] flights,
+                                         int[] successfulFlights) {
+        int rocketName = missions.findRocketName(rocket.name());
+        if (rocketName < 0 || flights[rocketName] == 0) {
             return 0;
         }
-        long succ = rocketMissions.stream().filter(x -> x.missionStatus() == MissionStatus.SUCCESS).count();
+        long total = flights[rocketName];
+        long succ = successfulFlights[rocketName];
         return (double) (2 * succ
-                + rocketMissions.size() - succ)
-                / rocketMissions.size();
+                + total - succ)
+                / total;
     }
 
     /**
@@ -319,14 +441,27 @@ public class MJTSpaceScanner implements SpaceScannerAPI {
         if (to.isBefore(from)) {
             throw new TimeFrameMismatchException("to is before from");
         }
-        Rocket rocket = rockets
-                .stream()
-                .reduce(BinaryOperator
-                        .maxBy(Comparator.comparingDouble(x -> getReliability(x, missions
-                                .stream()
-                                .filter(y -> y.date().isAfter(from)
-                                        && y.date().isBefore(to))))))
-                .orElse(null);
+        MissionColumns missions = snapshot.missions();
+        IntPredicate inTimeFrame = isBetween(missions, from, to);
+        int[] flights = new int[missions.rocketNameCount()];
+        int[] successfulFlights = new int[missions.rocketNameCount()];
+        for (int row = 0; row < missions.size(); row++) {
+            if (inTimeFrame.test(row)) {
+                flights[missions.rocketNameId(row)]++;
+                if (missions.hasStatus(row, MissionStatus.SUCCESS)) {
+                    successfulFlights[missions.rocketNameId(row)]++;
+                }
+            }
+        }
+        Rocket rocket = null;
+        double bestReliability = 0;
+        for (Rocket candidate : rockets) {
+            double reliability = getReliability(missions, candidate, flights, successfulFlights);
+            if (rocket == null || reliability > bestReliability) {
+                rocket = candidate;
+                bestReliability = reliability;
+            }
+        }
         if (rocket != null) {
             Rijndael rijndael = new Rijndael(secretKey);
             InputStream stream = new ByteArrayInputStream(rocket.name().getBytes(StandardCharsets.UTF_8));
@@ -2,23 +2,69 @@ package bg.sofia.uni.fmi.mjt.space.algorithm;
 
 import bg.sofia.uni.fmi.mjt.space.exception.CipherException;
 
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 
+/**
+ * Encrypts with AES-GCM in segments, so data of any size is streamed in constant memory and every segment is
+ * authenticated before it's written out.
+ * <p>
+ * The output is a random salt of {@value #SALT_SIZE} bytes followed by the segments, each of them up to
+ * {@value #SEGMENT_SIZE} bytes of data sealed with a tag. Every stream is sealed with its own key, derived from
+ * the secret key and the salt with HKDF-SHA256, so streams under the same secret key never share a key and IV pair
+ * however many of them there are. The IV of a segment is the index of the segment and whether it's the last one,
+ * so segments can't be reordered, dropped or cut off at the end without decrypting failing. A GCM message can't be
+ * decrypted before its tag is checked at the end, that is why the data isn't sealed as a single one.
+ * <p>
+ * Every thread reuses its own {@link Cipher}, {@link Mac} and direct buffers, channels such as {@code FileChannel}
+ * are read and written through the buffers without copying the data into arrays.
+ */
 public class Rijndael implements SymmetricBlockCipher {
-    private static final String ENCRYPTION_ALGORITHM = "AES"; // //  Advanced Encryption Standard
+    private static final String ENCRYPTION_ALGORITHM = "AES/GCM/NoPadding"; // Advanced Encryption Standard
+    private static final String KEY_ALGORITHM = "AES";
+    private static final String KDF_ALGORITHM = "HmacSHA256";
+    private static final byte[] KDF_INFO = "space-scanner segmented AES-GCM".getBytes(StandardCharsets.US_ASCII);
+    private static final int SEGMENT_SIZE = 1 << 16;
+    private static final int TAG_SIZE = 16;
+    private static final int SALT_SIZE = 32;
+    private static final int SEGMENT_INDEX_OFFSET = 7;
+    private static final int IV_SIZE = 12;
+    private static final long MAX_SEGMENTS = 1L << Integer.SIZE;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Engine> ENGINES = ThreadLocal.withInitial(Engine::new);
+
     SecretKey secretKey;
     public Rijndael(SecretKey secretKey) {
         this.secretKey = secretKey;
     }
 
+    /**
+     * The cipher, the key derivation MAC and the buffers of a thread, the input one holds a segment and the first
+     * byte after it, to tell whether the segment is the last one.
+     */
+    private static final class Engine {
+        private final Cipher cipher = initCipher();
+        private final Mac mac = initMac();
+        private final ByteBuffer input = ByteBuffer.allocateDirect(SEGMENT_SIZE + TAG_SIZE + 1);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(SEGMENT_SIZE + TAG_SIZE);
+    }
+
     /**
      * Encrypts the data from inputStream and puts it into outputStream
      *
@@ -28,17 +74,8 @@ public class Rijndael implements SymmetricBlockCipher {
      */
     @Override
     public void encrypt(InputStream inputStream, OutputStream outputStream) throws CipherException {
-        Cipher cipher = initCipher();
-        try {
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-        } catch (InvalidKeyException e) {
-            throw new CipherException("unable to encrypt");
-        }
-        try (var cipherStream = new CipherOutputStream(outputStream, cipher)) {
-            inputStream.transferTo(cipherStream);
-        } catch (IOException e) {
-            throw new CipherException("unable to encrypt");
-        }
+        encrypt(Channels.newChannel(inputStream), Channels.newChannel(outputStream));
+        flush(outputStream, "unable to encrypt");
     }
 
     /**
@@ -50,20 +87,140 @@ public class Rijndael implements SymmetricBlockCipher {
      */
     @Override
     public void decrypt(InputStream inputStream, OutputStream outputStream) throws CipherException {
-        Cipher cipher = initCipher();
+        decrypt(Channels.newChannel(inputStream), Channels.newChannel(outputStream));
+        flush(outputStream, "unable to decrypt");
+    }
+
+    /**
+     * Encrypts the data from source, a {@code FileChannel} for example, and writes it to target.
+     *
+     * @throws CipherException if the encrypt operation cannot be completed successfully
+     */
+    public void encrypt(ReadableByteChannel source, WritableByteChannel target) throws CipherException {
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes(salt);
+        try {
+            transform(Cipher.ENCRYPT_MODE, salt, source, target, SEGMENT_SIZE);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new CipherException("unable to encrypt", e);
+        }
+    }
+
+    /**
+     * Decrypts the data from source, a {@code FileChannel} for example, and writes it to target. The segments
+     * before a tampered or cut off one are written out before failing.
+     *
+     * @throws CipherException if the decrypt operation cannot be completed successfully
+     */
+    public void decrypt(ReadableByteChannel source, WritableByteChannel target) throws CipherException {
         try {
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-        } catch (InvalidKeyException e) {
+            ByteBuffer salt = ByteBuffer.allocate(SALT_SIZE);
+            if (!fill(source, salt)) {
+                throw new CipherException("unable to decrypt, the data is too short");
+            }
+            transform(Cipher.DECRYPT_MODE, salt.array(), source, target, SEGMENT_SIZE + TAG_SIZE);
+        } catch (IOException | GeneralSecurityException e) {
             throw new CipherException("unable to decrypt", e);
         }
-        try (var cipherStream = new CipherOutputStream(outputStream, cipher)) {
-            inputStream.transferTo(cipherStream);
+    }
+
+    /**
+     * Runs the cipher over every segment of the source with the key of the salt, the salt is written before the
+     * first segment when encrypting.
+     */
+    private void transform(int mode, byte[] salt, ReadableByteChannel source, WritableByteChannel target,
+                           int segmentSize) throws IOException, GeneralSecurityException, CipherException {
+        Engine engine = ENGINES.get();
+        SecretKey streamKey = deriveKey(engine.mac, salt);
+        ByteBuffer input = engine.input.clear().limit(segmentSize + 1);
+        ByteBuffer output = engine.output;
+        boolean last = false;
+        for (long segment = 0; !last; segment++) {
+            if (segment == MAX_SEGMENTS) {
+                throw new CipherException("the data is too large");
+            }
+            last = !fill(source, input);
+            input.flip();
+            int read = input.limit();
+            input.limit(Math.min(read, segmentSize));
+            GCMParameterSpec parameters = new GCMParameterSpec(TAG_SIZE * Byte.SIZE, iv(segment, last));
+            engine.cipher.init(mode, streamKey, parameters);
+            engine.cipher.doFinal(input, output.clear());
+            if (segment == 0 && mode == Cipher.ENCRYPT_MODE) {
+                write(target, ByteBuffer.wrap(salt));
+            }
+            write(target, output.flip());
+            input.limit(read).compact().limit(segmentSize + 1);
+        }
+    }
+
+    /**
+     * HKDF-SHA256 (RFC 5869) of the secret key with the salt, a single expand block is enough for any AES key.
+     *
+     * @return a key of the same size as the secret key.
+     */
+    private SecretKey deriveKey(Mac mac, byte[] salt) throws GeneralSecurityException {
+        byte[] material = (secretKey == null) ? null : secretKey.getEncoded();
+        if (material == null) {
+            throw new InvalidKeyException("the secret key is missing or can't be exported");
+        }
+        mac.init(new SecretKeySpec(salt, KDF_ALGORITHM));
+        byte[] pseudoRandomKey = mac.doFinal(material);
+        mac.init(new SecretKeySpec(pseudoRandomKey, KDF_ALGORITHM));
+        mac.update(KDF_INFO);
+        mac.update((byte) 1);
+        byte[] streamKey = mac.doFinal();
+        if (material.length > streamKey.length) {
+            throw new InvalidKeyException("the secret key is longer than " + streamKey.length + " bytes");
+        }
+        return new SecretKeySpec(streamKey, 0, material.length, KEY_ALGORITHM);
+    }
+
+    /**
+     * The stream key is used once, so the IV only has to tell the segments apart.
+     */
+    private static byte[] iv(long segment, boolean last) {
+        byte[] iv = new byte[IV_SIZE];
+        ByteBuffer.wrap(iv, SEGMENT_INDEX_OFFSET, Integer.BYTES).putInt((int) segment);
+        iv[IV_SIZE - 1] = (byte) (last ? 1 : 0);
+        return iv;
+    }
+
+    /**
+     * @return whether the buffer was filled, false if the source ended first.
+     */
+    private static boolean fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void write(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    private static void flush(OutputStream outputStream, String message) throws CipherException {
+        try {
+            outputStream.flush();
         } catch (IOException e) {
-            throw new CipherException("unable to decrypt");
+            throw new CipherException(message, e);
+        }
+    }
+
+    private static Mac initMac() {
+        try {
+            return Mac.getInstance(KDF_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    private Cipher initCipher() {
+    private static Cipher initCipher() {
         Cipher cipher;
         try {
             cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
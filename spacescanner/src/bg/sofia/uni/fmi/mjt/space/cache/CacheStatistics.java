@@ -0,0 +1,20 @@
+package bg.sofia.uni.fmi.mjt.space.cache;
+
+/**
+ * The counters of a query cache, to size it by.
+ *
+ * @param hits          the lookups answered from the cache
+ * @param misses        the lookups that had to run the query
+ * @param evictions     the results dropped to stay within the capacity
+ * @param invalidations the times the cache was cleared because the dataset changed
+ * @param size          the results cached now
+ */
+public record CacheStatistics(long hits, long misses, long evictions, long invalidations, int size) {
+    /**
+     * @return the share of lookups answered from the cache, 0 if there were none.
+     */
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,155 @@
+package bg.sofia.uni.fmi.mjt.space.cache;
+
+import bg.sofia.uni.fmi.mjt.space.MJTSpaceScanner;
+import bg.sofia.uni.fmi.mjt.space.SpaceScannerAPI;
+import bg.sofia.uni.fmi.mjt.space.exception.CipherException;
+import bg.sofia.uni.fmi.mjt.space.mission.Mission;
+import bg.sofia.uni.fmi.mjt.space.mission.MissionStatus;
+import bg.sofia.uni.fmi.mjt.space.rocket.Rocket;
+import bg.sofia.uni.fmi.mjt.space.rocket.RocketStatus;
+
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Answers repeated queries of a scanner from a cache of their results, keyed on the method and its arguments.
+ * <p>
+ * The least recently used results are evicted beyond the capacity and all of them are dropped once the version of
+ * the dataset changes. Results are immutable, so callers can't change the cached ones, and collections of a scanner
+ * other than {@link MJTSpaceScanner} are copied, as it may keep changing them. Invalid arguments aren't
+ * cached, the scanner throws for them every time. The encrypted export isn't cached, as every encryption differs.
+ */
+public class CachingSpaceScanner implements SpaceScannerAPI {
+    private final SpaceScannerAPI scanner;
+    private final QueryCache cache;
+    private final boolean returnsSnapshotViews;
+
+    /**
+     * @param version the version of the dataset of the scanner, it must change whenever the data does
+     * @throws IllegalArgumentException if scanner or version is null or capacity is less than or equal to 0
+     */
+    public CachingSpaceScanner(SpaceScannerAPI scanner, LongSupplier version, int capacity) {
+        if (scanner == null || version == null || capacity <= 0) {
+            throw new IllegalArgumentException("scanner or version is null or capacity is less than or equal to 0");
+        }
+        this.scanner = scanner;
+        this.cache = new QueryCache(capacity, version);
+        this.returnsSnapshotViews = scanner.getClass() == MJTSpaceScanner.class;
+    }
+
+    /**
+     * Caches the results of a scanner until missions are appended to it.
+     *
+     * @throws IllegalArgumentException if scanner is null or capacity is less than or equal to 0
+     */
+    public CachingSpaceScanner(MJTSpaceScanner scanner, int capacity) {
+        this(scanner, scanner == null ? null : scanner::version, capacity);
+    }
+
+    public CacheStatistics statistics() {
+        return cache.statistics();
+    }
+
+    private <T> T cached(String method, Supplier<T> query, Object... arguments) {
+        return cache.get(method, Arrays.asList(arguments), query);
+    }
+
+    /**
+     * The collections of {@link MJTSpaceScanner} are views of a snapshot that never changes, so they are wrapped
+     * as they are, those of any other scanner are copied first.
+     *
+     * @return an unmodifiable collection, lists stay lists to keep comparing equal to other lists.
+     */
+    private <T> Collection<T> immutable(Collection<T> collection) {
+        if (collection instanceof List<T> list) {
+            return Collections.unmodifiableList(returnsSnapshotViews ? list : new ArrayList<>(list));
+        }
+        return Collections.unmodifiableCollection(returnsSnapshotViews ? collection : new ArrayList<>(collection));
+    }
+
+    private <K, V> Map<K, Collection<V>> immutableGroups(Map<K, Collection<V>> groups) {
+        Map<K, Collection<V>> copy = new HashMap<>();
+        groups.forEach((key, values) -> copy.put(key, immutable(values)));
+        return Collections.unmodifiableMap(copy);
+    }
+
+    @Override
+    public Collection<Mission> getAllMissions() {
+        return cached("getAllMissions", () -> immutable(scanner.getAllMissions()));
+    }
+
+    @Override
+    public Collection<Mission> getAllMissions(MissionStatus missionStatus) {
+        return cached("getAllMissions",
+                () -> immutable(scanner.getAllMissions(missionStatus)), missionStatus);
+    }
+
+    @Override
+    public String getCompanyWithMostSuccessfulMissions(LocalDate from, LocalDate to) {
+        return cached("getCompanyWithMostSuccessfulMissions",
+                () -> scanner.getCompanyWithMostSuccessfulMissions(from, to), from, to);
+    }
+
+    @Override
+    public Map<String, Collection<Mission>> getMissionsPerCountry() {
+        return cached("getMissionsPerCountry", () -> immutableGroups(scanner.getMissionsPerCountry()));
+    }
+
+    @Override
+    public List<Mission> getTopNLeastExpensiveMissions(int n, MissionStatus missionStatus, RocketStatus rocketStatus) {
+        return cached("getTopNLeastExpensiveMissions",
+                () -> List.copyOf(scanner.getTopNLeastExpensiveMissions(n, missionStatus, rocketStatus)),
+                n, missionStatus, rocketStatus);
+    }
+
+    @Override
+    public Map<String, String> getMostDesiredLocationForMissionsPerCompany() {
+        return cached("getMostDesiredLocationForMissionsPerCompany",
+                () -> Map.copyOf(scanner.getMostDesiredLocationForMissionsPerCompany()));
+    }
+
+    @Override
+    public Map<String, String> getLocationWithMostSuccessfulMissionsPerCompany(LocalDate from, LocalDate to) {
+        return cached("getLocationWithMostSuccessfulMissionsPerCompany",
+                () -> Map.copyOf(scanner.getLocationWithMostSuccessfulMissionsPerCompany(from, to)), from, to);
+    }
+
+    @Override
+    public Collection<Rocket> getAllRockets() {
+        return cached("getAllRockets", () -> List.copyOf(scanner.getAllRockets()));
+    }
+
+    @Override
+    public List<Rocket> getTopNTallestRockets(int n) {
+        return cached("getTopNTallestRockets", () -> List.copyOf(scanner.getTopNTallestRockets(n)), n);
+    }
+
+    @Override
+    public Map<String, Optional<String>> getWikiPageForRocket() {
+        return cached("getWikiPageForRocket", () -> Map.copyOf(scanner.getWikiPageForRocket()));
+    }
+
+    @Override
+    public List<String> getWikiPagesForRocketsUsedInMostExpensiveMissions(int n, MissionStatus missionStatus,
+                                                                          RocketStatus rocketStatus) {
+        return cached("getWikiPagesForRocketsUsedInMostExpensiveMissions",
+                () -> List.copyOf(scanner.getWikiPagesForRocketsUsedInMostExpensiveMissions(n, missionStatus,
+                        rocketStatus)), n, missionStatus, rocketStatus);
+    }
+
+    @Override
+    public void saveMostReliableRocket(OutputStream outputStream, LocalDate from, LocalDate to)
+        throws CipherException {
+        scanner.saveMostReliableRocket(outputStream, from, to);
+    }
+}
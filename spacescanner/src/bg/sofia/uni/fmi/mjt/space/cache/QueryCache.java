@@ -0,0 +1,89 @@
+package bg.sofia.uni.fmi.mjt.space.cache;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Results of queries by method name and arguments, the least recently used one is evicted when the cache is full.
+ * The whole cache is cleared once the version of the dataset changes. The version is read under the lock, so a
+ * thread that read it before a change can't bring back the results of the older one.
+ * <p>
+ * Queries run outside the lock, so a slow one doesn't block the lookups of others, two threads missing the same
+ * key at once both run it.
+ */
+class QueryCache {
+    private final int capacity;
+    private final LongSupplier version;
+    private final Map<Query, Object> results;
+    private long cachedVersion;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    private record Query(String method, List<Object> arguments) {
+    }
+
+    QueryCache(int capacity, LongSupplier version) {
+        this.capacity = capacity;
+        this.version = version;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Query, Object> eldest) {
+                if (size() > QueryCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.cachedVersion = version.getAsLong();
+    }
+
+    /**
+     * @param query runs the query and returns an immutable result
+     * @return the cached result of the method for the arguments, running the query if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String method, List<Object> arguments, Supplier<T> query) {
+        Query key = new Query(method, arguments);
+        long current;
+        synchronized (this) {
+            current = version.getAsLong();
+            invalidateUnless(current);
+            Object result = results.get(key);
+            if (result != null) {
+                hits++;
+                return (T) result;
+            }
+            misses++;
+        }
+        T result = query.get();
+        synchronized (this) {
+            invalidateUnless(version.getAsLong());
+            if (cachedVersion == current) {
+                results.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clears the cache if the dataset changed since its results were computed, the version only has to differ,
+     * it doesn't have to grow.
+     */
+    private void invalidateUnless(long current) {
+        if (current != cachedVersion) {
+            results.clear();
+            cachedVersion = current;
+            invalidations++;
+        }
+    }
+
+    synchronized CacheStatistics statistics() {
+        return new CacheStatistics(hits, misses, evictions, invalidations, results.size());
+    }
+}
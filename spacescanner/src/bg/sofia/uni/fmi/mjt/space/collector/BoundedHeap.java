@@ -0,0 +1,123 @@
+package bg.sofia.uni.fmi.mjt.space.collector;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the first n elements offered to it by a comparator in a binary heap whose root is the worst kept one.
+ * Elements that compare equal are ordered by when they were offered, so the result is the same as a stable sort
+ * followed by a limit.
+ */
+class BoundedHeap<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int limit;
+    private final Comparator<? super T> comparator;
+    private Object[] elements;
+    private long[] sequence;
+    private int size;
+    private long offered;
+
+    BoundedHeap(int limit, Comparator<? super T> comparator) {
+        this.limit = limit;
+        this.comparator = comparator;
+        int capacity = Math.min(limit, INITIAL_CAPACITY);
+        this.elements = new Object[capacity];
+        this.sequence = new long[capacity];
+    }
+
+    void offer(T element) {
+        long order = offered++;
+        if (size < limit) {
+            if (size == elements.length) {
+                int capacity = (int) Math.min(limit, elements.length * 2L);
+                elements = Arrays.copyOf(elements, capacity);
+                sequence = Arrays.copyOf(sequence, capacity);
+            }
+            siftUp(size++, element, order);
+        } else if (comparator.compare(element, get(0)) < 0) {
+            siftDown(0, element, order);
+        }
+    }
+
+    /**
+     * Adds the elements of a heap that was filled with elements coming after the ones of this heap.
+     */
+    BoundedHeap<T> merge(BoundedHeap<T> following) {
+        for (int i : following.indicesInOrder()) {
+            offer(following.get(i));
+        }
+        return this;
+    }
+
+    List<T> toSortedList() {
+        Object[] sorted = new Object[size];
+        int position = 0;
+        for (int i : indicesInOrder()) {
+            sorted[position++] = elements[i];
+        }
+        @SuppressWarnings("unchecked")
+        List<T> result = (List<T>) List.of(sorted);
+        return result;
+    }
+
+    private Integer[] indicesInOrder() {
+        Integer[] indices = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, (a, b) -> {
+            int compared = comparator.compare(get(a), get(b));
+            return compared != 0 ? compared : Long.compare(sequence[a], sequence[b]);
+        });
+        return indices;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T get(int index) {
+        return (T) elements[index];
+    }
+
+    /**
+     * @return whether the first element comes after the second one.
+     */
+    private boolean isWorse(T first, long firstOrder, T second, long secondOrder) {
+        int compared = comparator.compare(first, second);
+        return compared > 0 || (compared == 0 && firstOrder > secondOrder);
+    }
+
+    private void siftUp(int index, T element, long order) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isWorse(element, order, get(parent), sequence[parent])) {
+                break;
+            }
+            elements[index] = elements[parent];
+            sequence[index] = sequence[parent];
+            index = parent;
+        }
+        elements[index] = element;
+        sequence[index] = order;
+    }
+
+    private void siftDown(int index, T element, long order) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isWorse(get(child + 1), sequence[child + 1], get(child), sequence[child])) {
+                child++;
+            }
+            if (!isWorse(get(child), sequence[child], element, order)) {
+                break;
+            }
+            elements[index] = elements[child];
+            sequence[index] = sequence[child];
+            index = child;
+        }
+        elements[index] = element;
+        sequence[index] = order;
+    }
+}
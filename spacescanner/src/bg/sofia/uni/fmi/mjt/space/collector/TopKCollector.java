@@ -0,0 +1,65 @@
+package bg.sofia.uni.fmi.mjt.space.collector;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Collects the first n elements of a stream by a comparator into an unmodifiable list, the same elements in the
+ * same order as {@code sorted(comparator).limit(n).toList()}.
+ * <p>
+ * Only n elements are kept in a bounded heap, so it takes O(m log n) time and O(n) memory for m elements instead
+ * of sorting them all. On a parallel stream every thread fills its own heap and the heaps are merged in encounter
+ * order.
+ *
+ * @param <T> the type of the elements
+ */
+public class TopKCollector<T> implements Collector<T, BoundedHeap<T>, List<T>> {
+    private final int limit;
+    private final Comparator<? super T> comparator;
+
+    private TopKCollector(int limit, Comparator<? super T> comparator) {
+        this.limit = limit;
+        this.comparator = comparator;
+    }
+
+    /**
+     * @throws IllegalArgumentException if n is less than or equal to 0 or the comparator is null
+     */
+    public static <T> Collector<T, ?, List<T>> of(int n, Comparator<? super T> comparator) {
+        if (n <= 0 || comparator == null) {
+            throw new IllegalArgumentException("n is less than or equal to 0 or comparator is null");
+        }
+        return new TopKCollector<>(n, comparator);
+    }
+
+    @Override
+    public Supplier<BoundedHeap<T>> supplier() {
+        return () -> new BoundedHeap<>(limit, comparator);
+    }
+
+    @Override
+    public BiConsumer<BoundedHeap<T>, T> accumulator() {
+        return BoundedHeap::offer;
+    }
+
+    @Override
+    public BinaryOperator<BoundedHeap<T>> combiner() {
+        return BoundedHeap::merge;
+    }
+
+    @Override
+    public Function<BoundedHeap<T>, List<T>> finisher() {
+        return BoundedHeap::toSortedList;
+    }
+
+    @Override
+    public Set<Characteristics> characteristics() {
+        return Set.of();
+    }
+}
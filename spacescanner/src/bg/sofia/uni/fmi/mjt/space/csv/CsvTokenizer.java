@@ -0,0 +1,233 @@
+package bg.sofia.uni.fmi.mjt.space.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Splits CSV text into records in a single pass over chunks of characters.
+ * <p>
+ * Fields may be quoted, a quoted field can hold commas, line breaks and doubled quotes. The characters of the
+ * current record are copied without the quotes into one buffer, so a field is read as a String only when it's
+ * needed and numbers are parsed straight from the buffer. Empty lines are skipped.
+ */
+public class CsvTokenizer implements Closeable {
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+        1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private enum State {
+        FIELD_START, UNQUOTED, QUOTED, QUOTE_IN_QUOTED
+    }
+
+    private final Reader reader;
+    private final char[] chunk;
+    private int position;
+    private int limit;
+
+    private char[] record = new char[INITIAL_CAPACITY * INITIAL_CAPACITY];
+    private int length;
+    private int[] fieldEnds = new int[INITIAL_CAPACITY];
+    private int fieldCount;
+
+    public CsvTokenizer(Reader reader) {
+        this(reader, CHUNK_SIZE);
+    }
+
+    CsvTokenizer(Reader reader, int chunkSize) {
+        this.reader = reader;
+        this.chunk = new char[chunkSize];
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false if the input has no more records
+     * @throws IllegalArgumentException if the input ends inside a quoted field
+     */
+    public boolean next() throws IOException {
+        length = 0;
+        fieldCount = 0;
+        State state = State.FIELD_START;
+        boolean empty = true;
+        while (true) {
+            if (position == limit && !fill()) {
+                if (state == State.QUOTED) {
+                    throw new IllegalArgumentException("the input ends inside a quoted field");
+                }
+                if (empty) {
+                    return false;
+                }
+                endField();
+                return true;
+            }
+            if (state == State.QUOTED) {
+                int run = position;
+                while (run < limit && chunk[run] != '"') {
+                    run++;
+                }
+                append(position, run);
+                position = run;
+                if (run < limit) {
+                    position++;
+                    state = State.QUOTE_IN_QUOTED;
+                }
+                continue;
+            }
+            char c = chunk[position++];
+            if (state == State.QUOTE_IN_QUOTED && c == '"') {
+                append(c);
+                state = State.QUOTED;
+                continue;
+            }
+            if (c == '\n') {
+                if (!empty) {
+                    endField();
+                    return true;
+                }
+            } else if (c == ',') {
+                endField();
+                state = State.FIELD_START;
+                empty = false;
+            } else if (c == '"' && state == State.FIELD_START) {
+                state = State.QUOTED;
+                empty = false;
+            } else if (c != '\r') {
+                int run = position - 1;
+                while (position < limit && isPlain(chunk[position])) {
+                    position++;
+                }
+                append(run, position);
+                state = State.UNQUOTED;
+                empty = false;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = reader.read(chunk, 0, chunk.length);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private static boolean isPlain(char c) {
+        return c != ',' && c != '\n' && c != '\r' && c != '"';
+    }
+
+    private void append(char c) {
+        if (length == record.length) {
+            record = Arrays.copyOf(record, length * 2);
+        }
+        record[length++] = c;
+    }
+
+    private void append(int from, int to) {
+        if (length + to - from > record.length) {
+            record = Arrays.copyOf(record, Math.max(record.length * 2, length + to - from));
+        }
+        System.arraycopy(chunk, from, record, length, to - from);
+        length += to - from;
+    }
+
+    private void endField() {
+        if (fieldCount == fieldEnds.length) {
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldEnds[fieldCount++] = length;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    private int start(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException(field);
+        }
+        return field == 0 ? 0 : fieldEnds[field - 1];
+    }
+
+    public int length(int field) {
+        return fieldEnds[field] - start(field);
+    }
+
+    public char charAt(int field, int index) {
+        return record[start(field) + index];
+    }
+
+    public String field(int field) {
+        int start = start(field);
+        return new String(record, start, fieldEnds[field] - start);
+    }
+
+    public String[] fields() {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = field(i);
+        }
+        return fields;
+    }
+
+    public boolean isBlank(int field) {
+        for (int i = start(field); i < fieldEnds[field]; i++) {
+            if (!Character.isWhitespace(record[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the digits and the decimal point of a field and skips any other character, so {@code "5,000.0 "}
+     * is 5000. Short numbers are a single correctly rounded division, others go through
+     * {@link Double#parseDouble(String)}, so the result is the same either way.
+     *
+     * @throws NumberFormatException if the field has no digits or more than one decimal point
+     */
+    public double decimal(int field) {
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (int i = start(field); i < fieldEnds[field]; i++) {
+            char c = record[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.') {
+                if (scale >= 0) {
+                    return Double.parseDouble(digitsAndPoints(field));
+                }
+                scale = 0;
+            }
+        }
+        if (digits == 0 || digits > MAX_EXACT_DIGITS) {
+            return Double.parseDouble(digitsAndPoints(field));
+        }
+        return scale <= 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+    }
+
+    private String digitsAndPoints(int field) {
+        StringBuilder number = new StringBuilder();
+        for (int i = start(field); i < fieldEnds[field]; i++) {
+            char c = record[i];
+            if ((c >= '0' && c <= '9') || c == '.') {
+                number.append(c);
+            }
+        }
+        return number.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
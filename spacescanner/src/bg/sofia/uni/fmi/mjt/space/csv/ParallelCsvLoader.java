@@ -0,0 +1,207 @@
+package bg.sofia.uni.fmi.mjt.space.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Loads a UTF-8 CSV file with a header by memory mapping it and parsing chunks of it in parallel.
+ * <p>
+ * The file is cut into ranges of about the same size. Every range counts its quotes in parallel first, the
+ * parity of the quotes before a range tells whether it starts inside a quoted field, so its first record can be
+ * found without reading the file from the start. Then every chunk, from the first record starting in its range to
+ * the first record of the next one, is parsed by its own {@link CsvTokenizer}. This relies on quotes appearing
+ * only around fields and doubled inside them, as RFC 4180 has it.
+ */
+public class ParallelCsvLoader {
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNK_SIZE = 1 << 28;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+    private final ForkJoinPool pool;
+    private final int minChunkSize;
+
+    public ParallelCsvLoader(ForkJoinPool pool) {
+        this(pool, MIN_CHUNK_SIZE);
+    }
+
+    ParallelCsvLoader(ForkJoinPool pool, int minChunkSize) {
+        this.pool = pool;
+        this.minChunkSize = minChunkSize;
+    }
+
+    /**
+     * Parses the records after the header of the file, a chunk at a time.
+     *
+     * @param parser turns the records of one chunk into a result, it is called concurrently
+     * @return the results of the chunks in file order
+     */
+    public <T> List<T> load(Path file, Function<CsvTokenizer, T> parser) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long dataStart = findRecordStart(channel, 0, false);
+            long[] starts = splitRanges(dataStart, size);
+            boolean[] inQuotes = quoteStates(channel, starts);
+
+            List<Callable<long[]>> boundaries = new ArrayList<>();
+            for (int i = 1; i < starts.length - 1; i++) {
+                int range = i;
+                boundaries.add(() -> new long[] {findRecordStart(channel, starts[range], inQuotes[range])});
+            }
+            long[] chunkStarts = starts.clone();
+            List<long[]> found = invokeAll(boundaries);
+            for (int i = 0; i < found.size(); i++) {
+                chunkStarts[i + 1] = found.get(i)[0];
+            }
+
+            List<Callable<T>> chunks = new ArrayList<>();
+            for (int i = 0; i < chunkStarts.length - 1; i++) {
+                long start = chunkStarts[i];
+                long end = Math.max(start, chunkStarts[i + 1]);
+                chunks.add(() -> parse(channel, start, end, parser));
+            }
+            return invokeAll(chunks);
+        }
+    }
+
+    private long[] splitRanges(long dataStart, long size) {
+        long length = size - dataStart;
+        long chunkSize = Math.max(minChunkSize, length / ((long) pool.getParallelism() * CHUNKS_PER_THREAD));
+        chunkSize = Math.min(chunkSize, MAX_CHUNK_SIZE);
+        int count = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+        long[] starts = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            starts[i] = dataStart + i * chunkSize;
+        }
+        starts[count] = size;
+        return starts;
+    }
+
+    /**
+     * @return for every range whether it starts inside a quoted field.
+     */
+    private boolean[] quoteStates(FileChannel channel, long[] starts) throws IOException {
+        List<Callable<Boolean>> counts = new ArrayList<>();
+        for (int i = 0; i < starts.length - 2; i++) {
+            long start = starts[i];
+            long end = starts[i + 1];
+            counts.add(() -> hasOddQuotes(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start)));
+        }
+        List<Boolean> odd = invokeAll(counts);
+        boolean[] inQuotes = new boolean[starts.length - 1];
+        for (int i = 1; i < inQuotes.length; i++) {
+            inQuotes[i] = inQuotes[i - 1] ^ odd.get(i - 1);
+        }
+        return inQuotes;
+    }
+
+    private static boolean hasOddQuotes(ByteBuffer buffer) {
+        int quotes = 0;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '"') {
+                quotes++;
+            }
+        }
+        return (quotes & 1) != 0;
+    }
+
+    /**
+     * @return the offset after the first line break outside quotes from the given offset on, or the file size.
+     */
+    private static long findRecordStart(FileChannel channel, long offset, boolean inQuotes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = offset;
+        boolean quoted = inQuotes;
+        int read;
+        while ((read = channel.read(buffer.clear(), position)) > 0) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return channel.size();
+    }
+
+    private static <T> T parse(FileChannel channel, long start, long end, Function<CsvTokenizer, T> parser)
+        throws IOException {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        try (CsvTokenizer tokenizer = new CsvTokenizer(
+                new InputStreamReader(new ByteBufferInputStream(chunk), StandardCharsets.UTF_8))) {
+            return parser.apply(tokenizer);
+        }
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while loading", e);
+            } catch (ExecutionException e) {
+                throw unwrap(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private static IOException unwrap(Throwable cause) {
+        if (cause instanceof IOException e) {
+            return e;
+        }
+        if (cause instanceof UncheckedIOException e) {
+            return e.getCause();
+        }
+        if (cause instanceof RuntimeException e) {
+            throw e;
+        }
+        if (cause instanceof Error e) {
+            throw e;
+        }
+        return new IOException(cause);
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
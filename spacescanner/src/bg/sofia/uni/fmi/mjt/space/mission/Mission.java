@@ -6,16 +6,20 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 public record Mission(String id, String company, String location, LocalDate date, Detail detail,
                       RocketStatus rocketStatus, Optional<Double> cost, MissionStatus missionStatus) {
     public static final int NUM_OF_ATTRIBUTES = 8;
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM dd, yyyy", Locale.ENGLISH);
+    private static final Pattern NOT_DECIMAL = Pattern.compile("[^0-9.]");
 
     private static Optional<Double> parseCost(String str) {
         if (str.isBlank()) {
             return Optional.empty();
         } else {
-            return Optional.of(Double.parseDouble(str.replaceAll("[^0-9.]", "")));
+            return Optional.of(Double.parseDouble(NOT_DECIMAL.matcher(str).replaceAll("")));
         }
     }
 
@@ -23,8 +27,7 @@ public record Mission(String id, String company, String location, LocalDate date
         int i = 0;
         return new Mission(attributes[i++], attributes[i++],
                 attributes[i].substring(1, attributes[i++].length() - 1),
-                LocalDate.parse(attributes[i].substring(1, attributes[i++].length() - 1),
-                        DateTimeFormatter.ofPattern("EEE MMM dd, yyyy", Locale.ENGLISH)),
+                LocalDate.parse(attributes[i].substring(1, attributes[i++].length() - 1), DATE_FORMAT),
                 Detail.of(attributes[i++]),
                 RocketStatus.get(attributes[i++]),
                 parseCost(attributes[i++]),
@@ -33,6 +36,10 @@ public record Mission(String id, String company, String location, LocalDate date
     }
 
     public String country() {
+        return countryOf(location);
+    }
+
+    public static String countryOf(String location) {
         String[] arr = location.split(",");
         return arr[arr.length - 1].strip();
     }
@@ -0,0 +1,451 @@
+package bg.sofia.uni.fmi.mjt.space.mission;
+
+import bg.sofia.uni.fmi.mjt.space.csv.CsvTokenizer;
+import bg.sofia.uni.fmi.mjt.space.rocket.RocketStatus;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.RandomAccess;
+
+/**
+ * Missions kept column by column in primitive arrays instead of as {@link Mission} records.
+ * <p>
+ * Companies, locations, countries and rocket names are dictionary encoded, dates are epoch days, the cost is a
+ * double with a bitmap of the rows that have one and both statuses are their ordinals in a byte. A row is turned
+ * back into a {@link Mission} only when a query returns it.
+ * <p>
+ * Rows are only ever appended and a row is never written again once it's added, so a view of the first rows stays
+ * valid while more are added. A {@link #snapshot()} shares the arrays of the store and can be read from other
+ * threads while the store keeps growing, appending itself isn't thread-safe.
+ */
+public class MissionColumns {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final byte NO_STATUS = -1;
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+    private static final int ID = 0;
+    private static final int COMPANY = 1;
+    private static final int LOCATION = 2;
+    private static final int DATE = 3;
+    private static final int DETAIL = 4;
+    private static final int ROCKET_STATUS = 5;
+    private static final int COST = 6;
+    private static final int MISSION_STATUS = 7;
+
+    private final boolean readOnly;
+    private final StringDictionary companies;
+    private final StringDictionary locations;
+    private final StringDictionary countries;
+    private final StringDictionary rocketNames;
+    private int[] locationCountries = new int[INITIAL_CAPACITY];
+
+    private final TextColumn ids;
+    private final TextColumn payloads;
+    private int[] companyIds = new int[INITIAL_CAPACITY];
+    private int[] locationIds = new int[INITIAL_CAPACITY];
+    private int[] rocketNameIds = new int[INITIAL_CAPACITY];
+    private int[] epochDays = new int[INITIAL_CAPACITY];
+    private double[] costs = new double[INITIAL_CAPACITY];
+    private long[] costPresent = new long[1];
+    private byte[] rocketStatuses = new byte[INITIAL_CAPACITY];
+    private byte[] missionStatuses = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    public MissionColumns() {
+        readOnly = false;
+        companies = new StringDictionary();
+        locations = new StringDictionary();
+        countries = new StringDictionary();
+        rocketNames = new StringDictionary();
+        ids = new TextColumn();
+        payloads = new TextColumn();
+    }
+
+    private MissionColumns(MissionColumns source) {
+        readOnly = true;
+        companies = source.companies.snapshot();
+        locations = source.locations.snapshot();
+        countries = source.countries.snapshot();
+        rocketNames = source.rocketNames.snapshot();
+        locationCountries = source.locationCountries;
+        ids = source.ids.snapshot();
+        payloads = source.payloads.snapshot();
+        companyIds = source.companyIds;
+        locationIds = source.locationIds;
+        rocketNameIds = source.rocketNameIds;
+        epochDays = source.epochDays;
+        costs = source.costs;
+        costPresent = source.costPresent;
+        rocketStatuses = source.rocketStatuses;
+        missionStatuses = source.missionStatuses;
+        size = source.size;
+    }
+
+    /**
+     * @return a read-only store of the rows added so far, that can be read while this one is appended to.
+     */
+    public MissionColumns snapshot() {
+        return new MissionColumns(this);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the mission or any of its fields but the statuses is null
+     */
+    public void add(Mission mission) {
+        checkWritable();
+        if (mission == null || mission.id() == null || mission.company() == null || mission.location() == null
+                || mission.date() == null || mission.detail() == null || mission.detail().rocketName() == null
+                || mission.detail().payload() == null || mission.cost() == null) {
+            throw new IllegalArgumentException("mission or any of its fields but the statuses is null");
+        }
+        int epochDay = Math.toIntExact(mission.date().toEpochDay());
+        if (size == companyIds.length) {
+            grow(size + 1);
+        }
+        int row = size;
+        ids.add(mission.id());
+        payloads.add(mission.detail().payload());
+        companyIds[row] = companies.intern(mission.company());
+        locationIds[row] = internLocation(mission.location());
+        rocketNameIds[row] = rocketNames.intern(mission.detail().rocketName());
+        epochDays[row] = epochDay;
+        if (mission.cost().isPresent()) {
+            setCost(row, mission.cost().get());
+        }
+        rocketStatuses[row] = encode(mission.rocketStatus());
+        missionStatuses[row] = encode(mission.missionStatus());
+        size++;
+    }
+
+    /**
+     * Adds the current record of a missions CSV without building a {@link Mission} for it.
+     *
+     * @throws IllegalArgumentException if the record doesn't hold a mission
+     */
+    public void add(CsvTokenizer record) {
+        checkWritable();
+        if (record.fieldCount() != Mission.NUM_OF_ATTRIBUTES) {
+            throw new IllegalArgumentException("a mission has " + Mission.NUM_OF_ATTRIBUTES + " fields");
+        }
+        int epochDay = parseEpochDay(record);
+        int separator = findDetailSeparator(record);
+        String detail = record.field(DETAIL);
+        boolean hasCost = !record.isBlank(COST);
+        double cost = hasCost ? record.decimal(COST) : 0;
+        if (size == companyIds.length) {
+            grow(size + 1);
+        }
+        int row = size;
+        ids.add(record.field(ID));
+        payloads.add(detail.substring(separator + 1, endOfPayload(detail, separator)).strip());
+        companyIds[row] = companies.intern(record.field(COMPANY));
+        locationIds[row] = internLocation(record.field(LOCATION));
+        rocketNameIds[row] = rocketNames.intern(detail.substring(0, separator).strip());
+        epochDays[row] = epochDay;
+        if (hasCost) {
+            setCost(row, cost);
+        }
+        rocketStatuses[row] = encode(RocketStatus.get(record.field(ROCKET_STATUS)));
+        missionStatuses[row] = encode(MissionStatus.get(record.field(MISSION_STATUS)));
+        size++;
+    }
+
+    /**
+     * Appends the rows of another store, translating its dictionary ids into the ids of this one. Loading in
+     * parallel fills a store per chunk and merges them in order.
+     */
+    public void addAll(MissionColumns other) {
+        checkWritable();
+        int[] companyIdMap = new int[other.companies.size()];
+        for (int id = 0; id < companyIdMap.length; id++) {
+            companyIdMap[id] = companies.intern(other.companies.get(id));
+        }
+        int[] locationIdMap = new int[other.locations.size()];
+        for (int id = 0; id < locationIdMap.length; id++) {
+            locationIdMap[id] = internLocation(other.locations.get(id));
+        }
+        int[] rocketNameIdMap = new int[other.rocketNames.size()];
+        for (int id = 0; id < rocketNameIdMap.length; id++) {
+            rocketNameIdMap[id] = rocketNames.intern(other.rocketNames.get(id));
+        }
+        if (companyIds.length < size + other.size) {
+            grow(size + other.size);
+        }
+        ids.addAll(other.ids);
+        payloads.addAll(other.payloads);
+        for (int row = 0; row < other.size; row++) {
+            companyIds[size + row] = companyIdMap[other.companyIds[row]];
+            locationIds[size + row] = locationIdMap[other.locationIds[row]];
+            rocketNameIds[size + row] = rocketNameIdMap[other.rocketNameIds[row]];
+            if (other.hasCost(row)) {
+                setCost(size + row, other.costs[row]);
+            }
+        }
+        System.arraycopy(other.epochDays, 0, epochDays, size, other.size);
+        System.arraycopy(other.rocketStatuses, 0, rocketStatuses, size, other.size);
+        System.arraycopy(other.missionStatuses, 0, missionStatuses, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Parses dates like {@code Fri Aug 07, 2020}, the day of the week is skipped.
+     */
+    private static int parseEpochDay(CsvTokenizer record) {
+        int length = record.length(DATE);
+        int dayStart = "EEE MMM ".length();
+        if (length < dayStart || record.charAt(DATE, 3) != ' ' || record.charAt(DATE, 7) != ' ') {
+            throw new IllegalArgumentException("malformed date " + record.field(DATE));
+        }
+        int month = 1;
+        while (month <= 12 && !isMonth(record, month)) {
+            month++;
+        }
+        int i = dayStart;
+        int day = 0;
+        for (; i < length && isDigit(record.charAt(DATE, i)); i++) {
+            day = day * 10 + (record.charAt(DATE, i) - '0');
+        }
+        if (i + 2 >= length || record.charAt(DATE, i) != ',' || record.charAt(DATE, i + 1) != ' ') {
+            throw new IllegalArgumentException("malformed date " + record.field(DATE));
+        }
+        int year = 0;
+        for (i += 2; i < length; i++) {
+            char c = record.charAt(DATE, i);
+            if (!isDigit(c)) {
+                throw new IllegalArgumentException("malformed date " + record.field(DATE));
+            }
+            year = year * 10 + (c - '0');
+        }
+        try {
+            return Math.toIntExact(LocalDate.of(year, month, day).toEpochDay());
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("malformed date " + record.field(DATE), e);
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isMonth(CsvTokenizer record, int month) {
+        int offset = (month - 1) * 3;
+        return record.charAt(DATE, 4) == MONTHS.charAt(offset)
+                && record.charAt(DATE, 5) == MONTHS.charAt(offset + 1)
+                && record.charAt(DATE, 6) == MONTHS.charAt(offset + 2);
+    }
+
+    private static int findDetailSeparator(CsvTokenizer record) {
+        for (int i = 0; i < record.length(DETAIL); i++) {
+            if (record.charAt(DETAIL, i) == '|') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("a mission detail is a rocket name and a payload separated by |");
+    }
+
+    private static int endOfPayload(String detail, int separator) {
+        int end = detail.indexOf('|', separator + 1);
+        return end < 0 ? detail.length() : end;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("a snapshot is read-only");
+        }
+    }
+
+    /**
+     * Sets the bit of the row in a word shared with the rows before it, their bits never change, so snapshots
+     * reading the word meanwhile still see the same costs.
+     */
+    private void setCost(int row, double cost) {
+        costs[row] = cost;
+        costPresent[row >>> 6] |= 1L << row;
+    }
+
+    private static byte encode(Enum<?> status) {
+        return status == null ? NO_STATUS : (byte) status.ordinal();
+    }
+
+    private int internLocation(String location) {
+        int known = locations.size();
+        int id = locations.intern(location);
+        if (id == known) {
+            if (id == locationCountries.length) {
+                locationCountries = Arrays.copyOf(locationCountries, Math.max(INITIAL_CAPACITY, id * 2));
+            }
+            locationCountries[id] = countries.intern(Mission.countryOf(location));
+        }
+        return id;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, Math.max(INITIAL_CAPACITY, companyIds.length * 2));
+        companyIds = Arrays.copyOf(companyIds, capacity);
+        locationIds = Arrays.copyOf(locationIds, capacity);
+        rocketNameIds = Arrays.copyOf(rocketNameIds, capacity);
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        costs = Arrays.copyOf(costs, capacity);
+        costPresent = Arrays.copyOf(costPresent, (capacity + Long.SIZE - 1) / Long.SIZE);
+        rocketStatuses = Arrays.copyOf(rocketStatuses, capacity);
+        missionStatuses = Arrays.copyOf(missionStatuses, capacity);
+    }
+
+    /**
+     * Drops the spare capacity left by growing, once loading is done.
+     */
+    public void trim() {
+        checkWritable();
+        companyIds = Arrays.copyOf(companyIds, size);
+        locationIds = Arrays.copyOf(locationIds, size);
+        rocketNameIds = Arrays.copyOf(rocketNameIds, size);
+        epochDays = Arrays.copyOf(epochDays, size);
+        costs = Arrays.copyOf(costs, size);
+        costPresent = Arrays.copyOf(costPresent, (size + Long.SIZE - 1) / Long.SIZE);
+        rocketStatuses = Arrays.copyOf(rocketStatuses, size);
+        missionStatuses = Arrays.copyOf(missionStatuses, size);
+        locationCountries = Arrays.copyOf(locationCountries, locations.size());
+        ids.trim();
+        payloads.trim();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int companyId(int row) {
+        return companyIds[row];
+    }
+
+    public int locationId(int row) {
+        return locationIds[row];
+    }
+
+    public int countryId(int row) {
+        return locationCountries[locationIds[row]];
+    }
+
+    public int rocketNameId(int row) {
+        return rocketNameIds[row];
+    }
+
+    public int epochDay(int row) {
+        return epochDays[row];
+    }
+
+    public boolean hasCost(int row) {
+        return (costPresent[row >>> 6] & (1L << row)) != 0;
+    }
+
+    public double cost(int row) {
+        return costs[row];
+    }
+
+    /**
+     * @return whether the row has the given status, without decoding it.
+     */
+    public boolean hasStatus(int row, MissionStatus missionStatus) {
+        return missionStatuses[row] == missionStatus.ordinal();
+    }
+
+    public boolean hasStatus(int row, RocketStatus rocketStatus) {
+        return rocketStatuses[row] == rocketStatus.ordinal();
+    }
+
+    public MissionStatus missionStatus(int row) {
+        byte status = missionStatuses[row];
+        return status == NO_STATUS ? null : MissionStatus.values()[status];
+    }
+
+    public RocketStatus rocketStatus(int row) {
+        byte status = rocketStatuses[row];
+        return status == NO_STATUS ? null : RocketStatus.values()[status];
+    }
+
+    public int companyCount() {
+        return companies.size();
+    }
+
+    public String company(int companyId) {
+        return companies.get(companyId);
+    }
+
+    public int locationCount() {
+        return locations.size();
+    }
+
+    public String location(int locationId) {
+        return locations.get(locationId);
+    }
+
+    public int countryCount() {
+        return countries.size();
+    }
+
+    public String country(int countryId) {
+        return countries.get(countryId);
+    }
+
+    public int rocketNameCount() {
+        return rocketNames.size();
+    }
+
+    /**
+     * @return the id of the rocket name or -1 if no mission flew that rocket.
+     */
+    public int findRocketName(String rocketName) {
+        return rocketNames.find(rocketName);
+    }
+
+    /**
+     * Builds the record of a row.
+     */
+    public Mission mission(int row) {
+        return new Mission(ids.get(row), companies.get(companyIds[row]), locations.get(locationIds[row]),
+                LocalDate.ofEpochDay(epochDays[row]),
+                new Detail(rocketNames.get(rocketNameIds[row]), payloads.get(row)),
+                rocketStatus(row),
+                hasCost(row) ? Optional.of(costs[row]) : Optional.empty(),
+                missionStatus(row));
+    }
+
+    /**
+     * @return an unmodifiable view of the rows added so far.
+     */
+    public List<Mission> asList() {
+        return new RowList(null, size);
+    }
+
+    /**
+     * @return an unmodifiable view of the first count rows of the given array.
+     */
+    public List<Mission> asList(int[] rows, int count) {
+        return new RowList(rows, count);
+    }
+
+    private final class RowList extends AbstractList<Mission> implements RandomAccess {
+        private final int[] rows;
+        private final int count;
+
+        private RowList(int[] rows, int count) {
+            this.rows = rows;
+            this.count = count;
+        }
+
+        @Override
+        public Mission get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return mission(rows == null ? index : rows[index]);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
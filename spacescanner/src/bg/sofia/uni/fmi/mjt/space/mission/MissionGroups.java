@@ -0,0 +1,197 @@
+package bg.sofia.uni.fmi.mjt.space.mission;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * The rows of a {@link MissionColumns} grouped by mission status and by country, and the location most missions of
+ * every company start from. The groups are updated with the rows appended to the store since the last update
+ * instead of being rebuilt.
+ * <p>
+ * Groups only ever grow, so a {@link #snapshot(MissionColumns)} shares their row arrays and copies just the group
+ * sizes, the location counts stay with the groups being updated.
+ */
+public class MissionGroups {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final boolean readOnly;
+    private final MissionColumns missions;
+    private final int[][] statusRows;
+    private final int[] statusSizes;
+    private int[][] countryRows;
+    private int[] countrySizes;
+    private int countryCount;
+    private int[][] locationCounts;
+    private int[][] locationFirstRows;
+    private int[] bestLocations;
+    private int[] bestCounts;
+    private int companyCount;
+    private int rows;
+
+    public MissionGroups(MissionColumns missions) {
+        readOnly = false;
+        this.missions = missions;
+        statusRows = new int[MissionStatus.values().length][INITIAL_CAPACITY];
+        statusSizes = new int[statusRows.length];
+        countryRows = new int[INITIAL_CAPACITY][];
+        countrySizes = new int[INITIAL_CAPACITY];
+        locationCounts = new int[INITIAL_CAPACITY][];
+        locationFirstRows = new int[INITIAL_CAPACITY][];
+        bestLocations = new int[INITIAL_CAPACITY];
+        bestCounts = new int[INITIAL_CAPACITY];
+        addRowsSinceLastUpdate();
+        for (int group = 0; group < statusRows.length; group++) {
+            statusRows[group] = Arrays.copyOf(statusRows[group], statusSizes[group]);
+        }
+        for (int country = 0; country < countryCount; country++) {
+            countryRows[country] = Arrays.copyOf(countryRows[country], countrySizes[country]);
+        }
+    }
+
+    private MissionGroups(MissionGroups source, MissionColumns missions) {
+        readOnly = true;
+        this.missions = missions;
+        statusRows = source.statusRows.clone();
+        statusSizes = source.statusSizes.clone();
+        countryRows = Arrays.copyOf(source.countryRows, source.countryCount);
+        countrySizes = Arrays.copyOf(source.countrySizes, source.countryCount);
+        countryCount = source.countryCount;
+        bestLocations = Arrays.copyOf(source.bestLocations, source.companyCount);
+        companyCount = source.companyCount;
+        rows = source.rows;
+    }
+
+    /**
+     * @param missions a snapshot of the store taken after the last update
+     * @return read-only groups of the rows seen so far, that can be read while these ones are updated.
+     */
+    public MissionGroups snapshot(MissionColumns missions) {
+        return new MissionGroups(this, missions);
+    }
+
+    /**
+     * Adds the rows appended to the store since the last update.
+     */
+    public void update() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("a snapshot is read-only");
+        }
+        addRowsSinceLastUpdate();
+    }
+
+    /**
+     * The update itself, private so the constructor can run it before a subclass is initialized.
+     */
+    private void addRowsSinceLastUpdate() {
+        ensureCompanies(missions.companyCount());
+        ensureCountries(missions.countryCount());
+        for (; rows < missions.size(); rows++) {
+            MissionStatus status = missions.missionStatus(rows);
+            if (status != null) {
+                int group = status.ordinal();
+                statusRows[group] = append(statusRows[group], statusSizes[group]++, rows);
+            }
+            int country = missions.countryId(rows);
+            countryRows[country] = append(countryRows[country], countrySizes[country]++, rows);
+            countLocation(missions.companyId(rows), missions.locationId(rows), rows);
+        }
+    }
+
+    /**
+     * @return the group with the row after its first size rows, grown into a new array if it's full.
+     */
+    private static int[] append(int[] group, int size, int row) {
+        int[] grown = size == group.length ? Arrays.copyOf(group, Math.max(INITIAL_CAPACITY, size * 2)) : group;
+        grown[size] = row;
+        return grown;
+    }
+
+    /**
+     * Counts a mission of the company from the location, ties go to the location of the company's earliest
+     * mission among them.
+     */
+    private void countLocation(int company, int location, int row) {
+        int[] counts = locationCounts[company];
+        int[] firstRows = locationFirstRows[company];
+        if (location >= counts.length) {
+            int capacity = Math.max(location + 1, counts.length * 2);
+            counts = Arrays.copyOf(counts, capacity);
+            firstRows = Arrays.copyOf(firstRows, capacity);
+            locationCounts[company] = counts;
+            locationFirstRows[company] = firstRows;
+        }
+        int count = ++counts[location];
+        if (count == 1) {
+            firstRows[location] = row;
+        }
+        if (count > bestCounts[company] || (count == bestCounts[company]
+                && firstRows[location] < firstRows[bestLocations[company]])) {
+            bestCounts[company] = count;
+            bestLocations[company] = location;
+        }
+    }
+
+    private void ensureCompanies(int count) {
+        if (count > locationCounts.length) {
+            int capacity = Math.max(count, locationCounts.length * 2);
+            locationCounts = Arrays.copyOf(locationCounts, capacity);
+            locationFirstRows = Arrays.copyOf(locationFirstRows, capacity);
+            bestLocations = Arrays.copyOf(bestLocations, capacity);
+            bestCounts = Arrays.copyOf(bestCounts, capacity);
+        }
+        for (; companyCount < count; companyCount++) {
+            locationCounts[companyCount] = new int[INITIAL_CAPACITY];
+            locationFirstRows[companyCount] = new int[INITIAL_CAPACITY];
+            bestLocations[companyCount] = -1;
+        }
+    }
+
+    private void ensureCountries(int count) {
+        if (count > countryRows.length) {
+            int capacity = Math.max(count, countryRows.length * 2);
+            countryRows = Arrays.copyOf(countryRows, capacity);
+            countrySizes = Arrays.copyOf(countrySizes, capacity);
+        }
+        for (; countryCount < count; countryCount++) {
+            countryRows[countryCount] = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * @return a view of the missions with the status that match the filter.
+     */
+    public List<Mission> withStatus(MissionStatus missionStatus, IntPredicate filter) {
+        int[] group = statusRows[missionStatus.ordinal()];
+        int size = statusSizes[missionStatus.ordinal()];
+        int[] matching = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (filter.test(group[i])) {
+                matching[count++] = group[i];
+            }
+        }
+        return missions.asList(Arrays.copyOf(matching, count), count);
+    }
+
+    /**
+     * @return a view of the missions with the status.
+     */
+    public List<Mission> withStatus(MissionStatus missionStatus) {
+        return missions.asList(statusRows[missionStatus.ordinal()], statusSizes[missionStatus.ordinal()]);
+    }
+
+    /**
+     * @return a view of the missions from the country.
+     */
+    public List<Mission> inCountry(int countryId) {
+        return missions.asList(countryRows[countryId], countrySizes[countryId]);
+    }
+
+    /**
+     * @return the location id most missions of the company start from.
+     */
+    public int mostFrequentLocation(int companyId) {
+        return bestLocations[companyId];
+    }
+}
@@ -0,0 +1,71 @@
+package bg.sofia.uni.fmi.mjt.space.mission;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps every distinct string of a column to a dense id, so the column itself can be kept as an int[].
+ * <p>
+ * Values are only ever appended, so a snapshot shares the values and ids of the dictionary it was taken from and
+ * sees just the ones known back then, while the dictionary keeps growing in another thread.
+ */
+public class StringDictionary {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Map<String, Integer> ids;
+    private String[] values;
+    private int size;
+
+    public StringDictionary() {
+        this(new ConcurrentHashMap<>(), new String[INITIAL_CAPACITY], 0);
+    }
+
+    private StringDictionary(Map<String, Integer> ids, String[] values, int size) {
+        this.ids = ids;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Returns the id of the value, assigning the next free one if it hasn't been seen yet.
+     */
+    public int intern(String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = size;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the value or -1 if it isn't in the dictionary.
+     */
+    public int find(String value) {
+        int id = ids.getOrDefault(value, -1);
+        return id < size ? id : -1;
+    }
+
+    public String get(int id) {
+        if (id >= size) {
+            throw new IndexOutOfBoundsException(id);
+        }
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a view of the values known so far, it must not be interned into.
+     */
+    StringDictionary snapshot() {
+        return new StringDictionary(ids, values, size);
+    }
+}
@@ -0,0 +1,178 @@
+package bg.sofia.uni.fmi.mjt.space.mission;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The dates of the successful missions of every company and location, sorted, so the successes in a time frame
+ * are counted with two binary searches per company and location instead of a scan over all missions.
+ * <p>
+ * The index is updated with the rows appended to the store since the last update. The new dates of a pair are
+ * appended after its old ones, a pair that gets out of order is sorted in a copy, so a {@link #snapshot()} can
+ * share the date arrays and copy just the sizes of the pairs.
+ */
+public class SuccessfulMissionIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final boolean readOnly;
+    private final MissionColumns missions;
+    private final Map<Long, Integer> pairs;
+    private int companyCount;
+    private int[] pairCompanies;
+    private int[] pairLocations;
+    private int[][] pairDays;
+    private int[] pairSizes;
+    private int pairCount;
+    private int rows;
+
+    public SuccessfulMissionIndex(MissionColumns missions) {
+        readOnly = false;
+        this.missions = missions;
+        pairs = new HashMap<>();
+        pairCompanies = new int[INITIAL_CAPACITY];
+        pairLocations = new int[INITIAL_CAPACITY];
+        pairDays = new int[INITIAL_CAPACITY][];
+        pairSizes = new int[INITIAL_CAPACITY];
+        addRowsSinceLastUpdate();
+        for (int pair = 0; pair < pairCount; pair++) {
+            pairDays[pair] = Arrays.copyOf(pairDays[pair], pairSizes[pair]);
+        }
+    }
+
+    private SuccessfulMissionIndex(SuccessfulMissionIndex source) {
+        readOnly = true;
+        missions = source.missions;
+        pairs = source.pairs;
+        companyCount = source.companyCount;
+        pairCompanies = source.pairCompanies;
+        pairLocations = source.pairLocations;
+        pairDays = Arrays.copyOf(source.pairDays, source.pairCount);
+        pairSizes = Arrays.copyOf(source.pairSizes, source.pairCount);
+        pairCount = source.pairCount;
+        rows = source.rows;
+    }
+
+    /**
+     * @return a read-only index of the rows seen so far, that can be read while this one is updated.
+     */
+    public SuccessfulMissionIndex snapshot() {
+        return new SuccessfulMissionIndex(this);
+    }
+
+    /**
+     * Adds the successful missions appended to the store since the last update.
+     */
+    public void update() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("a snapshot is read-only");
+        }
+        addRowsSinceLastUpdate();
+    }
+
+    /**
+     * The update itself, private so the constructor can run it before a subclass is initialized.
+     */
+    private void addRowsSinceLastUpdate() {
+        companyCount = missions.companyCount();
+        boolean[] unsorted = new boolean[pairCount];
+        for (; rows < missions.size(); rows++) {
+            if (!missions.hasStatus(rows, MissionStatus.SUCCESS)) {
+                continue;
+            }
+            int pair = pairOf(missions.companyId(rows), missions.locationId(rows));
+            int size = pairSizes[pair];
+            int day = missions.epochDay(rows);
+            if (pair < unsorted.length && size > 0 && pairDays[pair][size - 1] > day) {
+                unsorted[pair] = true;
+            }
+            if (size == pairDays[pair].length) {
+                pairDays[pair] = Arrays.copyOf(pairDays[pair], Math.max(INITIAL_CAPACITY, size * 2));
+            }
+            pairDays[pair][size] = day;
+            pairSizes[pair]++;
+        }
+        for (int pair = 0; pair < pairCount; pair++) {
+            if (pair < unsorted.length && unsorted[pair]) {
+                pairDays[pair] = Arrays.copyOf(pairDays[pair], pairDays[pair].length);
+            }
+            if (pair >= unsorted.length || unsorted[pair]) {
+                Arrays.sort(pairDays[pair], 0, pairSizes[pair]);
+            }
+        }
+    }
+
+    private int pairOf(int company, int location) {
+        Integer known = pairs.get((long) company << Integer.SIZE | location);
+        if (known != null) {
+            return known;
+        }
+        if (pairCount == pairDays.length) {
+            int capacity = pairCount * 2;
+            pairCompanies = Arrays.copyOf(pairCompanies, capacity);
+            pairLocations = Arrays.copyOf(pairLocations, capacity);
+            pairDays = Arrays.copyOf(pairDays, capacity);
+            pairSizes = Arrays.copyOf(pairSizes, capacity);
+        }
+        pairCompanies[pairCount] = company;
+        pairLocations[pairCount] = location;
+        pairDays[pairCount] = new int[INITIAL_CAPACITY];
+        pairs.put((long) company << Integer.SIZE | location, pairCount);
+        return pairCount++;
+    }
+
+    private int count(int pair, int fromDay, int toDay) {
+        return firstAfter(pair, toDay) - firstAfter(pair, fromDay - 1);
+    }
+
+    /**
+     * @return the index of the first date of the pair after the given day.
+     */
+    private int firstAfter(int pair, int day) {
+        int[] days = pairDays[pair];
+        int low = 0;
+        int high = pairSizes[pair];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days[middle] <= day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of successful missions of every company between the inclusive days.
+     */
+    public int[] countPerCompany(int fromDay, int toDay) {
+        int[] counts = new int[companyCount];
+        for (int pair = 0; pair < pairCount; pair++) {
+            counts[pairCompanies[pair]] += count(pair, fromDay, toDay);
+        }
+        return counts;
+    }
+
+    /**
+     * Finds for every company its location with most successful missions between the inclusive days. Pairs are
+     * numbered in the order of their first successful mission, so ties go to the location of the company's
+     * earliest successful mission among them.
+     *
+     * @return the location id per company id, -1 for companies without a successful mission then.
+     */
+    public int[] mostSuccessfulLocationPerCompany(int fromDay, int toDay) {
+        int[] best = new int[companyCount];
+        int[] bestCounts = new int[companyCount];
+        Arrays.fill(best, -1);
+        for (int pair = 0; pair < pairCount; pair++) {
+            int count = count(pair, fromDay, toDay);
+            int company = pairCompanies[pair];
+            if (count > bestCounts[company]) {
+                bestCounts[company] = count;
+                best[company] = pairLocations[pair];
+            }
+        }
+        return best;
+    }
+}
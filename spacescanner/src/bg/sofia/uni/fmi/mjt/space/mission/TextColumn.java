@@ -0,0 +1,72 @@
+package bg.sofia.uni.fmi.mjt.space.mission;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A column of mostly unique strings, stored back to back as UTF-8 in one byte[] instead of as String objects.
+ * Strings are only ever appended after the ones of a snapshot.
+ */
+class TextColumn {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[] data;
+    private int[] offsets;
+    private int size;
+
+    TextColumn() {
+        this(new byte[INITIAL_CAPACITY * INITIAL_CAPACITY], new int[INITIAL_CAPACITY + 1], 0);
+    }
+
+    private TextColumn(byte[] data, int[] offsets, int size) {
+        this.data = data;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    void add(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int start = offsets[size];
+        if (start + bytes.length > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, start + bytes.length));
+        }
+        System.arraycopy(bytes, 0, data, start, bytes.length);
+        if (size + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[++size] = start + bytes.length;
+    }
+
+    void addAll(TextColumn other) {
+        int start = offsets[size];
+        int bytes = other.offsets[other.size];
+        if (start + bytes > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, start + bytes));
+        }
+        System.arraycopy(other.data, 0, data, start, bytes);
+        if (size + other.size + 1 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, size + other.size + 1));
+        }
+        for (int row = 1; row <= other.size; row++) {
+            offsets[size + row] = start + other.offsets[row];
+        }
+        size += other.size;
+    }
+
+    String get(int row) {
+        return new String(data, offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.UTF_8);
+    }
+
+    int size() {
+        return size;
+    }
+
+    TextColumn snapshot() {
+        return new TextColumn(data, offsets, size);
+    }
+
+    void trim() {
+        data = Arrays.copyOf(data, offsets[size]);
+        offsets = Arrays.copyOf(offsets, size + 1);
+    }
+}
@@ -2,14 +2,17 @@ package bg.sofia.uni.fmi.mjt.space.rocket;
 
 import java.io.Serializable;
 import java.util.Optional;
+import java.util.regex.Pattern;
 
 public record Rocket(String id, String name, Optional<String> wiki, Optional<Double> height) implements Serializable {
     public static final int NUM_OF_ATTRIBUTES = 4;
+    private static final Pattern NOT_DECIMAL = Pattern.compile("[^0-9.]");
+
     private static Optional<Double> parseCost(String str) {
         if (str.isBlank()) {
             return Optional.empty();
         } else {
-            return Optional.of(Double.parseDouble(str.replaceAll("[^0-9.]", "")));
+            return Optional.of(Double.parseDouble(NOT_DECIMAL.matcher(str).replaceAll("")));
         }
     }
 
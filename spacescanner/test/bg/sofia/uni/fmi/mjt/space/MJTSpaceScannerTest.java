@@ -2,20 +2,25 @@ package bg.sofia.uni.fmi.mjt.space;
 
 import bg.sofia.uni.fmi.mjt.space.algorithm.Rijndael;
 import bg.sofia.uni.fmi.mjt.space.exception.TimeFrameMismatchException;
+import bg.sofia.uni.fmi.mjt.space.mission.Detail;
 import bg.sofia.uni.fmi.mjt.space.mission.Mission;
 import bg.sofia.uni.fmi.mjt.space.mission.MissionStatus;
 import bg.sofia.uni.fmi.mjt.space.rocket.RocketStatus;
 import bg.sofia.uni.fmi.mjt.space.rocket.Rocket;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.util.*;
@@ -26,16 +31,18 @@ class MJTSpaceScannerTest {
 
     private static MJTSpaceScanner spaceScanner;
     private static SecretKey secretKey;
+    private static String missionsInput;
+    private static String rocketsInput;
     private static final String ENCRYPTION_ALGORITHM = "AES"; // //  Advanced Encryption Standard
     private static final int KEY_SIZE_IN_BITS = 128;
     @BeforeAll
     static void setUp() throws NoSuchAlgorithmException {
-        String missionsInput = "0,Company Name,Location,Datum,Detail,Status Rocket,\" Rocket\",Status Mission\n" +
+        missionsInput = "0,Company Name,Location,Datum,Detail,Status Rocket,\" Rocket\",Status Mission\n" +
                 "0,SpaceX,\"LC-39A, Kennedy Space Center, Florida, USA\",\"Fri Aug 07, 2020\",Falcon 9 Block 5 | Starlink V1 L9 & BlackSky,StatusActive,\"50.0 \",Success\n" +
                 "1,CASC,\"Site 9401 (SLS-2), Jiuquan Satellite Launch Center, China\",\"Thu Aug 06, 2020\",Long March 2D | Gaofen-9 04 & Q-SAT,StatusActive,\"29.75 \",Success\n" +
                 "2,SpaceX,\"Pad A, Boca Chica, Texas, USA\",\"Tue Aug 04, 2020\",Starship Prototype | 150 Meter Hop,StatusActive,,Success\n" +
                 "3,Roscosmos,\"Site 200/39, Baikonur Cosmodrome, Kazakhstan\",\"Thu Jul 30, 2020\",Proton-M/Briz-M | Ekspress-80 & Ekspress-103,StatusActive,\"65.0 \",Success";
-        String rocketsInput = "\"\",Name,Wiki,Rocket Height\n" +
+        rocketsInput = "\"\",Name,Wiki,Rocket Height\n" +
                 "169,Falcon 9 Block 5,https://en.wikipedia.org/wiki/Falcon_9,70.0 m\n" +
                 "213,Long March 2D,https://en.wikipedia.org/wiki/Long_March_2D,41.06 m\n" +
                 "371,Starship Prototype,https://en.wikipedia.org/wiki/SpaceX_Starship,50.0 m\n" +
@@ -60,6 +67,46 @@ class MJTSpaceScannerTest {
         }, "invalid data");
     }
 
+    @Test
+    void testPathConstructorLoadsTheSameData(@TempDir Path tempDir) throws IOException {
+        Path missionsFile = tempDir.resolve("missions.csv");
+        Path rocketsFile = tempDir.resolve("rockets.csv");
+        Files.writeString(missionsFile, missionsInput);
+        Files.writeString(rocketsFile, rocketsInput);
+
+        MJTSpaceScanner loaded = new MJTSpaceScanner(missionsFile, rocketsFile, secretKey);
+
+        assertEquals(spaceScanner.getAllMissions(), loaded.getAllMissions());
+        assertEquals(spaceScanner.getAllRockets(), loaded.getAllRockets());
+        assertThrows(RuntimeException.class,
+                () -> new MJTSpaceScanner(tempDir.resolve("missing.csv"), rocketsFile, secretKey));
+    }
+
+    @Test
+    void testRocketsWithoutHeightOrWikiAreLoaded() {
+        String missionsInput = "0,Company Name,Location,Datum,Detail,Status Rocket,\" Rocket\",Status Mission\n";
+        String rocketsInput = "\"\",Name,Wiki,Rocket Height\n" +
+                "0,Tsyklon-3,https://en.wikipedia.org/wiki/Tsyklon-3,\n" +
+                "1,\"Angara, A5\",,\n";
+
+        MJTSpaceScanner scanner = new MJTSpaceScanner(new StringReader(missionsInput),
+                new StringReader(rocketsInput), secretKey);
+
+        assertTrue(scanner.getAllMissions().isEmpty());
+        assertEquals(List.of(new Rocket("0", "Tsyklon-3", Optional.of("https://en.wikipedia.org/wiki/Tsyklon-3"),
+                Optional.empty()), new Rocket("1", "Angara, A5", Optional.empty(), Optional.empty())),
+                scanner.getAllRockets());
+    }
+
+    @Test
+    void testMalformedMissionDateIsRejected() {
+        String missionsInput = "0,Company Name,Location,Datum,Detail,Status Rocket,\" Rocket\",Status Mission\n" +
+                "0,SpaceX,\"Pad A, Boca Chica, Texas, USA\",\"Tue Foo 04, 2020\",Starship | Hop,StatusActive,,Success";
+
+        assertThrows(IllegalArgumentException.class, () -> new MJTSpaceScanner(new StringReader(missionsInput),
+                new StringReader(""), secretKey));
+    }
+
     @Test
     void testGetAllMissionsByNullStatus() {
         // Test that IllegalArgumentException is thrown when missionStatus is null
@@ -145,6 +192,60 @@ class MJTSpaceScannerTest {
         assertEquals("SpaceX", company);
     }
 
+    @Test
+    void testTimeFramesAreInclusiveAndCountOnlySuccesses() {
+        String input = "0,Company Name,Location,Datum,Detail,Status Rocket,\" Rocket\",Status Mission\n" +
+                "0,CASC,\"Site 9401, Jiuquan, China\",\"Thu Aug 06, 2020\",Long March 2D | A,StatusActive,,Failure\n" +
+                "1,CASC,\"Site 9401, Jiuquan, China\",\"Thu Aug 06, 2020\",Long March 2D | B,StatusActive,,Failure\n" +
+                "2,SpaceX,\"Pad A, Boca Chica, Texas, USA\",\"Tue Aug 04, 2020\",Starship | C,StatusActive,,Success\n" +
+                "3,SpaceX,\"LC-39A, Florida, USA\",\"Sat Aug 01, 2020\",Falcon 9 | D,StatusActive,,Success\n" +
+                "4,SpaceX,\"LC-39A, Florida, USA\",\"Fri Jul 31, 2020\",Falcon 9 | E,StatusActive,,Success\n";
+        MJTSpaceScanner scanner = new MJTSpaceScanner(new StringReader(input), new StringReader(""), secretKey);
+        LocalDate first = LocalDate.parse("2020-08-01");
+        LocalDate last = LocalDate.parse("2020-08-06");
+
+        assertEquals("SpaceX", scanner.getCompanyWithMostSuccessfulMissions(first, last));
+        assertEquals("SpaceX", scanner.getCompanyWithMostSuccessfulMissions(first, first));
+        assertEquals("", scanner.getCompanyWithMostSuccessfulMissions(last, last));
+        assertEquals(Map.of("SpaceX", "LC-39A, Florida, USA", "CASC", ""),
+                scanner.getLocationWithMostSuccessfulMissionsPerCompany(LocalDate.parse("2020-07-31"), last));
+        assertEquals(Map.of("SpaceX", "Pad A, Boca Chica, Texas, USA", "CASC", ""),
+                scanner.getLocationWithMostSuccessfulMissionsPerCompany(LocalDate.parse("2020-08-02"), last));
+    }
+
+    @Test
+    void testMostReliableRocketAndWikiPagesAreJoinedByRocketName() throws Exception {
+        String input = "0,Company Name,Location,Datum,Detail,Status Rocket,\" Rocket\",Status Mission\n" +
+                "0,CASC,\"Jiuquan, China\",\"Thu Aug 06, 2020\",Long March 2D | A,StatusActive,\"30.0 \",Success\n" +
+                "1,CASC,\"Jiuquan, China\",\"Wed Aug 05, 2020\",Long March 2D | B,StatusActive,\"20.0 \",Failure\n" +
+                "2,SpaceX,\"Florida, USA\",\"Tue Aug 04, 2020\",Falcon 9 Block 5 | C,StatusActive,\"50.0 \",Success\n" +
+                "3,SpaceX,\"Florida, USA\",\"Sat Aug 01, 2020\",Falcon 9 Block 5 | D,StatusActive,\"10.0 \",Success\n" +
+                "4,Unknown,\"Florida, USA\",\"Sat Aug 01, 2020\",Unlisted | E,StatusActive,\"90.0 \",Success\n" +
+                "5,CASC,\"Jiuquan, China\",\"Sat Jan 01, 2000\",Long March 2D | F,StatusActive,,Success\n";
+        String rockets = "\"\",Name,Wiki,Rocket Height\n" +
+                "1,Long March 2D,https://en.wikipedia.org/wiki/Long_March_2D,41.06 m\n" +
+                "2,Falcon 9 Block 5,https://en.wikipedia.org/wiki/Falcon_9,70.0 m\n" +
+                "3,Never Flown,,\n";
+        MJTSpaceScanner scanner = new MJTSpaceScanner(new StringReader(input), new StringReader(rockets), secretKey);
+
+        assertEquals(List.of("", "https://en.wikipedia.org/wiki/Falcon_9",
+                        "https://en.wikipedia.org/wiki/Long_March_2D"),
+                scanner.getWikiPagesForRocketsUsedInMostExpensiveMissions(3, MissionStatus.SUCCESS,
+                        RocketStatus.STATUS_ACTIVE));
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        scanner.saveMostReliableRocket(encrypted, LocalDate.parse("2020-08-01"), LocalDate.parse("2020-08-06"));
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        new Rijndael(secretKey).decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted);
+        assertEquals("Falcon 9 Block 5", decrypted.toString(StandardCharsets.UTF_8));
+
+        encrypted.reset();
+        decrypted.reset();
+        scanner.saveMostReliableRocket(encrypted, LocalDate.parse("1999-01-01"), LocalDate.parse("2000-01-01"));
+        new Rijndael(secretKey).decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted);
+        assertEquals("Long March 2D", decrypted.toString(StandardCharsets.UTF_8));
+    }
+
     @Test
     void testGetMissionsPerCountry() {
         Map<String, Collection<Mission>> missionsPerCountry = spaceScanner.getMissionsPerCountry();
@@ -284,4 +385,92 @@ class MJTSpaceScannerTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    void testAppendedMissionsAreSeenByLaterQueriesOnly() {
+        MJTSpaceScanner scanner = new MJTSpaceScanner(new StringReader(missionsInput),
+                new StringReader(rocketsInput), secretKey);
+        Collection<Mission> before = scanner.getAllMissions();
+        Mission appended = new Mission("4", "CASC", "Site 9401 (SLS-2), Jiuquan Satellite Launch Center, China",
+                LocalDate.of(2020, 8, 10), new Detail("Long March 2D", "Gaofen-9 05"), RocketStatus.STATUS_ACTIVE,
+                Optional.of(20.0), MissionStatus.SUCCESS);
+
+        scanner.append(appended);
+
+        assertEquals(4, before.size());
+        assertEquals(5, scanner.getAllMissions().size());
+        assertEquals(5, scanner.getAllMissions(MissionStatus.SUCCESS).size());
+        assertEquals(2, scanner.getMissionsPerCountry().get("China").size());
+        assertEquals("CASC", scanner.getCompanyWithMostSuccessfulMissions(LocalDate.of(2020, 8, 5),
+                LocalDate.of(2020, 8, 10)));
+        assertEquals(List.of(appended), scanner.getTopNLeastExpensiveMissions(1, MissionStatus.SUCCESS,
+                RocketStatus.STATUS_ACTIVE));
+        assertThrows(IllegalArgumentException.class, () -> scanner.append(null));
+    }
+
+    @Test
+    void testAppendCsvAddsAllMissionsOrNone() {
+        MJTSpaceScanner scanner = new MJTSpaceScanner(new StringReader(missionsInput),
+                new StringReader(rocketsInput), secretKey);
+        String header = "Unnamed: 0,Company Name,Location,Datum,Detail,Status Rocket,\" Rocket\",Status Mission\n";
+        String valid = "4,Rocket Lab,\"Rocket Lab LC-1A, Mahia Peninsula, New Zealand\",\"Sat Jul 04, 2020\"," +
+                "Electron/Curie | Pics Or It Didn't Happen,StatusActive,\"7.5 \",Failure\n";
+
+        assertThrows(IllegalArgumentException.class, () -> scanner.appendCsv(new StringReader(header + valid +
+                "5,SpaceX,Somewhere,\"Sat Jul 04, 2020\",no separator,StatusActive,,Success\n")));
+        assertEquals(4, scanner.getAllMissions().size());
+
+        scanner.appendCsv(new StringReader(header + valid));
+        assertEquals(5, scanner.getAllMissions().size());
+        assertEquals("Rocket Lab LC-1A, Mahia Peninsula, New Zealand",
+                scanner.getMostDesiredLocationForMissionsPerCompany().get("Rocket Lab"));
+        assertEquals(1, scanner.getAllMissions(MissionStatus.FAILURE).size());
+    }
+
+    @Test
+    void testQueriesDuringAppendsSeeOneSnapshot() throws InterruptedException {
+        MJTSpaceScanner scanner = new MJTSpaceScanner(new StringReader(missionsInput),
+                new StringReader(rocketsInput), secretKey);
+        int count = 2000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                scanner.append(new Mission(String.valueOf(4 + i), "CASC",
+                        "Site 9401 (SLS-2), Jiuquan Satellite Launch Center, China", LocalDate.of(2020, 8, 10),
+                        new Detail("Long March 2D", "Gaofen-9 05"), RocketStatus.STATUS_ACTIVE, Optional.of(20.0),
+                        MissionStatus.SUCCESS));
+            }
+        });
+        writer.start();
+        do {
+            Map<String, Collection<Mission>> perCountry = scanner.getMissionsPerCountry();
+            int total = perCountry.values().stream().mapToInt(Collection::size).sum();
+            assertEquals(2, perCountry.get("USA").size());
+            assertEquals(total - 3, perCountry.get("China").size(), "the groups come from different snapshots");
+
+            Collection<Mission> successes = scanner.getAllMissions(MissionStatus.SUCCESS);
+            int size = successes.size();
+            int index = 0;
+            for (Mission mission : successes) {
+                assertEquals(String.valueOf(index++), mission.id(), "a snapshot is missing a mission");
+            }
+            assertEquals(size, index, "a snapshot changed while it was read");
+        } while (writer.isAlive());
+        writer.join();
+
+        assertEquals(4 + count, scanner.getAllMissions().size());
+    }
+
+    @Test
+    void testLocationTiesGoToTheCompanysEarliestMission() {
+        String input = "Unnamed: 0,Company Name,Location,Datum,Detail,Status Rocket,\" Rocket\",Status Mission\n" +
+                "0,CASC,\"Site 9401, Jiuquan, China\",\"Mon Aug 03, 2020\",Long March 2D | A,StatusActive,,Success\n" +
+                "1,SpaceX,\"Pad A, Boca Chica, Texas, USA\",\"Tue Aug 04, 2020\",Starship | B,StatusActive,,Success\n" +
+                "2,SpaceX,\"Site 9401, Jiuquan, China\",\"Wed Aug 05, 2020\",Falcon 9 | C,StatusActive,,Success\n";
+        MJTSpaceScanner scanner = new MJTSpaceScanner(new StringReader(input), new StringReader(rocketsInput),
+                secretKey);
+
+        assertEquals("Pad A, Boca Chica, Texas, USA",
+                scanner.getMostDesiredLocationForMissionsPerCompany().get("SpaceX"));
+        assertEquals("Pad A, Boca Chica, Texas, USA", scanner.getLocationWithMostSuccessfulMissionsPerCompany(
+                LocalDate.of(2020, 8, 1), LocalDate.of(2020, 8, 31)).get("SpaceX"));
+    }
+}
@@ -8,7 +8,12 @@ import org.junit.jupiter.api.io.TempDir;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -135,4 +140,80 @@ class RijndaelTest {
             throw new RuntimeException("Error in test", e);
         }
     }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    void testDataSpanningSeveralSegmentsIsDecrypted() throws CipherException {
+        SecretKey secretKey = generateSecretKey();
+
+        for (int size : new int[] {0, 1, 1 << 16, (1 << 16) + 1, 3 * (1 << 16) + 12345}) {
+            byte[] original = randomBytes(size);
+            assertArrayEquals(original, performDecryption(performEncryption(original, secretKey), secretKey),
+                    "size " + size);
+        }
+    }
+
+    @Test
+    void testEveryEncryptionUsesItsOwnIv() throws CipherException {
+        SecretKey secretKey = generateSecretKey();
+        byte[] original = randomBytes(100);
+
+        assertFalse(Arrays.equals(performEncryption(original, secretKey), performEncryption(original, secretKey)));
+    }
+
+    @Test
+    void testEveryStreamIsSealedWithTheKeyOfItsSalt() throws CipherException {
+        SecretKey secretKey = generateSecretKey();
+        byte[] original = randomBytes(100);
+        byte[] first = performEncryption(original, secretKey);
+        byte[] second = performEncryption(original, secretKey);
+        System.arraycopy(second, 0, first, 0, 32);
+
+        assertThrows(CipherException.class, () -> performDecryption(first, secretKey),
+                "a stream must not decrypt with the salt of another one");
+    }
+
+    @Test
+    void testTamperedOrTruncatedDataIsRejected() throws CipherException {
+        SecretKey secretKey = generateSecretKey();
+        byte[] encrypted = performEncryption(randomBytes(3 * (1 << 16)), secretKey);
+        byte[] tampered = encrypted.clone();
+        tampered[tampered.length / 2] ^= 1;
+
+        assertThrows(CipherException.class, () -> performDecryption(tampered, secretKey));
+        assertThrows(CipherException.class,
+                () -> performDecryption(Arrays.copyOf(encrypted, encrypted.length - 1), secretKey));
+        assertThrows(CipherException.class,
+                () -> performDecryption(Arrays.copyOf(encrypted, 32 + 2 * ((1 << 16) + 16)), secretKey));
+        assertThrows(CipherException.class, () -> performDecryption(encrypted, generateSecretKey()));
+    }
+
+    @Test
+    void testEncryptionDecryptionWithFileChannels(@TempDir Path tempDir) throws IOException, CipherException {
+        SecretKey secretKey = generateSecretKey();
+        byte[] original = randomBytes(5 * (1 << 16) + 321);
+        Path inputFile = Files.write(tempDir.resolve("input.bin"), original);
+        Path encryptedFile = tempDir.resolve("encrypted.bin");
+        Path decryptedFile = tempDir.resolve("decrypted.bin");
+        Rijndael rijndael = new Rijndael(secretKey);
+
+        try (FileChannel source = FileChannel.open(inputFile);
+             FileChannel target = FileChannel.open(encryptedFile, StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.WRITE)) {
+            rijndael.encrypt(source, target);
+        }
+        try (FileChannel source = FileChannel.open(encryptedFile);
+             FileChannel target = FileChannel.open(decryptedFile, StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.WRITE)) {
+            rijndael.decrypt(source, target);
+        }
+
+        assertArrayEquals(original, readAllBytes(decryptedFile));
+        assertArrayEquals(original, performDecryption(readAllBytes(encryptedFile), secretKey));
+    }
 }
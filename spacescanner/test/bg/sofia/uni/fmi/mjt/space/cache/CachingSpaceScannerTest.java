@@ -0,0 +1,141 @@
+package bg.sofia.uni.fmi.mjt.space.cache;
+
+import bg.sofia.uni.fmi.mjt.space.MJTSpaceScanner;
+import bg.sofia.uni.fmi.mjt.space.mission.Detail;
+import bg.sofia.uni.fmi.mjt.space.mission.Mission;
+import bg.sofia.uni.fmi.mjt.space.mission.MissionStatus;
+import bg.sofia.uni.fmi.mjt.space.rocket.RocketStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CachingSpaceScannerTest {
+    private static final String MISSIONS = "Unnamed: 0,Company Name,Location,Datum,Detail,Status Rocket," +
+            "\" Rocket\",Status Mission\n" +
+            "0,SpaceX,\"LC-39A, Kennedy Space Center, Florida, USA\",\"Fri Aug 07, 2020\"," +
+            "Falcon 9 Block 5 | Starlink V1 L9 & BlackSky,StatusActive,\"50.0 \",Success\n" +
+            "1,CASC,\"Site 9401 (SLS-2), Jiuquan Satellite Launch Center, China\",\"Thu Aug 06, 2020\"," +
+            "Long March 2D | Gaofen-9 04 & Q-SAT,StatusActive,\"29.75 \",Success\n";
+    private static final String ROCKETS = "\"\",Name,Wiki,Rocket Height\n" +
+            "169,Falcon 9 Block 5,https://en.wikipedia.org/wiki/Falcon_9,70.0 m\n";
+
+    private MJTSpaceScanner scanner;
+
+    @BeforeEach
+    void setUp() {
+        scanner = new MJTSpaceScanner(new StringReader(MISSIONS), new StringReader(ROCKETS), null);
+    }
+
+    @Test
+    void testRepeatedQueriesAreAnsweredFromTheCache() {
+        CachingSpaceScanner cached = new CachingSpaceScanner(scanner, 10);
+        LocalDate from = LocalDate.of(2020, 1, 1);
+        LocalDate to = LocalDate.of(2020, 12, 31);
+
+        Map<String, Collection<Mission>> perCountry = cached.getMissionsPerCountry();
+        assertSame(perCountry, cached.getMissionsPerCountry());
+        assertEquals("SpaceX", cached.getCompanyWithMostSuccessfulMissions(from, to));
+        assertEquals("SpaceX", cached.getCompanyWithMostSuccessfulMissions(from, to));
+        assertEquals("", cached.getCompanyWithMostSuccessfulMissions(from, from));
+
+        assertEquals(new CacheStatistics(2, 3, 0, 0, 3), cached.statistics());
+        assertEquals(0.4, cached.statistics().hitRate());
+        assertEquals(scanner.getMissionsPerCountry(), perCountry);
+    }
+
+    @Test
+    void testAppendingInvalidatesTheCache() {
+        CachingSpaceScanner cached = new CachingSpaceScanner(scanner, 10);
+        assertEquals(2, cached.getAllMissions(MissionStatus.SUCCESS).size());
+
+        scanner.append(new Mission("2", "CASC", "Site 9401 (SLS-2), Jiuquan Satellite Launch Center, China",
+                LocalDate.of(2020, 8, 10), new Detail("Long March 2D", "Gaofen-9 05"), RocketStatus.STATUS_ACTIVE,
+                Optional.empty(), MissionStatus.SUCCESS));
+
+        assertEquals(3, cached.getAllMissions(MissionStatus.SUCCESS).size());
+        assertEquals(new CacheStatistics(0, 2, 0, 1, 1), cached.statistics());
+    }
+
+    @Test
+    void testAnyVersionChangeInvalidatesTheCache() {
+        AtomicLong version = new AtomicLong(5);
+        CachingSpaceScanner cached = new CachingSpaceScanner(scanner, version::get, 10);
+        cached.getAllRockets();
+
+        version.set(0);
+        cached.getAllRockets();
+        cached.getAllRockets();
+
+        assertEquals(new CacheStatistics(1, 2, 0, 1, 1), cached.statistics());
+    }
+
+    @Test
+    void testCollectionsOfOtherScannersAreCopied() {
+        List<Mission> missions = new ArrayList<>(scanner.getAllMissions());
+        MJTSpaceScanner mutable = new MJTSpaceScanner(new StringReader(MISSIONS), new StringReader(ROCKETS), null) {
+            @Override
+            public Collection<Mission> getAllMissions() {
+                return missions;
+            }
+        };
+        CachingSpaceScanner cached = new CachingSpaceScanner(mutable, () -> 0, 10);
+
+        Collection<Mission> result = cached.getAllMissions();
+        missions.clear();
+
+        assertEquals(2, result.size(), "a cached result must not follow the collection of the scanner");
+    }
+
+    @Test
+    void testLeastRecentlyUsedResultIsEvicted() {
+        CachingSpaceScanner cached = new CachingSpaceScanner(scanner, 2);
+
+        cached.getTopNTallestRockets(1);
+        cached.getTopNTallestRockets(2);
+        cached.getTopNTallestRockets(1);
+        cached.getTopNTallestRockets(3);
+        cached.getTopNTallestRockets(1);
+        cached.getTopNTallestRockets(2);
+
+        assertEquals(new CacheStatistics(2, 4, 2, 0, 2), cached.statistics());
+    }
+
+    @Test
+    void testResultsAreImmutable() {
+        CachingSpaceScanner cached = new CachingSpaceScanner(scanner, 10);
+
+        assertThrows(UnsupportedOperationException.class, () -> cached.getAllMissions().clear());
+        assertThrows(UnsupportedOperationException.class,
+                () -> cached.getMissionsPerCountry().get("USA").clear());
+        assertThrows(UnsupportedOperationException.class,
+                () -> cached.getMostDesiredLocationForMissionsPerCompany().clear());
+        assertThrows(UnsupportedOperationException.class, () -> cached.getTopNLeastExpensiveMissions(1,
+                MissionStatus.SUCCESS, RocketStatus.STATUS_ACTIVE).add(null));
+        assertEquals(List.of("https://en.wikipedia.org/wiki/Falcon_9"),
+                cached.getWikiPagesForRocketsUsedInMostExpensiveMissions(1, MissionStatus.SUCCESS,
+                        RocketStatus.STATUS_ACTIVE));
+    }
+
+    @Test
+    void testInvalidArgumentsAreNotCached() {
+        CachingSpaceScanner cached = new CachingSpaceScanner(scanner, 10);
+
+        assertThrows(IllegalArgumentException.class, () -> cached.getAllMissions(null));
+        assertThrows(IllegalArgumentException.class, () -> cached.getAllMissions(null));
+        assertEquals(0, cached.statistics().size());
+        assertThrows(IllegalArgumentException.class, () -> new CachingSpaceScanner(scanner, 0));
+        assertThrows(IllegalArgumentException.class, () -> new CachingSpaceScanner(null, 1));
+    }
+}
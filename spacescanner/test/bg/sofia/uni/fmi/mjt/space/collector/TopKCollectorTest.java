@@ -0,0 +1,64 @@
+package bg.sofia.uni.fmi.mjt.space.collector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TopKCollectorTest {
+    private record Item(int key, int position) {
+    }
+
+    private static final Comparator<Item> BY_KEY = Comparator.comparingInt(Item::key);
+
+    private static List<Item> items(int count, int keys) {
+        Random random = new Random(count);
+        return IntStream.range(0, count).mapToObj(i -> new Item(random.nextInt(keys), i)).toList();
+    }
+
+    @Test
+    void testCollectsTheSameAsSortAndLimit() {
+        List<Item> items = items(10_000, 1_000_000);
+
+        for (int n : new int[] {1, 7, 100, 9_999}) {
+            assertEquals(items.stream().sorted(BY_KEY).limit(n).toList(),
+                    items.stream().collect(TopKCollector.of(n, BY_KEY)));
+        }
+    }
+
+    @Test
+    void testTiesKeepTheirEncounterOrder() {
+        List<Item> items = items(5_000, 10);
+
+        assertEquals(items.stream().sorted(BY_KEY.reversed()).limit(1_234).toList(),
+                items.stream().collect(TopKCollector.of(1_234, BY_KEY.reversed())));
+    }
+
+    @Test
+    void testParallelStreamMergesToTheSameResult() {
+        List<Item> items = items(200_000, 50);
+
+        assertEquals(items.stream().sorted(BY_KEY).limit(5_000).toList(),
+                items.parallelStream().collect(TopKCollector.of(5_000, BY_KEY)));
+    }
+
+    @Test
+    void testLimitGreaterThanTheElementsKeepsThemAll() {
+        List<Item> items = items(30, 5);
+
+        assertEquals(items.stream().sorted(BY_KEY).toList(),
+                items.stream().collect(TopKCollector.of(Integer.MAX_VALUE, BY_KEY)));
+        assertEquals(List.of(), items.stream().limit(0).collect(TopKCollector.of(3, BY_KEY)));
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> TopKCollector.of(0, BY_KEY));
+        assertThrows(IllegalArgumentException.class, () -> TopKCollector.<Item>of(1, null));
+    }
+}
@@ -0,0 +1,94 @@
+package bg.sofia.uni.fmi.mjt.space.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvTokenizerTest {
+    private static List<String[]> records(String input, int chunkSize) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        try (CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(input), chunkSize)) {
+            while (tokenizer.next()) {
+                records.add(tokenizer.fields());
+            }
+        }
+        return records;
+    }
+
+    @Test
+    void testQuotedFieldsKeepCommasQuotesAndLineBreaks() throws IOException {
+        String input = "0,SpaceX,\"LC-39A, Kennedy Space Center, Florida, USA\",\"Fri Aug 07, 2020\"\r\n"
+                + "1,\"say \"\"hi\"\"\",\"two\nlines\",\n";
+
+        for (int chunkSize = 1; chunkSize <= input.length(); chunkSize++) {
+            List<String[]> records = records(input, chunkSize);
+
+            assertEquals(2, records.size());
+            assertArrayEquals(new String[] {"0", "SpaceX", "LC-39A, Kennedy Space Center, Florida, USA",
+                "Fri Aug 07, 2020"}, records.get(0), "chunk size " + chunkSize);
+            assertArrayEquals(new String[] {"1", "say \"hi\"", "two\nlines", ""}, records.get(1),
+                    "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    void testTrailingEmptyFieldsAreKept() throws IOException {
+        assertArrayEquals(new String[] {"169", "Falcon 9", "", ""}, records("169,Falcon 9,,", 16).get(0));
+    }
+
+    @Test
+    void testEmptyLinesAreSkipped() throws IOException {
+        List<String[]> records = records("\na,b\n\r\n\nc\n\n", 4);
+
+        assertEquals(2, records.size());
+        assertArrayEquals(new String[] {"c"}, records.get(1));
+    }
+
+    @Test
+    void testUnterminatedQuoteIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> records("a,\"b\nc", 16));
+    }
+
+    @Test
+    void testDecimalSkipsEverythingButDigitsAndThePoint() throws IOException {
+        CsvTokenizer tokenizer =
+                new CsvTokenizer(new StringReader("\"5,000.0 \",29.75 ,70.0 m,7,1234567890.123456789,,1.2.3"));
+        assertTrue(tokenizer.next());
+
+        assertEquals(5000.0, tokenizer.decimal(0));
+        assertEquals(29.75, tokenizer.decimal(1));
+        assertEquals(70.0, tokenizer.decimal(2));
+        assertEquals(7.0, tokenizer.decimal(3));
+        assertEquals(1234567890.123456789, tokenizer.decimal(4));
+        assertTrue(tokenizer.isBlank(5));
+        assertFalse(tokenizer.isBlank(6));
+        assertThrows(NumberFormatException.class, () -> tokenizer.decimal(5));
+        assertThrows(NumberFormatException.class, () -> tokenizer.decimal(6));
+    }
+
+    @Test
+    void testDecimalMatchesParseDouble() throws IOException {
+        StringBuilder input = new StringBuilder();
+        List<String> numbers = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            String number = (i * 7919L) / 100 + "." + String.format("%02d", (i * 31) % 100);
+            numbers.add(number);
+            input.append(number).append(',');
+        }
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(input.toString()));
+        assertTrue(tokenizer.next());
+
+        for (int i = 0; i < numbers.size(); i++) {
+            assertEquals(Double.parseDouble(numbers.get(i)), tokenizer.decimal(i), numbers.get(i));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package bg.sofia.uni.fmi.mjt.space.csv;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelCsvLoaderTest {
+    private static ForkJoinPool pool;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        pool.shutdown();
+    }
+
+    private static List<String> records(CsvTokenizer tokenizer) {
+        List<String> records = new ArrayList<>();
+        try {
+            while (tokenizer.next()) {
+                records.add(Arrays.toString(tokenizer.fields()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return records;
+    }
+
+    private static String input() {
+        StringBuilder input = new StringBuilder("id,name,note\n");
+        for (int i = 0; i < 300; i++) {
+            input.append(i).append(",\"Łуна, ").append(i).append("\",");
+            switch (i % 3) {
+                case 0 -> input.append("\"two\nlines with \"\"quotes\"\"\"");
+                case 1 -> input.append("plain");
+                default -> input.append("\"\"");
+            }
+            input.append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        return input.toString();
+    }
+
+    @Test
+    void testChunksSplitOnlyBetweenRecords() throws IOException {
+        String input = input();
+        Path file = tempDir.resolve("input.csv");
+        Files.writeString(file, input, StandardCharsets.UTF_8);
+        CsvTokenizer sequential = new CsvTokenizer(new StringReader(input));
+        sequential.next();
+        List<String> expected = records(sequential);
+
+        for (int chunkSize : new int[] {1, 7, 64, 1000, 1 << 20}) {
+            List<List<String>> chunks = new ParallelCsvLoader(pool, chunkSize)
+                    .load(file, ParallelCsvLoaderTest::records);
+
+            assertEquals(expected, chunks.stream().flatMap(List::stream).toList(), "chunk size " + chunkSize);
+            assertTrue(chunkSize > input.length() || chunks.size() > 1);
+        }
+    }
+
+    @Test
+    void testFileWithOnlyAHeaderHasNoRecords() throws IOException {
+        Path file = tempDir.resolve("empty.csv");
+        Files.writeString(file, "id,name");
+
+        List<List<String>> chunks = new ParallelCsvLoader(pool, 1).load(file, ParallelCsvLoaderTest::records);
+
+        assertTrue(chunks.stream().allMatch(List::isEmpty));
+    }
+
+    @Test
+    void testParserFailuresArePassedOn() throws IOException {
+        Path file = tempDir.resolve("input.csv");
+        Files.writeString(file, input());
+        ParallelCsvLoader loader = new ParallelCsvLoader(pool, 64);
+
+        assertThrows(IllegalStateException.class, () -> loader.load(file, records -> {
+            throw new IllegalStateException("bad chunk");
+        }));
+        assertThrows(IOException.class, () -> loader.load(tempDir.resolve("missing.csv"), records -> 0));
+    }
+}
@@ -0,0 +1,138 @@
+package bg.sofia.uni.fmi.mjt.space.mission;
+
+import bg.sofia.uni.fmi.mjt.space.rocket.RocketStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MissionColumnsTest {
+    private static Mission mission(int i) {
+        return new Mission(String.valueOf(i), i % 2 == 0 ? "SpaceX" : "CASC",
+                i % 3 == 0 ? "Pad A, Boca Chica, Texas, USA" : "Site 9401, Jiuquan, China",
+                LocalDate.of(1957, 10, 4).plusDays(i * 17L),
+                new Detail(i % 5 == 0 ? "Falcon 9" : "Long March 2D", "Payload №" + i),
+                i % 4 == 0 ? RocketStatus.STATUS_RETIRED : RocketStatus.STATUS_ACTIVE,
+                i % 7 == 0 ? Optional.empty() : Optional.of(i * 1.25),
+                MissionStatus.values()[i % MissionStatus.values().length]);
+    }
+
+    @Test
+    void testRowsAreRebuiltAsTheMissionsThatWereAdded() {
+        MissionColumns columns = new MissionColumns();
+        List<Mission> added = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            added.add(mission(i));
+            columns.add(added.get(i));
+        }
+        columns.trim();
+
+        assertEquals(added, columns.asList());
+        assertFalse(columns.hasCost(0));
+        assertTrue(columns.hasCost(199));
+        assertEquals(199 * 1.25, columns.cost(199));
+    }
+
+    @Test
+    void testRepeatedValuesShareTheirDictionaryIds() {
+        MissionColumns columns = new MissionColumns();
+        for (int i = 0; i < 12; i++) {
+            columns.add(mission(i));
+        }
+
+        assertEquals(2, columns.companyCount());
+        assertEquals(2, columns.locationCount());
+        assertEquals(2, columns.countryCount());
+        assertEquals(columns.companyId(0), columns.companyId(10));
+        assertEquals("USA", columns.country(columns.countryId(3)));
+        assertEquals("China", columns.country(columns.countryId(1)));
+        assertEquals(-1, columns.findRocketName("Soyuz"));
+        assertEquals(columns.rocketNameId(5), columns.findRocketName("Falcon 9"));
+    }
+
+    @Test
+    void testStatusesAreMatchedWithoutDecoding() {
+        MissionColumns columns = new MissionColumns();
+        columns.add(mission(1));
+
+        assertTrue(columns.hasStatus(0, MissionStatus.FAILURE));
+        assertFalse(columns.hasStatus(0, MissionStatus.SUCCESS));
+        assertTrue(columns.hasStatus(0, RocketStatus.STATUS_ACTIVE));
+    }
+
+    @Test
+    void testMergedStoresKeepTheRowsInOrder() {
+        MissionColumns merged = new MissionColumns();
+        List<Mission> added = new ArrayList<>();
+        for (int chunk = 0; chunk < 3; chunk++) {
+            MissionColumns columns = new MissionColumns();
+            for (int i = chunk * 70; i < chunk * 70 + 70; i++) {
+                added.add(mission(i));
+                columns.add(mission(i));
+            }
+            merged.addAll(columns);
+        }
+        merged.addAll(new MissionColumns());
+
+        assertEquals(added, merged.asList());
+        assertEquals(2, merged.companyCount());
+        assertEquals(2, merged.countryCount());
+    }
+
+    @Test
+    void testViewsKeepTheirRowsAndAreUnmodifiable() {
+        MissionColumns columns = new MissionColumns();
+        for (int i = 0; i < 10; i++) {
+            columns.add(mission(i));
+        }
+        List<Mission> all = columns.asList();
+        List<Mission> some = columns.asList(new int[] {7, 2, 9}, 2);
+        for (int i = 10; i < 100; i++) {
+            columns.add(mission(i));
+        }
+
+        assertEquals(10, all.size());
+        assertEquals(List.of(mission(7), mission(2)), some);
+        assertThrows(IndexOutOfBoundsException.class, () -> some.get(2));
+        assertThrows(UnsupportedOperationException.class, () -> all.add(mission(0)));
+    }
+
+    @Test
+    void testSnapshotsKeepTheRowsAndDictionariesOfTheirTime() {
+        MissionColumns columns = new MissionColumns();
+        for (int i = 0; i < 10; i++) {
+            columns.add(mission(i));
+        }
+        MissionColumns snapshot = columns.snapshot();
+        columns.add(new Mission("x", "Roscosmos", "Site 200/39, Baikonur Cosmodrome, Kazakhstan",
+                LocalDate.of(2020, 7, 30), new Detail("Proton-M", "Ekspress"), null, Optional.empty(), null));
+        for (int i = 10; i < 100; i++) {
+            columns.add(mission(i));
+        }
+
+        assertEquals(10, snapshot.size());
+        assertEquals(columns.asList().subList(0, 10), snapshot.asList());
+        assertEquals(2, snapshot.companyCount());
+        assertEquals(-1, snapshot.findRocketName("Proton-M"));
+        assertEquals(3, columns.companyCount());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add(mission(0)));
+    }
+
+    @Test
+    void testInvalidMissionIsRejectedWithoutAddingARow() {
+        MissionColumns columns = new MissionColumns();
+        columns.add(mission(0));
+
+        assertThrows(IllegalArgumentException.class, () -> columns.add(new Mission("1", "CASC", null,
+                LocalDate.of(2020, 8, 6), new Detail("Long March 2D", "Gaofen"), null, Optional.empty(), null)));
+        columns.add(mission(1));
+        assertEquals(List.of(mission(0), mission(1)), columns.asList());
+    }
+}
@@ -0,0 +1,102 @@
+package bg.sofia.uni.fmi.mjt.space.mission;
+
+import bg.sofia.uni.fmi.mjt.space.rocket.RocketStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SuccessfulMissionIndexTest {
+    private static final int COMPANIES = 5;
+    private static final int LOCATIONS = 7;
+    private static final int DAYS = 400;
+
+    private static Mission randomMission(Random random, int i) {
+        return new Mission(String.valueOf(i), "company-" + random.nextInt(COMPANIES),
+                "site " + random.nextInt(LOCATIONS) + ", country", LocalDate.ofEpochDay(random.nextInt(DAYS)),
+                new Detail("rocket", "payload"), RocketStatus.STATUS_ACTIVE, Optional.empty(),
+                MissionStatus.values()[random.nextInt(MissionStatus.values().length)]);
+    }
+
+    @Test
+    void testRangeQueriesMatchAScanOverAllMissions() {
+        Random random = new Random(17);
+        MissionColumns missions = new MissionColumns();
+        for (int i = 0; i < 3000; i++) {
+            missions.add(randomMission(random, i));
+        }
+        SuccessfulMissionIndex index = new SuccessfulMissionIndex(missions);
+        int[][] firstSuccesses = new int[missions.companyCount()][missions.locationCount()];
+        for (int[] rows : firstSuccesses) {
+            Arrays.fill(rows, Integer.MAX_VALUE);
+        }
+        for (int row = missions.size() - 1; row >= 0; row--) {
+            if (missions.hasStatus(row, MissionStatus.SUCCESS)) {
+                firstSuccesses[missions.companyId(row)][missions.locationId(row)] = row;
+            }
+        }
+
+        for (int query = 0; query < 200; query++) {
+            int from = random.nextInt(DAYS + 20) - 10;
+            int to = from + random.nextInt(DAYS / 2);
+            int[][] counts = new int[missions.companyCount()][missions.locationCount()];
+            int[] perCompany = new int[missions.companyCount()];
+            for (int row = 0; row < missions.size(); row++) {
+                if (missions.hasStatus(row, MissionStatus.SUCCESS)
+                        && missions.epochDay(row) >= from && missions.epochDay(row) <= to) {
+                    counts[missions.companyId(row)][missions.locationId(row)]++;
+                    perCompany[missions.companyId(row)]++;
+                }
+            }
+            int[] best = new int[missions.companyCount()];
+            for (int company = 0; company < best.length; company++) {
+                best[company] = -1;
+                for (int location = 0; location < missions.locationCount(); location++) {
+                    int bestCount = best[company] < 0 ? 0 : counts[company][best[company]];
+                    if (counts[company][location] > bestCount || counts[company][location] > 0
+                            && counts[company][location] == bestCount
+                            && firstSuccesses[company][location] < firstSuccesses[company][best[company]]) {
+                        best[company] = location;
+                    }
+                }
+            }
+
+            assertArrayEquals(perCompany, index.countPerCompany(from, to), "from " + from + " to " + to);
+            assertArrayEquals(best, index.mostSuccessfulLocationPerCompany(from, to), "from " + from + " to " + to);
+        }
+    }
+
+    @Test
+    void testUpdatesMatchARebuiltIndexAndLeaveSnapshotsAsTheyWere() {
+        Random random = new Random(23);
+        MissionColumns missions = new MissionColumns();
+        for (int i = 0; i < 1000; i++) {
+            missions.add(randomMission(random, i));
+        }
+        SuccessfulMissionIndex index = new SuccessfulMissionIndex(missions);
+        SuccessfulMissionIndex snapshot = index.snapshot();
+        SuccessfulMissionIndex rebuiltBefore = new SuccessfulMissionIndex(missions.snapshot());
+        for (int batch = 0; batch < 20; batch++) {
+            for (int i = 0; i < 1 + batch * 7; i++) {
+                missions.add(randomMission(random, missions.size()));
+            }
+            index.update();
+        }
+        SuccessfulMissionIndex rebuilt = new SuccessfulMissionIndex(missions);
+
+        for (int query = 0; query < 100; query++) {
+            int from = random.nextInt(DAYS);
+            int to = from + random.nextInt(DAYS / 2);
+            assertArrayEquals(rebuilt.countPerCompany(from, to), index.countPerCompany(from, to));
+            assertArrayEquals(rebuilt.mostSuccessfulLocationPerCompany(from, to),
+                    index.mostSuccessfulLocationPerCompany(from, to));
+            assertArrayEquals(rebuiltBefore.countPerCompany(from, to), snapshot.countPerCompany(from, to));
+        }
+        assertThrows(UnsupportedOperationException.class, snapshot::update);
+    }
+}